@@ -139,6 +139,9 @@ public abstract class Config extends ElasticsearchConfig {
 	@Autowired
 	private MRCMLoader mrcmLoader;
 
+	@Autowired
+	private ConceptService conceptService;
+
 	@Autowired
 	private ECLPreprocessingService eclPreprocessingService;
 
@@ -159,6 +162,7 @@ public abstract class Config extends ElasticsearchConfig {
 		branchService.addCommitListener(integrityService);
 		branchService.addCommitListener(multiSearchService);
 		branchService.addCommitListener(eclPreprocessingService);
+		branchService.addCommitListener(conceptService::evictConceptMinis);
 		branchService.addCommitListener(commitServiceHookClient);
 		branchService.addCommitListener(traceabilityLogService);
 		branchService.addCommitListener(BranchMetadataHelper::clearTransientMetadata);
@@ -52,6 +52,23 @@ public class ConceptMini implements Serializable {
 		}
 	}
 
+	/**
+	 * Copies the fields of another mini. Description objects are shared.
+	 */
+	public ConceptMini(ConceptMini conceptMini) {
+		conceptId = conceptMini.conceptId;
+		effectiveTime = conceptMini.effectiveTime;
+		activeDescriptions = new HashSet<>(conceptMini.activeDescriptions);
+		requestedLanguageDialects = conceptMini.requestedLanguageDialects;
+		definitionStatusId = conceptMini.definitionStatusId;
+		leafInferred = conceptMini.leafInferred;
+		leafStated = conceptMini.leafStated;
+		descendantCount = conceptMini.descendantCount;
+		moduleId = conceptMini.moduleId;
+		active = conceptMini.active;
+		extraFields = conceptMini.extraFields != null ? new HashMap<>(conceptMini.extraFields) : null;
+	}
+
 	public ConceptMini addActiveDescription(Description fsn) {
 		activeDescriptions.add(fsn);
 		return this;
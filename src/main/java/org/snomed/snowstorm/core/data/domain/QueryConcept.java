@@ -32,6 +32,8 @@ public class QueryConcept extends DomainEntity<QueryConcept> implements FHIRGrap
 		String ATTR_MAP = "attrMap";
 		String START = "start";
 		String REFSETS = "refsets";
+		String CHILD_COUNT = "childCount";
+		String DESCENDANT_COUNT = "descendantCount";
 	}
 
 	@Field(type = FieldType.Keyword)
@@ -61,6 +63,13 @@ public class QueryConcept extends DomainEntity<QueryConcept> implements FHIRGrap
 	@Field(type = FieldType.Long)
 	private Set<Long> refsets;
 
+	// Counts within the same form. Null in documents saved before the counts were kept, until the semantic index is rebuilt.
+	@Field(type = FieldType.Integer)
+	private Integer childCount;
+
+	@Field(type = FieldType.Integer)
+	private Integer descendantCount;
+
 	@Transient
 	private Map<Integer, Map<String, List<Object>>> groupedAttributesMap;
 
@@ -88,6 +97,8 @@ public class QueryConcept extends DomainEntity<QueryConcept> implements FHIRGrap
 		attrMap = queryConcept.attrMap;
 		serializeGroupedAttributesMap();// Populates attr field
 		refsets = queryConcept.refsets;
+		childCount = queryConcept.childCount;
+		descendantCount = queryConcept.descendantCount;
 	}
 
 	public void clearAttributes() {
@@ -243,7 +254,9 @@ public class QueryConcept extends DomainEntity<QueryConcept> implements FHIRGrap
 		if (!this.equals(other)
 				|| !this.getParents().equals(other.getParents())
 				|| !this.getAncestors().equals(other.getAncestors())
-				|| !Objects.equals(this.getRefsets(), other.getRefsets())) {
+				|| !Objects.equals(this.getRefsets(), other.getRefsets())
+				|| !Objects.equals(this.childCount, other.childCount)
+				|| !Objects.equals(this.descendantCount, other.descendantCount)) {
 			return false;
 		}
 		final Map<Integer, Map<String, List<Object>>> groupedAttributesMap = orEmpty(this.getGroupedAttributesMap());
@@ -274,6 +287,36 @@ public class QueryConcept extends DomainEntity<QueryConcept> implements FHIRGrap
 		this.refsets = refsets;
 	}
 
+	public Integer getChildCount() {
+		return childCount;
+	}
+
+	public void setChildCount(Integer childCount) {
+		this.childCount = childCount;
+	}
+
+	public Integer getDescendantCount() {
+		return descendantCount;
+	}
+
+	public void setDescendantCount(Integer descendantCount) {
+		this.descendantCount = descendantCount;
+	}
+
+	/**
+	 * Adds the differences to the counts. Counts which are not known stay unknown.
+	 * @return true if either count is known
+	 */
+	public boolean changeCounts(int childCountChange, int descendantCountChange) {
+		if (childCount != null) {
+			childCount += childCountChange;
+		}
+		if (descendantCount != null) {
+			descendantCount += descendantCountChange;
+		}
+		return childCount != null || descendantCount != null;
+	}
+
 	@Override
 	public String toString() {
 		return "QueryConcept{" +
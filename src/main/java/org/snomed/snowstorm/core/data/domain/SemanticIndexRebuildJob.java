@@ -0,0 +1,181 @@
+package org.snomed.snowstorm.core.data.domain;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.elasticsearch.annotations.Document;
+
+import java.util.Date;
+import java.util.UUID;
+
+/**
+ * Progress of a complete semantic index rebuild which is saved in parts.
+ * The checkpoint is the highest concept id saved in the current form, an interrupted rebuild continues after it.
+ * The branch head at the checkpoint is also kept, if the branch has changed since then the rebuild must start again.
+ */
+@Document(indexName = "#{@indexNameProvider.indexName('semantic-index-rebuild-job')}", createIndex = false)
+public class SemanticIndexRebuildJob {
+
+	@Id
+	private String id;
+	private String branchPath;
+	private JobStatus status;
+	private Date startDate;
+	private Date endDate;
+	private String message;
+	private String form;
+	private Long checkpointConceptId;
+	private Long branchHeadTimestamp;
+	private long conceptsTotal;
+	private long conceptsProcessed;
+	private long conceptsSaved;
+	private Date runStartDate;
+	private long runConceptsProcessed;
+
+	public SemanticIndexRebuildJob() {
+	}
+
+	public SemanticIndexRebuildJob(String branchPath) {
+		id = UUID.randomUUID().toString();
+		this.branchPath = branchPath;
+		status = JobStatus.SCHEDULED;
+		startDate = new Date();
+	}
+
+	/**
+	 * Starts a new run of the job, throughput is measured from here.
+	 */
+	public void startRun() {
+		status = JobStatus.IN_PROGRESS;
+		message = null;
+		endDate = null;
+		runStartDate = new Date();
+		runConceptsProcessed = 0;
+	}
+
+	public void checkpoint(Form form, Long checkpointConceptId, long conceptsProcessed, long conceptsSaved) {
+		this.form = form.getName();
+		this.checkpointConceptId = checkpointConceptId;
+		this.conceptsProcessed += conceptsProcessed;
+		this.runConceptsProcessed += conceptsProcessed;
+		this.conceptsSaved += conceptsSaved;
+	}
+
+	/**
+	 * Clears the progress of all forms so that they are rebuilt from the start.
+	 */
+	public void restart() {
+		form = null;
+		checkpointConceptId = null;
+		conceptsTotal = 0;
+		conceptsProcessed = 0;
+	}
+
+	public Long getCheckpointConceptId(Form form) {
+		return form.getName().equals(this.form) ? checkpointConceptId : null;
+	}
+
+	/**
+	 * @return true if all concepts of the form have already been saved.
+	 */
+	public boolean isFormComplete(Form form) {
+		if (this.form == null) {
+			return false;
+		}
+		if (form == Form.STATED && this.form.equals(Form.INFERRED.getName())) {
+			// The stated form is saved first
+			return true;
+		}
+		return form.getName().equals(this.form) && checkpointConceptId != null && checkpointConceptId == Long.MAX_VALUE;
+	}
+
+	public Double getConceptsPerSecond() {
+		if (runStartDate == null || status != JobStatus.IN_PROGRESS) {
+			return null;
+		}
+		long millis = System.currentTimeMillis() - runStartDate.getTime();
+		return millis > 0 ? runConceptsProcessed * 1000d / millis : null;
+	}
+
+	public Long getEstimatedSecondsRemaining() {
+		Double conceptsPerSecond = getConceptsPerSecond();
+		if (conceptsPerSecond == null || conceptsPerSecond == 0 || conceptsTotal == 0) {
+			return null;
+		}
+		return Math.round(Math.max(0, conceptsTotal - conceptsProcessed) / conceptsPerSecond);
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public String getBranchPath() {
+		return branchPath;
+	}
+
+	public JobStatus getStatus() {
+		return status;
+	}
+
+	public void setStatus(JobStatus status) {
+		this.status = status;
+	}
+
+	public Date getStartDate() {
+		return startDate;
+	}
+
+	public Date getEndDate() {
+		return endDate;
+	}
+
+	public void setEndDate(Date endDate) {
+		this.endDate = endDate;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+
+	public void setMessage(String message) {
+		this.message = message;
+	}
+
+	public String getForm() {
+		return form;
+	}
+
+	public Long getCheckpointConceptId() {
+		return checkpointConceptId;
+	}
+
+	public Long getBranchHeadTimestamp() {
+		return branchHeadTimestamp;
+	}
+
+	public void setBranchHeadTimestamp(Long branchHeadTimestamp) {
+		this.branchHeadTimestamp = branchHeadTimestamp;
+	}
+
+	public long getConceptsTotal() {
+		return conceptsTotal;
+	}
+
+	public void setConceptsTotal(long conceptsTotal) {
+		this.conceptsTotal = conceptsTotal;
+	}
+
+	public long getConceptsProcessed() {
+		return conceptsProcessed;
+	}
+
+	public long getConceptsSaved() {
+		return conceptsSaved;
+	}
+
+	public Date getRunStartDate() {
+		return runStartDate;
+	}
+
+	public long getRunConceptsProcessed() {
+		return runConceptsProcessed;
+	}
+}
@@ -0,0 +1,13 @@
+package org.snomed.snowstorm.core.data.repositories;
+
+import org.snomed.snowstorm.core.data.domain.JobStatus;
+import org.snomed.snowstorm.core.data.domain.SemanticIndexRebuildJob;
+import org.springframework.data.elasticsearch.repository.ElasticsearchRepository;
+
+import java.util.Collection;
+import java.util.List;
+
+public interface SemanticIndexRebuildJobRepository extends ElasticsearchRepository<SemanticIndexRebuildJob, String> {
+
+	List<SemanticIndexRebuildJob> findByBranchPathAndStatusIn(String branchPath, Collection<JobStatus> statuses);
+}
@@ -308,6 +308,13 @@ public class CodeSystemService {
 		return versionToUpdate;
 	}
 
+	/**
+	 * @return true if the last part of the branch path is a code system version date, for example MAIN/2024-01-01.
+	 */
+	public static boolean isVersionBranch(String branchPath) {
+		return branchPath != null && VERSION_BRANCH_NAME_PATTERN.matcher(branchPath.substring(branchPath.lastIndexOf("/") + 1)).matches();
+	}
+
 	private String getHyphenatedVersionString(Integer effectiveDate) {
 		String effectiveDateString = effectiveDate.toString();
 		return effectiveDateString.substring(0, 4) + "-" + effectiveDateString.substring(4, 6) + "-" + effectiveDateString.substring(6, 8);
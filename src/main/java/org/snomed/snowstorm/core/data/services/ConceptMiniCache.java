@@ -0,0 +1,137 @@
+package org.snomed.snowstorm.core.data.services;
+
+import org.snomed.snowstorm.core.data.domain.ConceptMini;
+import org.snomed.snowstorm.core.pojo.LanguageDialect;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Size bounded store of concept minis across all branches, keyed by branch path, head timepoint, concept id and requested language dialects.
+ * When the number of entries goes over the configured limit the least recently used entries are evicted.
+ * Entries of earlier heads of a branch are dropped when the branch moves on, either by a commit or when minis of a newer head are stored.
+ * <p>
+ * Minis are copied on the way in and out because callers add leaf flags, descendant counts and extra fields to the minis they are given.
+ */
+public class ConceptMiniCache {
+
+	private static final int MAX_EMPTY_BRANCHES = 1_000;
+
+	private final int maxSize;
+
+	// Access ordered so that iteration starts with the least recently used entry. All access must be synchronized on this map.
+	private final LinkedHashMap<CacheKey, ConceptMini> entries;
+
+	// Latest head seen for each branch, guarded by the lock on entries
+	private final Map<String, Long> branchHeads;
+
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+	private final AtomicLong evictionCount = new AtomicLong();
+
+	/**
+	 * @param maxSize the maximum number of minis held across all branches
+	 */
+	public ConceptMiniCache(int maxSize) {
+		this.maxSize = maxSize;
+		entries = new LinkedHashMap<>(1_000, 0.75f, true);
+		branchHeads = new HashMap<>();
+	}
+
+	/**
+	 * @return copies of the cached minis, by concept id. Concepts not cached are missing from the map.
+	 */
+	public Map<String, ConceptMini> getAll(String path, long head, Collection<String> conceptIds, List<LanguageDialect> languageDialects) {
+		Map<String, ConceptMini> found = new HashMap<>();
+		List<LanguageDialect> dialectsKey = List.copyOf(languageDialects);
+		synchronized (entries) {
+			for (String conceptId : conceptIds) {
+				ConceptMini conceptMini = entries.get(new CacheKey(path, head, conceptId, dialectsKey));
+				if (conceptMini != null) {
+					found.put(conceptId, conceptMini);
+				}
+			}
+		}
+		hitCount.addAndGet(found.size());
+		missCount.addAndGet(conceptIds.size() - found.size());
+		found.replaceAll((conceptId, conceptMini) -> new ConceptMini(conceptMini));
+		return found;
+	}
+
+	public void putAll(String path, long head, Collection<ConceptMini> conceptMinis, List<LanguageDialect> languageDialects) {
+		if (conceptMinis.isEmpty()) {
+			return;
+		}
+		List<ConceptMini> copies = conceptMinis.stream().map(ConceptMini::new).toList();
+		List<LanguageDialect> dialectsKey = List.copyOf(languageDialects);
+		synchronized (entries) {
+			if (!moveBranchHead(path, head)) {
+				// Branch has moved on since these minis were loaded
+				return;
+			}
+			for (ConceptMini copy : copies) {
+				entries.put(new CacheKey(path, head, copy.getConceptId(), dialectsKey), copy);
+			}
+
+			Iterator<CacheKey> iterator = entries.keySet().iterator();
+			while (entries.size() > maxSize && iterator.hasNext()) {
+				iterator.next();
+				iterator.remove();
+				evictionCount.incrementAndGet();
+			}
+			if (branchHeads.size() > entries.size() + MAX_EMPTY_BRANCHES) {
+				// Forget branches which no longer have any entries
+				Set<String> paths = new HashSet<>();
+				entries.keySet().forEach(cacheKey -> paths.add(cacheKey.path));
+				branchHeads.keySet().retainAll(paths);
+			}
+		}
+	}
+
+	/**
+	 * Drops the minis of earlier heads of the branch, called when a commit moves the branch head.
+	 */
+	public void branchHeadMoved(String path, long head) {
+		synchronized (entries) {
+			if (branchHeads.containsKey(path)) {
+				moveBranchHead(path, head);
+			}
+		}
+	}
+
+	// Must hold lock on entries
+	private boolean moveBranchHead(String path, long head) {
+		Long branchHead = branchHeads.get(path);
+		if (branchHead != null && branchHead > head) {
+			return false;
+		}
+		if (branchHead != null && branchHead < head) {
+			entries.keySet().removeIf(cacheKey -> cacheKey.path.equals(path));
+		}
+		branchHeads.put(path, head);
+		return true;
+	}
+
+	public Map<String, Long> getStats() {
+		Map<String, Long> stats = new LinkedHashMap<>();
+		synchronized (entries) {
+			stats.put("size", (long) entries.size());
+			stats.put("branches", (long) branchHeads.size());
+		}
+		stats.put("max-size", (long) maxSize);
+		stats.put("hits", hitCount.get());
+		stats.put("misses", missCount.get());
+		stats.put("evictions", evictionCount.get());
+		return stats;
+	}
+
+	public void clear() {
+		synchronized (entries) {
+			entries.clear();
+			branchHeads.clear();
+		}
+	}
+
+	private record CacheKey(String path, long head, String conceptId, List<LanguageDialect> languageDialects) {
+	}
+}
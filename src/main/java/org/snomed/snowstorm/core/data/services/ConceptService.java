@@ -27,6 +27,7 @@ import org.snomed.snowstorm.core.pojo.LanguageDialect;
 import org.snomed.snowstorm.core.util.PageHelper;
 import org.snomed.snowstorm.core.util.TimerUtil;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Lazy;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
@@ -64,6 +65,10 @@ public class ConceptService extends ComponentService {
 
 	private static final Map<ComponentType, Class<? extends DomainEntity<?>>> COMPONENT_DOCUMENT_TYPES = new EnumMap<>(ComponentType.class);
 
+	// Concept fields used by concept minis, path and start are only used to report duplicates
+	private static final String[] CONCEPT_MINI_FIELDS = {Concept.Fields.CONCEPT_ID, Concept.Fields.ACTIVE, Concept.Fields.DEFINITION_STATUS_ID,
+			Concept.Fields.MODULE_ID, Concept.Fields.EFFECTIVE_TIME, Concept.Fields.PATH, Concept.Fields.START};
+
 	static {
 		COMPONENT_DOCUMENT_TYPES.put(ComponentType.Concept, Concept.class);
 		COMPONENT_DOCUMENT_TYPES.put(ComponentType.Description, Description.class);
@@ -114,6 +119,9 @@ public class ConceptService extends ComponentService {
 	@Autowired
 	private ElasticsearchOperations elasticsearchOperations;
 
+	@Autowired
+	private SlicedSearchService slicedSearchService;
+
 	@Autowired
 	@Lazy
 	private CodeSystemService codeSystemService;
@@ -131,10 +139,13 @@ public class ConceptService extends ComponentService {
 
 	private final Cache<BranchTimepoint, BranchCriteria> branchCriteriaCache = CacheBuilder.newBuilder().expireAfterAccess(Duration.ofDays(1)).build();
 
+	private final ConceptMiniCache conceptMiniCache;
+
 	private final Logger logger = LoggerFactory.getLogger(getClass());
 
-	public ConceptService() {
+	public ConceptService(@Value("${cache.concept-mini.max-size}") int conceptMiniCacheMaxSize) {
 		batchConceptChanges = CacheBuilder.newBuilder().expireAfterWrite(2, TimeUnit.HOURS).build();
+		conceptMiniCache = new ConceptMiniCache(conceptMiniCacheMaxSize);
 	}
 
 	public Concept find(String id, String path) {
@@ -317,6 +328,55 @@ public class ConceptService extends ComponentService {
 		return findConceptMinis(branchCriteria, conceptIds, languageDialects);
 	}
 
+	public ResultMapPage<String, ConceptMini> findCachedConceptMinis(String path, Collection<?> conceptIds, List<LanguageDialect> languageDialects) {
+		if (conceptIds.isEmpty()) {
+			return new ResultMapPage<>(new HashMap<>(), 0);
+		}
+		return findCachedConceptMinis(getBranchCriteria(path), conceptIds, languageDialects);
+	}
+
+	/**
+	 * Finds concept minis, taking those already loaded for the same branch head and language dialects from the concept mini cache.
+	 * The branch criteria must be for a committed branch head. Content of an open commit must not be cached.
+	 */
+	public ResultMapPage<String, ConceptMini> findCachedConceptMinis(BranchCriteria branchCriteria, Collection<?> conceptIds, List<LanguageDialect> languageDialects) {
+		if (conceptIds.isEmpty()) {
+			return new ResultMapPage<>(new HashMap<>(), 0);
+		}
+		String path = branchCriteria.getBranchPath();
+		if (path == null || branchCriteria.getTimepoint() == null || languageDialects == null) {
+			return findConceptMinis(branchCriteria, conceptIds, languageDialects);
+		}
+
+		// Bulk lookup in the cache, then load the rest together
+		long head = branchCriteria.getTimepoint().getTime();
+		Set<String> conceptIdStrings = conceptIds.stream().map(Object::toString).collect(Collectors.toSet());
+		Map<String, ConceptMini> conceptMinis = conceptMiniCache.getAll(path, head, conceptIdStrings, languageDialects);
+		if (conceptMinis.size() < conceptIdStrings.size()) {
+			Set<String> toLoad = new HashSet<>(conceptIdStrings);
+			toLoad.removeAll(conceptMinis.keySet());
+			Map<String, ConceptMini> loaded = findConceptMinis(branchCriteria, toLoad, languageDialects).getResultsMap();
+			conceptMiniCache.putAll(path, head, loaded.values(), languageDialects);
+			conceptMinis.putAll(loaded);
+		}
+		return new ResultMapPage<>(conceptMinis, conceptMinis.size());
+	}
+
+	/**
+	 * Drops cached concept minis of earlier heads of the committed branch.
+	 */
+	public void evictConceptMinis(Commit commit) {
+		conceptMiniCache.branchHeadMoved(commit.getBranch().getPath(), commit.getTimepoint().getTime());
+	}
+
+	public Map<String, Long> getConceptMiniCacheStats() {
+		return conceptMiniCache.getStats();
+	}
+
+	public void clearConceptMiniCache() {
+		conceptMiniCache.clear();
+	}
+
 	public ResultMapPage<String, ConceptMini> findConceptMinis(BranchCriteria branchCriteria, List<LanguageDialect> languageDialects, PageRequest pageRequest) {
 		return findConceptMinis(branchCriteria, null, languageDialects, pageRequest);
 	}
@@ -332,7 +392,7 @@ public class ConceptService extends ComponentService {
 		if (conceptIds != null && conceptIds.isEmpty()) {
 			return new ResultMapPage<>(new HashMap<>(), 0);
 		}
-		Page<Concept> concepts = doFind(conceptIds, languageDialects, branchCriteria, pageRequest, false, false, false, false, null);
+		Page<Concept> concepts = findConceptsForMinis(conceptIds, branchCriteria, pageRequest);
 		Map<String, Concept> conceptMap = new HashMap<>();
 		for (Concept concept : concepts) {
 			String id = concept.getId();
@@ -344,19 +404,63 @@ public class ConceptService extends ComponentService {
 				throw new IllegalStateException(error);
 			}
 		}
+		Map<String, ConceptMini> conceptMinis = concepts.getContent().stream().map(concept -> new ConceptMini(concept, languageDialects))
+				.collect(Collectors.toMap(ConceptMini::getConceptId, Function.identity()));
+		descriptionService.joinConceptMiniDescriptions(branchCriteria, conceptMinis);
+		return new ResultMapPage<>(conceptMinis, concepts.getTotalElements());
+	}
+
+	/**
+	 * Same as {@link #findConceptMinis(BranchCriteria, Collection, List)} but the minis hold the whole active description documents,
+	 * with all their language reference set members. For responses that include the descriptions of each concept.
+	 */
+	public ResultMapPage<String, ConceptMini> findConceptMinisWithFullDescriptions(BranchCriteria branchCriteria, Collection<?> conceptIds, List<LanguageDialect> languageDialects) {
+		if (conceptIds.isEmpty()) {
+			return new ResultMapPage<>(new HashMap<>(), 0);
+		}
+		Page<Concept> concepts = doFind(conceptIds, languageDialects, branchCriteria, PageRequest.of(0, conceptIds.size()), false, false, false, false, null);
 		return new ResultMapPage<>(
 				concepts.getContent().stream().map(concept -> new ConceptMini(concept, languageDialects)).collect(Collectors.toMap(ConceptMini::getConceptId, Function.identity())),
 				concepts.getTotalElements());
 	}
 
+	// Only fetches the concept fields held by minis
+	private Page<Concept> findConceptsForMinis(Collection<?> conceptIds, BranchCriteria branchCriteria, PageRequest pageRequest) {
+		FetchSourceFilter sourceFilter = new FetchSourceFilter(CONCEPT_MINI_FIELDS, null);
+		if (!isEmpty(conceptIds)) {
+			if (conceptIds.size() > LARGE_PAGE.getPageSize()) {
+				throw new TooCostlyException("Search concept ids over 10k is too costly.");
+			}
+			List<Concept> allConcepts = new ArrayList<>();
+			try (final SearchHitsIterator<Concept> searchHits = elasticsearchOperations.searchForStream(new NativeQueryBuilder()
+					.withQuery(bool(bq -> bq
+							.must(branchCriteria.getEntityBranchCriteria(Concept.class))
+							.must(termsQuery(Concept.Fields.CONCEPT_ID, conceptIds))))
+					.withSourceFilter(sourceFilter)
+					.withPageable(LARGE_PAGE)
+					.build(), Concept.class)) {
+				searchHits.forEachRemaining(hit -> allConcepts.add(hit.getContent()));
+			}
+			return new PageImpl<>(allConcepts, pageRequest, allConcepts.size());
+		} else {
+			NativeQuery conceptQuery = new NativeQueryBuilder()
+					.withQuery(bool(bq -> bq.must(branchCriteria.getEntityBranchCriteria(Concept.class))))
+					.withSourceFilter(sourceFilter)
+					.withPageable(pageRequest)
+					.build();
+			conceptQuery.setTrackTotalHits(true);
+			updateQueryWithSearchAfter(conceptQuery, pageRequest);
+			return PageHelper.toSearchAfterPage(elasticsearchOperations.search(conceptQuery, Concept.class), pageRequest);
+		}
+	}
+
 	private void populateConceptMinis(BranchCriteria branchCriteria, Map<String, ConceptMini> minisToPopulate, List<LanguageDialect> languageDialects) {
 		if (!minisToPopulate.isEmpty()) {
-			Set<String> conceptIds = minisToPopulate.keySet();
-			Page<Concept> concepts = doFind(conceptIds, languageDialects, branchCriteria, PageRequest.of(0, conceptIds.size()), false, false, false, false, null);
-			concepts.getContent().forEach(c -> {
-				ConceptMini conceptMini = minisToPopulate.get(c.getConceptId());
-				conceptMini.setDefinitionStatus(c.getDefinitionStatus());
-				conceptMini.addActiveDescriptions(c.getDescriptions().stream().filter(SnomedComponent::isActive).collect(Collectors.toSet()));
+			Map<String, ConceptMini> loadedMinis = findConceptMinis(branchCriteria, minisToPopulate.keySet(), languageDialects).getResultsMap();
+			loadedMinis.forEach((conceptId, loadedMini) -> {
+				ConceptMini conceptMini = minisToPopulate.get(conceptId);
+				conceptMini.setDefinitionStatus(loadedMini.getDefinitionStatus());
+				conceptMini.addActiveDescriptions(loadedMini.getActiveDescriptions());
 			});
 		}
 	}
@@ -851,9 +955,7 @@ public class ConceptService extends ComponentService {
 				.withPageable(LARGE_PAGE)
 				.withSourceFilter(new FetchSourceFilter(new String[]{Concept.Fields.CONCEPT_ID}, null));
 		List<Long> ids = new LongArrayList();
-		try (SearchHitsIterator<Concept> conceptStream = elasticsearchOperations.searchForStream(queryBuilder.build(), Concept.class)) {
-			conceptStream.forEachRemaining(c -> ids.add(c.getContent().getConceptIdAsLong()));
-		}
+		slicedSearchService.searchForStream(queryBuilder.build(), Concept.class, concept -> ids.add(concept.getConceptIdAsLong()));
 
 		return ids;
 	}
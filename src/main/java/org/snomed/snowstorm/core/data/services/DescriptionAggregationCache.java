@@ -0,0 +1,185 @@
+package org.snomed.snowstorm.core.data.services;
+
+import org.snomed.snowstorm.core.data.services.pojo.DescriptionCriteria;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Size bounded store of description search aggregation buckets across all branches, keyed by branch path, head timepoint and search criteria.
+ * Entries are weighted by their number of buckets. When the total weight goes over the configured limit the least recently used entries are evicted.
+ * Results of earlier heads of a branch are dropped when results for a newer head are stored.
+ * <p>
+ * The number of searches made with each set of criteria is counted so that the most frequent searches can be run ahead of time.
+ */
+public class DescriptionAggregationCache {
+
+	private static final int MAX_EMPTY_BRANCHES = 1_000;
+
+	private final long maxWeight;
+
+	private final int maxTrackedSearches;
+
+	// Access ordered so that iteration starts with the least recently used entry. All access must be synchronized on this map.
+	private final LinkedHashMap<CacheKey, Map<String, Map<String, Long>>> entries;
+
+	// Latest head cached for each branch, guarded by the lock on entries
+	private final Map<String, Long> branchHeads;
+
+	private final Map<DescriptionCriteria, AtomicLong> searchCounts;
+
+	private long totalWeight;
+
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+	private final AtomicLong evictionCount = new AtomicLong();
+
+	/**
+	 * @param maxWeight the maximum number of buckets held across all branches
+	 * @param maxTrackedSearches the maximum number of different search criteria to keep counts for
+	 */
+	public DescriptionAggregationCache(long maxWeight, int maxTrackedSearches) {
+		this.maxWeight = maxWeight;
+		this.maxTrackedSearches = maxTrackedSearches;
+		entries = new LinkedHashMap<>(1_000, 0.75f, true);
+		branchHeads = new HashMap<>();
+		searchCounts = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * @param key criteria of the aggregations, must implement equals and hashCode and not be changed after use
+	 * @return the cached buckets, by aggregation name, or null if not cached
+	 */
+	public Map<String, Map<String, Long>> get(String path, long head, Object key) {
+		Map<String, Map<String, Long>> buckets;
+		synchronized (entries) {
+			buckets = entries.get(new CacheKey(path, head, key));
+		}
+		if (buckets != null) {
+			hitCount.incrementAndGet();
+		} else {
+			missCount.incrementAndGet();
+		}
+		return buckets;
+	}
+
+	public void put(String path, long head, Object key, Map<String, Map<String, Long>> buckets) {
+		Map<String, Map<String, Long>> bucketsCopy = new HashMap<>();
+		long weight = 0;
+		for (Map.Entry<String, Map<String, Long>> aggregation : buckets.entrySet()) {
+			bucketsCopy.put(aggregation.getKey(), Collections.unmodifiableMap(new HashMap<>(aggregation.getValue())));
+			weight += aggregation.getValue().size();
+		}
+		// Count empty results as one so that the number of entries is also bounded
+		weight = Math.max(weight, 1);
+		if (weight > maxWeight) {
+			return;
+		}
+
+		synchronized (entries) {
+			Long branchHead = branchHeads.get(path);
+			if (branchHead != null && branchHead > head) {
+				// Branch has moved on since these results were computed
+				return;
+			}
+			if (branchHead != null && branchHead < head) {
+				removeBranchEntries(path);
+			}
+			branchHeads.put(path, head);
+
+			Map<String, Map<String, Long>> previous = entries.put(new CacheKey(path, head, key), Collections.unmodifiableMap(bucketsCopy));
+			if (previous != null) {
+				totalWeight -= getWeight(previous);
+			}
+			totalWeight += weight;
+
+			Iterator<Map.Entry<CacheKey, Map<String, Map<String, Long>>>> iterator = entries.entrySet().iterator();
+			while (totalWeight > maxWeight && iterator.hasNext()) {
+				Map.Entry<CacheKey, Map<String, Map<String, Long>>> entry = iterator.next();
+				iterator.remove();
+				totalWeight -= getWeight(entry.getValue());
+				evictionCount.incrementAndGet();
+			}
+			if (branchHeads.size() > entries.size() + MAX_EMPTY_BRANCHES) {
+				// Forget branches which no longer have any entries
+				Set<String> paths = new HashSet<>();
+				entries.keySet().forEach(cacheKey -> paths.add(cacheKey.path));
+				branchHeads.keySet().retainAll(paths);
+			}
+		}
+	}
+
+	// Must hold lock on entries
+	private void removeBranchEntries(String path) {
+		Iterator<Map.Entry<CacheKey, Map<String, Map<String, Long>>>> iterator = entries.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<CacheKey, Map<String, Map<String, Long>>> entry = iterator.next();
+			if (entry.getKey().path.equals(path)) {
+				iterator.remove();
+				totalWeight -= getWeight(entry.getValue());
+			}
+		}
+	}
+
+	private static long getWeight(Map<String, Map<String, Long>> buckets) {
+		return Math.max(buckets.values().stream().mapToLong(Map::size).sum(), 1);
+	}
+
+	public void recordSearch(DescriptionCriteria criteria) {
+		AtomicLong count = searchCounts.get(criteria);
+		if (count == null) {
+			if (searchCounts.size() >= maxTrackedSearches * 2) {
+				trimSearchCounts();
+			}
+			count = searchCounts.computeIfAbsent(criteria, key -> new AtomicLong());
+		}
+		count.incrementAndGet();
+	}
+
+	// Keeps the most frequent half so that new searches can still be counted
+	private synchronized void trimSearchCounts() {
+		if (searchCounts.size() < maxTrackedSearches * 2) {
+			return;
+		}
+		Set<DescriptionCriteria> keep = new HashSet<>(getMostFrequentSearches(maxTrackedSearches));
+		searchCounts.keySet().retainAll(keep);
+	}
+
+	/**
+	 * @return the criteria of the most frequent searches, most frequent first
+	 */
+	public List<DescriptionCriteria> getMostFrequentSearches(int limit) {
+		return searchCounts.entrySet().stream()
+				.sorted(Comparator.comparingLong((Map.Entry<DescriptionCriteria, AtomicLong> entry) -> entry.getValue().get()).reversed())
+				.limit(limit)
+				.map(Map.Entry::getKey)
+				.toList();
+	}
+
+	public Map<String, Long> getStats() {
+		Map<String, Long> stats = new LinkedHashMap<>();
+		synchronized (entries) {
+			stats.put("size", (long) entries.size());
+			stats.put("weight", totalWeight);
+			stats.put("branches", (long) branchHeads.size());
+		}
+		stats.put("max-weight", maxWeight);
+		stats.put("hits", hitCount.get());
+		stats.put("misses", missCount.get());
+		stats.put("evictions", evictionCount.get());
+		stats.put("tracked-searches", (long) searchCounts.size());
+		return stats;
+	}
+
+	public void clear() {
+		synchronized (entries) {
+			entries.clear();
+			branchHeads.clear();
+			totalWeight = 0;
+		}
+	}
+
+	private record CacheKey(String path, long head, Object key) {
+	}
+}
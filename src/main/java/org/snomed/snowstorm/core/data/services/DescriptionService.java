@@ -19,6 +19,8 @@ import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
 import it.unimi.dsi.fastutil.longs.LongArrayList;
 import it.unimi.dsi.fastutil.longs.LongLinkedOpenHashSet;
 import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import org.apache.commons.lang3.StringUtils;
 
 import co.elastic.clients.elasticsearch._types.aggregations.AggregationBuilders;
@@ -37,6 +39,8 @@ import org.snomed.snowstorm.core.data.services.pojo.DescriptionCriteria;
 import org.snomed.snowstorm.core.data.services.pojo.PageWithBucketAggregations;
 import org.snomed.snowstorm.core.data.services.pojo.PageWithBucketAggregationsFactory;
 import org.snomed.snowstorm.core.data.services.pojo.SimpleAggregation;
+import org.snomed.snowstorm.core.data.services.termindex.DescriptionTermIndex;
+import org.snomed.snowstorm.core.util.AggregationUtils;
 import org.snomed.snowstorm.core.util.DescriptionHelper;
 import org.snomed.snowstorm.core.util.TimerUtil;
 import org.snomed.snowstorm.ecl.ECLQueryService;
@@ -55,8 +59,9 @@ import org.springframework.util.CollectionUtils;
 
 import java.io.IOException;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.*;
 import java.util.function.Function;
+import java.util.function.LongPredicate;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
@@ -75,6 +80,20 @@ public class DescriptionService extends ComponentService {
 	// Query value used to prevent matching
 	private static final String NO_MATCH = "no-match";
 
+	// Smaller batches when streaming matches which are likely to be abandoned early
+	private static final PageRequest STREAM_PAGE = PageRequest.of(0, 1_000);
+
+	// Aggregation cache key of the semantic tag counts of all active concepts
+	private static final String ACTIVE_CONCEPTS_PER_SEMANTIC_TAG = "activeConceptsPerSemanticTag";
+
+	// Description fields used to pick the FSN and PT of concept minis and to list their designations
+	private static final String[] CONCEPT_MINI_DESCRIPTION_FIELDS = {Description.Fields.DESCRIPTION_ID, Description.Fields.CONCEPT_ID, Description.Fields.ACTIVE,
+			Description.Fields.TERM, Description.Fields.TYPE_ID, Description.Fields.LANGUAGE_CODE};
+
+	// Language refset member fields needed for acceptability
+	private static final String[] ACCEPTABILITY_FIELDS = {ReferenceSetMember.Fields.MEMBER_ID, ReferenceSetMember.Fields.ACTIVE, REFSET_ID,
+			ReferenceSetMember.Fields.REFERENCED_COMPONENT_ID, ACCEPTABILITY_ID_FIELD_PATH};
+
 	@Autowired
 	private SearchLanguagesConfiguration searchLanguagesConfiguration;
 
@@ -93,6 +112,12 @@ public class DescriptionService extends ComponentService {
 	@Autowired
 	private DialectConfigurationService dialectConfigurationService;
 
+	@Autowired
+	private ExecutorService executorService;
+
+	@Autowired
+	private DescriptionTermIndexService descriptionTermIndexService;
+
 	@Value("${search.refset.aggregation.size}")
 	private int refsetAggregationSearchSize;
 
@@ -100,17 +125,45 @@ public class DescriptionService extends ComponentService {
 	@Value("${search.description.semantic.tag.aggregation.size}")
 	private int semanticTagAggregationSearchSize;
 
-	private final Map<String, SemanticTagCacheEntry> semanticTagAggregationCache = new ConcurrentHashMap<>();
+	private final DescriptionAggregationCache aggregationCache;
+
+	@Value("${cache.description-aggregation.prewarm-searches}")
+	private int aggregationCachePrewarmSearches;
+
+	private final Set<String> prewarmedVersions = ConcurrentHashMap.newKeySet();
 
 	@Value("${search.description.aggregation.maxProcessableResultsSize}")
 	private int aggregationMaxProcessableResultsSize;
 
+	@Value("${search.description.aggregation.threads}")
+	private int aggregationThreads;
+
+	@Value("${search.description.aggregation.timeout}")
+	private long aggregationTimeout;
+
+	private ExecutorService aggregationExecutor;
+
 	public enum SearchMode {
 		STANDARD, REGEX, WHOLE_WORD, WILDCARD
 	}
 
 	private final Logger logger = LoggerFactory.getLogger(getClass());
 
+	public DescriptionService(@Value("${cache.description-aggregation.max-weight}") long aggregationCacheMaxWeight,
+			@Value("${cache.description-aggregation.max-tracked-searches}") int aggregationCacheMaxTrackedSearches) {
+		aggregationCache = new DescriptionAggregationCache(aggregationCacheMaxWeight, aggregationCacheMaxTrackedSearches);
+	}
+
+	@PostConstruct
+	public void init() {
+		aggregationExecutor = Executors.newFixedThreadPool(aggregationThreads);
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		aggregationExecutor.shutdown();
+	}
+
 	public Description findDescription(String path, String descriptionId) {
 		final BranchCriteria branchCriteria = versionControlHelper.getBranchCriteria(path);
 		Query query = bool(bq -> bq
@@ -197,11 +250,26 @@ public class DescriptionService extends ComponentService {
 	}
 
 	public PageWithBucketAggregations<Description> findDescriptionsWithAggregations(String path, DescriptionCriteria criteria, PageRequest pageRequest) throws TooCostlyException {
+		return findDescriptionsWithAggregations(path, criteria, pageRequest, true);
+	}
+
+	private PageWithBucketAggregations<Description> findDescriptionsWithAggregations(String path, DescriptionCriteria criteria, PageRequest pageRequest,
+			boolean recordSearch) throws TooCostlyException {
+
 		TimerUtil timer = new TimerUtil("Search", Level.INFO, 5, new TimerUtil("Search DEBUG", Level.DEBUG));
 
 		final BranchCriteria branchCriteria = versionControlHelper.getBranchCriteria(path);
 		timer.checkpoint("Build branch criteria");
 
+		// Aggregations do not depend on the page requested so can be reused until the branch changes
+		final String branchPath = branchCriteria.getBranchPath();
+		final long branchHead = branchCriteria.getTimepoint().getTime();
+		if (recordSearch) {
+			aggregationCache.recordSearch(criteria);
+			prewarmAggregationCache(branchCriteria);
+		}
+		final Map<String, Map<String, Long>> cachedBuckets = aggregationCache.get(branchPath, branchHead, criteria);
+
 		// Fetch all matching description and concept ids
 		// ids of concepts where all descriptions and concept criteria are met
 		DescriptionMatches descriptionMatches = findDescriptionAndConceptIds(criteria, Collections.emptySet(), branchCriteria, timer);
@@ -212,6 +280,8 @@ public class DescriptionService extends ComponentService {
 		descriptionFilter.must(termsQuery(Description.Fields.DESCRIPTION_ID, descriptionMatches.getMatchedDescriptionIds()));
 
 		// Start fetching aggregations..
+		// Aggregations only depend on the matched concepts, they run alongside the final page search.
+		Map<String, Future<List<Aggregation>>> aggregationFutures = new LinkedHashMap<>();
 		List<Aggregation> allAggregations = new ArrayList<>();
 		Set<Long> conceptIds = descriptionMatches.getMatchedConceptIds();
 
@@ -240,14 +310,15 @@ public class DescriptionService extends ComponentService {
 				)
 				.withAggregation("semanticTags", AggregationBuilders.terms().field(Description.Fields.TAG).size(searchSize).build()._toAggregation());
 		if (!semanticTagFiltering) {
-			fsnQueryBuilder.withPageable(PAGE_OF_ONE);
-			SearchHits<Description> semanticTagResults = elasticsearchOperations.search(fsnQueryBuilder.build(), Description.class);
-			if (semanticTagResults.getAggregations() != null) {
-				allAggregations.addAll(getAggregations(semanticTagResults.getAggregations(), "semanticTags"));
+			if (cachedBuckets == null) {
+				NativeQuery fsnQuery = fsnQueryBuilder.withPageable(PAGE_OF_ONE).build();
+				aggregationFutures.put("semanticTags", aggregationExecutor.submit(() -> {
+					SearchHits<Description> semanticTagResults = elasticsearchOperations.search(fsnQuery, Description.class);
+					return getAggregations(semanticTagResults.getAggregations(), "semanticTags");
+				}));
 			}
-			timer.checkpoint("Semantic tag aggregation");
 		} else {
-			// Apply semantic tag filter
+			// Apply semantic tag filter, this narrows the concepts of the other searches so has to run first
 			fsnQueryBuilder
 					.withPageable(LARGE_PAGE)
 					.withSourceFilter(new FetchSourceFilter(new String[]{Description.Fields.CONCEPT_ID}, null));
@@ -267,45 +338,140 @@ public class DescriptionService extends ComponentService {
 			}
 
 			conceptIds = conceptSemanticTagMatches;
+			timer.checkpoint("Semantic tag filtering");
 		}
 
 		// Fetch concept refset membership aggregation
-		SearchHits<ReferenceSetMember> membershipResults = elasticsearchOperations.search(new NativeQueryBuilder()
-				.withQuery(bool()
-						.must(branchCriteria.getEntityBranchCriteria(ReferenceSetMember.class))
-						.must(termQuery(ReferenceSetMember.Fields.ACTIVE, true))
-						.filter(termsQuery(ReferenceSetMember.Fields.REFERENCED_COMPONENT_ID, conceptIds)).build()._toQuery()
-				)
-				.withPageable(PAGE_OF_ONE)
-				.withAggregation("membership", AggregationBuilders.terms().field(REFSET_ID).size(refsetAggregationSearchSize).build()._toAggregation())
-				.build(), ReferenceSetMember.class);
-		if (membershipResults.hasAggregations()) {
-			allAggregations.addAll(getAggregations(membershipResults.getAggregations(), "membership"));
+		if (cachedBuckets == null) {
+			NativeQuery membershipQuery = new NativeQueryBuilder()
+					.withQuery(bool()
+							.must(branchCriteria.getEntityBranchCriteria(ReferenceSetMember.class))
+							.must(termQuery(ReferenceSetMember.Fields.ACTIVE, true))
+							.filter(termsQuery(ReferenceSetMember.Fields.REFERENCED_COMPONENT_ID, conceptIds)).build()._toQuery()
+					)
+					.withPageable(PAGE_OF_ONE)
+					.withAggregation("membership", AggregationBuilders.terms().field(REFSET_ID).size(refsetAggregationSearchSize).build()._toAggregation())
+					.build();
+			aggregationFutures.put("membership", aggregationExecutor.submit(() -> {
+				SearchHits<ReferenceSetMember> membershipResults = elasticsearchOperations.search(membershipQuery, ReferenceSetMember.class);
+				return getAggregations(membershipResults.getAggregations(), "membership");
+			}));
 		}
-
-		timer.checkpoint("Concept refset membership aggregation");
+		// The timeout runs from when the aggregations are submitted, the time taken to find the matches is not counted
+		final long aggregationDeadline = System.currentTimeMillis() + aggregationTimeout;
 
 		// Perform final paged description search with description property aggregations
 		descriptionFilter.must(termsQuery(Description.Fields.CONCEPT_ID, conceptIds));
 		final NativeQueryBuilder queryBuilder = new NativeQueryBuilder()
 				.withQuery(bool(b -> b.must(descriptionQuery).filter(descriptionFilter.build()._toQuery())))
-				.withAggregation("module", AggregationBuilders.terms(ta -> ta.field(Description.Fields.MODULE_ID).size(50)))
-				.withAggregation("language", AggregationBuilders.terms(ta -> ta.field(Description.Fields.LANGUAGE_CODE).size(20)))
 				.withPageable(pageRequest);
+		if (cachedBuckets == null) {
+			queryBuilder
+					.withAggregation("module", AggregationBuilders.terms(ta -> ta.field(Description.Fields.MODULE_ID).size(50)))
+					.withAggregation("language", AggregationBuilders.terms(ta -> ta.field(Description.Fields.LANGUAGE_CODE).size(20)));
+		}
 		NativeQuery aggregateQuery = addTermSort(queryBuilder.build());
 		aggregateQuery.setTrackTotalHits(true);
-		SearchHits<Description> descriptionSearchResults = elasticsearchOperations.search(aggregateQuery, Description.class);
+		SearchHits<Description> descriptionSearchResults;
+		try {
+			descriptionSearchResults = elasticsearchOperations.search(aggregateQuery, Description.class);
+		} catch (RuntimeException e) {
+			aggregationFutures.values().forEach(future -> future.cancel(true));
+			throw e;
+		}
+		timer.checkpoint("Fetch descriptions including module and language aggregations");
+
+		if (cachedBuckets != null) {
+			timer.finish();
+			return PageWithBucketAggregationsFactory.createPage(descriptionSearchResults, cachedBuckets, pageRequest);
+		}
+
+		List<String> incompleteAggregations = new ArrayList<>();
+		for (Map.Entry<String, Future<List<Aggregation>>> aggregationFuture : aggregationFutures.entrySet()) {
+			List<Aggregation> aggregations = getAggregationBeforeDeadline(aggregationFuture.getKey(), aggregationFuture.getValue(), aggregationDeadline);
+			if (aggregations != null) {
+				allAggregations.addAll(aggregations);
+			} else {
+				incompleteAggregations.add(aggregationFuture.getKey());
+			}
+		}
 		if (descriptionSearchResults.hasAggregations()) {
 			allAggregations.addAll(getAggregations(descriptionSearchResults.getAggregations()).values());
 		}
-		timer.checkpoint("Fetch descriptions including module and language aggregations");
+		timer.checkpoint("Semantic tag and concept refset membership aggregations");
 		timer.finish();
 
 		// Merge aggregations
-		return PageWithBucketAggregationsFactory.createPage(descriptionSearchResults, allAggregations, pageRequest);
+		Map<String, Map<String, Long>> buckets = AggregationUtils.createBuckets(allAggregations);
+		PageWithBucketAggregations<Description> page = PageWithBucketAggregationsFactory.createPage(descriptionSearchResults, buckets, pageRequest);
+		if (incompleteAggregations.isEmpty()) {
+			aggregationCache.put(branchPath, branchHead, criteria, buckets);
+		} else {
+			page.setIncompleteBuckets(incompleteAggregations);
+		}
+		return page;
+	}
+
+	/**
+	 * The first time a code system version is searched the most frequent searches are run in the background, to cache their aggregations.
+	 */
+	private void prewarmAggregationCache(BranchCriteria branchCriteria) {
+		String branchPath = branchCriteria.getBranchPath();
+		if (aggregationCachePrewarmSearches <= 0 || !CodeSystemService.isVersionBranch(branchPath)
+				|| !prewarmedVersions.add(branchPath + "@" + branchCriteria.getTimepoint().getTime())) {
+			return;
+		}
+		List<DescriptionCriteria> searches = aggregationCache.getMostFrequentSearches(aggregationCachePrewarmSearches);
+		if (searches.isEmpty()) {
+			return;
+		}
+		executorService.submit(() -> {
+			int prewarmed = 0;
+			for (DescriptionCriteria criteria : searches) {
+				try {
+					findDescriptionsWithAggregations(branchPath, criteria, PAGE_OF_ONE, false);
+					prewarmed++;
+				} catch (TooCostlyException | RuntimeException e) {
+					logger.debug("Failed to prewarm description search aggregations on {} for term {}", branchPath, criteria.getTerm(), e);
+				}
+			}
+			logger.info("Description search aggregations of {} frequent searches cached for {}.", prewarmed, branchPath);
+		});
+	}
+
+	public Map<String, Long> getAggregationCacheStats() {
+		return aggregationCache.getStats();
+	}
+
+	public void clearAggregationCache() {
+		aggregationCache.clear();
 	}
 
 
+	/**
+	 * @return the aggregation results, or null if they are not ready by the deadline
+	 */
+	private List<Aggregation> getAggregationBeforeDeadline(String name, Future<List<Aggregation>> future, long deadline) {
+		try {
+			if (aggregationTimeout > 0) {
+				return future.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+			}
+			return future.get();
+		} catch (TimeoutException e) {
+			future.cancel(true);
+			logger.info("Description search {} aggregation not complete within {} ms, left out of the results.", name, aggregationTimeout);
+			return null;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeServiceException("Interrupted while fetching description search aggregations.", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException runtimeException) {
+				throw runtimeException;
+			}
+			throw new RuntimeServiceException("Failed to fetch description search " + name + " aggregation.", e.getCause());
+		}
+	}
+
 	void joinDescriptions(BranchCriteria branchCriteria, Map<String, Concept> conceptIdMap, Map<String, ConceptMini> conceptMiniMap,
 			TimerUtil timer, boolean fetchLangRefsetMembers, boolean fetchInactivationInfo) {
 
@@ -371,11 +537,9 @@ public class DescriptionService extends ComponentService {
 
 		Branch branchObject = branchService.findLatest(branch);
 
-		SemanticTagCacheEntry semanticTagCacheEntry = semanticTagAggregationCache.get(branch);
-		if (semanticTagCacheEntry != null) {
-			if (semanticTagCacheEntry.branchHeadTime() == branchObject.getHead().getTime()) {
-				return semanticTagCacheEntry.tagCounts();
-			}
+		Map<String, Map<String, Long>> cachedBuckets = aggregationCache.get(branch, branchObject.getHead().getTime(), ACTIVE_CONCEPTS_PER_SEMANTIC_TAG);
+		if (cachedBuckets != null) {
+			return new TreeMap<>(cachedBuckets.get("semanticTags"));
 		}
 
 		BranchCriteria branchCriteria = versionControlHelper.getBranchCriteria(branch);
@@ -411,7 +575,7 @@ public class DescriptionService extends ComponentService {
 			}
 		}
 		// Cache result
-		semanticTagAggregationCache.put(branch, new SemanticTagCacheEntry(branchObject.getHead().getTime(), tagCounts));
+		aggregationCache.put(branch, branchObject.getHead().getTime(), ACTIVE_CONCEPTS_PER_SEMANTIC_TAG, Map.of("semanticTags", tagCounts));
 
 		return tagCounts;
 	}
@@ -492,6 +656,54 @@ public class DescriptionService extends ComponentService {
 		}
 	}
 
+	/**
+	 * Joins the active descriptions of concept minis, with their language reference set members.
+	 * Only the description and member fields needed to pick terms are fetched, the description documents are not complete.
+	 * Inactive members are joined too, as they are by {@link #joinDescriptions}, acceptability checks skip them.
+	 */
+	void joinConceptMiniDescriptions(BranchCriteria branchCriteria, Map<String, ConceptMini> conceptMiniMap) {
+		if (conceptMiniMap.isEmpty()) {
+			return;
+		}
+		Map<String, Description> descriptionIdMap = new HashMap<>();
+		for (List<String> conceptIds : Iterables.partition(conceptMiniMap.keySet(), CLAUSE_LIMIT)) {
+			try (SearchHitsIterator<Description> stream = elasticsearchOperations.searchForStream(new NativeQueryBuilder()
+					.withQuery(bool(bq -> bq
+							.must(branchCriteria.getEntityBranchCriteria(Description.class))
+							.must(termQuery(Description.Fields.ACTIVE, true))
+							.must(termsQuery(Description.Fields.CONCEPT_ID, conceptIds))))
+					.withSourceFilter(new FetchSourceFilter(CONCEPT_MINI_DESCRIPTION_FIELDS, null))
+					.withPageable(LARGE_PAGE)
+					.build(), Description.class)) {
+				stream.forEachRemaining(hit -> {
+					Description description = hit.getContent();
+					ConceptMini conceptMini = conceptMiniMap.get(description.getConceptId());
+					if (conceptMini != null) {
+						conceptMini.addActiveDescription(description);
+					}
+					descriptionIdMap.putIfAbsent(description.getDescriptionId(), description);
+				});
+			}
+
+			try (SearchHitsIterator<ReferenceSetMember> stream = elasticsearchOperations.searchForStream(new NativeQueryBuilder()
+					.withQuery(bool(bq -> bq
+							.must(branchCriteria.getEntityBranchCriteria(ReferenceSetMember.class))
+							.must(termsQuery(ACCEPTABILITY_ID_FIELD_PATH, List.of(Concepts.PREFERRED, Concepts.ACCEPTABLE)))
+							.must(termsQuery(ReferenceSetMember.Fields.CONCEPT_ID, conceptIds))))
+					.withSourceFilter(new FetchSourceFilter(ACCEPTABILITY_FIELDS, null))
+					.withPageable(LARGE_PAGE)
+					.build(), ReferenceSetMember.class)) {
+				stream.forEachRemaining(hit -> {
+					ReferenceSetMember member = hit.getContent();
+					Description description = descriptionIdMap.get(member.getReferencedComponentId());
+					if (description != null) {
+						description.addLanguageRefsetMember(member);
+					}
+				});
+			}
+		}
+	}
+
 	public void joinActiveDescriptions(String path, Map<String, ConceptMini> conceptMiniMap) {
 		BranchCriteria branchCriteria = versionControlHelper.getBranchCriteria(path);
 		NativeQuery searchQuery = new NativeQueryBuilder()
@@ -655,8 +867,7 @@ public class DescriptionService extends ComponentService {
 		return collection != null ? collection : Collections.emptySet();
 	}
 
-	DescriptionMatches findDescriptionAndConceptIds(DescriptionCriteria criteria, Set<Long> conceptIdsCriteria, BranchCriteria branchCriteria, TimerUtil timer) throws TooCostlyException {
-
+	private Query buildDescriptionQuery(DescriptionCriteria criteria, Set<Long> conceptIdsCriteria, BranchCriteria branchCriteria) {
 		// Build up the description criteria
 		final BoolQuery.Builder descriptionQueryBuilder = bool();
 		descriptionQueryBuilder.must(branchCriteria.getEntityBranchCriteria(Description.class));
@@ -675,32 +886,107 @@ public class DescriptionService extends ComponentService {
 		if (!CollectionUtils.isEmpty(conceptIdsCriteria)) {
 			descriptionQueryBuilder.must(termsQuery(Description.Fields.CONCEPT_ID, conceptIdsCriteria));
 		}
+		return descriptionQueryBuilder.build()._toQuery();
+	}
 
-		// First pass search to collect all description and concept ids.
-		final Map<Long, Long> descriptionToConceptMap = new Long2ObjectLinkedOpenHashMap<>();
-		Query descriptionQuery = descriptionQueryBuilder.build()._toQuery();
-		NativeQueryBuilder searchQueryBuilder = new NativeQueryBuilder()
-				.withQuery(descriptionQuery)
-				.withSourceFilter(new FetchSourceFilter(new String[]{Description.Fields.DESCRIPTION_ID, Description.Fields.CONCEPT_ID}, null));
+	int getAggregationMaxProcessableResultsSize() {
+		return aggregationMaxProcessableResultsSize;
+	}
 
-		NativeQuery query = searchQueryBuilder.withPageable(PAGE_OF_ONE).build();
+	/**
+	 * Concept ids can only be streamed if all the criteria are held on the description documents.
+	 * Language reference set, concept active and concept refset criteria need the complete set of matches.
+	 */
+	boolean canStreamConceptIds(DescriptionCriteria criteria) {
+		return CollectionUtils.isEmpty(criteria.getPreferredIn()) && CollectionUtils.isEmpty(criteria.getAcceptableIn())
+				&& CollectionUtils.isEmpty(criteria.getPreferredOrAcceptableIn()) && CollectionUtils.isEmpty(criteria.getDisjunctionAcceptabilityCriteria())
+				&& criteria.getConceptActive() == null && Strings.isNullOrEmpty(criteria.getConceptRefset());
+	}
+
+	long countDescriptions(DescriptionCriteria criteria, Set<Long> conceptIdsCriteria, BranchCriteria branchCriteria) {
+		NativeQuery query = new NativeQueryBuilder()
+				.withQuery(buildDescriptionQuery(criteria, conceptIdsCriteria, branchCriteria))
+				.withPageable(PAGE_OF_ONE)
+				.build();
 		query.setTrackTotalHits(true);
-		long totalElements = elasticsearchOperations.search(query, Description.class).getTotalHits();
-		if (totalElements > aggregationMaxProcessableResultsSize) {
-			throw new TooCostlyException(String.format("There are over %s results. Aggregating these results would be too costly.", aggregationMaxProcessableResultsSize));
-		}
-		timer.checkpoint("Count all check");
+		return elasticsearchOperations.search(query, Description.class).getTotalHits();
+	}
 
-		NativeQuery searchQuery = searchQueryBuilder.withPageable(LARGE_PAGE).build();
+	/**
+	 * Counts matching descriptions, stopping once the count reaches the limit.
+	 * @return the number of matching descriptions, or the limit if there are at least that many
+	 */
+	long countDescriptions(DescriptionCriteria criteria, Set<Long> conceptIdsCriteria, BranchCriteria branchCriteria, int limit) {
+		NativeQuery query = new NativeQueryBuilder()
+				.withQuery(buildDescriptionQuery(criteria, conceptIdsCriteria, branchCriteria))
+				.withPageable(PAGE_OF_ONE)
+				.build();
+		query.setTrackTotalHitsUpTo(limit);
+		return Math.min(elasticsearchOperations.search(query, Description.class).getTotalHits(), limit);
+	}
+
+	/**
+	 * Streams the ids of concepts with matching descriptions in term order, each concept once, until the consumer returns false.
+	 * Only the criteria allowed by {@link #canStreamConceptIds(DescriptionCriteria)} are applied.
+	 * @return the number of descriptions read
+	 */
+	long streamConceptIdsInTermOrder(DescriptionCriteria criteria, Set<Long> conceptIdsCriteria, BranchCriteria branchCriteria, LongPredicate consumer) {
+		NativeQuery searchQuery = new NativeQueryBuilder()
+				.withQuery(buildDescriptionQuery(criteria, conceptIdsCriteria, branchCriteria))
+				.withSourceFilter(new FetchSourceFilter(new String[]{Description.Fields.CONCEPT_ID}, null))
+				.withPageable(STREAM_PAGE)
+				.build();
 		addTermSort(searchQuery);
-		try (SearchHitsIterator<Description> stream = elasticsearchOperations.searchForStream(
-				searchQuery, Description.class)) {
-			stream.forEachRemaining(hit -> {
-				Description description = hit.getContent();
-				descriptionToConceptMap.put(parseLong(description.getDescriptionId()), parseLong(description.getConceptId()));
-			});
+		long descriptionsRead = 0;
+		Set<Long> conceptIdsSeen = new LongOpenHashSet();
+		try (SearchHitsIterator<Description> stream = elasticsearchOperations.searchForStream(searchQuery, Description.class)) {
+			while (stream.hasNext()) {
+				long conceptId = parseLong(stream.next().getContent().getConceptId());
+				descriptionsRead++;
+				if (conceptIdsSeen.add(conceptId) && !consumer.test(conceptId)) {
+					break;
+				}
+			}
+		}
+		return descriptionsRead;
+	}
+
+	DescriptionMatches findDescriptionAndConceptIds(DescriptionCriteria criteria, Set<Long> conceptIdsCriteria, BranchCriteria branchCriteria, TimerUtil timer) throws TooCostlyException {
+
+		// First pass search to collect all description and concept ids.
+		final Map<Long, Long> descriptionToConceptMap = new Long2ObjectLinkedOpenHashMap<>();
+		Query descriptionQuery = buildDescriptionQuery(criteria, conceptIdsCriteria, branchCriteria);
+		Map<Long, Long> termIndexMatches = findMatchesInTermIndex(criteria, conceptIdsCriteria, branchCriteria);
+		if (termIndexMatches != null) {
+			if (termIndexMatches.size() > aggregationMaxProcessableResultsSize) {
+				throw new TooCostlyException(String.format("There are over %s results. Aggregating these results would be too costly.", aggregationMaxProcessableResultsSize));
+			}
+			descriptionToConceptMap.putAll(termIndexMatches);
+			timer.checkpoint("Collect all description and concept ids from term index");
+		} else {
+			NativeQueryBuilder searchQueryBuilder = new NativeQueryBuilder()
+					.withQuery(descriptionQuery)
+					.withSourceFilter(new FetchSourceFilter(new String[]{Description.Fields.DESCRIPTION_ID, Description.Fields.CONCEPT_ID}, null));
+
+			NativeQuery query = searchQueryBuilder.withPageable(PAGE_OF_ONE).build();
+			query.setTrackTotalHits(true);
+			long totalElements = elasticsearchOperations.search(query, Description.class).getTotalHits();
+			if (totalElements > aggregationMaxProcessableResultsSize) {
+				throw new TooCostlyException(String.format("There are over %s results. Aggregating these results would be too costly.", aggregationMaxProcessableResultsSize));
+			}
+			timer.checkpoint("Count all check");
+
+			NativeQuery searchQuery = searchQueryBuilder.withPageable(LARGE_PAGE).build();
+			addTermSort(searchQuery);
+			try (SearchHitsIterator<Description> stream = elasticsearchOperations.searchForStream(
+					searchQuery, Description.class)) {
+				stream.forEachRemaining(hit -> {
+					Description description = hit.getContent();
+					descriptionToConceptMap.put(parseLong(description.getDescriptionId()), parseLong(description.getConceptId()));
+				});
+			}
+			timer.checkpoint("Collect all description and concept ids");
 		}
-		timer.checkpoint("Collect all description and concept ids");
 
 		// Second pass to apply lang refset filter
 		Set<Long> preferredIn = criteria.getPreferredIn();
@@ -840,6 +1126,46 @@ public class DescriptionService extends ComponentService {
 		return new DescriptionMatches(descriptions, conceptIds, descriptionQuery);
 	}
 
+	/**
+	 * Standard word prefix searches of code system versions are answered from the in-memory term index when it is ready.
+	 * Matches are in the same order as the Elasticsearch term sort.
+	 * @return map of description id to concept id in term length order, or null if the search must go to Elasticsearch
+	 */
+	private Map<Long, Long> findMatchesInTermIndex(DescriptionCriteria criteria, Set<Long> conceptIdsCriteria, BranchCriteria branchCriteria) {
+		String term = criteria.getTerm();
+		if (term == null || criteria.getSearchMode() != SearchMode.STANDARD || IdentifierService.isConceptId(term)
+				|| IdentifierService.isDescriptionId(term) || containingNonAlphanumeric(term)) {
+			return null;
+		}
+		Collection<String> modules = criteria.getModules();
+		if (modules != null && !modules.stream().allMatch(StringUtils::isNumeric)) {
+			return null;
+		}
+		Optional<DescriptionTermIndex> index = descriptionTermIndexService.getIndex(branchCriteria);
+		if (index.isEmpty()) {
+			return null;
+		}
+
+		// Same folding alternatives as the Elasticsearch term query
+		Map<String, Set<Character>> charactersNotFoldedSets = searchLanguagesConfiguration.getCharactersNotFoldedSets();
+		Set<String> languageFoldingStrategies = new HashSet<>(charactersNotFoldedSets.keySet());
+		languageFoldingStrategies.add("");
+		Set<List<String>> prefixAlternatives = new HashSet<>();
+		for (String languageFoldingStrategy : languageFoldingStrategies) {
+			Set<Character> charactersNotFoldedForLanguage = charactersNotFoldedSets.getOrDefault(languageFoldingStrategy, Collections.emptySet());
+			List<String> prefixes = analyze(DescriptionHelper.foldTerm(term, charactersNotFoldedForLanguage), new StandardAnalyzer());
+			if (prefixes.isEmpty()) {
+				// Term query matches everything
+				return null;
+			}
+			prefixAlternatives.add(prefixes);
+		}
+
+		return index.get().findMatches(prefixAlternatives, criteria.getActive(), criteria.getSearchLanguageCodes(), criteria.getType(),
+				modules != null ? modules.stream().map(Long::parseLong).toList() : null,
+				CollectionUtils.isEmpty(conceptIdsCriteria) ? null : conceptIdsCriteria);
+	}
+
 	private Set<Long> filterOrderedSet(Set<Long> orderedIds, List<Long> idsToKeep) {
 		Set<Long> newSet = new LongLinkedOpenHashSet();
 		for (Long orderedId : orderedIds) {
@@ -1011,13 +1337,11 @@ public class DescriptionService extends ComponentService {
 
 	static NativeQuery addTermSort(NativeQuery query) {
 		query.addSort(Sort.by(Description.Fields.TERM_LEN));
-		query.addSort(Sort.by("_score"));
+		// Term clauses are filters so the score does not reflect the term match, description id gives a stable order that the term index can follow
+		query.addSort(Sort.by(Description.Fields.DESCRIPTION_ID));
 		return query;
 	}
 
-	private record SemanticTagCacheEntry(long branchHeadTime, Map<String, Long> tagCounts) {
-	}
-
 	static class DescriptionMatches {
 
 		private final Set<Long> conceptIds;
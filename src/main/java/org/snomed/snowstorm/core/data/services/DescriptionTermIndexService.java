@@ -0,0 +1,136 @@
+package org.snomed.snowstorm.core.data.services;
+
+import io.kaicode.elasticvc.api.BranchCriteria;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.snomed.snowstorm.core.data.domain.Description;
+import org.snomed.snowstorm.core.data.services.termindex.DescriptionTermIndex;
+import org.snomed.snowstorm.core.util.TimerUtil;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.elasticsearch.client.elc.NativeQueryBuilder;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.SearchHitsIterator;
+import org.springframework.data.elasticsearch.core.query.FetchSourceFilter;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+
+import static io.kaicode.elasticvc.api.ComponentService.LARGE_PAGE;
+import static java.lang.Long.parseLong;
+
+/**
+ * Holds in-memory word indexes of the descriptions of code system version branches, which do not change once created.
+ * Indexes are built lazily in the background the first time a version is searched. Until an index is ready callers should fall back to Elasticsearch.
+ */
+@Service
+public class DescriptionTermIndexService {
+
+	@Value("${cache.term-index.enabled}")
+	private boolean enabled;
+
+	@Value("${cache.term-index.max-indexes}")
+	private int maxIndexes;
+
+	@Autowired
+	private ElasticsearchOperations elasticsearchOperations;
+
+	@Autowired
+	private ExecutorService executorService;
+
+	// Access ordered so that the least recently used index is dropped first
+	private final Map<IndexKey, DescriptionTermIndex> indexes = new LinkedHashMap<>(16, 0.75f, true);
+
+	private final Set<IndexKey> indexesBuilding = ConcurrentHashMap.newKeySet();
+
+	private final Logger logger = LoggerFactory.getLogger(getClass());
+
+	/**
+	 * @return the term index of the branch version if one is ready, otherwise empty.
+	 * If the branch is a code system version an index will be built in the background.
+	 */
+	public Optional<DescriptionTermIndex> getIndex(BranchCriteria branchCriteria) {
+		String path = branchCriteria.getBranchPath();
+		if (!enabled || !CodeSystemService.isVersionBranch(path)) {
+			return Optional.empty();
+		}
+		IndexKey key = new IndexKey(path, branchCriteria.getTimepoint().getTime());
+		DescriptionTermIndex index;
+		synchronized (indexes) {
+			index = indexes.get(key);
+		}
+		if (index == null && indexesBuilding.add(key)) {
+			executorService.submit(() -> buildIndex(key, branchCriteria));
+		}
+		return Optional.ofNullable(index);
+	}
+
+	private void buildIndex(IndexKey key, BranchCriteria branchCriteria) {
+		try (StandardAnalyzer analyzer = new StandardAnalyzer()) {
+			TimerUtil timer = new TimerUtil("Term index " + key);
+			DescriptionTermIndex.Builder builder = DescriptionTermIndex.builder();
+			try (SearchHitsIterator<Description> stream = elasticsearchOperations.searchForStream(new NativeQueryBuilder()
+					.withQuery(branchCriteria.getEntityBranchCriteria(Description.class))
+					.withSourceFilter(new FetchSourceFilter(new String[]{Description.Fields.DESCRIPTION_ID, Description.Fields.CONCEPT_ID,
+							Description.Fields.ACTIVE, Description.Fields.LANGUAGE_CODE, Description.Fields.TYPE_ID, Description.Fields.MODULE_ID,
+							Description.Fields.TERM_LEN, Description.Fields.TERM_FOLDED}, null))
+					.withPageable(LARGE_PAGE)
+					.build(), Description.class)) {
+				while (stream.hasNext()) {
+					Description description = stream.next().getContent();
+					builder.add(parseLong(description.getDescriptionId()), parseLong(description.getConceptId()), description.isActive(),
+							description.getLanguageCode(), parseLong(description.getTypeId()), parseLong(description.getModuleId()),
+							description.getTermLen(), tokenize(description.getTermFolded(), analyzer));
+				}
+			}
+			DescriptionTermIndex index = builder.build();
+			synchronized (indexes) {
+				indexes.put(key, index);
+				Iterator<IndexKey> iterator = indexes.keySet().iterator();
+				while (indexes.size() > maxIndexes && iterator.hasNext()) {
+					IndexKey eldest = iterator.next();
+					iterator.remove();
+					logger.info("Term index {} dropped.", eldest);
+				}
+			}
+			timer.finish();
+			logger.info("Term index {} ready with {} descriptions and {} words.", key, index.size(), index.getWordCount());
+		} catch (Exception e) {
+			logger.error("Failed to build term index {}", key, e);
+		} finally {
+			indexesBuilding.remove(key);
+		}
+	}
+
+	// Same tokens as the standard analyzer of the folded term field
+	private List<String> tokenize(String termFolded, StandardAnalyzer analyzer) throws IOException {
+		if (termFolded == null) {
+			return Collections.emptyList();
+		}
+		List<String> words = new ArrayList<>();
+		try (TokenStream tokenStream = analyzer.tokenStream(Description.Fields.TERM_FOLDED, termFolded)) {
+			CharTermAttribute attribute = tokenStream.addAttribute(CharTermAttribute.class);
+			tokenStream.reset();
+			while (tokenStream.incrementToken()) {
+				words.add(attribute.toString());
+			}
+			tokenStream.end();
+		}
+		return words;
+	}
+
+	public void clearCache() {
+		synchronized (indexes) {
+			indexes.clear();
+		}
+	}
+
+	private record IndexKey(String path, long timepoint) {
+	}
+}
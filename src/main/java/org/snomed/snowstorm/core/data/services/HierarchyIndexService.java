@@ -0,0 +1,114 @@
+package org.snomed.snowstorm.core.data.services;
+
+import io.kaicode.elasticvc.api.BranchCriteria;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.snomed.snowstorm.core.data.domain.QueryConcept;
+import org.snomed.snowstorm.core.data.services.transitiveclosure.HierarchyIndex;
+import org.snomed.snowstorm.core.util.TimerUtil;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.elasticsearch.client.elc.NativeQueryBuilder;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.SearchHitsIterator;
+import org.springframework.data.elasticsearch.core.query.FetchSourceFilter;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+
+import static co.elastic.clients.elasticsearch._types.query_dsl.QueryBuilders.bool;
+import static io.kaicode.elasticvc.api.ComponentService.LARGE_PAGE;
+import static io.kaicode.elasticvc.helper.QueryHelper.termQuery;
+
+/**
+ * Holds in-memory hierarchy indexes for code system version branches, which do not change once created.
+ * Indexes are built lazily in the background the first time a version is used. Until an index is ready callers should fall back to the semantic index.
+ */
+@Service
+public class HierarchyIndexService {
+
+	@Value("${cache.hierarchy-index.enabled}")
+	private boolean enabled;
+
+	@Value("${cache.hierarchy-index.max-indexes}")
+	private int maxIndexes;
+
+	@Autowired
+	private ElasticsearchOperations elasticsearchOperations;
+
+	@Autowired
+	private ExecutorService executorService;
+
+	// Access ordered so that the least recently used index is dropped first
+	private final Map<IndexKey, HierarchyIndex> indexes = new LinkedHashMap<>(16, 0.75f, true);
+
+	private final Set<IndexKey> indexesBuilding = ConcurrentHashMap.newKeySet();
+
+	private final Logger logger = LoggerFactory.getLogger(getClass());
+
+	/**
+	 * @return the hierarchy index of the branch version if one is ready, otherwise empty.
+	 * If the branch is a code system version an index will be built in the background.
+	 */
+	public Optional<HierarchyIndex> getIndex(BranchCriteria branchCriteria, boolean stated) {
+		String path = branchCriteria.getBranchPath();
+		if (!enabled || !CodeSystemService.isVersionBranch(path)) {
+			return Optional.empty();
+		}
+		IndexKey key = new IndexKey(path, branchCriteria.getTimepoint().getTime(), stated);
+		HierarchyIndex index;
+		synchronized (indexes) {
+			index = indexes.get(key);
+		}
+		if (index == null && indexesBuilding.add(key)) {
+			executorService.submit(() -> buildIndex(key, branchCriteria));
+		}
+		return Optional.ofNullable(index);
+	}
+
+	private void buildIndex(IndexKey key, BranchCriteria branchCriteria) {
+		try {
+			TimerUtil timer = new TimerUtil("Hierarchy index " + key);
+			HierarchyIndex.Builder builder = HierarchyIndex.builder();
+			try (SearchHitsIterator<QueryConcept> stream = elasticsearchOperations.searchForStream(new NativeQueryBuilder()
+					.withQuery(bool(b -> b
+							.must(branchCriteria.getEntityBranchCriteria(QueryConcept.class))
+							.must(termQuery(QueryConcept.Fields.STATED, key.stated()))))
+					.withSourceFilter(new FetchSourceFilter(new String[]{QueryConcept.Fields.CONCEPT_ID, QueryConcept.Fields.PARENTS, QueryConcept.Fields.ANCESTORS}, null))
+					.withPageable(LARGE_PAGE)
+					.build(), QueryConcept.class)) {
+				stream.forEachRemaining(hit -> {
+					QueryConcept queryConcept = hit.getContent();
+					builder.add(queryConcept.getConceptIdL(), queryConcept.getParents(), queryConcept.getAncestors());
+				});
+			}
+			HierarchyIndex index = builder.build();
+			synchronized (indexes) {
+				indexes.put(key, index);
+				Iterator<IndexKey> iterator = indexes.keySet().iterator();
+				while (indexes.size() > maxIndexes && iterator.hasNext()) {
+					IndexKey eldest = iterator.next();
+					iterator.remove();
+					logger.info("Hierarchy index {} dropped.", eldest);
+				}
+			}
+			timer.finish();
+			logger.info("Hierarchy index {} ready with {} concepts.", key, index.size());
+		} catch (Exception e) {
+			logger.error("Failed to build hierarchy index {}", key, e);
+		} finally {
+			indexesBuilding.remove(key);
+		}
+	}
+
+	public void clearCache() {
+		synchronized (indexes) {
+			indexes.clear();
+		}
+	}
+
+	private record IndexKey(String path, long timepoint, boolean stated) {
+	}
+}
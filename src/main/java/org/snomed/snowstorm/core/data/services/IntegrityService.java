@@ -42,6 +42,9 @@ public class IntegrityService extends ComponentService implements CommitListener
 	@Autowired
 	private ElasticsearchOperations elasticsearchOperations;
 
+	@Autowired
+	private SlicedSearchService slicedSearchService;
+
 	@Autowired
 	private VersionControlHelper versionControlHelper;
 
@@ -485,15 +488,12 @@ public class IntegrityService extends ComponentService implements CommitListener
 		NativeQueryBuilder queryBuilder = new NativeQueryBuilder()
 				.withQuery(boolQueryBuilder.build()._toQuery())
 				.withPageable(LARGE_PAGE);
-		try (SearchHitsIterator<Relationship> relationshipStream = elasticsearchOperations.searchForStream(queryBuilder.build(), Relationship.class)) {
-			relationshipStream.forEachRemaining(hit -> {
-				Relationship relationship = hit.getContent();
-				long relationshipId = parseLong(relationship.getRelationshipId());
-				putIfInactive(relationship.getSourceId(), activeConcepts, relationshipId, relationshipWithInactiveSource);
-				putIfInactive(relationship.getTypeId(), activeConcepts, relationshipId, relationshipWithInactiveType);
-				putIfInactive(relationship.getDestinationId(), activeConcepts, relationshipId, relationshipWithInactiveDestination);
-			});
-		}
+		slicedSearchService.searchForStream(queryBuilder.build(), Relationship.class, relationship -> {
+			long relationshipId = parseLong(relationship.getRelationshipId());
+			putIfInactive(relationship.getSourceId(), activeConcepts, relationshipId, relationshipWithInactiveSource);
+			putIfInactive(relationship.getTypeId(), activeConcepts, relationshipId, relationshipWithInactiveType);
+			putIfInactive(relationship.getDestinationId(), activeConcepts, relationshipId, relationshipWithInactiveDestination);
+		});
 
 		// Find Axioms pointing to something other than the active concepts, use semantic index first.
 		Set<Long> conceptIdsWithBadAxioms = new LongOpenHashSet();
@@ -1,12 +1,17 @@
 package org.snomed.snowstorm.core.data.services;
 
 import co.elastic.clients.elasticsearch._types.SortOptions;
+import co.elastic.clients.elasticsearch._types.aggregations.AggregationBuilders;
+import co.elastic.clients.elasticsearch._types.aggregations.LongTermsBucket;
 import co.elastic.clients.elasticsearch._types.query_dsl.BoolQuery;
 import co.elastic.clients.elasticsearch._types.query_dsl.Query;
 import com.google.common.collect.Iterables;
 import io.kaicode.elasticvc.api.BranchCriteria;
 import io.kaicode.elasticvc.api.VersionControlHelper;
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
 import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -14,10 +19,14 @@ import org.snomed.snowstorm.core.data.domain.*;
 import org.snomed.snowstorm.core.data.services.identifier.IdentifierService;
 import org.snomed.snowstorm.core.data.services.pojo.DescriptionCriteria;
 import org.snomed.snowstorm.core.data.services.pojo.ResultMapPage;
+import org.snomed.snowstorm.core.data.services.transitiveclosure.HierarchyIndex;
 import org.snomed.snowstorm.core.pojo.BranchTimepoint;
 import org.snomed.snowstorm.core.pojo.LanguageDialect;
+import org.snomed.snowstorm.core.util.AggregationUtils;
 import org.snomed.snowstorm.core.util.PageHelper;
 import org.snomed.snowstorm.core.util.SearchAfterPage;
+import org.snomed.snowstorm.core.util.SearchAfterPageImpl;
+import org.snomed.snowstorm.core.util.SingleFlight;
 import org.snomed.snowstorm.core.util.StreamUtil;
 import org.snomed.snowstorm.core.util.TimerUtil;
 import org.snomed.snowstorm.ecl.ECLQueryService;
@@ -33,6 +42,7 @@ import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Sort;
 import org.springframework.data.elasticsearch.core.*;
+import org.springframework.data.elasticsearch.client.elc.Aggregation;
 import org.springframework.data.elasticsearch.client.elc.NativeQuery;
 import org.springframework.data.elasticsearch.client.elc.NativeQueryBuilder;
 import org.springframework.data.elasticsearch.core.query.FetchSourceFilter;
@@ -60,6 +70,7 @@ import static org.snomed.snowstorm.ecl.ConceptSelectorHelper.getDefaultSortForCo
 public class QueryService implements ApplicationContextAware {
 
 	static final PageRequest PAGE_OF_ONE = PageRequest.of(0, 1);
+	private static final String DESCENDANT_COUNT_AGGREGATION = "descendantCount";
 
 	@Autowired
 	private ElasticsearchOperations elasticsearchOperations;
@@ -73,8 +84,13 @@ public class QueryService implements ApplicationContextAware {
 	@Autowired
 	private DescriptionService descriptionService;
 
+	@Autowired
+	private HierarchyIndexService hierarchyIndexService;
+
 	private ConceptService conceptService;
 
+	private final SingleFlight<SearchKey, Optional<SearchAfterPage<Long>>> searchFlights = new SingleFlight<>();
+
 	private final Logger logger = LoggerFactory.getLogger(getClass());
 
 	public Page<ConceptMini> eclSearch(String ecl, boolean stated, String branchPath, PageRequest pageRequest) {
@@ -141,11 +157,15 @@ public class QueryService implements ApplicationContextAware {
 			}
 		}
 
-		Optional<SearchAfterPage<Long>> conceptIdPageOptional = doSearchForIds(conceptQuery, branchCriteria, pageRequest);
+		// Identical searches arriving while this one runs wait for the same concept ids. Each request still gets its own copies of the concept minis,
+		// callers go on to modify those.
+		final PageRequest searchPageRequest = pageRequest;
+		Optional<SearchAfterPage<Long>> conceptIdPageOptional = searchFlights.execute(new SearchKey(branchCriteria, conceptQuery, pageRequest),
+				() -> doSearchForIds(conceptQuery, branchCriteria, searchPageRequest));
 
 		if (conceptIdPageOptional.isPresent()) {
 			SearchAfterPage<Long> conceptIdPage = conceptIdPageOptional.get();
-			ResultMapPage<String, ConceptMini> conceptMinis = conceptService.findConceptMinis(branchCriteria, conceptIdPage.getContent(), conceptQuery.getResultLanguageDialects());
+			ResultMapPage<String, ConceptMini> conceptMinis = conceptService.findCachedConceptMinis(branchCriteria, conceptIdPage.getContent(), conceptQuery.getResultLanguageDialects());
 			List<ConceptMini> conceptMinisSorted = sortConceptMinisByTermOrder(conceptIdPage.getContent(), conceptMinis.getResultsMap());
 			return PageHelper.toSearchAfterPage(conceptMinisSorted, conceptIdPage);
 		} else {
@@ -223,10 +243,6 @@ public class QueryService implements ApplicationContextAware {
 
 		} else {
 			// Logical and Lexical
-
-			// Perform lexical search first because this probably the smaller set.
-			// We fetch all lexical results then use them to filter the logical matches and for ordering of the final results.
-			logger.info("Lexical search before logical {}", term);
 			TimerUtil timer = new TimerUtil("Lexical and Logical Search");
 			// Convert Set of String to set of Long
 			Set<Long> conceptIds = Collections.emptySet();
@@ -235,6 +251,17 @@ public class QueryService implements ApplicationContextAware {
 						.map(Long::parseLong)
 						.collect(Collectors.toSet());
 			}
+
+			if (conceptQuery.getEcl() != null && descriptionService.canStreamConceptIds(descriptionCriteria)) {
+				conceptIdPage = doStreamedLexicalAndEclSearch(conceptQuery, descriptionCriteria, conceptIds, branchCriteria, pageRequest, timer);
+				if (conceptIdPage != null) {
+					return Optional.of(conceptIdPage);
+				}
+			}
+
+			// Perform lexical search first because this probably the smaller set.
+			// We fetch all lexical results then use them to filter the logical matches and for ordering of the final results.
+			logger.info("Lexical search before logical {}", term);
 			final Collection<Long> allConceptIdsSortedByTermOrder = descriptionService.findDescriptionAndConceptIds(descriptionCriteria, conceptIds, branchCriteria, timer).getMatchedConceptIds();
 			timer.checkpoint("lexical complete");
 
@@ -347,6 +374,70 @@ public class QueryService implements ApplicationContextAware {
 		}
 	}
 
+	/**
+	 * Intersects lexical and ECL matches without collecting all the lexical matches, when the ECL matches are the smaller set
+	 * or there are too many lexical matches to collect. The ECL matches are loaded into a set, then matching concepts are read in term order
+	 * and checked against it until there are enough results for the requested page and one more.
+	 * Lexical matches are only counted up to the number that can be collected. The ECL total is only requested when they can all be collected,
+	 * and the ECL matches are only selected in full when they are the smaller set or the lexical matches are too many.
+	 * Lexical matches are counted in full only if the stream is not finished, to estimate the total from the proportion read.
+	 * @return the page of concept ids or null if the lexical matches should be collected first
+	 */
+	private SearchAfterPage<Long> doStreamedLexicalAndEclSearch(ConceptQueryBuilder conceptQuery, DescriptionCriteria descriptionCriteria, Set<Long> conceptIds,
+			BranchCriteria branchCriteria, PageRequest pageRequest, TimerUtil timer) {
+
+		// Collecting the lexical matches first is better if there are no more of them than logical matches and not too many to collect
+		int maxProcessable = descriptionService.getAggregationMaxProcessableResultsSize();
+		long lexicalCount = descriptionService.countDescriptions(descriptionCriteria, conceptIds, branchCriteria, maxProcessable + 1);
+		Collection<Long> conceptIdFilter = conceptIds.isEmpty() ? null : conceptIds;
+		if (lexicalCount <= maxProcessable) {
+			long logicalTotal = eclQueryService.selectConceptIds(conceptQuery.getEcl(), branchCriteria, conceptQuery.isStated(), conceptIdFilter, PAGE_OF_ONE).getTotalElements();
+			timer.checkpoint("count lexical and logical");
+			if (logicalTotal >= lexicalCount) {
+				return null;
+			}
+		} else {
+			timer.checkpoint("count lexical");
+		}
+		logger.info("Logical search before lexical {}, {} lexical results, max {} processable", descriptionCriteria.getTerm(), lexicalCount, maxProcessable);
+
+		List<Long> eclMatches = doEclSearch(conceptQuery, branchCriteria, conceptIdFilter);
+		timer.checkpoint("logical complete");
+		Set<Long> logicalMatches = new LongOpenHashSet(applyConceptPropertyFilters(eclMatches, conceptQuery, branchCriteria, new LongArrayList()));
+		timer.checkpoint("logical filters complete");
+
+		// Matches needed for the requested page and one more, to know if there is another page
+		Object[] searchAfter = pageRequest instanceof SearchAfterPageRequest searchAfterPageRequest ? searchAfterPageRequest.getSearchAfter() : null;
+		int[] matchesRequired = {Integer.MAX_VALUE};
+		if (pageRequest != null && !(pageRequest instanceof SearchAfterPageRequest)) {
+			matchesRequired[0] = (int) Math.min(((long) pageRequest.getPageNumber() + 1) * pageRequest.getPageSize() + 1, Integer.MAX_VALUE);
+		}
+		List<Long> matches = new LongArrayList();
+		boolean[] finished = {true};
+		long descriptionsRead = descriptionService.streamConceptIdsInTermOrder(descriptionCriteria, conceptIds, branchCriteria, conceptId -> {
+			if (logicalMatches.contains(conceptId)) {
+				matches.add(conceptId);
+				if (searchAfter != null && matchesRequired[0] == Integer.MAX_VALUE && Arrays.equals(searchAfter, CONCEPT_ID_SEARCH_AFTER_EXTRACTOR.apply(conceptId))) {
+					matchesRequired[0] = matches.size() + pageRequest.getPageSize() + 1;
+				}
+				if (matches.size() >= matchesRequired[0]) {
+					finished[0] = false;
+					return false;
+				}
+			}
+			return true;
+		});
+		timer.checkpoint("lexical stream complete");
+
+		long total = matches.size();
+		if (!finished[0] && descriptionsRead > 0) {
+			long lexicalTotal = descriptionService.countDescriptions(descriptionCriteria, conceptIds, branchCriteria);
+			total = Math.max(total, Math.round((double) matches.size() * lexicalTotal / descriptionsRead));
+		}
+		SearchAfterPage<Long> page = PageHelper.fullListToPage(matches, pageRequest, CONCEPT_ID_SEARCH_AFTER_EXTRACTOR);
+		return new SearchAfterPageImpl<>(page.getContent(), page.getPageable(), total, page.getSearchAfter());
+	}
+
 	private List<Long> doEclSearch(ConceptQueryBuilder conceptQuery, BranchCriteria branchCriteria, Collection<Long> conceptIdFilter) {
 		String ecl = conceptQuery.getEcl();
 		logger.debug("ECL Search {}", ecl);
@@ -376,6 +467,10 @@ public class QueryService implements ApplicationContextAware {
 	}
 
 	public Set<Long> findAncestorIds(BranchCriteria branchCriteria, String path, boolean stated, String conceptId) {
+		Optional<HierarchyIndex> hierarchyIndex = hierarchyIndexService.getIndex(branchCriteria, stated);
+		if (hierarchyIndex.isPresent()) {
+			return hierarchyIndex.get().getAncestors(Collections.singleton(Long.parseLong(conceptId)));
+		}
 		final NativeQuery searchQuery = new NativeQueryBuilder()
 				.withQuery(bool(b -> b
 						.must(branchCriteria.getEntityBranchCriteria(QueryConcept.class))
@@ -394,6 +489,10 @@ public class QueryService implements ApplicationContextAware {
 	}
 
 	public Set<Long> findAncestorIdsAsUnion(BranchCriteria branchCriteria, boolean stated, Collection<Long> conceptId) {
+		Optional<HierarchyIndex> hierarchyIndex = hierarchyIndexService.getIndex(branchCriteria, stated);
+		if (hierarchyIndex.isPresent()) {
+			return hierarchyIndex.get().getAncestors(conceptId);
+		}
 		final NativeQuery searchQuery = new NativeQueryBuilder()
 				.withQuery(bool(b -> b
 						.must(branchCriteria.getEntityBranchCriteria(QueryConcept.class))
@@ -412,6 +511,10 @@ public class QueryService implements ApplicationContextAware {
 	}
 
 	public Set<Long> findParentIdsAsUnion(BranchCriteria branchCriteria, boolean stated, Collection<Long> conceptId) {
+		Optional<HierarchyIndex> hierarchyIndex = hierarchyIndexService.getIndex(branchCriteria, stated);
+		if (hierarchyIndex.isPresent()) {
+			return hierarchyIndex.get().getParents(conceptId);
+		}
 		final NativeQuery searchQuery = new NativeQueryBuilder()
 				.withQuery(bool(b -> b
 						.must(branchCriteria.getEntityBranchCriteria(QueryConcept.class))
@@ -430,6 +533,10 @@ public class QueryService implements ApplicationContextAware {
 	}
 
 	public Set<Long> findDescendantIdsAsUnion(BranchCriteria branchCriteria, boolean stated, Collection<Long> conceptIds) {
+		Optional<HierarchyIndex> hierarchyIndex = hierarchyIndexService.getIndex(branchCriteria, stated);
+		if (hierarchyIndex.isPresent()) {
+			return hierarchyIndex.get().getDescendants(conceptIds);
+		}
 		final NativeQuery searchQuery = new NativeQueryBuilder()
 				.withQuery(bool(b -> b
 						.must(branchCriteria.getEntityBranchCriteria(QueryConcept.class))
@@ -445,6 +552,10 @@ public class QueryService implements ApplicationContextAware {
 	}
 
 	public Set<Long> findChildrenIdsAsUnion(BranchCriteria branchCriteria, boolean stated, Collection<Long> conceptIds) {
+		Optional<HierarchyIndex> hierarchyIndex = hierarchyIndexService.getIndex(branchCriteria, stated);
+		if (hierarchyIndex.isPresent()) {
+			return hierarchyIndex.get().getChildren(conceptIds);
+		}
 		final NativeQuery searchQuery = new NativeQueryBuilder()
 				.withQuery(bool(b -> b
 						.must(branchCriteria.getEntityBranchCriteria(QueryConcept.class))
@@ -484,28 +595,38 @@ public class QueryService implements ApplicationContextAware {
 		} catch (IllegalStateException e) {
 			throw new ServiceException(String.format("Multiple documents found with the same conceptId '%s' on branch %s", e.getMessage(), branch), e);
 		}
-		Set<Long> conceptIdsToFind = new HashSet<>(conceptMap.keySet());
-		NativeQueryBuilder queryBuilder = new NativeQueryBuilder()
-				.withQuery(bool(b -> b
-						.must(branchCriteria.getEntityBranchCriteria(QueryConcept.class))
-						.must(termQuery(QueryConcept.Fields.STATED, form == Relationship.CharacteristicType.stated))
-						.must(termsQuery(QueryConcept.Fields.PARENTS, conceptIdsToFind))))
-				.withPageable(LARGE_PAGE);
-		try (SearchHitsIterator<QueryConcept> children = elasticsearchOperations.searchForStream(queryBuilder.build(), QueryConcept.class)) {
-			children.forEachRemaining(hit -> {
-				if (conceptIdsToFind.isEmpty()) {
-					return;
-				}
-				Set<Long> parents = hit.getContent().getParents();
-				for (Long parent : parents) {
-					if (conceptIdsToFind.contains(parent)) {
-						// Concept has at least one child in this form - mark as not a leaf.
-						conceptMap.get(parent).setLeaf(form, false);
-						// We don't need to check this one again
-						conceptIdsToFind.remove(parent);
+		boolean stated = form == Relationship.CharacteristicType.stated;
+		for (List<Long> batch : Iterables.partition(conceptMap.keySet(), CLAUSE_LIMIT)) {
+			Set<Long> conceptIdsToFind = new LongOpenHashSet(batch);
+			// One search for the documents of the concepts, which hold the stored counts, and their children.
+			// The documents of the concepts score higher so come first, usually no children need to be read.
+			NativeQueryBuilder queryBuilder = new NativeQueryBuilder()
+					.withQuery(bool(b -> b
+							.filter(branchCriteria.getEntityBranchCriteria(QueryConcept.class))
+							.filter(termQuery(QueryConcept.Fields.STATED, stated))
+							.should(constantScore(c -> c.filter(termsQuery(QueryConcept.Fields.CONCEPT_ID, batch)).boost(2f)))
+							.should(constantScore(c -> c.filter(termsQuery(QueryConcept.Fields.PARENTS, batch)).boost(1f)))
+							.minimumShouldMatch("1")))
+					.withSourceFilter(new FetchSourceFilter(new String[]{QueryConcept.Fields.CONCEPT_ID, QueryConcept.Fields.PARENTS,
+							QueryConcept.Fields.CHILD_COUNT}, null))
+					.withSort(Sort.by(Sort.Direction.DESC, "_score"))
+					.withPageable(LARGE_PAGE);
+			try (SearchHitsIterator<QueryConcept> queryConcepts = elasticsearchOperations.searchForStream(queryBuilder.build(), QueryConcept.class)) {
+				while (!conceptIdsToFind.isEmpty() && queryConcepts.hasNext()) {
+					QueryConcept queryConcept = queryConcepts.next().getContent();
+					Long conceptId = queryConcept.getConceptIdL();
+					if (queryConcept.getChildCount() != null && conceptIdsToFind.remove(conceptId)) {
+						conceptMap.get(conceptId).setLeaf(form, queryConcept.getChildCount() == 0);
+					}
+					Set<Long> parents = queryConcept.getParents() != null ? queryConcept.getParents() : Collections.emptySet();
+					for (Long parent : parents) {
+						if (conceptIdsToFind.remove(parent)) {
+							// Concept has at least one child in this form - mark as not a leaf.
+							conceptMap.get(parent).setLeaf(form, false);
+						}
 					}
 				}
-			});
+			}
 		}
 	}
 
@@ -514,13 +635,146 @@ public class QueryService implements ApplicationContextAware {
 			return;
 		}
 
+		Set<Long> conceptIds = concepts.stream().map(concept -> Long.parseLong(concept.getConceptId())).collect(Collectors.toSet());
+		Map<Long, Long> descendantCounts = findDescendantCounts(branchCriteria, form == Relationship.CharacteristicType.stated, conceptIds);
 		for (ConceptMini concept : concepts) {
-			SearchAfterPage<Long> page = searchForIds(createQueryBuilder(form).ecl("<" + concept.getId()), branchCriteria, PAGE_OF_ONE);
-			concept.setDescendantCount(page.getTotalElements());
-			concept.setLeaf(form, page.getTotalElements() == 0);
+			long descendantCount = descendantCounts.getOrDefault(Long.parseLong(concept.getConceptId()), 0L);
+			concept.setDescendantCount(descendantCount);
+			concept.setLeaf(form, descendantCount == 0);
+		}
+	}
+
+	/**
+	 * Counts the descendants of each of the concepts in one pass.
+	 * Uses the hierarchy index when it is loaded, otherwise the counts held in the semantic index. Concepts without stored counts
+	 * are counted using a terms aggregation on the ancestors of the concepts below any of them.
+	 * @return map of concept id to number of descendants, concepts without descendants may be missing.
+	 */
+	public Map<Long, Long> findDescendantCounts(BranchCriteria branchCriteria, boolean stated, Collection<Long> conceptIds) {
+		Map<Long, Long> descendantCounts = new Long2LongOpenHashMap();
+		Optional<HierarchyIndex> hierarchyIndex = hierarchyIndexService.getIndex(branchCriteria, stated);
+		if (hierarchyIndex.isPresent()) {
+			for (Long conceptId : conceptIds) {
+				descendantCounts.put(conceptId, (long) hierarchyIndex.get().getDescendantCount(conceptId));
+			}
+			return descendantCounts;
+		}
+		Set<Long> conceptIdsToCount = new LongOpenHashSet(conceptIds);
+		for (QueryConcept counted : findStoredCounts(branchCriteria, stated, conceptIds).values()) {
+			descendantCounts.put(counted.getConceptIdL(), (long) counted.getDescendantCount());
+			conceptIdsToCount.remove(counted.getConceptIdL());
+		}
+		for (List<Long> batch : Iterables.partition(conceptIdsToCount, CLAUSE_LIMIT)) {
+			List<String> batchIds = batch.stream().map(String::valueOf).toList();
+			SearchHits<QueryConcept> searchHits = elasticsearchOperations.search(new NativeQueryBuilder()
+					.withQuery(bool(b -> b
+							.must(branchCriteria.getEntityBranchCriteria(QueryConcept.class))
+							.must(termQuery(QueryConcept.Fields.STATED, stated))
+							.must(termsQuery(QueryConcept.Fields.ANCESTORS, batch))))
+					.withSourceFilter(new FetchSourceFilter(new String[]{QueryConcept.Fields.CONCEPT_ID}, null))
+					.withPageable(PAGE_OF_ONE)
+					.withAggregation(DESCENDANT_COUNT_AGGREGATION, AggregationBuilders.terms(a -> a
+							.field(QueryConcept.Fields.ANCESTORS)
+							.include(i -> i.terms(batchIds))
+							.size(batchIds.size())))
+					.build(), QueryConcept.class);
+			Aggregation aggregation = AggregationUtils.getAggregations(searchHits.getAggregations()).get(DESCENDANT_COUNT_AGGREGATION);
+			if (aggregation != null && aggregation.getAggregate().isLterms()) {
+				for (LongTermsBucket bucket : aggregation.getAggregate().lterms().buckets().array()) {
+					descendantCounts.put(bucket.key(), bucket.docCount());
+				}
+			}
+		}
+		return descendantCounts;
+	}
+
+	/**
+	 * Finds one path from each concept up to the top of the hierarchy. At each step the parent with the highest concept id is followed,
+	 * which is the first parent in the order of ECL results. The parents of every concept on every path are loaded together
+	 * using the ancestors of the concepts, rather than one search per step.
+	 * @return map of concept id to the ids on its path, starting with a parent of the concept and ending at the top of the hierarchy.
+	 */
+	public Map<Long, List<Long>> findAncestorPaths(BranchCriteria branchCriteria, boolean stated, Collection<Long> conceptIds) {
+		Function<Long, Set<Long>> parentLookup;
+		Optional<HierarchyIndex> hierarchyIndex = hierarchyIndexService.getIndex(branchCriteria, stated);
+		if (hierarchyIndex.isPresent()) {
+			parentLookup = conceptId -> hierarchyIndex.get().getParents(Collections.singleton(conceptId));
+		} else {
+			Map<Long, Set<Long>> conceptParents = new Long2ObjectOpenHashMap<>();
+			Set<Long> ancestorIds = new LongOpenHashSet();
+			findParents(branchCriteria, stated, conceptIds, conceptParents, ancestorIds);
+			ancestorIds.removeAll(conceptParents.keySet());
+			findParents(branchCriteria, stated, ancestorIds, conceptParents, null);
+			parentLookup = conceptId -> conceptParents.getOrDefault(conceptId, Collections.emptySet());
+		}
+
+		Map<Long, List<Long>> ancestorPaths = new Long2ObjectOpenHashMap<>();
+		for (Long conceptId : conceptIds) {
+			List<Long> path = new ArrayList<>();
+			Set<Long> visited = new LongOpenHashSet();
+			visited.add(conceptId);
+			Optional<Long> parent = parentLookup.apply(conceptId).stream().max(Long::compare);
+			// Stop if there is a loop in the hierarchy
+			while (parent.isPresent() && visited.add(parent.get())) {
+				path.add(parent.get());
+				parent = parentLookup.apply(parent.get()).stream().max(Long::compare);
+			}
+			ancestorPaths.put(conceptId, path);
+		}
+		return ancestorPaths;
+	}
+
+	private void findParents(BranchCriteria branchCriteria, boolean stated, Collection<Long> conceptIds, Map<Long, Set<Long>> conceptParents, Set<Long> ancestorIds) {
+		String[] fields = ancestorIds != null ?
+				new String[]{QueryConcept.Fields.CONCEPT_ID, QueryConcept.Fields.PARENTS, QueryConcept.Fields.ANCESTORS} :
+				new String[]{QueryConcept.Fields.CONCEPT_ID, QueryConcept.Fields.PARENTS};
+		for (List<Long> batch : Iterables.partition(conceptIds, CLAUSE_LIMIT)) {
+			try (SearchHitsIterator<QueryConcept> queryConcepts = elasticsearchOperations.searchForStream(new NativeQueryBuilder()
+					.withQuery(bool(b -> b
+							.must(branchCriteria.getEntityBranchCriteria(QueryConcept.class))
+							.must(termQuery(QueryConcept.Fields.STATED, stated))
+							.filter(termsQuery(QueryConcept.Fields.CONCEPT_ID, batch))))
+					.withSourceFilter(new FetchSourceFilter(fields, null))
+					.withPageable(LARGE_PAGE)
+					.build(), QueryConcept.class)) {
+				queryConcepts.forEachRemaining(hit -> {
+					QueryConcept queryConcept = hit.getContent();
+					conceptParents.put(queryConcept.getConceptIdL(), queryConcept.getParents() != null ? queryConcept.getParents() : Collections.emptySet());
+					if (ancestorIds != null && queryConcept.getAncestors() != null) {
+						ancestorIds.addAll(queryConcept.getAncestors());
+					}
+				});
+			}
 		}
 	}
 
+	/**
+	 * Loads the child and descendant counts held in the semantic index.
+	 * @return the documents of the concepts which have both counts, by concept id. Only the counts are loaded.
+	 */
+	private Map<Long, QueryConcept> findStoredCounts(BranchCriteria branchCriteria, boolean stated, Collection<Long> conceptIds) {
+		Map<Long, QueryConcept> counted = new Long2ObjectOpenHashMap<>();
+		for (List<Long> batch : Iterables.partition(conceptIds, CLAUSE_LIMIT)) {
+			try (SearchHitsIterator<QueryConcept> queryConcepts = elasticsearchOperations.searchForStream(new NativeQueryBuilder()
+					.withQuery(bool(b -> b
+							.must(branchCriteria.getEntityBranchCriteria(QueryConcept.class))
+							.must(termQuery(QueryConcept.Fields.STATED, stated))
+							.filter(termsQuery(QueryConcept.Fields.CONCEPT_ID, batch))))
+					.withSourceFilter(new FetchSourceFilter(new String[]{QueryConcept.Fields.CONCEPT_ID, QueryConcept.Fields.CHILD_COUNT,
+							QueryConcept.Fields.DESCENDANT_COUNT}, null))
+					.withPageable(LARGE_PAGE)
+					.build(), QueryConcept.class)) {
+				queryConcepts.forEachRemaining(hit -> {
+					QueryConcept queryConcept = hit.getContent();
+					if (queryConcept.getChildCount() != null && queryConcept.getDescendantCount() != null) {
+						counted.put(queryConcept.getConceptIdL(), queryConcept);
+					}
+				});
+			}
+		}
+		return counted;
+	}
+
 	public void joinDescendantCount(Concept concept, Relationship.CharacteristicType form, List<LanguageDialect> languageDialects, BranchTimepoint branchTimepoint) {
 		if (concept == null) {
 			return;
@@ -536,6 +790,22 @@ public class QueryService implements ApplicationContextAware {
 		conceptService = applicationContext.getBean(ConceptService.class);
 	}
 
+	/**
+	 * @return counts of concept searches run and of identical concurrent searches which waited for one of those instead.
+	 */
+	public Map<String, Long> getCoalescingStats() {
+		return searchFlights.getStats();
+	}
+
+	private record SearchKey(String path, long timepoint, ConceptQueryBuilder conceptQuery, PageRequest pageRequest, List<Object> searchAfter) {
+
+		SearchKey(BranchCriteria branchCriteria, ConceptQueryBuilder conceptQuery, PageRequest pageRequest) {
+			this(branchCriteria.getBranchPath(), branchCriteria.getTimepoint().getTime(), conceptQuery, pageRequest,
+					pageRequest instanceof SearchAfterPageRequest searchAfterPageRequest && searchAfterPageRequest.getSearchAfter() != null ?
+							Arrays.asList(searchAfterPageRequest.getSearchAfter()) : null);
+		}
+	}
+
 	public static final class ConceptQueryBuilder {
 
 		private final boolean stated;
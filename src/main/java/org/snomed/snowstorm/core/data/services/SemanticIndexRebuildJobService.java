@@ -0,0 +1,187 @@
+package org.snomed.snowstorm.core.data.services;
+
+import ch.qos.logback.classic.Level;
+import io.kaicode.elasticvc.api.BranchCriteria;
+import io.kaicode.elasticvc.api.BranchService;
+import io.kaicode.elasticvc.api.VersionControlHelper;
+import io.kaicode.elasticvc.domain.Branch;
+import io.kaicode.elasticvc.domain.Commit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.snomed.otf.owltoolkit.conversion.ConversionException;
+import org.snomed.snowstorm.core.data.domain.Form;
+import org.snomed.snowstorm.core.data.domain.JobStatus;
+import org.snomed.snowstorm.core.data.domain.SemanticIndexRebuildJob;
+import org.snomed.snowstorm.core.data.repositories.SemanticIndexRebuildJobRepository;
+import org.snomed.snowstorm.core.data.services.SemanticIndexUpdateService.ConceptIdRange;
+import org.snomed.snowstorm.core.data.services.SemanticIndexUpdateService.SemanticGraph;
+import org.snomed.snowstorm.core.data.services.transitiveclosure.GraphBuilderException;
+import org.snomed.snowstorm.core.util.TimerUtil;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Runs a complete rebuild of the semantic index as a job which saves the changes in concept id order, in a series of commits.
+ * Progress is saved in the job after each commit so an interrupted rebuild can be resumed rather than started again.
+ * The graph of each form is built in memory again when a job is resumed, only the concepts already saved are skipped.
+ * If the branch has changed since the last checkpoint the saved concepts were built from an older graph, so the job starts again instead.
+ */
+@Service
+public class SemanticIndexRebuildJobService {
+
+	@Autowired
+	private SemanticIndexUpdateService semanticIndexUpdateService;
+
+	@Autowired
+	private SemanticIndexRebuildJobRepository semanticIndexRebuildJobRepository;
+
+	@Autowired
+	private BranchService branchService;
+
+	@Autowired
+	private VersionControlHelper versionControlHelper;
+
+	@Autowired
+	private ExecutorService executorService;
+
+	@Value("${semantic-indexing.rebuild.chunk-size}")
+	private int chunkSize;
+
+	private final Set<String> runningBranches = ConcurrentHashMap.newKeySet();
+
+	private static final List<Form> FORM_ORDER = List.of(Form.STATED, Form.INFERRED);
+
+	private final Logger logger = LoggerFactory.getLogger(getClass());
+
+	/**
+	 * Starts a complete rebuild of the semantic index of the branch, or resumes the last one which did not complete.
+	 */
+	public SemanticIndexRebuildJob startOrResume(String branchPath) {
+		Branch branch = branchService.findBranchOrThrow(branchPath);
+		if (!semanticIndexUpdateService.isCompleteRebuild(branch)) {
+			throw new IllegalArgumentException("The semantic index of branch " + branchPath + " is not rebuilt completely, please use the rebuild-semantic-index action instead.");
+		}
+		if (!runningBranches.add(branchPath)) {
+			throw new IllegalStateException("A semantic index rebuild is already running on branch " + branchPath + ".");
+		}
+
+		SemanticIndexRebuildJob job;
+		try {
+			job = semanticIndexRebuildJobRepository.findByBranchPathAndStatusIn(branchPath, List.of(JobStatus.IN_PROGRESS, JobStatus.FAILED)).stream()
+					.max(Comparator.comparing(SemanticIndexRebuildJob::getStartDate))
+					.orElseGet(() -> new SemanticIndexRebuildJob(branchPath));
+			if (job.getForm() != null && !Objects.equals(job.getBranchHeadTimestamp(), branch.getHeadTimestamp())) {
+				logger.info("Branch {} has changed since the last checkpoint of semantic index rebuild {}, restarting the rebuild of each form.", branchPath, job.getId());
+				job.restart();
+			} else if (job.getCheckpointConceptId() != null) {
+				logger.info("Resuming semantic index rebuild {} on {} after concept {} of the {} form.", job.getId(), branchPath, job.getCheckpointConceptId(), job.getForm());
+			}
+			job.startRun();
+			semanticIndexRebuildJobRepository.save(job);
+		} catch (RuntimeException e) {
+			runningBranches.remove(branchPath);
+			throw e;
+		}
+
+		final SemanticIndexRebuildJob rebuildJob = job;
+		final SecurityContext securityContext = SecurityContextHolder.getContext();
+		executorService.submit(() -> {
+			// Bring user security context into new thread
+			SecurityContextHolder.setContext(securityContext);
+			run(rebuildJob);
+		});
+		return job;
+	}
+
+	public SemanticIndexRebuildJob getJobOrThrow(String id) {
+		return semanticIndexRebuildJobRepository.findById(id).orElseThrow(() -> new NotFoundException("Semantic index rebuild job not found."));
+	}
+
+	private void run(SemanticIndexRebuildJob job) {
+		try {
+			for (Form form : FORM_ORDER) {
+				if (!job.isFormComplete(form)) {
+					rebuildForm(job, form);
+				}
+			}
+			job.setStatus(JobStatus.COMPLETED);
+			job.setEndDate(new Date());
+			semanticIndexRebuildJobRepository.save(job);
+			logger.info("Semantic index rebuild {} on {} complete, {} concepts saved.", job.getId(), job.getBranchPath(), job.getConceptsSaved());
+		} catch (Exception e) {
+			job.setStatus(JobStatus.FAILED);
+			job.setMessage(e.getMessage());
+			semanticIndexRebuildJobRepository.save(job);
+			logger.error("Failed to rebuild semantic index on {}, the job {} can be resumed.", job.getBranchPath(), job.getId(), e);
+		} finally {
+			runningBranches.remove(job.getBranchPath());
+		}
+	}
+
+	private void rebuildForm(SemanticIndexRebuildJob job, Form form) throws ConversionException, ServiceException, GraphBuilderException {
+		final String branchPath = job.getBranchPath();
+		TimerUtil timer = new TimerUtil("TC index rebuild " + form.getName(), Level.INFO, 1);
+
+		Branch branch = branchService.findBranchOrThrow(branchPath);
+		BranchCriteria branchCriteria = versionControlHelper.getBranchCriteria(branch);
+		SemanticGraph graph = semanticIndexUpdateService.buildSemanticGraph(form, Collections.emptySet(), true, branchCriteria, null,
+				branchCriteria, branchCriteria, timer);
+
+		long[] conceptIds = graph.getSortedConceptIds();
+		Long checkpoint = job.getCheckpointConceptId(form);
+		long after = checkpoint != null ? checkpoint : Long.MIN_VALUE;
+		int start = 0;
+		while (start < conceptIds.length && conceptIds[start] <= after) {
+			start++;
+		}
+		// The inferred form is about the same size as the stated one
+		job.setConceptsTotal(job.getConceptsProcessed() + (conceptIds.length - start) + (form == Form.STATED ? conceptIds.length : 0));
+		long expectedHeadTimestamp = branch.getHeadTimestamp();
+		job.setBranchHeadTimestamp(expectedHeadTimestamp);
+		semanticIndexRebuildJobRepository.save(job);
+
+		int end;
+		do {
+			end = Math.min(start + chunkSize, conceptIds.length);
+			// The last range also covers existing documents of concepts which are no longer in the graph
+			long to = end == conceptIds.length ? Long.MAX_VALUE : conceptIds[end - 1];
+			ConceptIdRange range = new ConceptIdRange(after, to);
+
+			int saved;
+			boolean committed;
+			Commit commit = semanticIndexUpdateService.openRebuildCommit(branchPath);
+			try (commit) {
+				if (commit.getBranch().getHeadTimestamp() != expectedHeadTimestamp) {
+					throw new IllegalStateException("Branch " + branchPath + " has changed since the semantic index rebuild started, please resume the job to rebuild it again.");
+				}
+				saved = semanticIndexUpdateService.saveSemanticIndexChanges(form, commit, graph, versionControlHelper.getBranchCriteria(commit.getBranch()),
+						true, false, null, range, timer);
+				committed = saved > 0;
+				if (committed) {
+					commit.markSuccessful();
+				}
+			} finally {
+				semanticIndexUpdateService.closeRebuildCommit(commit);
+			}
+			if (committed) {
+				expectedHeadTimestamp = commit.getTimepoint().getTime();
+				job.setBranchHeadTimestamp(expectedHeadTimestamp);
+			}
+
+			job.checkpoint(form, to, end - start, saved);
+			semanticIndexRebuildJobRepository.save(job);
+			logger.info("Semantic index rebuild {} on {}, {} form saved up to concept {}, {} of about {} concepts processed.",
+					job.getId(), branchPath, form.getName(), to == Long.MAX_VALUE ? "(last)" : to, job.getConceptsProcessed(), job.getConceptsTotal());
+			after = to;
+			start = end;
+		} while (end < conceptIds.length);
+		timer.finish();
+	}
+}
@@ -2,15 +2,23 @@ package org.snomed.snowstorm.core.data.services;
 
 import ch.qos.logback.classic.Level;
 import co.elastic.clients.elasticsearch._types.SortOptions;
+import co.elastic.clients.elasticsearch._types.aggregations.AggregationBuilders;
+import co.elastic.clients.elasticsearch._types.aggregations.LongTermsBucket;
 import co.elastic.clients.elasticsearch._types.query_dsl.BoolQuery;
+import co.elastic.clients.json.JsonData;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import io.kaicode.elasticvc.api.*;
 import io.kaicode.elasticvc.domain.Branch;
 import io.kaicode.elasticvc.domain.Commit;
 import io.kaicode.elasticvc.domain.Entity;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
 import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
 import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
 import org.apache.commons.lang3.math.NumberUtils;
 
 import org.slf4j.Logger;
@@ -23,16 +31,20 @@ import org.snomed.snowstorm.core.data.services.pojo.SAxiomRepresentation;
 import org.snomed.snowstorm.core.data.services.transitiveclosure.GraphBuilder;
 import org.snomed.snowstorm.core.data.services.transitiveclosure.GraphBuilderException;
 import org.snomed.snowstorm.core.data.services.transitiveclosure.Node;
+import org.snomed.snowstorm.core.util.AggregationUtils;
 import org.snomed.snowstorm.core.util.TimerUtil;
+import org.snomed.snowstorm.ecl.ECLQueryService;
 import org.snomed.snowstorm.mrcm.MRCMLoader;
 import org.snomed.snowstorm.mrcm.model.AttributeRange;
 import org.snomed.snowstorm.mrcm.model.MRCM;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
 import org.springframework.data.elasticsearch.core.SearchHits;
 import org.springframework.data.elasticsearch.core.SearchHitsIterator;
+import org.springframework.data.elasticsearch.client.elc.Aggregation;
 import org.springframework.data.elasticsearch.client.elc.NativeQuery;
 import org.springframework.data.elasticsearch.client.elc.NativeQueryBuilder;
 import org.springframework.data.elasticsearch.core.query.FetchSourceFilter;
@@ -40,6 +52,10 @@ import org.springframework.data.elasticsearch.core.query.Query;
 import org.springframework.stereotype.Service;
 
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
@@ -49,6 +65,7 @@ import java.util.stream.Collectors;
 import static java.lang.Long.parseLong;
 import static java.lang.String.format;
 import static co.elastic.clients.elasticsearch._types.query_dsl.QueryBuilders.*;
+import static co.elastic.clients.elasticsearch._types.query_dsl.QueryBuilders.range;
 import static io.kaicode.elasticvc.helper.QueryHelper.*;
 import static org.snomed.snowstorm.core.data.domain.Concepts.CONCEPT_MODEL_OBJECT_ATTRIBUTE;
 import static org.springframework.data.elasticsearch.client.elc.Queries.idsQueryAsQuery;
@@ -64,6 +81,17 @@ public class SemanticIndexUpdateService extends ComponentService implements Comm
 
 	private static final long IS_A_TYPE = parseLong(Concepts.ISA);
 
+	private static final int AXIOM_CONVERSION_BATCH_SIZE = 5_000;
+
+	private static final int SAVE_PROGRESS_LOG_INTERVAL = 10;
+
+	private static final String CHILD_COUNT_AGGREGATION = "childCount";
+	private static final String DESCENDANT_COUNT_AGGREGATION = "descendantCount";
+
+	// With more than one worker the stated and inferred forms are updated at the same time and axioms are converted by the workers.
+	@Value("${semantic-indexing.workers}")
+	private int workers;
+
 	@Autowired
 	private ElasticsearchOperations elasticsearchOperations;
 
@@ -85,8 +113,34 @@ public class SemanticIndexUpdateService extends ComponentService implements Comm
 	@Autowired
 	private MRCMLoader mrcmLoader;
 
+	@Autowired
+	@Lazy
+	private ECLQueryService eclQueryService;
+
+	@Autowired
+	private ExecutorService executorService;
+
+	private ExecutorService axiomConversionExecutor;
+
+	// Commits opened to rebuild the semantic index, their changes are not collected for the ECL cache
+	private final Set<Commit> rebuildCommits = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<>()));
+
 	private final Logger logger = LoggerFactory.getLogger(getClass());
 
+	@PostConstruct
+	public void init() {
+		if (workers > 1) {
+			axiomConversionExecutor = Executors.newFixedThreadPool(workers);
+		}
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		if (axiomConversionExecutor != null) {
+			axiomConversionExecutor.shutdown();
+		}
+	}
+
 
 	@Override
 	public void preCommitCompletion(Commit commit) throws IllegalStateException {
@@ -102,7 +156,8 @@ public class SemanticIndexUpdateService extends ComponentService implements Comm
 	}
 
 	public Map<String, Integer> rebuildStatedAndInferredSemanticIndex(String branchPath, boolean dryRun) throws ServiceException {
-		try (Commit commit = branchService.openCommit(branchPath, branchMetadataHelper.getBranchLockMetadata("Rebuilding semantic index."))) {
+		Commit commit = openRebuildCommit(branchPath);
+		try (commit) {
 			final Map<String, Integer> updateCounts = rebuildSemanticIndex(commit, dryRun);
 			if (!dryRun && updateCounts.values().stream().anyMatch(updateCount -> updateCount > 0)) {
 				commit.markSuccessful();
@@ -113,9 +168,24 @@ public class SemanticIndexUpdateService extends ComponentService implements Comm
 			return updateCounts;
 		} catch (ConversionException | GraphBuilderException e) {
 			throw new ServiceException("Failed to update semantic index. " + e.getMessage(), e);
+		} finally {
+			closeRebuildCommit(commit);
 		}
 	}
 
+	/**
+	 * Opens a commit to rebuild the semantic index. The caller must pass the commit to {@link #closeRebuildCommit(Commit)} once it is closed.
+	 */
+	Commit openRebuildCommit(String branchPath) {
+		Commit commit = branchService.openCommit(branchPath, branchMetadataHelper.getBranchLockMetadata("Rebuilding semantic index."));
+		rebuildCommits.add(commit);
+		return commit;
+	}
+
+	void closeRebuildCommit(Commit commit) {
+		rebuildCommits.remove(commit);
+	}
+
 	private void updateStatedAndInferredSemanticIndex(Commit commit) throws IllegalStateException, ConversionException, GraphBuilderException, ServiceException {
 		if (commit.isRebase() || (useSeparateSemanticIndex(commit.getBranch()) && BranchMetadataHelper.isImportingCodeSystemVersion(commit) && !commit.getBranch().isContainsContent())) {
 			rebuildSemanticIndex(commit, false);
@@ -127,12 +197,30 @@ public class SemanticIndexUpdateService extends ComponentService implements Comm
 					Sets.union(commit.getEntityVersionsReplaced().getOrDefault(ReferenceSetMember.class.getSimpleName(), Collections.emptySet()),
 							commit.getEntityVersionsReplaced().getOrDefault(Relationship.class.getSimpleName(), Collections.emptySet()));
 
-			updateSemanticIndex(Form.STATED, relationshipAndAxiomDeletionsToProcess, commit, false, false, false);
-			updateSemanticIndex(Form.INFERRED, relationshipAndAxiomDeletionsToProcess, commit, false, false, false);
+			Map<Form, LongSet> formChangedConceptIds = updateEachForm(form -> {
+				LongSet changedConceptIds = new LongOpenHashSet();
+				updateSemanticIndex(form, relationshipAndAxiomDeletionsToProcess, commit, false, false, false, changedConceptIds);
+				return changedConceptIds;
+			});
+			LongSet changedConceptIds = new LongOpenHashSet(formChangedConceptIds.get(Form.STATED));
+			changedConceptIds.addAll(formChangedConceptIds.get(Form.INFERRED));
+
+			// Allows ECL results which are not affected by this commit to stay in the cache.
+			// The changes made by a rebuild in the same commit are not collected, so no results are kept.
+			if (!rebuildCommits.contains(commit)) {
+				eclQueryService.recordSemanticChanges(commit.getBranch().getPath(), commit.getBranch().getHead(), commit.getTimepoint(), changedConceptIds);
+			}
 		}
 		// If promotion the semantic changes will be promoted with the rest of the content.
 	}
 
+	/**
+	 * @return true if rebuilding the semantic index of the branch builds the whole graph rather than applying the changes on the branch to the parent index.
+	 */
+	boolean isCompleteRebuild(Branch branch) {
+		return branch.getPath().equals("MAIN") || useSeparateSemanticIndex(branch);
+	}
+
 	private boolean useSeparateSemanticIndex(Branch branch) {
 		return versionControlHelper.getParentBranchesExcludedEntityClassNames(branch).contains(QueryConcept.class.getSimpleName());
 	}
@@ -140,7 +228,7 @@ public class SemanticIndexUpdateService extends ComponentService implements Comm
 	private Map<String, Integer> rebuildSemanticIndex(Commit commit, boolean dryRun) throws ConversionException, GraphBuilderException, ServiceException {
 		Branch branch = commit.getBranch();
 		Set<String> relationshipAndAxiomDeletionsToProcess = Sets.union(branch.getVersionsReplaced(ReferenceSetMember.class), branch.getVersionsReplaced(Relationship.class));
-		boolean completeRebuild = branch.getPath().equals("MAIN") || useSeparateSemanticIndex(branch);
+		boolean completeRebuild = isCompleteRebuild(branch);
 		if (!completeRebuild) {
 			// Recreate query index using new parent base point + content on this branch
 			if (dryRun) {
@@ -148,14 +236,72 @@ public class SemanticIndexUpdateService extends ComponentService implements Comm
 			}
 			removeQConceptChangesOnBranch(commit);
 		}
+		Map<Form, Integer> formUpdateCounts = updateEachForm(form ->
+				updateSemanticIndex(form, relationshipAndAxiomDeletionsToProcess, commit, true, completeRebuild, dryRun, null));
 		Map<String, Integer> updateCount = new HashMap<>();
-		updateCount.put(Form.STATED.getName(), updateSemanticIndex(Form.STATED, relationshipAndAxiomDeletionsToProcess, commit, true, completeRebuild, dryRun));
-		updateCount.put(Form.INFERRED.getName(), updateSemanticIndex(Form.INFERRED, relationshipAndAxiomDeletionsToProcess, commit, true, completeRebuild, dryRun));
+		updateCount.put(Form.STATED.getName(), formUpdateCounts.get(Form.STATED));
+		updateCount.put(Form.INFERRED.getName(), formUpdateCounts.get(Form.INFERRED));
 		return updateCount;
 	}
 
+	/**
+	 * Runs the update for the stated then the inferred form, or for both at the same time if there is more than one worker.
+	 * When run at the same time the stated form runs in the background and the inferred form in this thread. Both are allowed to finish
+	 * before any failure is thrown so that nothing is still writing when the commit is closed.
+	 */
+	private <T> Map<Form, T> updateEachForm(FormUpdate<T> formUpdate) throws ConversionException, GraphBuilderException, ServiceException {
+		Map<Form, T> results = new EnumMap<>(Form.class);
+		if (workers <= 1) {
+			results.put(Form.STATED, formUpdate.update(Form.STATED));
+			results.put(Form.INFERRED, formUpdate.update(Form.INFERRED));
+			return results;
+		}
+
+		Future<T> statedFuture = executorService.submit(() -> formUpdate.update(Form.STATED));
+		Exception inferredFailure = null;
+		try {
+			results.put(Form.INFERRED, formUpdate.update(Form.INFERRED));
+		} catch (ConversionException | GraphBuilderException | ServiceException | RuntimeException e) {
+			inferredFailure = e;
+		}
+		try {
+			results.put(Form.STATED, statedFuture.get());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ServiceException("Interrupted while updating the stated semantic index.", e);
+		} catch (ExecutionException e) {
+			throwFormUpdateFailure(e.getCause());
+		}
+		if (inferredFailure != null) {
+			throwFormUpdateFailure(inferredFailure);
+		}
+		return results;
+	}
+
+	private void throwFormUpdateFailure(Throwable failure) throws ConversionException, GraphBuilderException, ServiceException {
+		if (failure instanceof ConversionException conversionException) {
+			throw conversionException;
+		} else if (failure instanceof GraphBuilderException graphBuilderException) {
+			throw graphBuilderException;
+		} else if (failure instanceof ServiceException serviceException) {
+			throw serviceException;
+		} else if (failure instanceof RuntimeException runtimeException) {
+			throw runtimeException;
+		} else if (failure instanceof Error error) {
+			throw error;
+		}
+		throw new ServiceException("Failed to update semantic index. " + failure.getMessage(), failure);
+	}
+
+	private interface FormUpdate<T> {
+		T update(Form form) throws ConversionException, GraphBuilderException, ServiceException;
+	}
+
+	/**
+	 * @param changedConceptIds optional collector for the ids and ancestors, before and after, of concepts changed in the semantic index
+	 */
 	private int updateSemanticIndex(Form form, Set<String> internalIdsOfDeletedComponents, Commit commit,
-			boolean rebuild, boolean completeRebuild, boolean dryRun) throws IllegalStateException, ConversionException, GraphBuilderException, ServiceException {
+			boolean rebuild, boolean completeRebuild, boolean dryRun, Set<Long> changedConceptIds) throws IllegalStateException, ConversionException, GraphBuilderException, ServiceException {
 
 		if (dryRun && !completeRebuild) {
 			throw new IllegalArgumentException("dryRun flag can only be used when rebuilding the index of the MAIN branch.");
@@ -197,6 +343,25 @@ public class SemanticIndexUpdateService extends ComponentService implements Comm
 		}
 		timer.checkpoint("get branch criteria");
 
+		SemanticGraph graph = buildSemanticGraph(form, internalIdsOfDeletedComponents, completeRebuild, previousStateCriteria, changesCriteria, newStateCriteria,
+				versionControlHelper.getBranchCriteriaIncludingOpenCommit(commit), timer);
+		if (graph == null) {
+			// Nothing to do
+			return 0;
+		}
+		int saveCount = saveSemanticIndexChanges(form, commit, graph, previousStateCriteria, completeRebuild, dryRun, changedConceptIds, null, timer);
+		timer.finish();
+		return saveCount;
+	}
+
+	/**
+	 * Builds the graph of the form in memory. For a complete rebuild this is the whole graph, otherwise only the parts affected by the changes.
+	 * @param mrcmCriteria used to load the data types of concrete attributes from the MRCM
+	 * @return the graph, or null if there are no modelling changes to process
+	 */
+	SemanticGraph buildSemanticGraph(Form form, Set<String> internalIdsOfDeletedComponents, boolean completeRebuild, BranchCriteria previousStateCriteria,
+			BranchCriteria changesCriteria, BranchCriteria newStateCriteria, BranchCriteria mrcmCriteria, TimerUtil timer) throws ConversionException, ServiceException {
+
 		// Identify concepts with modeling changes  and load relevant parts of the existing node graph
 		final GraphBuilder graphBuilder = new GraphBuilder();
 		Set<Long> updatedConceptIds;
@@ -209,7 +374,7 @@ public class SemanticIndexUpdateService extends ComponentService implements Comm
 			updatedConceptIds = buildRelevantPartsOfExistingGraph(graphBuilder, form, changesCriteria, previousStateCriteria, internalIdsOfDeletedComponents, timer);
 			if (updatedConceptIds.isEmpty()) {
 				// Nothing to do
-				return 0;
+				return null;
 			}
 			// Strategy: Clear the modelling of updated concepts then add/remove edges and attributes based on the new commit
 			newGraph = graphBuilder.getNodeCount() == 0;
@@ -223,7 +388,7 @@ public class SemanticIndexUpdateService extends ComponentService implements Comm
 		Set<Long> requiredActiveConcepts = new LongOpenHashSet();
 		Map<Long, AttributeChanges> conceptAttributeChanges = new Long2ObjectOpenHashMap<>();
 
-		final Map<String, ConcreteValue.DataType> concreteAttributeDataTypeMap = getConcreteAttributeDataTypeMap(commit);
+		final Map<String, ConcreteValue.DataType> concreteAttributeDataTypeMap = getConcreteAttributeDataTypeMap(mrcmCriteria);
 		// Create consumer for relationship changes
 		BiConsumer<SnomedComponent<?>, Relationship> relationshipConsumer = (component, relationship) -> {
 			long conceptId = parseLong(relationship.getSourceId());
@@ -303,17 +468,39 @@ public class SemanticIndexUpdateService extends ComponentService implements Comm
 			logger.warn("The following concepts have been referred to in relationships but are missing or inactive: {}", inactiveOrMissingConceptIds);
 		}
 
+		return new SemanticGraph(graphBuilder, conceptAttributeChanges, updatedConceptIds, newGraph);
+	}
+
+	/**
+	 * Compares the graph with the existing semantic index and saves the differences.
+	 * @param conceptIdRange optional range of concept ids to process, used to save a complete rebuild in parts
+	 */
+	int saveSemanticIndexChanges(Form form, Commit commit, SemanticGraph graph, BranchCriteria previousStateCriteria, boolean completeRebuild, boolean dryRun,
+			Set<Long> changedConceptIds, ConceptIdRange conceptIdRange, TimerUtil timer) throws GraphBuilderException {
+
+		final GraphBuilder graphBuilder = graph.graphBuilder();
+		final Map<Long, AttributeChanges> conceptAttributeChanges = graph.conceptAttributeChanges();
+		final Set<Long> updatedConceptIds = graph.updatedConceptIds();
+		final boolean newGraph = graph.newGraph();
+		final String branchPath = commit.getBranch().getPath();
+
 		// Step: Save changes
 		Map<Long, Node> nodesToSave = new Long2ObjectOpenHashMap<>();
 		graphBuilder.getNodes().stream()
+				.filter(node -> conceptIdRange == null || conceptIdRange.contains(node.getId()))
 				.filter(node -> newGraph || node.isAncestorOrSelfUpdated() || conceptAttributeChanges.containsKey(node.getId()))
 				.forEach(node -> nodesToSave.put(node.getId(), node));
 		Set<Long> nodesNotFound = new LongOpenHashSet(nodesToSave.keySet());
 		Set<QueryConcept> queryConceptsToSave = new HashSet<>();
+		// Counts are recalculated in a complete rebuild, otherwise changed by the differences in parents and ancestors
+		Long2IntOpenHashMap childCountChanges = new Long2IntOpenHashMap();
+		Long2IntOpenHashMap descendantCountChanges = new Long2IntOpenHashMap();
 
 		// Collect ids of nodes and attribute updates and convert to conceptIdForm
 		Set<Long> conceptIdsToUpdate = new LongOpenHashSet(nodesToSave.keySet());
-		conceptIdsToUpdate.addAll(conceptAttributeChanges.keySet());
+		conceptAttributeChanges.keySet().stream()
+				.filter(conceptId -> conceptIdRange == null || conceptIdRange.contains(conceptId))
+				.forEach(conceptIdsToUpdate::add);
 
 		// If there is a loop found in the transitive closure we throw an exception,
 		// unless it's a rebase/extension upgrade; that must be fixed manually afterwards
@@ -329,6 +516,9 @@ public class SemanticIndexUpdateService extends ComponentService implements Comm
 		if (!completeRebuild) {
 			filter.must(termsQuery(QueryConcept.Fields.CONCEPT_ID, conceptIdsToUpdate));
 		}
+		if (conceptIdRange != null) {
+			filter.must(range(r -> r.field(QueryConcept.Fields.CONCEPT_ID).gt(JsonData.of(conceptIdRange.after())).lte(JsonData.of(conceptIdRange.to()))));
+		}
 		try (final SearchHitsIterator<QueryConcept> existingQueryConcepts = elasticsearchOperations.searchForStream(new NativeQueryBuilder()
 				.withQuery(bool(b -> b
 						.must(previousStateCriteria.getEntityBranchCriteria(QueryConcept.class))
@@ -343,7 +533,7 @@ public class SemanticIndexUpdateService extends ComponentService implements Comm
 				boolean save = false;
 				if (completeRebuild) {
 					if (node != null) {
-						QueryConcept newQueryConcept = createQueryConcept(form, branchPath, conceptAttributeChanges, throwExceptionIfTransitiveClosureLoopFound, node.getId(), node);
+						QueryConcept newQueryConcept = createQueryConcept(form, branchPath, conceptAttributeChanges, throwExceptionIfTransitiveClosureLoopFound, completeRebuild, node.getId(), node);
 						if (!queryConcept.fieldsMatch(newQueryConcept)) {
 							queryConcept = newQueryConcept;
 							save = true;
@@ -356,13 +546,19 @@ public class SemanticIndexUpdateService extends ComponentService implements Comm
 					QueryConcept newQueryConcept = new QueryConcept(queryConcept);
 					if (node != null) {
 						// TC changes
-						newQueryConcept.setParents(node.getParents().stream().map(Node::getId).collect(Collectors.toSet()));
-						newQueryConcept.setAncestors(new HashSet<>(node.getTransitiveClosure(branchPath, throwExceptionIfTransitiveClosureLoopFound)));
+						newQueryConcept.setParents(node.getParentIds());
+						newQueryConcept.setAncestors(node.getTransitiveClosure(branchPath, throwExceptionIfTransitiveClosureLoopFound));
+						collectCountChanges(queryConcept.getParents(), newQueryConcept.getParents(), childCountChanges);
+						collectCountChanges(queryConcept.getAncestors(), newQueryConcept.getAncestors(), descendantCountChanges);
 					}
 					if (updatedConceptIds.contains(conceptId)) {
 						applyAttributeChanges(newQueryConcept, conceptId, conceptAttributeChanges);
 					}
 					if (!queryConcept.fieldsMatch(newQueryConcept)) {
+						if (changedConceptIds != null) {
+							collectChangedConceptIds(changedConceptIds, queryConcept);
+							collectChangedConceptIds(changedConceptIds, newQueryConcept);
+						}
 						queryConcept = newQueryConcept;
 						save = true;
 					}
@@ -377,15 +573,30 @@ public class SemanticIndexUpdateService extends ComponentService implements Comm
 		timer.checkpoint("Collect existingDescendants from QueryConcept.");
 
 		// The remaining nodes are new - create new QueryConcepts
+		Map<Long, QueryConcept> createdQueryConcepts = new Long2ObjectOpenHashMap<>();
 		for (Long nodeId : nodesNotFound) {
 			Node node = nodesToSave.get(nodeId);
-			QueryConcept queryConcept = createQueryConcept(form, branchPath, conceptAttributeChanges, throwExceptionIfTransitiveClosureLoopFound, nodeId, node);
-			if (node.getParents().isEmpty() && !queryConcept.isRoot()) {
+			QueryConcept queryConcept = createQueryConcept(form, branchPath, conceptAttributeChanges, throwExceptionIfTransitiveClosureLoopFound, completeRebuild, nodeId, node);
+			if (!node.hasParents() && !queryConcept.isRoot()) {
 				// Concept is probably inactive, don't add to semantic index.
 				continue;
 			}
 			queryConcept.setCreating(true);
 			queryConceptsToSave.add(queryConcept);
+			if (!completeRebuild) {
+				createdQueryConcepts.put(nodeId, queryConcept);
+				collectCountChanges(null, queryConcept.getParents(), childCountChanges);
+				collectCountChanges(null, queryConcept.getAncestors(), descendantCountChanges);
+			}
+			if (changedConceptIds != null) {
+				collectChangedConceptIds(changedConceptIds, queryConcept);
+			}
+		}
+
+		if (!completeRebuild) {
+			countExistingChildrenAndDescendants(form, commit, previousStateCriteria, createdQueryConcepts);
+			applyCountChanges(form, commit, previousStateCriteria, queryConceptsToSave, childCountChanges, descendantCountChanges);
+			timer.checkpoint("Apply child and descendant count changes.");
 		}
 
 		// Delete query concepts which have no parents
@@ -408,7 +619,7 @@ public class SemanticIndexUpdateService extends ComponentService implements Comm
 		String deleteMessage = firstToDelete.isPresent() ? String.format("%s semantic concepts deleted including %s.", countToDelete, firstToDelete.get()) :
 				"No semantic concepts need deleting.";
 
-		logger.info("Semantic index change summary for {} form: {} concepts loaded into the graph. {} {} {}", form.getName(), graphBuilder.getNodes().size(),
+		logger.info("Semantic index change summary for {} form: {} concepts loaded into the graph. {} {} {}", form.getName(), graphBuilder.getNodeCount(),
 				createMessage, updateMessage, deleteMessage);
 
 		if (!queryConceptsToSave.isEmpty()) {
@@ -417,28 +628,143 @@ public class SemanticIndexUpdateService extends ComponentService implements Comm
 				logger.info("Semantic index rebuild is in dryRun mode so no changes will be persisted!");
 			} else {
 				// Save in batches
+				int saved = 0;
+				int batches = 0;
 				for (List<QueryConcept> queryConcepts : Iterables.partition(queryConceptsToSave, Config.BATCH_SAVE_SIZE)) {
 					doSaveBatch(queryConcepts, commit);
+					saved += queryConcepts.size();
+					if (++batches % SAVE_PROGRESS_LOG_INTERVAL == 0) {
+						logger.info("Saved {} of {} {} semantic concepts on {}.", saved, queryConceptsToSave.size(), form.getName(), branchPath);
+					}
 				}
 			}
 		}
 		timer.checkpoint("Save updated QueryConcepts");
 		logger.debug("{} concepts updated within the {} semantic index.", queryConceptsToSave.size(), form.getName());
 
-		timer.finish();
 		return queryConceptsToSave.size();
 	}
 
+	private void collectChangedConceptIds(Set<Long> changedConceptIds, QueryConcept queryConcept) {
+		changedConceptIds.add(queryConcept.getConceptIdL());
+		if (queryConcept.getAncestors() != null) {
+			changedConceptIds.addAll(queryConcept.getAncestors());
+		}
+	}
+
 	private QueryConcept createQueryConcept(Form form, String branchPath, Map<Long, AttributeChanges> conceptAttributeChanges,
-			boolean throwExceptionIfTransitiveClosureLoopFound, Long nodeId, Node node) throws GraphBuilderException {
+			boolean throwExceptionIfTransitiveClosureLoopFound, boolean completeRebuild, Long nodeId, Node node) throws GraphBuilderException {
 
-		final Set<Long> transitiveClosure = new HashSet<>(node.getTransitiveClosure(branchPath, throwExceptionIfTransitiveClosureLoopFound));
-		final Set<Long> parentIds = node.getParents().stream().map(Node::getId).collect(Collectors.toSet());
+		final Set<Long> transitiveClosure = node.getTransitiveClosure(branchPath, throwExceptionIfTransitiveClosureLoopFound);
+		final Set<Long> parentIds = node.getParentIds();
 		QueryConcept queryConcept = new QueryConcept(nodeId, parentIds, transitiveClosure, form.isStated());
+		if (completeRebuild) {
+			// The whole hierarchy is in the graph
+			queryConcept.setChildCount(node.getChildCount());
+			queryConcept.setDescendantCount(node.getDescendantCount());
+		} else {
+			// Counted from the existing index and the changes, see countExistingChildrenAndDescendants and applyCountChanges
+			queryConcept.setChildCount(0);
+			queryConcept.setDescendantCount(0);
+		}
 		applyAttributeChanges(queryConcept, nodeId, conceptAttributeChanges);
 		return queryConcept;
 	}
 
+	private static void collectCountChanges(Set<Long> previousIds, Set<Long> newIds, Long2IntOpenHashMap countChanges) {
+		for (Long id : newIds) {
+			if (previousIds == null || !previousIds.contains(id)) {
+				countChanges.addTo(id, 1);
+			}
+		}
+		if (previousIds != null) {
+			for (Long id : previousIds) {
+				if (!newIds.contains(id)) {
+					countChanges.addTo(id, -1);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Sets the counts of new QueryConcepts from the existing children and descendants in the previous state.
+	 * A concept can already have children when it is added, for example when an inactivation is reverted. Those children keep the concept in
+	 * their parents and ancestors so their changes do not count it. Changes in this commit are added afterwards by applyCountChanges.
+	 */
+	private void countExistingChildrenAndDescendants(Form form, Commit commit, BranchCriteria previousStateCriteria, Map<Long, QueryConcept> createdQueryConcepts) {
+		for (List<Long> batch : Iterables.partition(createdQueryConcepts.keySet(), CLAUSE_LIMIT)) {
+			List<String> batchIds = batch.stream().map(String::valueOf).toList();
+			SearchHits<QueryConcept> searchHits = elasticsearchOperations.search(new NativeQueryBuilder()
+					.withQuery(bool(b -> b
+							.must(previousStateCriteria.getEntityBranchCriteria(QueryConcept.class))
+							.must(termQuery(QueryConcept.Fields.STATED, form.isStated()))
+							.filter(termsQuery(QueryConcept.Fields.ANCESTORS, batch))
+							// Exclude those QueryConcepts which were removed in this commit
+							.mustNot(bool(nb -> nb
+									.must(termQuery("path", commit.getBranch().getPath()))
+									.must(termQuery("end", commit.getTimepoint().getTime()))))))
+					.withSourceFilter(new FetchSourceFilter(new String[]{QueryConcept.Fields.CONCEPT_ID}, null))
+					.withPageable(Config.PAGE_OF_ONE)
+					.withAggregation(CHILD_COUNT_AGGREGATION, AggregationBuilders.terms(a -> a
+							.field(QueryConcept.Fields.PARENTS)
+							.include(i -> i.terms(batchIds))
+							.size(batchIds.size())))
+					.withAggregation(DESCENDANT_COUNT_AGGREGATION, AggregationBuilders.terms(a -> a
+							.field(QueryConcept.Fields.ANCESTORS)
+							.include(i -> i.terms(batchIds))
+							.size(batchIds.size())))
+					.build(), QueryConcept.class);
+			Map<String, Aggregation> aggregations = AggregationUtils.getAggregations(searchHits.getAggregations());
+			forEachBucket(aggregations.get(CHILD_COUNT_AGGREGATION), (conceptId, count) -> createdQueryConcepts.get(conceptId).setChildCount(count));
+			forEachBucket(aggregations.get(DESCENDANT_COUNT_AGGREGATION), (conceptId, count) -> createdQueryConcepts.get(conceptId).setDescendantCount(count));
+		}
+	}
+
+	private static void forEachBucket(Aggregation aggregation, BiConsumer<Long, Integer> bucketConsumer) {
+		if (aggregation != null && aggregation.getAggregate().isLterms()) {
+			for (LongTermsBucket bucket : aggregation.getAggregate().lterms().buckets().array()) {
+				bucketConsumer.accept(bucket.key(), (int) bucket.docCount());
+			}
+		}
+	}
+
+	/**
+	 * Applies the changes in child and descendant counts, caused by the changed parents and ancestors of other concepts, to the concepts being saved.
+	 * The concepts with changed counts which are not already being saved are loaded and added.
+	 */
+	private void applyCountChanges(Form form, Commit commit, BranchCriteria previousStateCriteria, Set<QueryConcept> queryConceptsToSave,
+			Long2IntOpenHashMap childCountChanges, Long2IntOpenHashMap descendantCountChanges) {
+
+		for (QueryConcept queryConcept : queryConceptsToSave) {
+			long conceptId = queryConcept.getConceptIdL();
+			queryConcept.changeCounts(childCountChanges.remove(conceptId), descendantCountChanges.remove(conceptId));
+		}
+
+		Set<Long> otherConceptIds = new LongOpenHashSet();
+		childCountChanges.long2IntEntrySet().stream().filter(entry -> entry.getIntValue() != 0).forEach(entry -> otherConceptIds.add(entry.getLongKey()));
+		descendantCountChanges.long2IntEntrySet().stream().filter(entry -> entry.getIntValue() != 0).forEach(entry -> otherConceptIds.add(entry.getLongKey()));
+		for (List<Long> batch : Iterables.partition(otherConceptIds, CLAUSE_LIMIT)) {
+			try (final SearchHitsIterator<QueryConcept> existingQueryConcepts = elasticsearchOperations.searchForStream(new NativeQueryBuilder()
+					.withQuery(bool(b -> b
+							.must(previousStateCriteria.getEntityBranchCriteria(QueryConcept.class))
+							.must(termQuery(QueryConcept.Fields.STATED, form.isStated()))
+							.filter(termsQuery(QueryConcept.Fields.CONCEPT_ID, batch))
+							// Exclude those QueryConcepts which were removed in this commit
+							.mustNot(bool(nb -> nb
+									.must(termQuery("path", commit.getBranch().getPath()))
+									.must(termQuery("end", commit.getTimepoint().getTime()))))))
+					.withPageable(LARGE_PAGE).build(), QueryConcept.class)) {
+				while (existingQueryConcepts.hasNext()) {
+					QueryConcept queryConcept = new QueryConcept(existingQueryConcepts.next().getContent());
+					long conceptId = queryConcept.getConceptIdL();
+					if (queryConcept.changeCounts(childCountChanges.get(conceptId), descendantCountChanges.get(conceptId))) {
+						queryConceptsToSave.add(queryConcept);
+					}
+				}
+			}
+		}
+	}
+
 	private Object convertConcreteValue(Relationship relationship, Map<String, ConcreteValue.DataType> concreteAttributeDataTypeMap) {
 		ConcreteValue.DataType actualType = relationship.getConcreteValue().getDataType();
 		ConcreteValue.DataType mrcmDataType = concreteAttributeDataTypeMap.get(relationship.getTypeId());
@@ -476,8 +802,8 @@ public class SemanticIndexUpdateService extends ComponentService implements Comm
 		return value;
 	}
 
-	private Map<String, ConcreteValue.DataType> getConcreteAttributeDataTypeMap(Commit commit) throws ServiceException {
-		MRCM mrcm = mrcmLoader.loadActiveMRCM(versionControlHelper.getBranchCriteriaIncludingOpenCommit(commit));
+	private Map<String, ConcreteValue.DataType> getConcreteAttributeDataTypeMap(BranchCriteria mrcmCriteria) throws ServiceException {
+		MRCM mrcm = mrcmLoader.loadActiveMRCM(mrcmCriteria);
 		return mrcm.attributeRanges().stream().filter(r -> r.getDataType() != null)
 				.collect(Collectors.toMap(AttributeRange::getReferencedComponentId, AttributeRange::getDataType, (r1, r2) -> r2));
 	}
@@ -664,6 +990,11 @@ public class SemanticIndexUpdateService extends ComponentService implements Comm
 	private void axiomStreamToRelationshipStream(SearchHitsIterator<ReferenceSetMember> changedAxioms, Predicate<Relationship> relationshipPredicate,
 			BiConsumer<SnomedComponent<?>, Relationship> relationshipConsumer) throws ConversionException {
 
+		if (axiomConversionExecutor != null) {
+			convertAxiomsConcurrently(changedAxioms, relationshipPredicate, relationshipConsumer);
+			return;
+		}
+
 		AtomicReference<ConversionException> exceptionHolder = new AtomicReference<>();// Used to hold exceptions thrown within the lambda function
 		changedAxioms.forEachRemaining(hit -> {
 			try {
@@ -693,6 +1024,103 @@ public class SemanticIndexUpdateService extends ComponentService implements Comm
 		}
 	}
 
+	/**
+	 * Converts axioms using the workers, one batch at a time while the next batch is read.
+	 * Relationships are passed to the consumer in the order of the axiom stream, the graph and attribute changes are not thread safe.
+	 */
+	private void convertAxiomsConcurrently(SearchHitsIterator<ReferenceSetMember> changedAxioms, Predicate<Relationship> relationshipPredicate,
+			BiConsumer<SnomedComponent<?>, Relationship> relationshipConsumer) throws ConversionException {
+
+		List<ReferenceSetMember> previousBatch = null;
+		List<Future<List<SAxiomRepresentation>>> previousChunks = null;
+		List<Future<List<SAxiomRepresentation>>> chunks = null;
+		long converted = 0;
+		try {
+			while (true) {
+				List<ReferenceSetMember> batch = new ArrayList<>(AXIOM_CONVERSION_BATCH_SIZE);
+				while (batch.size() < AXIOM_CONVERSION_BATCH_SIZE && changedAxioms.hasNext()) {
+					batch.add(changedAxioms.next().getContent());
+				}
+				chunks = new ArrayList<>();
+				for (List<ReferenceSetMember> chunk : Lists.partition(batch, Math.max(1, (batch.size() + workers - 1) / workers))) {
+					chunks.add(axiomConversionExecutor.submit(() -> convertAxioms(chunk)));
+				}
+
+				if (previousBatch != null) {
+					passAxiomRelationshipsToConsumer(previousBatch, previousChunks, relationshipPredicate, relationshipConsumer);
+					converted += previousBatch.size();
+					if (converted % (AXIOM_CONVERSION_BATCH_SIZE * 20L) == 0) {
+						logger.info("{} axioms converted.", converted);
+					}
+				}
+				if (batch.isEmpty()) {
+					break;
+				}
+				previousBatch = batch;
+				previousChunks = chunks;
+			}
+		} finally {
+			// Stop any conversions no longer needed after a failure
+			if (previousChunks != null) {
+				previousChunks.forEach(future -> future.cancel(true));
+			}
+			if (chunks != null) {
+				chunks.forEach(future -> future.cancel(true));
+			}
+		}
+	}
+
+	private List<SAxiomRepresentation> convertAxioms(List<ReferenceSetMember> axiomMembers) throws ConversionException {
+		List<SAxiomRepresentation> axioms = new ArrayList<>(axiomMembers.size());
+		for (ReferenceSetMember axiomMember : axiomMembers) {
+			try {
+				axioms.add(axiomConversionService.convertAxiomMemberToAxiomRepresentation(axiomMember));
+			} catch (ConversionException e) {
+				throw new ConversionException(format("Failed to convert axiom %s", axiomMember.getAdditionalField(ReferenceSetMember.OwlExpressionFields.OWL_EXPRESSION)), e);
+			}
+		}
+		return axioms;
+	}
+
+	private void passAxiomRelationshipsToConsumer(List<ReferenceSetMember> axiomMembers, List<Future<List<SAxiomRepresentation>>> chunks,
+			Predicate<Relationship> relationshipPredicate, BiConsumer<SnomedComponent<?>, Relationship> relationshipConsumer) throws ConversionException {
+
+		int memberIndex = 0;
+		for (Future<List<SAxiomRepresentation>> chunk : chunks) {
+			List<SAxiomRepresentation> axioms;
+			try {
+				axioms = chunk.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeServiceException("Interrupted while converting axioms.", e);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof ConversionException conversionException) {
+					throw conversionException;
+				}
+				throw new RuntimeServiceException("Failed to convert axioms.", e.getCause());
+			}
+			for (SAxiomRepresentation sAxiomRepresentation : axioms) {
+				ReferenceSetMember axiomMember = axiomMembers.get(memberIndex++);
+				if (sAxiomRepresentation == null) {
+					// Not a regular axiom so does not effect the semantic index
+					continue;
+				}
+				Long conceptId = sAxiomRepresentation.getLeftHandSideNamedConcept();
+				Set<Relationship> relationships = sAxiomRepresentation.getRightHandSideRelationships();
+				if (conceptId == null || relationships == null) {
+					// Not a regular axiom so does not effect the semantic index
+					continue;
+				}
+				relationships.stream()
+						.filter(relationshipPredicate)
+						.forEach(relationship -> {
+							relationship.setSourceId(conceptId.toString());
+							relationshipConsumer.accept(axiomMember, relationship);
+						});
+			}
+		}
+	}
+
 	private void applyAttributeChanges(QueryConcept queryConcept, Long conceptId, Map<Long, AttributeChanges> conceptAttributeChanges) {
 		queryConcept.clearAttributes();
 		AttributeChanges attributeChanges = conceptAttributeChanges.get(conceptId);
@@ -724,7 +1152,10 @@ public class SemanticIndexUpdateService extends ComponentService implements Comm
 	}
 
 	private void doSaveBatch(Collection<QueryConcept> queryConcepts, Commit commit) {
-		doSaveBatchComponents(queryConcepts, commit, "conceptIdForm", queryConceptRepository);
+		// The stated and inferred forms may be saved from different threads, the commit records replaced versions so writes are made one at a time
+		synchronized (commit) {
+			doSaveBatchComponents(queryConcepts, commit, "conceptIdForm", queryConceptRepository);
+		}
 	}
 
 	private Set<Long> getInactiveOrMissingConceptIds(Set<Long> requiredActiveConcepts, BranchCriteria branchCriteria) {
@@ -759,6 +1190,28 @@ public class SemanticIndexUpdateService extends ComponentService implements Comm
 		return missingConceptIds;
 	}
 
+	/**
+	 * Graph of one form held in memory along with the attribute changes found while building it.
+	 */
+	record SemanticGraph(GraphBuilder graphBuilder, Map<Long, AttributeChanges> conceptAttributeChanges, Set<Long> updatedConceptIds, boolean newGraph) {
+
+		long[] getSortedConceptIds() {
+			long[] conceptIds = graphBuilder.getNodes().stream().mapToLong(Node::getId).toArray();
+			Arrays.sort(conceptIds);
+			return conceptIds;
+		}
+	}
+
+	/**
+	 * Concept ids greater than after, up to and including to.
+	 */
+	record ConceptIdRange(long after, long to) {
+
+		boolean contains(long conceptId) {
+			return conceptId > after && conceptId <= to;
+		}
+	}
+
 	private static final class AttributeChanges {
 
 		private static final Comparator<AttributeChange> comparator = Comparator
@@ -0,0 +1,162 @@
+package org.snomed.snowstorm.core.data.services;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.SortOptions;
+import co.elastic.clients.elasticsearch.core.ScrollResponse;
+import co.elastic.clients.elasticsearch.core.SearchRequest;
+import co.elastic.clients.elasticsearch.core.SearchResponse;
+import co.elastic.clients.elasticsearch.core.search.Hit;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.elasticsearch.client.elc.NativeQuery;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.SearchHitsIterator;
+import org.springframework.data.elasticsearch.core.convert.ElasticsearchConverter;
+import org.springframework.data.elasticsearch.core.document.Document;
+import org.springframework.data.elasticsearch.core.query.SourceFilter;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import static io.kaicode.elasticvc.api.ComponentService.LARGE_PAGE;
+
+/**
+ * Streams the results of large scans using several sliced scrolls at once.
+ * Each slice covers a separate part of the index and is fetched by its own thread. The results of all slices are passed to a single consumer.
+ * Results are not sorted, so this should only be used where the order of results does not matter.
+ */
+@Service
+public class SlicedSearchService {
+
+	private static final String SCROLL_KEEP_ALIVE = "1m";
+
+	@Autowired
+	private ElasticsearchOperations elasticsearchOperations;
+
+	@Autowired
+	private ElasticsearchClient elasticsearchClient;
+
+	@Value("${elasticsearch.search.slices}")
+	private int slices;
+
+	/**
+	 * Streams all results of the query to the consumer using the configured number of slices.
+	 * The consumer is never called by more than one thread at a time so does not need to be thread safe.
+	 * The sort and pagination of the query are ignored, results are fetched in large pages.
+	 */
+	public <T> void searchForStream(NativeQuery query, Class<T> clazz, Consumer<T> consumer) {
+		searchForStream(query, clazz, slices, consumer);
+	}
+
+	public <T> void searchForStream(NativeQuery query, Class<T> clazz, int slices, Consumer<T> consumer) {
+		if (slices <= 1) {
+			try (SearchHitsIterator<T> stream = elasticsearchOperations.searchForStream(query, clazz)) {
+				stream.forEachRemaining(hit -> consumer.accept(hit.getContent()));
+			}
+			return;
+		}
+
+		String index = elasticsearchOperations.getIndexCoordinatesFor(clazz).getIndexName();
+		Object consumerLock = new Object();
+		AtomicBoolean cancelled = new AtomicBoolean();
+		ExecutorService executorService = Executors.newFixedThreadPool(slices);
+		try {
+			List<Future<Void>> futures = new ArrayList<>();
+			for (int slice = 0; slice < slices; slice++) {
+				SearchRequest searchRequest = getSliceSearchRequest(query, index, slice, slices);
+				futures.add(executorService.submit(() -> {
+					scrollSlice(searchRequest, clazz, cancelled, page -> {
+						synchronized (consumerLock) {
+							page.forEach(consumer);
+						}
+					});
+					return null;
+				}));
+			}
+			for (Future<Void> future : futures) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeServiceException("Interrupted during sliced search of " + index, e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException runtimeException) {
+				throw runtimeException;
+			}
+			throw new RuntimeServiceException("Failed sliced search of " + index, e.getCause());
+		} finally {
+			// Stop other slices after a failure
+			cancelled.set(true);
+			executorService.shutdown();
+		}
+	}
+
+	private SearchRequest getSliceSearchRequest(NativeQuery query, String index, int slice, int slices) {
+		SearchRequest.Builder builder = new SearchRequest.Builder()
+				.index(index)
+				.slice(s -> s.id(String.valueOf(slice)).max(slices))
+				.scroll(t -> t.time(SCROLL_KEEP_ALIVE))
+				.size(LARGE_PAGE.getPageSize())
+				// Index order is the cheapest way to scroll
+				.sort(SortOptions.of(s -> s.field(f -> f.field("_doc"))));
+		if (query.getQuery() != null) {
+			builder.query(query.getQuery());
+		}
+		if (query.getFilter() != null) {
+			builder.postFilter(query.getFilter());
+		}
+		SourceFilter sourceFilter = query.getSourceFilter();
+		if (sourceFilter != null) {
+			builder.source(s -> s.filter(f -> {
+				if (sourceFilter.getIncludes() != null) {
+					f.includes(Arrays.asList(sourceFilter.getIncludes()));
+				}
+				if (sourceFilter.getExcludes() != null) {
+					f.excludes(Arrays.asList(sourceFilter.getExcludes()));
+				}
+				return f;
+			}));
+		}
+		return builder.build();
+	}
+
+	@SuppressWarnings("rawtypes")
+	private <T> void scrollSlice(SearchRequest searchRequest, Class<T> clazz, AtomicBoolean cancelled, Consumer<List<T>> pageConsumer) throws IOException {
+		SearchResponse<Map> response = elasticsearchClient.search(searchRequest, Map.class);
+		String scrollId = response.scrollId();
+		try {
+			List<Hit<Map>> hits = response.hits().hits();
+			while (!hits.isEmpty() && !cancelled.get()) {
+				pageConsumer.accept(toEntities(hits, clazz));
+				String currentScrollId = scrollId;
+				ScrollResponse<Map> scrollResponse = elasticsearchClient.scroll(s -> s.scrollId(currentScrollId).scroll(t -> t.time(SCROLL_KEEP_ALIVE)), Map.class);
+				scrollId = scrollResponse.scrollId();
+				hits = scrollResponse.hits().hits();
+			}
+		} finally {
+			if (scrollId != null) {
+				String finalScrollId = scrollId;
+				elasticsearchClient.clearScroll(c -> c.scrollId(finalScrollId));
+			}
+		}
+	}
+
+	@SuppressWarnings({"rawtypes", "unchecked"})
+	private <T> List<T> toEntities(List<Hit<Map>> hits, Class<T> clazz) {
+		ElasticsearchConverter converter = elasticsearchOperations.getElasticsearchConverter();
+		List<T> entities = new ArrayList<>(hits.size());
+		for (Hit<Map> hit : hits) {
+			Document document = Document.from(hit.source() != null ? hit.source() : Map.of());
+			document.setId(hit.id());
+			entities.add(converter.read(clazz, document));
+		}
+		return entities;
+	}
+}
@@ -11,12 +11,13 @@ import org.springframework.data.domain.Pageable;
 import java.util.List;
 import java.util.Map;
 
-@JsonPropertyOrder({"buckets", "languageNames", "bucketConcepts"})
+@JsonPropertyOrder({"buckets", "incompleteBuckets", "languageNames", "bucketConcepts"})
 public class PageWithBucketAggregations<T> extends PageImpl<T> {
 
 	private final Map<String, Map<String, Long>> buckets;
 	private Map<String, String> languageNames;
 	private Map<String, ConceptMini> bucketConcepts;
+	private List<String> incompleteBuckets;
 	private Object[] searchAfterArray;
 
 	public PageWithBucketAggregations(List<T> content, Pageable pageable, long total, Map<String, Map<String, Long>> buckets) {
@@ -35,6 +36,18 @@ public class PageWithBucketAggregations<T> extends PageImpl<T> {
 		return buckets;
 	}
 
+	/**
+	 * @return names of the bucket aggregations left out because they did not complete in time, or null if all buckets are included
+	 */
+	@JsonView(value = View.Component.class)
+	public List<String> getIncompleteBuckets() {
+		return incompleteBuckets;
+	}
+
+	public void setIncompleteBuckets(List<String> incompleteBuckets) {
+		this.incompleteBuckets = incompleteBuckets;
+	}
+
 	public void setBucketConcepts(Map<String, ConceptMini> bucketConcepts) {
 		this.bucketConcepts = bucketConcepts;
 	}
@@ -38,6 +38,14 @@ public class PageWithBucketAggregationsFactory {
 		return new PageWithBucketAggregations<>(searchHits.get().map(SearchHit::getContent).collect(Collectors.toList()), pageable, searchHits.getTotalHits(), buckets, searchAfter);
 	}
 
+	public static <T> PageWithBucketAggregations<T> createPage(SearchHits<T> searchHits, Map<String, Map<String, Long>> buckets, Pageable pageable) {
+		Object[] searchAfter = null;
+		if (!searchHits.isEmpty()) {
+			searchAfter = searchHits.getSearchHit(searchHits.getSearchHits().size()-1).getSortValues().toArray();
+		}
+		return new PageWithBucketAggregations<>(searchHits.get().map(SearchHit::getContent).collect(Collectors.toList()), pageable, searchHits.getTotalHits(), buckets, searchAfter);
+	}
+
 	public static <T> PageWithBucketAggregations<T> createPage(SearchHits<T> searchHits, Pageable pageable) {
 		Object[] searchAfter = null;
 		if (!searchHits.isEmpty()) {
@@ -0,0 +1,301 @@
+package org.snomed.snowstorm.core.data.services.termindex;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+
+import java.util.*;
+import java.util.function.ToIntFunction;
+
+/**
+ * Immutable in-memory word index of the descriptions of one code system version, for word prefix searches.
+ * Descriptions are numbered in order of term length then description id, the order that matches are returned in.
+ * Ids are compared as text, the same order as the Elasticsearch term sort on the keyword id field.
+ * The distinct words of the folded terms are sorted, so the words starting with a prefix are a range found by binary search.
+ * Each word has the sorted numbers of the descriptions containing it, held in compressed sparse row form.
+ * Language codes, types and modules are held as positions in small dictionaries.
+ */
+public final class DescriptionTermIndex {
+
+	private final long[] descriptionIds;
+	private final long[] conceptIds;
+	private final BitSet active;
+	private final short[] languages;
+	private final short[] types;
+	private final short[] modules;
+	private final String[] languageCodes;
+	private final long[] typeIds;
+	private final long[] moduleIds;
+
+	private final String[] words;
+	private final int[] wordOffsets;
+	private final int[] wordDescriptions;
+
+	private DescriptionTermIndex(long[] descriptionIds, long[] conceptIds, BitSet active, short[] languages, short[] types, short[] modules,
+			String[] languageCodes, long[] typeIds, long[] moduleIds, String[] words, int[] wordOffsets, int[] wordDescriptions) {
+		this.descriptionIds = descriptionIds;
+		this.conceptIds = conceptIds;
+		this.active = active;
+		this.languages = languages;
+		this.types = types;
+		this.modules = modules;
+		this.languageCodes = languageCodes;
+		this.typeIds = typeIds;
+		this.moduleIds = moduleIds;
+		this.words = words;
+		this.wordOffsets = wordOffsets;
+		this.wordDescriptions = wordDescriptions;
+	}
+
+	public int size() {
+		return descriptionIds.length;
+	}
+
+	public int getWordCount() {
+		return words.length;
+	}
+
+	/**
+	 * Finds descriptions with a word starting with each of the prefixes of any one of the alternatives.
+	 * Null filters match everything.
+	 * @param prefixAlternatives lists of lower case word prefixes
+	 * @return map of description id to concept id, in term length then description id order
+	 */
+	public Map<Long, Long> findMatches(Collection<List<String>> prefixAlternatives, Boolean active, Collection<String> languageCodes,
+			Collection<Long> typeIds, Collection<Long> moduleIds, Collection<Long> conceptIds) {
+
+		BitSet matches = new BitSet(size());
+		for (List<String> prefixes : prefixAlternatives) {
+			matches.or(findWordPrefixMatches(prefixes));
+		}
+
+		if (active != null) {
+			if (active) {
+				matches.and(this.active);
+			} else {
+				matches.andNot(this.active);
+			}
+		}
+		boolean[] languageFilter = dictionaryFilter(languageCodes, this.languageCodes.length, code -> indexOf(this.languageCodes, code));
+		boolean[] typeFilter = dictionaryFilter(typeIds, this.typeIds.length, typeId -> indexOf(this.typeIds, typeId));
+		boolean[] moduleFilter = dictionaryFilter(moduleIds, this.moduleIds.length, moduleId -> indexOf(this.moduleIds, moduleId));
+		Set<Long> conceptIdFilter = conceptIds != null ? new LongOpenHashSet(conceptIds) : null;
+
+		Map<Long, Long> descriptionToConceptMap = new LinkedHashMap<>();
+		for (int description = matches.nextSetBit(0); description >= 0; description = matches.nextSetBit(description + 1)) {
+			if ((languageFilter == null || languageFilter[languages[description]])
+					&& (typeFilter == null || typeFilter[types[description]])
+					&& (moduleFilter == null || moduleFilter[modules[description]])
+					&& (conceptIdFilter == null || conceptIdFilter.contains(this.conceptIds[description]))) {
+				descriptionToConceptMap.put(descriptionIds[description], this.conceptIds[description]);
+			}
+		}
+		return descriptionToConceptMap;
+	}
+
+	private BitSet findWordPrefixMatches(List<String> prefixes) {
+		BitSet matches = null;
+		for (String prefix : prefixes) {
+			BitSet prefixMatches = new BitSet(size());
+			int to = lowerBound(prefix + Character.MAX_VALUE);
+			for (int word = lowerBound(prefix); word < to; word++) {
+				for (int i = wordOffsets[word]; i < wordOffsets[word + 1]; i++) {
+					prefixMatches.set(wordDescriptions[i]);
+				}
+			}
+			if (matches == null) {
+				matches = prefixMatches;
+			} else {
+				matches.and(prefixMatches);
+			}
+			if (matches.isEmpty()) {
+				break;
+			}
+		}
+		return matches != null ? matches : new BitSet();
+	}
+
+	private int lowerBound(String word) {
+		int index = Arrays.binarySearch(words, word);
+		return index >= 0 ? index : -index - 1;
+	}
+
+	private static <T> boolean[] dictionaryFilter(Collection<T> values, int dictionarySize, ToIntFunction<T> indexFunction) {
+		if (values == null || values.isEmpty()) {
+			return null;
+		}
+		boolean[] filter = new boolean[dictionarySize];
+		for (T value : values) {
+			int index = indexFunction.applyAsInt(value);
+			if (index >= 0) {
+				filter[index] = true;
+			}
+		}
+		return filter;
+	}
+
+	private static int indexOf(String[] dictionary, String value) {
+		for (int i = 0; i < dictionary.length; i++) {
+			if (dictionary[i].equals(value)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static int indexOf(long[] dictionary, long value) {
+		for (int i = 0; i < dictionary.length; i++) {
+			if (dictionary[i] == value) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Compares ids in the order of their decimal text, without creating strings.
+	 */
+	static int compareIdsAsText(long a, long b) {
+		int aDigits = countDigits(a);
+		int bDigits = countDigits(b);
+		if (aDigits == bDigits) {
+			return Long.compare(a, b);
+		}
+		// Compare the leading digits of the longer id with the shorter id, the shorter id comes first if they are the same
+		int compareLeadingDigits = aDigits > bDigits ? Long.compare(a / powerOfTen(aDigits - bDigits), b) : Long.compare(a, b / powerOfTen(bDigits - aDigits));
+		return compareLeadingDigits != 0 ? compareLeadingDigits : Integer.compare(aDigits, bDigits);
+	}
+
+	private static int countDigits(long id) {
+		int digits = 1;
+		while (id >= 10) {
+			id /= 10;
+			digits++;
+		}
+		return digits;
+	}
+
+	private static long powerOfTen(int exponent) {
+		long power = 1;
+		for (int i = 0; i < exponent; i++) {
+			power *= 10;
+		}
+		return power;
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	public static final class Builder {
+
+		private final LongArrayList descriptionIds = new LongArrayList();
+		private final LongArrayList conceptIds = new LongArrayList();
+		private final IntArrayList termLengths = new IntArrayList();
+		private final BitSet active = new BitSet();
+		private final IntArrayList languages = new IntArrayList();
+		private final IntArrayList types = new IntArrayList();
+		private final IntArrayList modules = new IntArrayList();
+		private final Map<String, Short> languageCodes = new LinkedHashMap<>();
+		private final Map<Long, Short> typeIds = new LinkedHashMap<>();
+		private final Map<Long, Short> moduleIds = new LinkedHashMap<>();
+
+		// Descriptions containing each word, numbered in the order added
+		private final Map<String, IntArrayList> wordDescriptions = new HashMap<>();
+
+		private Builder() {
+		}
+
+		/**
+		 * @param words lower case words of the folded term
+		 */
+		public Builder add(long descriptionId, long conceptId, boolean active, String languageCode, long typeId, long moduleId, int termLength,
+				Collection<String> words) {
+
+			int description = descriptionIds.size();
+			descriptionIds.add(descriptionId);
+			conceptIds.add(conceptId);
+			termLengths.add(termLength);
+			if (active) {
+				this.active.set(description);
+			}
+			languages.add(dictionaryIndex(languageCodes, languageCode));
+			types.add(dictionaryIndex(typeIds, typeId));
+			modules.add(dictionaryIndex(moduleIds, moduleId));
+			for (String word : words) {
+				IntArrayList descriptions = wordDescriptions.computeIfAbsent(word, key -> new IntArrayList(1));
+				// A word repeated within a term is only recorded once
+				if (descriptions.isEmpty() || descriptions.getInt(descriptions.size() - 1) != description) {
+					descriptions.add(description);
+				}
+			}
+			return this;
+		}
+
+		private static <T> short dictionaryIndex(Map<T, Short> dictionary, T value) {
+			Short index = dictionary.get(value);
+			if (index == null) {
+				if (dictionary.size() > Short.MAX_VALUE) {
+					throw new IllegalStateException("Too many distinct values to hold in a description term index.");
+				}
+				index = (short) dictionary.size();
+				dictionary.put(value, index);
+			}
+			return index;
+		}
+
+		public DescriptionTermIndex build() {
+			int size = descriptionIds.size();
+			long[] addedDescriptionIds = descriptionIds.toLongArray();
+			int[] addedTermLengths = termLengths.toIntArray();
+
+			// Number descriptions by term length then description id
+			int[] order = new int[size];
+			for (int i = 0; i < size; i++) {
+				order[i] = i;
+			}
+			IntArrays.quickSort(order, (a, b) -> addedTermLengths[a] != addedTermLengths[b] ?
+					Integer.compare(addedTermLengths[a], addedTermLengths[b]) : compareIdsAsText(addedDescriptionIds[a], addedDescriptionIds[b]));
+			int[] numbers = new int[size];
+			long[] sortedDescriptionIds = new long[size];
+			long[] sortedConceptIds = new long[size];
+			BitSet sortedActive = new BitSet(size);
+			short[] sortedLanguages = new short[size];
+			short[] sortedTypes = new short[size];
+			short[] sortedModules = new short[size];
+			for (int number = 0; number < size; number++) {
+				int added = order[number];
+				numbers[added] = number;
+				sortedDescriptionIds[number] = addedDescriptionIds[added];
+				sortedConceptIds[number] = conceptIds.getLong(added);
+				if (active.get(added)) {
+					sortedActive.set(number);
+				}
+				sortedLanguages[number] = (short) languages.getInt(added);
+				sortedTypes[number] = (short) types.getInt(added);
+				sortedModules[number] = (short) modules.getInt(added);
+			}
+
+			String[] words = wordDescriptions.keySet().toArray(new String[0]);
+			Arrays.sort(words);
+			int[] wordOffsets = new int[words.length + 1];
+			for (int word = 0; word < words.length; word++) {
+				wordOffsets[word + 1] = wordOffsets[word] + wordDescriptions.get(words[word]).size();
+			}
+			int[] sortedWordDescriptions = new int[wordOffsets[words.length]];
+			for (int word = 0; word < words.length; word++) {
+				IntArrayList descriptions = wordDescriptions.get(words[word]);
+				int offset = wordOffsets[word];
+				for (int i = 0; i < descriptions.size(); i++) {
+					sortedWordDescriptions[offset + i] = numbers[descriptions.getInt(i)];
+				}
+				Arrays.sort(sortedWordDescriptions, offset, wordOffsets[word + 1]);
+			}
+
+			return new DescriptionTermIndex(sortedDescriptionIds, sortedConceptIds, sortedActive, sortedLanguages, sortedTypes, sortedModules,
+					languageCodes.keySet().toArray(new String[0]), typeIds.keySet().stream().mapToLong(Long::longValue).toArray(),
+					moduleIds.keySet().stream().mapToLong(Long::longValue).toArray(), words, wordOffsets, sortedWordDescriptions);
+		}
+	}
+}
@@ -1,42 +1,324 @@
 package org.snomed.snowstorm.core.data.services.transitiveclosure;
 
-import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Collection;
-import java.util.Map;
+import java.io.PrintStream;
+import java.util.*;
 
+/**
+ * Graph of concepts and their parents, used to calculate the transitive closure of each concept.
+ * Nodes are numbered in the order they are added, parents are held as lists of node numbers.
+ * Transitive closures are calculated once, top down in topological order, so the closure of each node is built from the closures of its parents
+ * rather than by walking the whole graph above it. Nodes with a single parent share one array holding that parent and its ancestors.
+ * Nodes in or below a loop can not be ordered, their closures are found by walking the graph so that the loop can be reported.
+ */
 public class GraphBuilder {
 
-	private final Map<Long, Node> nodeLookup = new Long2ObjectOpenHashMap<>();
+	private static final int[] NONE = new int[0];
+
+	private final Long2IntOpenHashMap indexLookup = new Long2IntOpenHashMap();
+	private final LongArrayList ids = new LongArrayList();
+	private final List<IntArrayList> parents = new ArrayList<>();
+	private final BitSet updated = new BitSet();
+
+	// Calculated on first use, cleared if the graph changes
+	private int[][] ancestors;
+	private BitSet ancestorOrSelfUpdated;
+	private int[] childCounts;
+	private int[] descendantCounts;
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(GraphBuilder.class);
 
-	public void addParent(Long sourceId, Long destinationId) {
+	public GraphBuilder() {
+		indexLookup.defaultReturnValue(-1);
+	}
+
+	public void addParent(long sourceId, long destinationId) {
 		LOGGER.debug("{} -> {}", sourceId, destinationId);
-		Node createNode = getCreateNode(sourceId);
-		createNode.addParent(getCreateNode(destinationId));
+		int source = getCreateNode(sourceId);
+		int destination = getCreateNode(destinationId);
+		IntArrayList sourceParents = parents.get(source);
+		if (!sourceParents.contains(destination)) {
+			sourceParents.add(destination);
+			graphChanged();
+		}
 	}
 
-	private Node getCreateNode(Long id) {
-		Node node = nodeLookup.get(id);
-		if (node == null) {
-			node = new Node(id);
-			nodeLookup.put(node.getId(), node);
+	private int getCreateNode(long id) {
+		int index = indexLookup.get(id);
+		if (index == -1) {
+			index = ids.size();
+			ids.add(id);
+			parents.add(new IntArrayList(1));
+			indexLookup.put(id, index);
+			graphChanged();
 		}
-		return node;
+		return index;
 	}
 
 	public Collection<Node> getNodes() {
-		return nodeLookup.values();
+		List<Node> nodes = new ArrayList<>(ids.size());
+		for (int index = 0; index < ids.size(); index++) {
+			nodes.add(new Node(this, index));
+		}
+		return nodes;
 	}
 
 	public int getNodeCount() {
-		return nodeLookup.size();
+		return ids.size();
+	}
+
+	public void clearParentsAndMarkUpdated(long sourceId) {
+		int index = getCreateNode(sourceId);
+		updated.set(index);
+		parents.get(index).clear();
+		graphChanged();
+	}
+
+	long getId(int index) {
+		return ids.getLong(index);
+	}
+
+	Set<Long> getParentIds(int index) {
+		IntArrayList nodeParents = parents.get(index);
+		LongOpenHashSet parentIds = new LongOpenHashSet(nodeParents.size());
+		for (int i = 0; i < nodeParents.size(); i++) {
+			parentIds.add(ids.getLong(nodeParents.getInt(i)));
+		}
+		return parentIds;
+	}
+
+	boolean hasParents(int index) {
+		return !parents.get(index).isEmpty();
 	}
 
-	public void clearParentsAndMarkUpdated(Long sourceId) {
-		getCreateNode(sourceId).markUpdated().getParents().clear();
+	Set<Long> getTransitiveClosure(int index, String path, boolean throwExceptionIfLoopFound) throws GraphBuilderException {
+		calculateClosures();
+		int[] nodeAncestors = ancestors[index];
+		if (nodeAncestors != null) {
+			LongOpenHashSet ancestorIds = new LongOpenHashSet(nodeAncestors.length);
+			for (int ancestor : nodeAncestors) {
+				ancestorIds.add(ids.getLong(ancestor));
+			}
+			return ancestorIds;
+		}
+
+		// Node is in or below a loop
+		long id = ids.getLong(index);
+		Set<Long> ancestorIds = throwExceptionIfLoopFound ? new LinkedHashSet<>() : new LongOpenHashSet();
+		walkAncestors(index, ancestorIds);
+		if (ancestorIds.contains(id)) {
+			String message = String.format("Loop found in transitive closure for concept %s on branch %s. The concept %s is in its own set of ancestors: %s", id, path, id, ancestorIds);
+			if (throwExceptionIfLoopFound) {
+				dumpTransitiveClosure(index);
+				throw new GraphBuilderException(message);
+			} else {
+				LOGGER.warn(message);
+			}
+			ancestorIds.remove(id);
+		}
+		return ancestorIds;
+	}
+
+	private void walkAncestors(int index, Set<Long> ancestorIds) {
+		for (Long parentId : parentIdsInHashOrder(index)) {
+			if (ancestorIds.add(parentId)) {
+				walkAncestors(indexLookup.get(parentId.longValue()), ancestorIds);
+			}
+		}
+	}
+
+	// Parents are visited in hash order so that loops are reported in the same order as they always have been
+	private Set<Long> parentIdsInHashOrder(int index) {
+		Set<Long> parentIds = new HashSet<>();
+		IntArrayList nodeParents = parents.get(index);
+		for (int i = 0; i < nodeParents.size(); i++) {
+			parentIds.add(ids.getLong(nodeParents.getInt(i)));
+		}
+		return parentIds;
+	}
+
+	boolean isAncestorOrSelfUpdated(int index) {
+		calculateClosures();
+		if (ancestors[index] != null) {
+			return ancestorOrSelfUpdated.get(index);
+		}
+
+		// Node is in or below a loop
+		BitSet visited = new BitSet(ids.size());
+		IntArrayList queue = IntArrayList.of(index);
+		visited.set(index);
+		while (!queue.isEmpty()) {
+			int next = queue.popInt();
+			if (updated.get(next)) {
+				return true;
+			}
+			IntArrayList nodeParents = parents.get(next);
+			for (int i = 0; i < nodeParents.size(); i++) {
+				int parent = nodeParents.getInt(i);
+				if (!visited.get(parent)) {
+					visited.set(parent);
+					queue.add(parent);
+				}
+			}
+		}
+		return false;
+	}
+
+	int getChildCount(int index) {
+		calculateClosures();
+		return childCounts[index];
+	}
+
+	int getDescendantCount(int index) {
+		calculateClosures();
+		return descendantCounts[index];
+	}
+
+	private void graphChanged() {
+		ancestors = null;
+		ancestorOrSelfUpdated = null;
+		childCounts = null;
+		descendantCounts = null;
+	}
+
+	private void calculateClosures() {
+		if (ancestors != null) {
+			return;
+		}
+		int size = ids.size();
+		int[][] nodeAncestors = new int[size][];
+		BitSet nodeAncestorOrSelfUpdated = new BitSet(size);
+
+		// Invert the parent lists
+		int[] childOffsets = new int[size + 1];
+		for (IntArrayList nodeParents : parents) {
+			for (int i = 0; i < nodeParents.size(); i++) {
+				childOffsets[nodeParents.getInt(i) + 1]++;
+			}
+		}
+		for (int index = 0; index < size; index++) {
+			childOffsets[index + 1] += childOffsets[index];
+		}
+		int[] children = new int[childOffsets[size]];
+		int[] childPositions = Arrays.copyOf(childOffsets, size);
+		for (int index = 0; index < size; index++) {
+			IntArrayList nodeParents = parents.get(index);
+			for (int i = 0; i < nodeParents.size(); i++) {
+				children[childPositions[nodeParents.getInt(i)]++] = index;
+			}
+		}
+
+		// Start from the nodes without parents. A node is ready once all of its parents are done.
+		int[] parentsRemaining = new int[size];
+		IntArrayList ready = new IntArrayList();
+		for (int index = 0; index < size; index++) {
+			parentsRemaining[index] = parents.get(index).size();
+			if (parentsRemaining[index] == 0) {
+				ready.add(index);
+			}
+		}
+
+		// Ancestors of each node plus the node itself, shared by all children with a single parent
+		int[][] ancestorsAndSelf = new int[size][];
+		BitSet seen = new BitSet(size);
+		IntArrayList merged = new IntArrayList();
+		while (!ready.isEmpty()) {
+			int index = ready.popInt();
+			IntArrayList nodeParents = parents.get(index);
+			boolean affected = updated.get(index);
+			if (nodeParents.isEmpty()) {
+				nodeAncestors[index] = NONE;
+			} else if (nodeParents.size() == 1) {
+				int parent = nodeParents.getInt(0);
+				nodeAncestors[index] = getAncestorsAndSelf(parent, nodeAncestors, ancestorsAndSelf);
+				affected |= nodeAncestorOrSelfUpdated.get(parent);
+			} else {
+				merged.clear();
+				for (int i = 0; i < nodeParents.size(); i++) {
+					int parent = nodeParents.getInt(i);
+					for (int ancestor : getAncestorsAndSelf(parent, nodeAncestors, ancestorsAndSelf)) {
+						if (!seen.get(ancestor)) {
+							seen.set(ancestor);
+							merged.add(ancestor);
+						}
+					}
+					affected |= nodeAncestorOrSelfUpdated.get(parent);
+				}
+				for (int i = 0; i < merged.size(); i++) {
+					seen.clear(merged.getInt(i));
+				}
+				nodeAncestors[index] = merged.toIntArray();
+			}
+			if (affected) {
+				nodeAncestorOrSelfUpdated.set(index);
+			}
+			for (int i = childOffsets[index]; i < childOffsets[index + 1]; i++) {
+				int child = children[i];
+				if (--parentsRemaining[child] == 0) {
+					ready.add(child);
+				}
+			}
+		}
+
+		// Each node is one descendant of each of its ancestors
+		int[] nodeChildCounts = new int[size];
+		int[] nodeDescendantCounts = new int[size];
+		for (int index = 0; index < size; index++) {
+			nodeChildCounts[index] = childOffsets[index + 1] - childOffsets[index];
+			if (nodeAncestors[index] != null) {
+				for (int ancestor : nodeAncestors[index]) {
+					nodeDescendantCounts[ancestor]++;
+				}
+			}
+		}
+
+		ancestors = nodeAncestors;
+		ancestorOrSelfUpdated = nodeAncestorOrSelfUpdated;
+		childCounts = nodeChildCounts;
+		descendantCounts = nodeDescendantCounts;
+	}
+
+	private static int[] getAncestorsAndSelf(int index, int[][] nodeAncestors, int[][] ancestorsAndSelf) {
+		int[] andSelf = ancestorsAndSelf[index];
+		if (andSelf == null) {
+			int[] nodeAncestorsOnly = nodeAncestors[index];
+			andSelf = Arrays.copyOf(nodeAncestorsOnly, nodeAncestorsOnly.length + 1);
+			andSelf[nodeAncestorsOnly.length] = index;
+			ancestorsAndSelf[index] = andSelf;
+		}
+		return andSelf;
+	}
+
+	private void dumpTransitiveClosure(int index) {
+		Set<Long> covered = new HashSet<>();
+		PrintStream printStream = System.out;
+		printStream.println();
+		printStream.println("Dumping transitive closure for concept " + ids.getLong(index) + ", order is BOTTOM UP!");
+		doDumpTransitiveClosure(index, covered, "- ", printStream);
+		printStream.println();
+	}
+
+	private void doDumpTransitiveClosure(int index, Set<Long> covered, String indent, PrintStream printStream) {
+		long id = ids.getLong(index);
+		printStream.print(indent + id);
+		if (covered.contains(id)) {
+			if (hasParents(index)) {
+				printStream.print("(parents already output)");
+			}
+			printStream.println();
+		} else {
+			covered.add(id);
+			indent = "|" + indent;
+			printStream.println();
+			for (Long parentId : parentIdsInHashOrder(index)) {
+				doDumpTransitiveClosure(indexLookup.get(parentId.longValue()), covered, indent, printStream);
+			}
+		}
 	}
 }
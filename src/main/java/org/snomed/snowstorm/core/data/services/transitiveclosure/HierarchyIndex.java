@@ -0,0 +1,210 @@
+package org.snomed.snowstorm.core.data.services.transitiveclosure;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Immutable in-memory copy of one form of the semantic index hierarchy, held in primitive arrays.
+ * Concepts are numbered by their position in the sorted array of concept ids. Parents, children and ancestors are held in compressed sparse row form,
+ * an offsets array per relation pointing into a single array of concept numbers. Ancestor numbers are sorted so that subsumption tests are a binary search.
+ */
+public final class HierarchyIndex {
+
+	private final long[] conceptIds;
+
+	private final int[] parentOffsets;
+	private final int[] parents;
+
+	private final int[] childOffsets;
+	private final int[] children;
+
+	private final int[] ancestorOffsets;
+	private final int[] ancestors;
+
+	// Calculated on first use
+	private volatile int[] descendantCounts;
+
+	private HierarchyIndex(long[] conceptIds, int[] parentOffsets, int[] parents, int[] childOffsets, int[] children, int[] ancestorOffsets, int[] ancestors) {
+		this.conceptIds = conceptIds;
+		this.parentOffsets = parentOffsets;
+		this.parents = parents;
+		this.childOffsets = childOffsets;
+		this.children = children;
+		this.ancestorOffsets = ancestorOffsets;
+		this.ancestors = ancestors;
+	}
+
+	public boolean contains(long conceptId) {
+		return indexOf(conceptId) >= 0;
+	}
+
+	public int size() {
+		return conceptIds.length;
+	}
+
+	/**
+	 * @return true if ancestorId is a proper ancestor of conceptId.
+	 */
+	public boolean isAncestor(long ancestorId, long conceptId) {
+		int conceptIndex = indexOf(conceptId);
+		int ancestorIndex = indexOf(ancestorId);
+		if (conceptIndex < 0 || ancestorIndex < 0) {
+			return false;
+		}
+		return Arrays.binarySearch(ancestors, ancestorOffsets[conceptIndex], ancestorOffsets[conceptIndex + 1], ancestorIndex) >= 0;
+	}
+
+	public LongSet getParents(Collection<Long> conceptIds) {
+		return collect(conceptIds, parentOffsets, parents);
+	}
+
+	public LongSet getChildren(Collection<Long> conceptIds) {
+		return collect(conceptIds, childOffsets, children);
+	}
+
+	public LongSet getAncestors(Collection<Long> conceptIds) {
+		return collect(conceptIds, ancestorOffsets, ancestors);
+	}
+
+	public LongSet getDescendants(Collection<Long> conceptIds) {
+		BitSet visited = new BitSet(this.conceptIds.length);
+		IntArrayList queue = new IntArrayList();
+		for (Long conceptId : conceptIds) {
+			int index = indexOf(conceptId);
+			if (index >= 0) {
+				queue.add(index);
+			}
+		}
+		LongSet descendants = new LongOpenHashSet();
+		while (!queue.isEmpty()) {
+			int index = queue.popInt();
+			for (int i = childOffsets[index]; i < childOffsets[index + 1]; i++) {
+				int child = children[i];
+				if (!visited.get(child)) {
+					visited.set(child);
+					descendants.add(this.conceptIds[child]);
+					queue.add(child);
+				}
+			}
+		}
+		return descendants;
+	}
+
+	/**
+	 * @return the number of descendants of the concept, zero if the concept is not in the index.
+	 */
+	public int getDescendantCount(long conceptId) {
+		int index = indexOf(conceptId);
+		return index >= 0 ? getDescendantCounts()[index] : 0;
+	}
+
+	private int[] getDescendantCounts() {
+		int[] counts = descendantCounts;
+		if (counts == null) {
+			// Each concept is one descendant of each of its ancestors
+			counts = new int[conceptIds.length];
+			for (int ancestor : ancestors) {
+				counts[ancestor]++;
+			}
+			descendantCounts = counts;
+		}
+		return counts;
+	}
+
+	private LongSet collect(Collection<Long> conceptIds, int[] offsets, int[] values) {
+		LongSet result = new LongOpenHashSet();
+		for (Long conceptId : conceptIds) {
+			int index = indexOf(conceptId);
+			if (index >= 0) {
+				for (int i = offsets[index]; i < offsets[index + 1]; i++) {
+					result.add(this.conceptIds[values[i]]);
+				}
+			}
+		}
+		return result;
+	}
+
+	private int indexOf(long conceptId) {
+		int index = Arrays.binarySearch(conceptIds, conceptId);
+		return index >= 0 ? index : -1;
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	public static final class Builder {
+
+		private final Map<Long, long[][]> parentsAndAncestors = new Long2ObjectOpenHashMap<>();
+
+		private Builder() {
+		}
+
+		public Builder add(long conceptId, Collection<Long> parentIds, Collection<Long> ancestorIds) {
+			parentsAndAncestors.put(conceptId, new long[][]{toArray(parentIds), toArray(ancestorIds)});
+			return this;
+		}
+
+		public HierarchyIndex build() {
+			long[] conceptIds = parentsAndAncestors.keySet().stream().mapToLong(Long::longValue).sorted().toArray();
+			int size = conceptIds.length;
+
+			int[] parentOffsets = new int[size + 1];
+			IntArrayList parents = new IntArrayList();
+			int[] ancestorOffsets = new int[size + 1];
+			IntArrayList ancestors = new IntArrayList();
+			int[] childCounts = new int[size];
+			for (int index = 0; index < size; index++) {
+				long[][] relations = parentsAndAncestors.get(conceptIds[index]);
+				for (long parentId : relations[0]) {
+					int parentIndex = Arrays.binarySearch(conceptIds, parentId);
+					if (parentIndex >= 0) {
+						parents.add(parentIndex);
+						childCounts[parentIndex]++;
+					}
+				}
+				parentOffsets[index + 1] = parents.size();
+
+				int start = ancestors.size();
+				for (long ancestorId : relations[1]) {
+					int ancestorIndex = Arrays.binarySearch(conceptIds, ancestorId);
+					if (ancestorIndex >= 0) {
+						ancestors.add(ancestorIndex);
+					}
+				}
+				Arrays.sort(ancestors.elements(), start, ancestors.size());
+				ancestorOffsets[index + 1] = ancestors.size();
+			}
+
+			// Invert the parent relation
+			int[] childOffsets = new int[size + 1];
+			for (int index = 0; index < size; index++) {
+				childOffsets[index + 1] = childOffsets[index] + childCounts[index];
+			}
+			int[] children = new int[parents.size()];
+			int[] childPositions = Arrays.copyOf(childOffsets, size);
+			for (int index = 0; index < size; index++) {
+				for (int i = parentOffsets[index]; i < parentOffsets[index + 1]; i++) {
+					children[childPositions[parents.getInt(i)]++] = index;
+				}
+			}
+
+			return new HierarchyIndex(conceptIds, parentOffsets, parents.toIntArray(), childOffsets, children, ancestorOffsets, ancestors.toIntArray());
+		}
+
+		private static long[] toArray(Collection<Long> ids) {
+			if (ids == null) {
+				return new long[0];
+			}
+			return ids instanceof LongArrayList longArrayList ? longArrayList.toLongArray() : ids.stream().mapToLong(Long::longValue).toArray();
+		}
+	}
+}
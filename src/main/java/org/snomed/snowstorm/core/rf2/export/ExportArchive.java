@@ -0,0 +1,146 @@
+package org.snomed.snowstorm.core.rf2.export;
+
+import org.springframework.util.FileSystemUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Assembles the files of an RF2 export into a zip archive.
+ * With more than one worker the files are written concurrently, each to its own temp file.
+ * They are then added to the archive in the order they were submitted, each as soon as it and the files before it are complete.
+ * If any file fails the files not yet complete are cancelled.
+ * With one worker files are written straight into the archive, one after another.
+ */
+class ExportArchive implements Closeable {
+
+	private final ZipOutputStream zipOutputStream;
+	private final ExecutorService executorService;
+	private final Path tempDirectory;
+	private final List<PendingEntry> pendingEntries = new ArrayList<>();
+	private final AtomicReference<ExportException> failure = new AtomicReference<>();
+
+	ExportArchive(ZipOutputStream zipOutputStream, int workers) throws IOException {
+		this.zipOutputStream = zipOutputStream;
+		if (workers > 1) {
+			executorService = Executors.newFixedThreadPool(workers);
+			tempDirectory = Files.createTempDirectory("rf2-export-files");
+		} else {
+			executorService = null;
+			tempDirectory = null;
+		}
+	}
+
+	/**
+	 * @param entryWriter writes the content of the file and returns the number of content lines written
+	 * @return the number of content lines written, once the file is complete
+	 */
+	CompletableFuture<Integer> addEntry(String entryPath, EntryWriter entryWriter) throws IOException {
+		if (executorService == null) {
+			zipOutputStream.putNextEntry(new ZipEntry(entryPath));
+			try {
+				return CompletableFuture.completedFuture(entryWriter.write(zipOutputStream));
+			} finally {
+				zipOutputStream.closeEntry();
+			}
+		}
+
+		throwIfFailed();
+		Path file = tempDirectory.resolve(pendingEntries.size() + ".txt");
+		CompletableFuture<Integer> future = CompletableFuture.supplyAsync(() -> {
+			try (OutputStream outputStream = new BufferedOutputStream(Files.newOutputStream(file))) {
+				return entryWriter.write(outputStream);
+			} catch (IOException e) {
+				throw new ExportException("Failed to write export file '" + entryPath + "'", e);
+			}
+		}, executorService);
+		future.whenComplete((lines, throwable) -> {
+			if (throwable != null && !(throwable instanceof CancellationException)) {
+				failed(entryPath, throwable);
+			}
+		});
+		synchronized (pendingEntries) {
+			pendingEntries.add(new PendingEntry(entryPath, file, future));
+		}
+		if (failure.get() != null) {
+			// Another file failed while this one was being submitted
+			future.cancel(false);
+		}
+		return future;
+	}
+
+	private void failed(String entryPath, Throwable throwable) {
+		Throwable cause = throwable instanceof CompletionException ? throwable.getCause() : throwable;
+		ExportException exportException = cause instanceof ExportException e ? e : new ExportException("Failed to write export file '" + entryPath + "'", cause);
+		if (failure.compareAndSet(null, exportException)) {
+			// No point writing the other files, the export has failed
+			synchronized (pendingEntries) {
+				pendingEntries.forEach(pendingEntry -> pendingEntry.future().cancel(false));
+			}
+		}
+	}
+
+	private void throwIfFailed() {
+		ExportException exportException = failure.get();
+		if (exportException != null) {
+			throw exportException;
+		}
+	}
+
+	/**
+	 * Waits for the files written concurrently and adds them to the archive.
+	 */
+	void finish() throws IOException {
+		for (PendingEntry pendingEntry : pendingEntries) {
+			try {
+				pendingEntry.future().join();
+			} catch (CompletionException | CancellationException e) {
+				// Report the file that failed first rather than one cancelled because of it
+				failed(pendingEntry.entryPath(), e);
+				throwIfFailed();
+			}
+			zipOutputStream.putNextEntry(new ZipEntry(pendingEntry.entryPath()));
+			Files.copy(pendingEntry.file(), zipOutputStream);
+			zipOutputStream.closeEntry();
+			Files.delete(pendingEntry.file());
+		}
+		synchronized (pendingEntries) {
+			pendingEntries.clear();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (executorService != null) {
+			executorService.shutdownNow();
+			try {
+				// Files still being written must be closed before they can be deleted
+				if (!executorService.awaitTermination(1, TimeUnit.MINUTES)) {
+					throw new IOException("Export file writers did not stop within a minute, temp files left in " + tempDirectory);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while waiting for export file writers to stop.", e);
+			}
+			FileSystemUtils.deleteRecursively(tempDirectory);
+		}
+	}
+
+	@FunctionalInterface
+	interface EntryWriter {
+		int write(OutputStream outputStream) throws IOException;
+	}
+
+	private record PendingEntry(String entryPath, Path file, CompletableFuture<Integer> future) {
+	}
+}
@@ -29,6 +29,7 @@ import org.snomed.snowstorm.core.rf2.RF2Type;
 import org.snomed.snowstorm.core.util.DateUtil;
 import org.snomed.snowstorm.core.util.TimerUtil;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
 import org.springframework.data.elasticsearch.core.SearchHit;
 import org.springframework.data.elasticsearch.core.SearchHitsIterator;
@@ -40,9 +41,9 @@ import org.springframework.util.CollectionUtils;
 import java.io.*;
 import java.nio.file.Files;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.stream.Collectors;
-import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
 import static io.kaicode.elasticvc.api.ComponentService.LARGE_PAGE;
@@ -80,6 +81,9 @@ public class ExportService {
 	@Autowired
 	private ExecutorService executorService;
 
+	@Value("${export.parallel-files.workers}")
+	private int exportWorkers;
+
 	private final Set<String> refsetTypesRequiredForClassification = Sets.newHashSet(Concepts.REFSET_MRCM_ATTRIBUTE_DOMAIN, Concepts.OWL_EXPRESSION_TYPE_REFERENCE_SET);
 
 	private final Logger logger = LoggerFactory.getLogger(getClass());
@@ -241,64 +245,65 @@ public class ExportService {
 		try {
 			branchService.lockBranch(branchPath, branchMetadataHelper.getBranchLockMetadata("Exporting RF2 " + exportType.getName()));
 			File exportFile = File.createTempFile("export-" + new Date().getTime(), ".zip");
-			try (ZipOutputStream zipOutputStream = new ZipOutputStream(new FileOutputStream(exportFile))) {
+			try (ZipOutputStream zipOutputStream = new ZipOutputStream(new FileOutputStream(exportFile));
+					ExportArchive exportArchive = new ExportArchive(zipOutputStream, exportWorkers)) {
 
 				boolean refsetOnlyExport = refsetIds != null && !refsetIds.isEmpty();
 
 				if (!refsetOnlyExport) {
 					// Write Concepts
-					int conceptLines = exportComponents(Concept.class, entryDirectoryPrefix, "Terminology/", "sct2_Concept_", filenameEffectiveDate, exportType, zipOutputStream,
-							getContentQuery(exportType, moduleIds, startEffectiveTime, selectionBranchCriteria.getEntityBranchCriteria(Concept.class)).build()._toQuery(), transientEffectiveTime, null, codeSystemRF2Name, null);
-					logger.info("{} concept states exported", conceptLines);
+					exportComponents(Concept.class, entryDirectoryPrefix, "Terminology/", "sct2_Concept_", filenameEffectiveDate, exportType, exportArchive,
+							getContentQuery(exportType, moduleIds, startEffectiveTime, selectionBranchCriteria.getEntityBranchCriteria(Concept.class)).build()._toQuery(), transientEffectiveTime, null, codeSystemRF2Name, null)
+							.thenAccept(conceptLines -> logger.info("{} concept states exported", conceptLines));
 
 					if (!forClassification) {
 						// Write Descriptions
 						Query descriptionBranchCriteria = selectionBranchCriteria.getEntityBranchCriteria(Description.class);
 						BoolQuery.Builder descriptionContentQuery = getContentQuery(exportType, moduleIds, startEffectiveTime, descriptionBranchCriteria);
 						descriptionContentQuery.mustNot(termQuery(Description.Fields.TYPE_ID, Concepts.TEXT_DEFINITION));
-						int descriptionLines = exportComponents(Description.class, entryDirectoryPrefix, "Terminology/", "sct2_Description_", filenameEffectiveDate, exportType, zipOutputStream,
-								descriptionContentQuery.build()._toQuery(), transientEffectiveTime, null, codeSystemRF2Name, null);
-						logger.info("{} description states exported", descriptionLines);
+						exportComponents(Description.class, entryDirectoryPrefix, "Terminology/", "sct2_Description_", filenameEffectiveDate, exportType, exportArchive,
+								descriptionContentQuery.build()._toQuery(), transientEffectiveTime, null, codeSystemRF2Name, null)
+								.thenAccept(descriptionLines -> logger.info("{} description states exported", descriptionLines));
 
 						// Write Text Definitions
 						BoolQuery.Builder textDefinitionContentQuery = getContentQuery(exportType, moduleIds, startEffectiveTime, descriptionBranchCriteria);
 						textDefinitionContentQuery.must(termQuery(Description.Fields.TYPE_ID, Concepts.TEXT_DEFINITION));
-						int textDefinitionLines = exportComponents(Description.class, entryDirectoryPrefix, "Terminology/", "sct2_TextDefinition_", filenameEffectiveDate, exportType, zipOutputStream,
-								textDefinitionContentQuery.build()._toQuery(), transientEffectiveTime, null, codeSystemRF2Name, null);
-						logger.info("{} text defintion states exported", textDefinitionLines);
+						exportComponents(Description.class, entryDirectoryPrefix, "Terminology/", "sct2_TextDefinition_", filenameEffectiveDate, exportType, exportArchive,
+								textDefinitionContentQuery.build()._toQuery(), transientEffectiveTime, null, codeSystemRF2Name, null)
+								.thenAccept(textDefinitionLines -> logger.info("{} text defintion states exported", textDefinitionLines));
 					}
 
 					// Write Stated Relationships
 					Query relationshipBranchCritera = selectionBranchCriteria.getEntityBranchCriteria(Relationship.class);
 					BoolQuery.Builder relationshipQuery = getContentQuery(exportType, moduleIds, startEffectiveTime, relationshipBranchCritera);
 					relationshipQuery.must(termQuery(Relationship.Fields.CHARACTERISTIC_TYPE_ID, Concepts.STATED_RELATIONSHIP));
-					int statedRelationshipLines = exportComponents(Relationship.class, entryDirectoryPrefix, "Terminology/", "sct2_StatedRelationship_", filenameEffectiveDate, exportType, zipOutputStream,
-							relationshipQuery.build()._toQuery(), transientEffectiveTime, null, codeSystemRF2Name, null);
-					logger.info("{} stated relationship states exported", statedRelationshipLines);
+					exportComponents(Relationship.class, entryDirectoryPrefix, "Terminology/", "sct2_StatedRelationship_", filenameEffectiveDate, exportType, exportArchive,
+							relationshipQuery.build()._toQuery(), transientEffectiveTime, null, codeSystemRF2Name, null)
+							.thenAccept(statedRelationshipLines -> logger.info("{} stated relationship states exported", statedRelationshipLines));
 
 					// Write Inferred non-concrete Relationships
 					relationshipQuery = getContentQuery(exportType, moduleIds, startEffectiveTime, relationshipBranchCritera);
 					// Not 'stated' will include inferred and additional
 					relationshipQuery.mustNot(termQuery(Relationship.Fields.CHARACTERISTIC_TYPE_ID, Concepts.STATED_RELATIONSHIP));
 					relationshipQuery.must(existsQuery(Relationship.Fields.DESTINATION_ID));
-					int inferredRelationshipLines = exportComponents(Relationship.class, entryDirectoryPrefix, "Terminology/", "sct2_Relationship_", filenameEffectiveDate, exportType, zipOutputStream,
-							relationshipQuery.build()._toQuery(), transientEffectiveTime, null, codeSystemRF2Name, null);
-					logger.info("{} inferred (non-concrete) and additional relationship states exported", inferredRelationshipLines);
+					exportComponents(Relationship.class, entryDirectoryPrefix, "Terminology/", "sct2_Relationship_", filenameEffectiveDate, exportType, exportArchive,
+							relationshipQuery.build()._toQuery(), transientEffectiveTime, null, codeSystemRF2Name, null)
+							.thenAccept(inferredRelationshipLines -> logger.info("{} inferred (non-concrete) and additional relationship states exported", inferredRelationshipLines));
 
 					// Write Concrete Inferred Relationships
 					relationshipQuery = getContentQuery(exportType, moduleIds, startEffectiveTime, relationshipBranchCritera);
 					relationshipQuery.must(termQuery(Relationship.Fields.CHARACTERISTIC_TYPE_ID, Concepts.INFERRED_RELATIONSHIP));
 					relationshipQuery.must(existsQuery(Relationship.Fields.VALUE));
-					int inferredConcreteRelationshipLines = exportComponents(Relationship.class, entryDirectoryPrefix, "Terminology/", "sct2_RelationshipConcreteValues_", filenameEffectiveDate, exportType,
-							zipOutputStream,
-							relationshipQuery.build()._toQuery(), transientEffectiveTime, null, codeSystemRF2Name, null);
-					logger.info("{} concrete inferred relationship states exported", inferredConcreteRelationshipLines);
+					exportComponents(Relationship.class, entryDirectoryPrefix, "Terminology/", "sct2_RelationshipConcreteValues_", filenameEffectiveDate, exportType,
+							exportArchive,
+							relationshipQuery.build()._toQuery(), transientEffectiveTime, null, codeSystemRF2Name, null)
+							.thenAccept(inferredConcreteRelationshipLines -> logger.info("{} concrete inferred relationship states exported", inferredConcreteRelationshipLines));
 
 					// Write Identifiers
 					BoolQuery.Builder identifierContentQuery = getContentQuery(exportType, moduleIds, startEffectiveTime, selectionBranchCriteria.getEntityBranchCriteria(Identifier.class));
-					int identifierLines = exportComponents(Identifier.class, entryDirectoryPrefix, "Terminology/", "sct2_Identifier_", filenameEffectiveDate, exportType, zipOutputStream,
-							identifierContentQuery.build()._toQuery(), transientEffectiveTime, null, codeSystemRF2Name, null);
-					logger.info("{} identifier states exported", identifierLines);
+					exportComponents(Identifier.class, entryDirectoryPrefix, "Terminology/", "sct2_Identifier_", filenameEffectiveDate, exportType, exportArchive,
+							identifierContentQuery.build()._toQuery(), transientEffectiveTime, null, codeSystemRF2Name, null)
+							.thenAccept(identifierLines -> logger.info("{} identifier states exported", identifierLines));
 				}
 
 				// Write Reference Sets
@@ -325,19 +330,19 @@ public class ExportService {
 							String exportDir = referenceSetType.getExportDir();
 							String entryDirectory = !exportDir.startsWith("/") ? "Refset/" + exportDir + "/" : exportDir.substring(1) + "/";
 							String entryFilenamePrefix = (!entryDirectory.startsWith("Terminology/") ? "der2_" : "sct2_") + referenceSetType.getFieldTypes() + "Refset_" + referenceSetType.getName() + (refsetsOfThisType.size() > 1 ? refsetToExport : "");
-							int rowCount = exportComponents(
+							exportComponents(
 									ReferenceSetMember.class,
 									entryDirectoryPrefix, entryDirectory,
 									entryFilenamePrefix,
 									filenameEffectiveDate,
 									exportType,
-									zipOutputStream,
+									exportArchive,
 									mdrService.generateModuleDependencies(branchPath, transientEffectiveTime, moduleIds, exportType.equals(RF2Type.DELTA), null),
 									transientEffectiveTime,
 									referenceSetType.getFieldNameList(),
 									codeSystemRF2Name,
-									exportFilter);
-							logger.info("Exported Reference Set {} {} with {} members", refsetToExport, referenceSetType.getName(), rowCount);
+									exportFilter)
+									.thenAccept(rowCount -> logger.info("Exported Reference Set {} {} with {} members", refsetToExport, referenceSetType.getName(), rowCount));
 						} else if (!refsetOnlyExport || refsetIds.contains(refsetToExport.toString())) {
 							BoolQuery.Builder memberQueryBuilder = getContentQuery(exportType, moduleIds, startEffectiveTime, memberBranchCriteria);
 							memberQueryBuilder.must(termQuery(ReferenceSetMember.Fields.REFSET_ID, refsetToExport));
@@ -354,7 +359,7 @@ public class ExportService {
 										entryFilenamePrefix,
 										filenameEffectiveDate,
 										exportType,
-										zipOutputStream,
+										exportArchive,
 										memberQuery,
 										transientEffectiveTime,
 										referenceSetType.getFieldNameList(),
@@ -364,6 +369,8 @@ public class ExportService {
 						}
 					}
 				}
+
+				exportArchive.finish();
 			}
 
 			logger.info("{} export of {}{} complete in {} seconds.", exportType, branchPath, exportStr, TimerUtil.secondsSince(startTime));
@@ -399,27 +406,23 @@ public class ExportService {
 		return contentQuery;
 	}
 
-	private <T> int exportComponents(Class<T> componentClass, String entryDirectoryPrefix, String entryDirectory, String entryFilenamePrefix, String filenameEffectiveDate,
-			RF2Type exportType, ZipOutputStream zipOutputStream, Query contentQuery, String transientEffectiveTime, List<String> extraFieldNames, String codeSystemRF2Name, ExportFilter<T> exportFilter) {
+	private <T> CompletableFuture<Integer> exportComponents(Class<T> componentClass, String entryDirectoryPrefix, String entryDirectory, String entryFilenamePrefix, String filenameEffectiveDate,
+			RF2Type exportType, ExportArchive exportArchive, Query contentQuery, String transientEffectiveTime, List<String> extraFieldNames, String codeSystemRF2Name, ExportFilter<T> exportFilter) {
 
 		String componentFilePath = entryDirectoryPrefix + entryDirectory + entryFilenamePrefix + format("%s_%s_%s.txt", exportType.getName(), codeSystemRF2Name, filenameEffectiveDate);
 		logger.info("Exporting file {}", componentFilePath);
 		logger.info("Export filter is " + (exportFilter==null?"null" : "present"));
 		try {
-			// Open zip entry
-			zipOutputStream.putNextEntry(new ZipEntry(componentFilePath));
-
-			// Stream components into zip
-			try (ExportWriter<T> writer = getExportWriter(componentClass, zipOutputStream, extraFieldNames, entryFilenamePrefix.contains("Concrete"));
-					SearchHitsIterator<T> componentStream = elasticsearchOperations.searchForStream(getNativeSearchQuery(contentQuery), componentClass)) {
-				writer.setTransientEffectiveTime(transientEffectiveTime);
-				writer.writeHeader();
-				componentStream.forEachRemaining(hit -> doFilteredWrite(exportFilter, writer, hit.getContent()));
-				return writer.getContentLinesWritten();
-			} finally {
-				// Close zip entry
-				zipOutputStream.closeEntry();
-			}
+			// Stream components into archive entry
+			return exportArchive.addEntry(componentFilePath, outputStream -> {
+				try (ExportWriter<T> writer = getExportWriter(componentClass, outputStream, extraFieldNames, entryFilenamePrefix.contains("Concrete"));
+						SearchHitsIterator<T> componentStream = elasticsearchOperations.searchForStream(getNativeSearchQuery(contentQuery), componentClass)) {
+					writer.setTransientEffectiveTime(transientEffectiveTime);
+					writer.writeHeader();
+					componentStream.forEachRemaining(hit -> doFilteredWrite(exportFilter, writer, hit.getContent()));
+					return writer.getContentLinesWritten();
+				}
+			});
 		} catch (IOException e) {
 			throw new ExportException("Failed to write export zip entry '" + componentFilePath + "'", e);
 		}
@@ -431,26 +434,22 @@ public class ExportService {
 		}
 	}
 
-	private <T> int exportComponents(Class<T> componentClass, String entryDirectoryPrefix, String entryDirectory, String entryFilenamePrefix, String filenameEffectiveDate,
-			RF2Type exportType, ZipOutputStream zipOutputStream, Set<T> components, String transientEffectiveTime, List<String> extraFieldNames, String codeSystemRF2Name,
+	private <T> CompletableFuture<Integer> exportComponents(Class<T> componentClass, String entryDirectoryPrefix, String entryDirectory, String entryFilenamePrefix, String filenameEffectiveDate,
+			RF2Type exportType, ExportArchive exportArchive, Set<T> components, String transientEffectiveTime, List<String> extraFieldNames, String codeSystemRF2Name,
 			ExportFilter<T> exportFilter) {
 
 		String componentFilePath = entryDirectoryPrefix + entryDirectory + entryFilenamePrefix + format("%s_%s_%s.txt", exportType.getName(), codeSystemRF2Name, filenameEffectiveDate);
 		logger.info("Exporting file {}", componentFilePath);
 		try {
-			// Open zip entry
-			zipOutputStream.putNextEntry(new ZipEntry(componentFilePath));
-
-			// Stream components into zip
-			try (ExportWriter<T> writer = getExportWriter(componentClass, zipOutputStream, extraFieldNames, entryFilenamePrefix.contains("Concrete"))) {
-				writer.setTransientEffectiveTime(transientEffectiveTime);
-				writer.writeHeader();
-				components.forEach(c -> doFilteredWrite(exportFilter, writer, c));
-				return writer.getContentLinesWritten();
-			} finally {
-				// Close zip entry
-				zipOutputStream.closeEntry();
-			}
+			// Stream components into archive entry
+			return exportArchive.addEntry(componentFilePath, outputStream -> {
+				try (ExportWriter<T> writer = getExportWriter(componentClass, outputStream, extraFieldNames, entryFilenamePrefix.contains("Concrete"))) {
+					writer.setTransientEffectiveTime(transientEffectiveTime);
+					writer.writeHeader();
+					components.forEach(c -> doFilteredWrite(exportFilter, writer, c));
+					return writer.getContentLinesWritten();
+				}
+			});
 		} catch (IOException e) {
 			throw new ExportException("Failed to write export zip entry '" + componentFilePath + "'", e);
 		}
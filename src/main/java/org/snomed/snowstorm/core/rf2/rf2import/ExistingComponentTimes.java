@@ -0,0 +1,72 @@
+package org.snomed.snowstorm.core.rf2.rf2import;
+
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+
+/**
+ * Latest effective time and released flag of the existing components of one type, held in a primitive map for in-memory effective time checks.
+ * Components with SCTIDs are held exactly. Other ids, for example reference set member UUIDs, are held by a 64 bit hash.
+ * Where hashed ids collide the entry holds the latest effective time and released flag of any of them, so a hit for a hashed id
+ * is only a candidate which must be confirmed, while a miss is certain.
+ */
+class ExistingComponentTimes {
+
+	static final int NOT_FOUND = -1;
+
+	private final boolean sctids;
+
+	// Effective time shifted left by one, with the released flag in the lowest bit. Components without an effective time have 0.
+	private final Long2IntOpenHashMap times;
+
+	ExistingComponentTimes(boolean sctids) {
+		this.sctids = sctids;
+		times = new Long2IntOpenHashMap();
+		times.defaultReturnValue(NOT_FOUND);
+	}
+
+	void add(String id, Integer effectiveTime, boolean released) {
+		long key = key(id);
+		int value = (effectiveTime != null ? effectiveTime : 0) << 1 | (released ? 1 : 0);
+		int existing = times.get(key);
+		if (existing != NOT_FOUND) {
+			value = Math.max(existing >> 1, value >> 1) << 1 | (existing | value) & 1;
+		}
+		times.put(key, value);
+	}
+
+	/**
+	 * @return the effective time of the existing component, 0 if it has none, or {@link #NOT_FOUND}
+	 */
+	int getEffectiveTime(String id) {
+		int value = times.get(key(id));
+		return value != NOT_FOUND ? value >> 1 : NOT_FOUND;
+	}
+
+	boolean isReleased(String id) {
+		int value = times.get(key(id));
+		return value != NOT_FOUND && (value & 1) == 1;
+	}
+
+	/**
+	 * @return true if results are exact, false if hits are only candidates
+	 */
+	boolean isExact() {
+		return sctids;
+	}
+
+	int size() {
+		return times.size();
+	}
+
+	private long key(String id) {
+		if (sctids) {
+			return Long.parseLong(id);
+		}
+		// 64 bit FNV-1a
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < id.length(); i++) {
+			hash ^= id.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+}
@@ -16,12 +16,14 @@ import org.snomed.snowstorm.core.data.services.ConceptUpdateHelper;
 import org.snomed.snowstorm.core.data.services.IdentifierComponentService;
 import org.snomed.snowstorm.core.data.services.ReferenceSetMemberService;
 import org.snomed.snowstorm.core.rf2.RF2Constants;
+import org.snomed.snowstorm.core.util.TimerUtil;
 import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
 import org.springframework.data.elasticsearch.core.SearchHitsIterator;
 import org.springframework.data.elasticsearch.client.elc.NativeQueryBuilder;
 import org.springframework.data.elasticsearch.core.query.FetchSourceFilter;
 
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
@@ -52,13 +54,21 @@ public class ImportComponentFactoryImpl extends ImpotentComponentFactory {
 	private final List<PersistBuffer<?>> persistBuffers;
 	private final List<PersistBuffer<?>> coreComponentPersistBuffers;
 	private final MaxEffectiveTimeCollector maxEffectiveTimeCollector;
-	final Map<String, AtomicLong> componentTypeSkippedMap = new HashMap<>();
+	final Map<String, AtomicLong> componentTypeSkippedMap = new ConcurrentHashMap<>();
 	private static final Logger logger = LoggerFactory.getLogger(ImportComponentFactoryImpl.class);
 
 	// A small number of stated relationships also appear in the inferred file. These should not be persisted when importing a snapshot.
 	Set<Long> statedRelationshipsToSkip = Sets.newHashSet(3187444026L, 3192499027L, 3574321020L);
-	boolean coreComponentsFlushed;
+	volatile boolean coreComponentsFlushed;
 	private boolean useModuleEffectiveTimeFilter;
+	private boolean preloadExistingEffectiveTimes;
+	private final Map<Class<?>, ExistingComponentTimes> existingComponentTimesMap = new ConcurrentHashMap<>();
+	private AtomicLong rowsLoadedCounter;
+
+	// Pipelined mode only, batches are processed and saved on these threads while parsing continues
+	private ExecutorService processingExecutor;
+	private ExecutorService savingExecutor;
+	private int maxBatchesInFlight;
 
 
 	ImportComponentFactoryImpl(ConceptUpdateHelper conceptUpdateHelper, ReferenceSetMemberService memberService, IdentifierComponentService identifierComponentService, BranchService branchService,
@@ -75,62 +85,73 @@ public class ImportComponentFactoryImpl extends ImpotentComponentFactory {
 
 		conceptPersistBuffer = new PersistBuffer<>() {
 			@Override
-			public void persistCollection(Collection<Concept> entities) {
+			void processCollection(Collection<Concept> entities) {
 				processEntities(entities, patchReleaseVersion, elasticsearchOperations, Concept.class, copyReleaseFields, clearEffectiveTimes);
-				if (!entities.isEmpty()) {
-					conceptUpdateHelper.doSaveBatchConcepts(entities, commit);
-				}
+			}
+
+			@Override
+			void saveCollection(Collection<Concept> entities) {
+				conceptUpdateHelper.doSaveBatchConcepts(entities, commit);
 			}
 		};
 		coreComponentPersistBuffers.add(conceptPersistBuffer);
 
 		descriptionPersistBuffer = new PersistBuffer<>() {
 			@Override
-			public void persistCollection(Collection<Description> entities) {
+			void processCollection(Collection<Description> entities) {
 				processEntities(entities, patchReleaseVersion, elasticsearchOperations, Description.class, copyReleaseFields, clearEffectiveTimes);
-				if (!entities.isEmpty()) {
-					conceptUpdateHelper.doSaveBatchDescriptions(entities, commit);
-				}
+			}
+
+			@Override
+			void saveCollection(Collection<Description> entities) {
+				conceptUpdateHelper.doSaveBatchDescriptions(entities, commit);
 			}
 		};
 		coreComponentPersistBuffers.add(descriptionPersistBuffer);
 
 		relationshipPersistBuffer = new PersistBuffer<>() {
 			@Override
-			public void persistCollection(Collection<Relationship> entities) {
+			void processCollection(Collection<Relationship> entities) {
 				processEntities(entities, patchReleaseVersion, elasticsearchOperations, Relationship.class, copyReleaseFields, clearEffectiveTimes);
-				if (!entities.isEmpty()) {
-					conceptUpdateHelper.doSaveBatchRelationships(entities, commit);
-				}
+			}
+
+			@Override
+			void saveCollection(Collection<Relationship> entities) {
+				conceptUpdateHelper.doSaveBatchRelationships(entities, commit);
 			}
 		};
 		coreComponentPersistBuffers.add(relationshipPersistBuffer);
 
 		memberPersistBuffer = new PersistBuffer<>() {
 			@Override
-			public void persistCollection(Collection<ReferenceSetMember> entities) {
+			void processCollection(Collection<ReferenceSetMember> entities) {
+				processEntities(entities, patchReleaseVersion, elasticsearchOperations, ReferenceSetMember.class, copyReleaseFields, clearEffectiveTimes);
+			}
+
+			@Override
+			void saveCollection(Collection<ReferenceSetMember> entities) {
 				if (!coreComponentsFlushed) { // Avoid having to sync to check this
-					synchronized (this) {
+					// Not synchronized on this buffer, in pipelined mode the parser thread can hold that lock while waiting for this save
+					synchronized (coreComponentPersistBuffers) {
 						if (!coreComponentsFlushed) {
 							coreComponentPersistBuffers.forEach(PersistBuffer::flush);
 							coreComponentsFlushed = true;
 						}
 					}
 				}
-				processEntities(entities, patchReleaseVersion, elasticsearchOperations, ReferenceSetMember.class, copyReleaseFields, clearEffectiveTimes);
-				if (!entities.isEmpty()) {
-					memberService.doSaveBatchMembers(entities, commit);
-				}
+				memberService.doSaveBatchMembers(entities, commit);
 			}
 		};
 
 		identifierPersistBuffer = new PersistBuffer<>() {
 			@Override
-			public void persistCollection(Collection<Identifier> entities) {
+			void processCollection(Collection<Identifier> entities) {
 				processEntities(entities, patchReleaseVersion, elasticsearchOperations, Identifier.class, copyReleaseFields, clearEffectiveTimes);
-				if (!entities.isEmpty()) {
-					identifierComponentService.doSaveBatchIdentifiers(entities, commit);
-				}
+			}
+
+			@Override
+			void saveCollection(Collection<Identifier> entities) {
+				identifierComponentService.doSaveBatchIdentifiers(entities, commit);
 			}
 		};
 	}
@@ -158,12 +179,25 @@ public class ImportComponentFactoryImpl extends ImpotentComponentFactory {
 				maxEffectiveTimeCollector.add(effectiveTimeI);
 			}
 		});
+		if (components.isEmpty()) {
+			return;
+		}
+		ExistingComponentTimes existingComponentTimes = preloadExistingEffectiveTimes ?
+				getExistingComponentTimes(componentClass, components.iterator().next().getIdField(), elasticsearchOperations) : null;
 		// patchReleaseVersion=-1 is a special case which allows replacing any effectiveTime
 		if (!useModuleEffectiveTimeFilter && (patchReleaseVersion == null || !patchReleaseVersion.equals(-1))) {
-			performPatch(components, patchReleaseVersion, elasticsearchOperations, componentClass, effectiveDateMap);
+			if (existingComponentTimes != null) {
+				performPatchInMemory(components, patchReleaseVersion, elasticsearchOperations, componentClass, effectiveDateMap, existingComponentTimes);
+			} else {
+				performPatch(components, patchReleaseVersion, elasticsearchOperations, componentClass, effectiveDateMap);
+			}
 		}
 		if (copyReleaseFields) {
 			Map<String, T> idToUnreleasedComponentMap = components.stream().filter(component -> component.getEffectiveTime() == null).collect(Collectors.toMap(T::getId, Function.identity()));
+			if (existingComponentTimes != null) {
+				// No need to look up components which have never been released
+				idToUnreleasedComponentMap.keySet().removeIf(id -> !existingComponentTimes.isReleased(id));
+			}
 			if (!idToUnreleasedComponentMap.isEmpty()) {
 				String idField = idToUnreleasedComponentMap.values().iterator().next().getIdField();
 				try (SearchHitsIterator<T> stream = elasticsearchOperations.searchForStream(new NativeQueryBuilder()
@@ -211,6 +245,95 @@ public class ImportComponentFactoryImpl extends ImpotentComponentFactory {
 		}
 	}
 
+	/**
+	 * Switches to pipelined mode, where full buffers are handed to other threads so that parsing is not held up by Elasticsearch.
+	 * Each batch is processed (effective time checks and release field copying) on one of the processing threads
+	 * and then saved. Batches of the same component type are saved one at a time, in the order they were parsed.
+	 * When the given number of batches of a component type are waiting or in progress the parser waits, to bound memory use.
+	 * {@link #closePipeline()} must be called once the import has finished or failed.
+	 */
+	void usePipeline(int processingThreads, int maxBatchesInFlight) {
+		processingExecutor = Executors.newFixedThreadPool(processingThreads);
+		// At most one save per buffer runs at a time
+		savingExecutor = Executors.newFixedThreadPool(persistBuffers.size());
+		this.maxBatchesInFlight = maxBatchesInFlight;
+	}
+
+	/**
+	 * Waits for batches still in the pipeline, ignoring failures, then stops the pipeline threads.
+	 */
+	void closePipeline() {
+		if (processingExecutor == null) {
+			return;
+		}
+		for (PersistBuffer<?> persistBuffer : persistBuffers) {
+			try {
+				persistBuffer.awaitSaves();
+			} catch (RuntimeException e) {
+				// Already reported to the parser or to completeImportCommit
+			}
+		}
+		processingExecutor.shutdown();
+		savingExecutor.shutdown();
+		processingExecutor = null;
+		savingExecutor = null;
+	}
+
+	/*
+		Same outcome as performPatch but decided using the preloaded effective times rather than queries.
+		Where the existing times are not exact, only the components they match are checked using performPatch.
+	 */
+	private <T extends SnomedComponent<T>> void performPatchInMemory(Collection<T> components, Integer patchReleaseVersion, ElasticsearchOperations elasticsearchOperations,
+			Class<T> componentClass, Map<Integer, List<T>> effectiveDateMap, ExistingComponentTimes existingComponentTimes) {
+
+		Map<Integer, List<T>> candidateEffectiveDateMap = new HashMap<>();
+		for (Map.Entry<Integer, List<T>> entry : effectiveDateMap.entrySet()) {
+			int effectiveTime = entry.getKey();
+			boolean replacementOfThisEffectiveTimeAllowed = patchReleaseVersion != null && patchReleaseVersion.equals(effectiveTime);
+			for (T component : entry.getValue()) {
+				int existingEffectiveTime = existingComponentTimes.getEffectiveTime(component.getId());
+				if (existingEffectiveTime > effectiveTime || (existingEffectiveTime == effectiveTime && !replacementOfThisEffectiveTimeAllowed)) {
+					candidateEffectiveDateMap.computeIfAbsent(effectiveTime, i -> new ArrayList<>()).add(component);
+				}
+			}
+		}
+		if (candidateEffectiveDateMap.isEmpty()) {
+			return;
+		}
+		if (existingComponentTimes.isExact()) {
+			Set<T> alreadyExisting = Collections.newSetFromMap(new IdentityHashMap<>());
+			candidateEffectiveDateMap.values().forEach(alreadyExisting::addAll);
+			// Skip component import
+			components.removeIf(alreadyExisting::contains);
+			componentTypeSkippedMap.computeIfAbsent(componentClass.getSimpleName(), key -> new AtomicLong()).addAndGet(alreadyExisting.size());
+		} else {
+			performPatch(components, patchReleaseVersion, elasticsearchOperations, componentClass, candidateEffectiveDateMap);
+		}
+	}
+
+	private <T extends SnomedComponent<T>> ExistingComponentTimes getExistingComponentTimes(Class<T> componentClass, String idField,
+			ElasticsearchOperations elasticsearchOperations) {
+
+		// Loaded once for each component type, other batches of the type wait until it is ready
+		return existingComponentTimesMap.computeIfAbsent(componentClass, type -> {
+			TimerUtil timer = new TimerUtil("Load existing " + componentClass.getSimpleName() + " effective times");
+			ExistingComponentTimes existingComponentTimes = new ExistingComponentTimes(componentClass != ReferenceSetMember.class && componentClass != Identifier.class);
+			try (SearchHitsIterator<T> stream = elasticsearchOperations.searchForStream(new NativeQueryBuilder()
+					.withQuery(branchCriteriaBeforeOpenCommit.getEntityBranchCriteria(componentClass))
+					.withSourceFilter(new FetchSourceFilter(new String[]{idField, SnomedComponent.Fields.EFFECTIVE_TIME, SnomedComponent.Fields.RELEASED}, null))
+					.withPageable(LARGE_PAGE)
+					.build(), componentClass)) {
+				stream.forEachRemaining(hit -> {
+					T component = hit.getContent();
+					existingComponentTimes.add(component.getId(), component.getEffectiveTimeI(), component.isReleased());
+				});
+			}
+			timer.finish();
+			logger.info("Loaded effective times of {} existing {} components on {}.", existingComponentTimes.size(), componentClass.getSimpleName(), path);
+			return existingComponentTimes;
+		});
+	}
+
 	@Override
 	public void loadingComponentsStarting() {
 		setCommit(branchService.openCommit(path, branchMetadataHelper.getBranchLockMetadata("Loading components from RF2 import.")));
@@ -219,6 +342,8 @@ public class ImportComponentFactoryImpl extends ImpotentComponentFactory {
 	protected void setCommit(Commit commit) {
 		this.commit = commit;
 		branchCriteriaBeforeOpenCommit = versionControlHelper.getBranchCriteriaBeforeOpenCommit(commit);
+		// Loaded again for the new commit if needed
+		existingComponentTimesMap.clear();
 	}
 
 	@Override
@@ -346,27 +471,105 @@ public class ImportComponentFactoryImpl extends ImpotentComponentFactory {
 		this.useModuleEffectiveTimeFilter = useModuleEffectiveTimeFilter;
 	}
 
+	/**
+	 * Count the rows passed to the buffers, to report import progress.
+	 */
+	void countRowsLoaded(AtomicLong rowsLoadedCounter) {
+		this.rowsLoadedCounter = rowsLoadedCounter;
+	}
+
+	/**
+	 * Load the effective time and released flag of all existing components of each imported type once, with one scroll per type,
+	 * rather than querying for each batch. Uses a few bytes of memory for every component of the type on the branch.
+	 */
+	public void preloadExistingEffectiveTimes(boolean preloadExistingEffectiveTimes) {
+		this.preloadExistingEffectiveTimes = preloadExistingEffectiveTimes;
+	}
+
 	private abstract class PersistBuffer<E extends Entity> {
 
-		private final List<E> entities = new ArrayList<>();
+		private List<E> entities = new ArrayList<>();
+
+		// Pipelined mode only
+		private Semaphore batchPermits;
+		private volatile CompletableFuture<Void> lastSave = CompletableFuture.completedFuture(null);
 
 		PersistBuffer() {
 			persistBuffers.add(this);
 		}
 
 		synchronized void save(E entity) {
+			if (rowsLoadedCounter != null) {
+				rowsLoadedCounter.incrementAndGet();
+			}
 			entities.add(entity);
 			if (entities.size() >= FLUSH_INTERVAL) {
-				flush();
+				if (processingExecutor != null) {
+					submitBatch();
+				} else {
+					flush();
+				}
 			}
 		}
 
 		synchronized void flush() {
-			persistCollection(entities);
-			entities.clear();
+			if (processingExecutor != null) {
+				submitBatch();
+				awaitSaves();
+			} else {
+				persistCollection(entities);
+				entities.clear();
+			}
 		}
 
-		abstract void persistCollection(Collection<E> entities);
+		void persistCollection(Collection<E> entities) {
+			processCollection(entities);
+			if (!entities.isEmpty()) {
+				saveCollection(entities);
+			}
+		}
+
+		// Must hold lock on this buffer
+		private void submitBatch() {
+			throwIfSaveFailed();
+			if (entities.isEmpty()) {
+				return;
+			}
+			List<E> batch = entities;
+			entities = new ArrayList<>();
+			if (batchPermits == null) {
+				batchPermits = new Semaphore(maxBatchesInFlight);
+			}
+			batchPermits.acquireUninterruptibly();
+			CompletableFuture<List<E>> processed = CompletableFuture.supplyAsync(() -> {
+				processCollection(batch);
+				return batch;
+			}, processingExecutor);
+			// Chained to the previous save so that saves keep the parse order
+			lastSave = processed.thenAcceptBothAsync(lastSave, (processedBatch, previous) -> {
+				if (!processedBatch.isEmpty()) {
+					saveCollection(processedBatch);
+				}
+			}, savingExecutor).whenComplete((result, throwable) -> batchPermits.release());
+		}
+
+		void awaitSaves() {
+			try {
+				lastSave.join();
+			} catch (CompletionException e) {
+				throw e.getCause() instanceof RuntimeException runtimeException ? runtimeException : e;
+			}
+		}
+
+		private void throwIfSaveFailed() {
+			if (lastSave.isCompletedExceptionally()) {
+				awaitSaves();
+			}
+		}
+
+		abstract void processCollection(Collection<E> entities);
+
+		abstract void saveCollection(Collection<E> entities);
 
 	}
 
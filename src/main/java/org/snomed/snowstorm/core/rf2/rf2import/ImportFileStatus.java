@@ -0,0 +1,55 @@
+package org.snomed.snowstorm.core.rf2.rf2import;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Progress of loading one RF2 file of an import, to show throughput per file.
+ */
+public class ImportFileStatus {
+
+	private final long startMillis;
+	private volatile Long endMillis;
+	private final AtomicLong rows = new AtomicLong();
+
+	ImportFileStatus() {
+		startMillis = System.currentTimeMillis();
+	}
+
+	void rowLoaded() {
+		rows.incrementAndGet();
+	}
+
+	void completed() {
+		endMillis = System.currentTimeMillis();
+	}
+
+	public long getRows() {
+		return rows.get();
+	}
+
+	public long getSeconds() {
+		return getMillis() / 1_000;
+	}
+
+	public long getRowsPerSecond() {
+		long millis = getMillis();
+		return millis > 0 ? rows.get() * 1_000 / millis : rows.get();
+	}
+
+	public boolean isComplete() {
+		return endMillis != null;
+	}
+
+	long getStartMillis() {
+		return startMillis;
+	}
+
+	Long getEndMillis() {
+		return endMillis;
+	}
+
+	private long getMillis() {
+		Long end = endMillis;
+		return (end != null ? end : System.currentTimeMillis()) - startMillis;
+	}
+}
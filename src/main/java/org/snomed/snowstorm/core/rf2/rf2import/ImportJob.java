@@ -3,7 +3,10 @@ package org.snomed.snowstorm.core.rf2.rf2import;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import org.snomed.snowstorm.core.rf2.RF2Type;
 
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class ImportJob {
 
@@ -22,6 +25,13 @@ public class ImportJob {
 
 	private String errorMessage;
 
+	private final AtomicLong bytesRead = new AtomicLong();
+
+	private final AtomicLong rowsLoaded = new AtomicLong();
+
+	// Only filled when files are loaded in parallel
+	private final Map<String, ImportFileStatus> files = new ConcurrentSkipListMap<>();
+
 	public void setStatus(ImportStatus status) {
 		this.status = status;
 	}
@@ -66,4 +76,30 @@ public class ImportJob {
 	public String getErrorMessage() {
 		return errorMessage;
 	}
+
+	public long getBytesRead() {
+		return bytesRead.get();
+	}
+
+	public long getRowsLoaded() {
+		return rowsLoaded.get();
+	}
+
+	AtomicLong getBytesReadCounter() {
+		return bytesRead;
+	}
+
+	AtomicLong getRowsLoadedCounter() {
+		return rowsLoaded;
+	}
+
+	ImportFileStatus startFile(String fileName) {
+		ImportFileStatus fileStatus = new ImportFileStatus();
+		files.put(fileName, fileStatus);
+		return fileStatus;
+	}
+
+	public Map<String, ImportFileStatus> getFiles() {
+		return files.isEmpty() ? null : files;
+	}
 }
@@ -14,6 +14,7 @@ import org.snomed.snowstorm.core.data.domain.Concept;
 import org.snomed.snowstorm.core.data.services.*;
 import org.snomed.snowstorm.core.rf2.RF2Type;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.security.access.prepost.PreAuthorize;
@@ -22,12 +23,10 @@ import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Service;
 import org.springframework.web.bind.annotation.PathVariable;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.IOException;
-import java.io.InputStream;
+import java.io.*;
 import java.util.*;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.snomed.snowstorm.core.data.services.BranchMetadataHelper.*;
 import static org.snomed.snowstorm.core.data.services.BranchMetadataKeys.IMPORT_TYPE;
@@ -69,6 +68,24 @@ public class ImportService {
 	@Autowired
 	private MostRecentEffectiveTimeFinder mostRecentEffectiveTimeFinder;
 
+	@Value("${import.pipeline.enabled}")
+	private boolean pipelineEnabled;
+
+	@Value("${import.pipeline.processing-threads}")
+	private int pipelineProcessingThreads;
+
+	@Value("${import.pipeline.max-batches-in-flight}")
+	private int pipelineMaxBatchesInFlight;
+
+	@Value("${import.parallel-files.workers}")
+	private int fileWorkers;
+
+	@Value("${import.delta.preload-effective-times}")
+	private boolean deltaPreloadEffectiveTimes;
+
+	// Data received but not yet read by the import, the request thread waits when this is full
+	private static final int STREAM_PIPE_BUFFER_SIZE = 4 * 1024 * 1024;
+
 	private final Logger logger = LoggerFactory.getLogger(getClass());
 
 	public ImportService() {
@@ -132,7 +149,8 @@ public class ImportService {
 			LoadingProfile loadingProfile = DEFAULT_LOADING_PROFILE
 					.withModuleIds(job.getModuleIds().toArray(new String[]{}));
 
-			final Integer maxEffectiveTime = importFiles(releaseFileStream, job, importType, branchPath, patchReleaseVersion, new ReleaseImporter(), loadingProfile);
+			final Integer maxEffectiveTime = importFiles(new BytesReadInputStream(releaseFileStream, job.getBytesReadCounter()), job, importType, branchPath,
+					patchReleaseVersion, new ReleaseImporter(), loadingProfile);
 
 			if (job.isCreateCodeSystemVersion() && importType != FULL && maxEffectiveTime != null) {
 				// Create Code System version if a code system exists on this path
@@ -180,7 +198,7 @@ public class ImportService {
                     deltaImport(releaseFileStream, job, branchPath, patchReleaseVersion, releaseImporter, loadingProfile);
             case SNAPSHOT ->
                     snapshotImport(releaseFileStream, job, branchPath, patchReleaseVersion, releaseImporter, loadingProfile);
-            case FULL -> fullImport(releaseFileStream, branchPath, releaseImporter, loadingProfile);
+            case FULL -> fullImport(releaseFileStream, job, branchPath, releaseImporter, loadingProfile);
             default -> throw new IllegalStateException("Unexpected import type: " + importType);
         };
 	}
@@ -212,10 +230,10 @@ public class ImportService {
 		branchService.updateMetadata(branchPath, metadata);
 	}
 
-	private Integer fullImport(final InputStream releaseFileStream, final String branchPath, final ReleaseImporter releaseImporter,
+	private Integer fullImport(final InputStream releaseFileStream, final ImportJob job, final String branchPath, final ReleaseImporter releaseImporter,
 			final LoadingProfile loadingProfile) throws ReleaseImportException {
 
-		final FullImportComponentFactoryImpl importComponentFactory = getFullImportComponentFactory(branchPath);
+		final FullImportComponentFactoryImpl importComponentFactory = getFullImportComponentFactory(job, branchPath);
 		try {
 			releaseImporter.loadFullReleaseFiles(releaseFileStream, loadingProfile, importComponentFactory, true);
 			return null;
@@ -229,7 +247,7 @@ public class ImportService {
 			final ReleaseImporter releaseImporter, final LoadingProfile loadingProfile) throws ReleaseImportException {
 
 		// If we are not creating a new version copy the release fields from the existing components
-		final ImportComponentFactoryImpl importComponentFactory = getImportComponentFactory(branchPath, patchReleaseVersion, !job.isCreateCodeSystemVersion(), job.isClearEffectiveTimes());
+		final ImportComponentFactoryImpl importComponentFactory = getImportComponentFactory(job, branchPath, patchReleaseVersion, !job.isCreateCodeSystemVersion(), job.isClearEffectiveTimes());
 		importComponentFactory.useModuleEffectiveTimeFilter(true);
 		try {
 			logger.info("Start fetching latest effectiveTime imported already for each module on path {}", branchPath);
@@ -239,11 +257,19 @@ public class ImportService {
 			}
 			logger.info("Completed fetching latest effectiveTime for each module on path {}", branchPath);
 
-			releaseImporter.loadSnapshotReleaseFiles(releaseFileStream, loadingProfile.withModuleEffectiveTimeFilter(effectiveTimeByModuleId), importComponentFactory, true);
+			LoadingProfile snapshotLoadingProfile = loadingProfile.withModuleEffectiveTimeFilter(effectiveTimeByModuleId);
+			if (fileWorkers > 1) {
+				new ParallelReleaseFileLoader(fileWorkers).load(releaseFileStream, "Snapshot", importComponentFactory, job, (fileZip, componentFactory) ->
+						new ReleaseImporter().loadSnapshotReleaseFiles(fileZip, snapshotLoadingProfile, componentFactory, true));
+			} else {
+				releaseImporter.loadSnapshotReleaseFiles(releaseFileStream, snapshotLoadingProfile, importComponentFactory, true);
+			}
 			return importComponentFactory.getMaxEffectiveTime();
 		} catch (ReleaseImportException e) {
 			rollbackIncompleteCommit(importComponentFactory);
 			throw e;
+		} finally {
+			importComponentFactory.closePipeline();
 		}
 	}
 
@@ -252,17 +278,27 @@ public class ImportService {
 
 		// If we are not creating a new version copy the release fields from the existing components
 		final ImportComponentFactoryImpl importComponentFactory =
-				getImportComponentFactory(branchPath, patchReleaseVersion, !job.isCreateCodeSystemVersion(), job.isClearEffectiveTimes());
+				getImportComponentFactory(job, branchPath, patchReleaseVersion, !job.isCreateCodeSystemVersion(), job.isClearEffectiveTimes());
+		importComponentFactory.preloadExistingEffectiveTimes(deltaPreloadEffectiveTimes);
 		try {
-			releaseImporter.loadDeltaReleaseFiles(releaseFileStream, loadingProfile, importComponentFactory, true);
+			if (fileWorkers > 1) {
+				new ParallelReleaseFileLoader(fileWorkers).load(releaseFileStream, "Delta", importComponentFactory, job, (fileZip, componentFactory) ->
+						new ReleaseImporter().loadDeltaReleaseFiles(fileZip, loadingProfile, componentFactory, true));
+			} else {
+				releaseImporter.loadDeltaReleaseFiles(releaseFileStream, loadingProfile, importComponentFactory, true);
+			}
 			return importComponentFactory.getMaxEffectiveTime();
 		} catch (ReleaseImportException e) {
 			rollbackIncompleteCommit(importComponentFactory);
 			throw e;
+		} finally {
+			importComponentFactory.closePipeline();
 		}
 	}
 
 	private void rollbackIncompleteCommit(ImportComponentFactoryImpl importComponentFactory) {
+		// Let batches already handed to the pipeline finish before their commit is rolled back
+		importComponentFactory.closePipeline();
 		final Commit commit = importComponentFactory.getCommit();
 		if (commit != null) {
 			logger.info("Triggering rollback of failed import commit on {} at {}", commit.getBranch().getPath(), commit.getTimepoint().getTime());
@@ -271,14 +307,21 @@ public class ImportService {
 		}
 	}
 
-	private ImportComponentFactoryImpl getImportComponentFactory(String branchPath, Integer patchReleaseVersion, boolean copyReleaseFields, boolean clearEffectiveTimes) {
-		return new ImportComponentFactoryImpl(conceptUpdateHelper, memberService, identifierComponentService, branchService, branchMetadataHelper,
-				branchPath, patchReleaseVersion, copyReleaseFields, clearEffectiveTimes);
+	private ImportComponentFactoryImpl getImportComponentFactory(ImportJob job, String branchPath, Integer patchReleaseVersion, boolean copyReleaseFields, boolean clearEffectiveTimes) {
+		ImportComponentFactoryImpl importComponentFactory = new ImportComponentFactoryImpl(conceptUpdateHelper, memberService, identifierComponentService,
+				branchService, branchMetadataHelper, branchPath, patchReleaseVersion, copyReleaseFields, clearEffectiveTimes);
+		importComponentFactory.countRowsLoaded(job.getRowsLoadedCounter());
+		if (pipelineEnabled) {
+			importComponentFactory.usePipeline(pipelineProcessingThreads, pipelineMaxBatchesInFlight);
+		}
+		return importComponentFactory;
 	}
 
-	private FullImportComponentFactoryImpl getFullImportComponentFactory(String branchPath) {
-		return new FullImportComponentFactoryImpl(conceptUpdateHelper, memberService, identifierComponentService, branchService, branchMetadataHelper, codeSystemService,
-				branchPath, null);
+	private FullImportComponentFactoryImpl getFullImportComponentFactory(ImportJob job, String branchPath) {
+		FullImportComponentFactoryImpl importComponentFactory = new FullImportComponentFactoryImpl(conceptUpdateHelper, memberService, identifierComponentService,
+				branchService, branchMetadataHelper, codeSystemService, branchPath, null);
+		importComponentFactory.countRowsLoaded(job.getRowsLoadedCounter());
+		return importComponentFactory;
 	}
 
 	@PreAuthorize("hasPermission('AUTHOR', #branchPath)")
@@ -303,6 +346,49 @@ public class ImportService {
 		});
 	}
 
+	/**
+	 * Imports an archive while it is still being received, for example from an HTTP request body, without writing it to a temp file first.
+	 * The release importer reads archive entries in the order they arrive, so no random access is needed.
+	 * When import.parallel-files.workers is more than one each release file is still written to a temp file so that it can be loaded on its own thread.
+	 * The import runs on another thread. This method returns once the whole stream has been passed to the import, or the import has failed.
+	 */
+	@PreAuthorize("hasPermission('AUTHOR', #branchPath)")
+	public void importArchiveStream(String importId, @SuppressWarnings("unused") String branchPath, InputStream archiveStream) throws IOException {
+		ImportJob job = getJob(importId);
+		if (job.getStatus() != ImportJob.ImportStatus.WAITING_FOR_FILE) {
+			throw new IllegalStateException("Import Job must be in state " + ImportJob.ImportStatus.WAITING_FOR_FILE);
+		}
+		final SecurityContext securityContext = SecurityContextHolder.getContext();
+		ArchivePipeInputStream releaseFileStream = new ArchivePipeInputStream(STREAM_PIPE_BUFFER_SIZE);
+		try (PipedOutputStream pipeOutputStream = new PipedOutputStream(releaseFileStream)) {
+			executorService.submit(() -> {
+				SecurityContextHolder.setContext(securityContext);
+				// Closing the pipe stops the request thread waiting to write if the import ends early
+				try (releaseFileStream) {
+					importArchive(importId, releaseFileStream);
+				} catch (ReleaseImportException e) {
+					// Swallow exception - already logged and this is an async method
+				} catch (IOException e) {
+					logger.error("Import failed. Error closing streamed archive.", e);
+				} catch (RuntimeException e) {
+					logger.error("Import failed. ID {}", importId, e);
+				}
+			});
+			try {
+				archiveStream.transferTo(pipeOutputStream);
+			} catch (IOException e) {
+				ImportJob.ImportStatus status = job.getStatus();
+				if (status == ImportJob.ImportStatus.COMPLETED || status == ImportJob.ImportStatus.FAILED) {
+					// Import has finished or failed without reading the rest of the stream, a failure is already logged
+					return;
+				}
+				// Fail the import rather than letting it see the end of the pipe as the end of the archive
+				releaseFileStream.writerFailed(e);
+				throw e;
+			}
+		}
+	}
+
 	public ImportJob getImportJobOrThrow(@PathVariable String importId) {
 		ImportJob importJob = getJob(importId);
 		if (importJob == null) {
@@ -314,4 +400,78 @@ public class ImportService {
 	private ImportJob getJob(String importId) {
 		return importJobMap.get(importId);
 	}
+
+	// Pipe which fails reads once the writer has failed, so that an incomplete upload is not imported as a complete archive
+	private static class ArchivePipeInputStream extends PipedInputStream {
+
+		private volatile IOException writerFailure;
+
+		ArchivePipeInputStream(int pipeSize) {
+			super(pipeSize);
+		}
+
+		void writerFailed(IOException e) {
+			writerFailure = e;
+		}
+
+		@Override
+		public synchronized int read() throws IOException {
+			throwIfWriterFailed();
+			int read = super.read();
+			// The writer may have failed while this read was waiting, in which case the end of the pipe is not the end of the archive
+			throwIfWriterFailed();
+			return read;
+		}
+
+		@Override
+		public synchronized int read(byte[] bytes, int offset, int length) throws IOException {
+			throwIfWriterFailed();
+			int read = super.read(bytes, offset, length);
+			throwIfWriterFailed();
+			return read;
+		}
+
+		private void throwIfWriterFailed() throws IOException {
+			IOException failure = writerFailure;
+			if (failure != null) {
+				throw new IOException("Archive upload failed before the end of the archive.", failure);
+			}
+		}
+	}
+
+	// Counts the bytes of the archive read so far, to report import progress
+	private static class BytesReadInputStream extends FilterInputStream {
+
+		private final AtomicLong bytesRead;
+
+		BytesReadInputStream(InputStream inputStream, AtomicLong bytesRead) {
+			super(inputStream);
+			this.bytesRead = bytesRead;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int read = super.read();
+			if (read != -1) {
+				bytesRead.incrementAndGet();
+			}
+			return read;
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length) throws IOException {
+			int read = super.read(bytes, offset, length);
+			if (read > 0) {
+				bytesRead.addAndGet(read);
+			}
+			return read;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(n);
+			bytesRead.addAndGet(skipped);
+			return skipped;
+		}
+	}
 }
@@ -0,0 +1,242 @@
+package org.snomed.snowstorm.core.rf2.rf2import;
+
+import org.ihtsdo.otf.snomedboot.ReleaseImportException;
+import org.ihtsdo.otf.snomedboot.factory.ComponentFactory;
+import org.ihtsdo.otf.snomedboot.factory.ImpotentComponentFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Loads the RF2 files of a release archive concurrently, each file through its own run of the release importer.
+ * The archive is split into one small archive per file, in temp files which are deleted once loaded.
+ * Core component files start loading as soon as they have been split out, while the rest of the archive is still being read.
+ * Reference set member files are only loaded once all core component files are complete, so that core components are still saved before members.
+ */
+class ParallelReleaseFileLoader {
+
+	private final int workers;
+
+	private final Logger logger = LoggerFactory.getLogger(getClass());
+
+	ParallelReleaseFileLoader(int workers) {
+		this.workers = workers;
+	}
+
+	/**
+	 * @param releaseFileType the RF2 file type to load, "Snapshot" or "Delta". Other files in the archive are ignored.
+	 * @param releaseFileLoader loads one of the single file archives into the given factory
+	 */
+	void load(InputStream releaseZip, String releaseFileType, ImportComponentFactoryImpl importComponentFactory, ImportJob job,
+			ReleaseFileLoader releaseFileLoader) throws ReleaseImportException {
+
+		ExecutorService executorService = Executors.newFixedThreadPool(workers);
+		AtomicBoolean cancelled = new AtomicBoolean();
+		Path directory = null;
+		try {
+			directory = Files.createTempDirectory("rf2-import-files");
+			importComponentFactory.loadingComponentsStarting();
+
+			List<FileLoad> coreComponentLoads = new ArrayList<>();
+			List<ReleaseFile> memberFiles = new ArrayList<>();
+			splitArchive(releaseZip, releaseFileType, directory, cancelled, releaseFile -> {
+				if (isCoreComponentFile(releaseFile.name())) {
+					coreComponentLoads.add(submitLoad(releaseFile, executorService, cancelled, importComponentFactory, job, releaseFileLoader));
+				} else {
+					memberFiles.add(releaseFile);
+				}
+			});
+			logger.info("Split {} core component files and {} reference set files from the archive, loading with {} workers.",
+					coreComponentLoads.size(), memberFiles.size(), workers);
+			awaitLoads(coreComponentLoads, cancelled);
+
+			List<FileLoad> memberLoads = new ArrayList<>();
+			for (ReleaseFile memberFile : memberFiles) {
+				memberLoads.add(submitLoad(memberFile, executorService, cancelled, importComponentFactory, job, releaseFileLoader));
+			}
+			awaitLoads(memberLoads, cancelled);
+			importComponentFactory.loadingComponentsCompleted();
+		} catch (IOException e) {
+			throw new ReleaseImportException("Failed to split RF2 archive into files.", e);
+		} finally {
+			// Stop any files still loading after a failure before the import commit is rolled back
+			cancelled.set(true);
+			executorService.shutdownNow();
+			try {
+				if (!executorService.awaitTermination(1, TimeUnit.MINUTES)) {
+					logger.warn("RF2 file loading threads did not stop within a minute.");
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			if (directory != null) {
+				try {
+					FileSystemUtils.deleteRecursively(directory);
+				} catch (IOException e) {
+					logger.warn("Failed to delete temp RF2 import files {}", directory, e);
+				}
+			}
+		}
+	}
+
+	static boolean isCoreComponentFile(String fileName) {
+		return fileName.startsWith("sct2_") && !fileName.contains("Refset");
+	}
+
+	private void splitArchive(InputStream releaseZip, String releaseFileType, Path directory, AtomicBoolean cancelled,
+			Consumer<ReleaseFile> releaseFileConsumer) throws IOException {
+
+		ZipInputStream zipInputStream = new ZipInputStream(releaseZip);
+		ZipEntry entry;
+		int fileCount = 0;
+		// Stop reading the archive if a file has already failed to load
+		while (!cancelled.get() && (entry = zipInputStream.getNextEntry()) != null) {
+			String entryName = entry.getName();
+			String fileName = entryName.substring(entryName.lastIndexOf('/') + 1);
+			if (entry.isDirectory() || !fileName.endsWith(".txt") || !fileName.contains(releaseFileType)) {
+				continue;
+			}
+			Path path = directory.resolve(fileCount++ + ".zip");
+			try (ZipOutputStream zipOutputStream = new ZipOutputStream(Files.newOutputStream(path))) {
+				// Only read once, the fastest compression keeps the temp files small at little cost
+				zipOutputStream.setLevel(Deflater.BEST_SPEED);
+				// Keep the full entry name, the release importer matches files by name
+				zipOutputStream.putNextEntry(new ZipEntry(entryName));
+				zipInputStream.transferTo(zipOutputStream);
+				zipOutputStream.closeEntry();
+			}
+			releaseFileConsumer.accept(new ReleaseFile(fileName, path));
+		}
+	}
+
+	private FileLoad submitLoad(ReleaseFile releaseFile, ExecutorService executorService, AtomicBoolean cancelled,
+			ImportComponentFactoryImpl importComponentFactory, ImportJob job, ReleaseFileLoader releaseFileLoader) {
+
+		return new FileLoad(releaseFile, executorService.submit(() -> {
+			try {
+				ImportFileStatus fileStatus = job.startFile(releaseFile.name());
+				try (InputStream fileZip = Files.newInputStream(releaseFile.path())) {
+					releaseFileLoader.load(fileZip, new FileComponentFactory(importComponentFactory, fileStatus, cancelled));
+				}
+				fileStatus.completed();
+				logger.info("Loaded {} rows from {} at {} rows per second.", fileStatus.getRows(), releaseFile.name(), fileStatus.getRowsPerSecond());
+				return null;
+			} catch (Exception e) {
+				// Stop the other files and the archive split
+				cancelled.set(true);
+				throw e;
+			} finally {
+				Files.deleteIfExists(releaseFile.path());
+			}
+		}));
+	}
+
+	private void awaitLoads(List<FileLoad> fileLoads, AtomicBoolean cancelled) throws ReleaseImportException {
+		for (FileLoad fileLoad : fileLoads) {
+			try {
+				fileLoad.future().get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new ReleaseImportException("Interrupted while loading RF2 files.", e);
+			} catch (ExecutionException e) {
+				cancelled.set(true);
+				if (e.getCause() instanceof ReleaseImportException releaseImportException) {
+					throw releaseImportException;
+				}
+				throw new ReleaseImportException("Failed to load RF2 file " + fileLoad.releaseFile().name(), e.getCause());
+			}
+		}
+	}
+
+	@FunctionalInterface
+	interface ReleaseFileLoader {
+		void load(InputStream releaseZip, ComponentFactory componentFactory) throws ReleaseImportException;
+	}
+
+	private record ReleaseFile(String name, Path path) {
+	}
+
+	private record FileLoad(ReleaseFile releaseFile, Future<Void> future) {
+	}
+
+	/**
+	 * Passes components of one file to the import factory, counting rows.
+	 * The start and end of loading are handled once for the whole archive, not for each file.
+	 */
+	private static class FileComponentFactory extends ImpotentComponentFactory {
+
+		private final ImportComponentFactoryImpl importComponentFactory;
+		private final ImportFileStatus fileStatus;
+		private final AtomicBoolean cancelled;
+
+		FileComponentFactory(ImportComponentFactoryImpl importComponentFactory, ImportFileStatus fileStatus, AtomicBoolean cancelled) {
+			this.importComponentFactory = importComponentFactory;
+			this.fileStatus = fileStatus;
+			this.cancelled = cancelled;
+		}
+
+		@Override
+		public void newConceptState(String conceptId, String effectiveTime, String active, String moduleId, String definitionStatusId) {
+			rowLoaded();
+			importComponentFactory.newConceptState(conceptId, effectiveTime, active, moduleId, definitionStatusId);
+		}
+
+		@Override
+		public void newRelationshipState(String id, String effectiveTime, String active, String moduleId, String sourceId, String destinationId,
+				String relationshipGroup, String typeId, String characteristicTypeId, String modifierId) {
+			rowLoaded();
+			importComponentFactory.newRelationshipState(id, effectiveTime, active, moduleId, sourceId, destinationId, relationshipGroup, typeId,
+					characteristicTypeId, modifierId);
+		}
+
+		@Override
+		public void newConcreteRelationshipState(String id, String effectiveTime, String active, String moduleId, String sourceId, String value,
+				String relationshipGroup, String typeId, String characteristicTypeId, String modifierId) {
+			rowLoaded();
+			importComponentFactory.newConcreteRelationshipState(id, effectiveTime, active, moduleId, sourceId, value, relationshipGroup, typeId,
+					characteristicTypeId, modifierId);
+		}
+
+		@Override
+		public void newDescriptionState(String id, String effectiveTime, String active, String moduleId, String conceptId, String languageCode,
+				String typeId, String term, String caseSignificanceId) {
+			rowLoaded();
+			importComponentFactory.newDescriptionState(id, effectiveTime, active, moduleId, conceptId, languageCode, typeId, term, caseSignificanceId);
+		}
+
+		@Override
+		public void newIdentifierState(String alternateIdentifier, String effectiveTime, String active, String moduleId, String identifierSchemeId,
+				String referencedComponentId) {
+			rowLoaded();
+			importComponentFactory.newIdentifierState(alternateIdentifier, effectiveTime, active, moduleId, identifierSchemeId, referencedComponentId);
+		}
+
+		@Override
+		public void newReferenceSetMemberState(String[] fieldNames, String id, String effectiveTime, String active, String moduleId, String refsetId,
+				String referencedComponentId, String... otherValues) {
+			rowLoaded();
+			importComponentFactory.newReferenceSetMemberState(fieldNames, id, effectiveTime, active, moduleId, refsetId, referencedComponentId, otherValues);
+		}
+
+		private void rowLoaded() {
+			if (cancelled.get()) {
+				throw new IllegalStateException("RF2 file loading cancelled.");
+			}
+			fileStatus.rowLoaded();
+		}
+	}
+}
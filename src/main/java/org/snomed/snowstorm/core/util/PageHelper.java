@@ -10,14 +10,17 @@ import org.springframework.data.elasticsearch.core.SearchHits;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
 public class PageHelper {
 
 	public static <T> SearchAfterPage<T> listIntersection(List<T> orderedListA, Collection<T> listB, Pageable pageable, Function<T, Object[]> searchAfterExtractor) {
-		List<T> fullResultList = orderedListA.stream().filter(listB::contains).collect(Collectors.toList());
+		Set<T> setB = listB instanceof Set ? (Set<T>) listB : new HashSet<>(listB);
+		List<T> fullResultList = orderedListA.stream().filter(setB::contains).collect(Collectors.toList());
 		return fullListToPage(fullResultList, pageable, searchAfterExtractor);
 	}
 
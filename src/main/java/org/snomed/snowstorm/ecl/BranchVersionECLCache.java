@@ -1,7 +1,6 @@
 package org.snomed.snowstorm.ecl;
 
 import org.snomed.snowstorm.rest.pojo.SearchAfterPageRequest;
-import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 
 import java.util.*;
@@ -10,15 +9,22 @@ import java.util.concurrent.atomic.AtomicLong;
 
 public class BranchVersionECLCache {
 
-	private final Date head;
+	private final ECLResultsCache resultsCache;
+
+	private final String path;
 
-	private final Map<ECLCacheEntry, Page<Long>> eclToConceptsCache;
+	private final Date head;
 
 	private final Map<Calendar, AtomicLong> dayHits = new ConcurrentHashMap<>();
 
-	protected BranchVersionECLCache(Date branchHeadTimestamp) {
+	protected BranchVersionECLCache(ECLResultsCache resultsCache, String path, Date branchHeadTimestamp) {
+		this.resultsCache = resultsCache;
+		this.path = path;
 		head = branchHeadTimestamp;
-		eclToConceptsCache = new ConcurrentHashMap<>();
+	}
+
+	public String getPath() {
+		return path;
 	}
 
 	public Date getHead() {
@@ -30,13 +36,20 @@ public class BranchVersionECLCache {
 		return !head.equals(timepoint);
 	}
 
-	public Page<Long> get(String ecl, boolean stated, PageRequest pageRequest) {
-		ECLCacheEntry key = new ECLCacheEntry(ecl, stated, pageRequest);
-        return eclToConceptsCache.get(key);
+	public CompactConceptIdPage get(String ecl, boolean stated, PageRequest pageRequest) {
+		return resultsCache.get(this, new ECLCacheEntry(ecl, stated, pageRequest));
+	}
+
+	public void put(String ecl, boolean stated, PageRequest pageRequest, CompactConceptIdPage page) {
+		put(ecl, stated, pageRequest, page, null);
 	}
 
-	public void put(String ecl, boolean stated, PageRequest pageRequest, Page<Long> page) {
-		eclToConceptsCache.put(new ECLCacheEntry(ecl, stated, pageRequest), page);
+	/**
+	 * @param hierarchyConceptIds concept ids referred to by the expression if it only uses the hierarchy,
+	 *                            allowing the result to be kept when unrelated concepts change.
+	 */
+	public void put(String ecl, boolean stated, PageRequest pageRequest, CompactConceptIdPage page, long[] hierarchyConceptIds) {
+		resultsCache.put(this, new ECLCacheEntry(ecl, stated, pageRequest), page, hierarchyConceptIds);
 	}
 
 	static String normaliseEclString(String ecl) {
@@ -61,7 +74,8 @@ public class BranchVersionECLCache {
 
 	public Map<String, Long> getStats() {
 		Map<String, Long> stats = new HashMap<>();
-		stats.put("size", (long) eclToConceptsCache.size());
+		stats.put("size", resultsCache.getBranchSize(path));
+		stats.put("weight", resultsCache.getBranchWeight(path));
 		stats.put("hits-today", dayHits.getOrDefault(getToday(), new AtomicLong()).longValue());
 		addStat(stats, 7);
 		addStat(stats, 30);
@@ -0,0 +1,158 @@
+package org.snomed.snowstorm.ecl;
+
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import org.snomed.snowstorm.core.util.SearchAfterPage;
+import org.snomed.snowstorm.core.util.SearchAfterPageImpl;
+import org.snomed.snowstorm.rest.pojo.SearchAfterPageRequest;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+
+import java.util.List;
+import java.util.function.LongConsumer;
+import java.util.function.LongPredicate;
+
+import static org.snomed.snowstorm.ecl.ConceptSelectorHelper.CONCEPT_ID_SEARCH_AFTER_EXTRACTOR;
+
+/**
+ * A page of concept ids held in compact primitive form, used by the ECL results cache.
+ * Each id is stored as the zig-zag encoded difference from the previous id, written as a variable length integer.
+ * ECL results are sorted so most ids take two or three bytes rather than the ~24 bytes of a boxed Long held in a list.
+ */
+public final class CompactConceptIdPage {
+
+	private final byte[] encodedIds;
+	private final int size;
+	private final long totalElements;
+	private final Pageable pageable;
+	private final Object[] searchAfter;
+
+	private CompactConceptIdPage(byte[] encodedIds, int size, long totalElements, Pageable pageable, Object[] searchAfter) {
+		this.encodedIds = encodedIds;
+		this.size = size;
+		this.totalElements = totalElements;
+		this.pageable = pageable;
+		this.searchAfter = searchAfter;
+	}
+
+	public static CompactConceptIdPage of(Page<Long> page) {
+		List<Long> ids = page.getContent();
+		long[] idArray = ids instanceof LongArrayList longArrayList ? longArrayList.toLongArray() : ids.stream().mapToLong(Long::longValue).toArray();
+
+		// First pass to size the array exactly
+		int length = 0;
+		long previous = 0;
+		for (long id : idArray) {
+			length += varLongLength(zigZag(id - previous));
+			previous = id;
+		}
+
+		byte[] encoded = new byte[length];
+		int position = 0;
+		previous = 0;
+		for (long id : idArray) {
+			long value = zigZag(id - previous);
+			while ((value & ~0x7FL) != 0) {
+				encoded[position++] = (byte) ((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			encoded[position++] = (byte) value;
+			previous = id;
+		}
+
+		Object[] searchAfter = page instanceof SearchAfterPage<Long> searchAfterPage ? searchAfterPage.getSearchAfter() : null;
+		return new CompactConceptIdPage(encoded, idArray.length, page.getTotalElements(), page.getPageable(), searchAfter);
+	}
+
+	public void forEach(LongConsumer consumer) {
+		int position = 0;
+		long id = 0;
+		for (int i = 0; i < size; i++) {
+			long value = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = encodedIds[position++];
+				value |= (long) (b & 0x7F) << shift;
+				shift += 7;
+			} while (b < 0);
+			id += (value >>> 1) ^ -(value & 1);
+			consumer.accept(id);
+		}
+	}
+
+	public LongArrayList toLongList() {
+		LongArrayList ids = new LongArrayList(size);
+		forEach(ids::add);
+		return ids;
+	}
+
+	/**
+	 * @return the cached page as it was originally selected.
+	 */
+	public Page<Long> toPage() {
+		LongArrayList ids = toLongList();
+		if (searchAfter != null) {
+			return new SearchAfterPageImpl<>(ids, pageable, totalElements, searchAfter);
+		}
+		return new PageImpl<>(ids, pageable, totalElements);
+	}
+
+	/**
+	 * Applies a filter to the ids and then selects a page of the remaining ids, without expanding the full set of ids.
+	 * Gives the same result as {@link ConceptSelectorHelper#getPage(PageRequest, List)} on the filtered list.
+	 */
+	public Page<Long> toPage(LongPredicate filter, PageRequest pageRequest) {
+		if (pageRequest == null || pageRequest instanceof SearchAfterPageRequest) {
+			// Search after is matched against the full list of filtered ids
+			LongArrayList filtered = new LongArrayList();
+			forEach(id -> {
+				if (filter.test(id)) {
+					filtered.add(id);
+				}
+			});
+			return ConceptSelectorHelper.getPage(pageRequest, filtered);
+		}
+
+		long offset = pageRequest.getOffset();
+		long limit = offset + pageRequest.getPageSize();
+		LongArrayList pageIds = new LongArrayList(pageRequest.getPageSize());
+		long[] matchCount = new long[1];
+		forEach(id -> {
+			if (filter.test(id)) {
+				long index = matchCount[0]++;
+				if (index >= offset && index < limit) {
+					pageIds.add(id);
+				}
+			}
+		});
+		Long lastItem = pageIds.isEmpty() ? null : pageIds.getLong(pageIds.size() - 1);
+		return new SearchAfterPageImpl<>(pageIds, pageRequest, matchCount[0], CONCEPT_ID_SEARCH_AFTER_EXTRACTOR.apply(lastItem));
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public long getTotalElements() {
+		return totalElements;
+	}
+
+	public int getEncodedLength() {
+		return encodedIds.length;
+	}
+
+	private static long zigZag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	private static int varLongLength(long value) {
+		int length = 1;
+		while ((value & ~0x7FL) != 0) {
+			length++;
+			value >>>= 7;
+		}
+		return length;
+	}
+}
@@ -8,15 +8,19 @@ import it.unimi.dsi.fastutil.longs.LongArrayList;
 import it.unimi.dsi.fastutil.longs.LongArraySet;
 import it.unimi.dsi.fastutil.longs.LongComparators;
 import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
 
 import org.snomed.langauges.ecl.domain.ConceptReference;
 import org.snomed.langauges.ecl.domain.expressionconstraint.SubExpressionConstraint;
 import org.snomed.langauges.ecl.domain.filter.*;
 import org.snomed.snowstorm.core.data.domain.*;
 import org.snomed.snowstorm.core.data.services.DescriptionService;
+import org.snomed.snowstorm.core.data.services.HierarchyIndexService;
 import org.snomed.snowstorm.core.data.services.QueryService;
 import org.snomed.snowstorm.core.data.services.ReferenceSetMemberService;
 import org.snomed.snowstorm.core.data.services.RelationshipService;
+import org.snomed.snowstorm.core.data.services.RuntimeServiceException;
+import org.snomed.snowstorm.core.data.services.transitiveclosure.HierarchyIndex;
 import org.snomed.snowstorm.core.util.PageHelper;
 import org.snomed.snowstorm.core.util.SearchAfterPage;
 import org.snomed.snowstorm.core.util.SearchAfterPageImpl;
@@ -24,6 +28,7 @@ import org.snomed.snowstorm.ecl.domain.RefinementBuilder;
 import org.snomed.snowstorm.ecl.domain.expressionconstraint.SExpressionConstraint;
 import org.snomed.snowstorm.ecl.domain.expressionconstraint.SSubExpressionConstraint;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Lazy;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
@@ -37,7 +42,14 @@ import org.springframework.data.elasticsearch.core.query.FetchSourceFilter;
 import org.springframework.stereotype.Service;
 
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 
 import static io.kaicode.elasticvc.api.ComponentService.LARGE_PAGE;
@@ -65,6 +77,9 @@ public class ECLContentService {
 	@Autowired
 	private QueryService queryService;
 
+	@Autowired
+	private HierarchyIndexService hierarchyIndexService;
+
 	@Autowired
 	@Lazy
 	private ReferenceSetMemberService memberService;
@@ -73,6 +88,14 @@ public class ECLContentService {
 	@Lazy
 	private ECLQueryService eclQueryService;
 
+	@Value("${ecl.concurrent-operands.threads}")
+	private int concurrentOperandThreads;
+
+	@Value("${ecl.concurrent-operands.max-per-query}")
+	private int maxConcurrentOperandsPerQuery;
+
+	private ExecutorService operandExecutor;
+
 	private SExpressionConstraint historyMaxECL;
 
 	private static final List<Long> HISTORY_PROFILE_MIN = Collections.singletonList(parseLong(Concepts.REFSET_SAME_AS_ASSOCIATION));
@@ -85,6 +108,61 @@ public class ECLContentService {
 	@PostConstruct
 	public void init() {
 		historyMaxECL = (SExpressionConstraint) eclQueryService.createQuery("< 900000000000522004 |Historical association reference set|");
+		operandExecutor = Executors.newFixedThreadPool(concurrentOperandThreads);
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		operandExecutor.shutdown();
+	}
+
+	/**
+	 * Selects all ids of each of the expression constraints, running up to the per query limit of selections at the same time.
+	 * The calling thread takes part in the work and only waits for selections that have already started,
+	 * so nested compound expressions can not deadlock the shared pool.
+	 * @return the ids of each expression constraint, in the same order
+	 */
+	public List<LongSet> selectAllIdsConcurrently(List<SSubExpressionConstraint> expressionConstraints, RefinementBuilder refinementBuilder) {
+		int size = expressionConstraints.size();
+		LongSet[] results = new LongSet[size];
+		AtomicInteger next = new AtomicInteger();
+		CountDownLatch done = new CountDownLatch(size);
+		AtomicReference<RuntimeException> failure = new AtomicReference<>();
+		Runnable worker = () -> {
+			int index;
+			while ((index = next.getAndIncrement()) < size) {
+				try {
+					if (failure.get() == null) {
+						results[index] = new LongOpenHashSet(ConceptSelectorHelper.select(expressionConstraints.get(index), refinementBuilder).getContent());
+					}
+				} catch (RuntimeException e) {
+					failure.compareAndSet(null, e);
+				} finally {
+					done.countDown();
+				}
+			}
+		};
+
+		// The calling thread is one of the workers
+		int extraWorkers = Math.min(maxConcurrentOperandsPerQuery, size) - 1;
+		List<Future<?>> futures = new ArrayList<>();
+		for (int i = 0; i < extraWorkers; i++) {
+			futures.add(operandExecutor.submit(worker));
+		}
+		worker.run();
+		try {
+			done.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeServiceException("Interrupted while selecting ECL operands.", e);
+		} finally {
+			// Workers still queued have nothing left to do
+			futures.forEach(future -> future.cancel(false));
+		}
+		if (failure.get() != null) {
+			throw failure.get();
+		}
+		return Arrays.asList(results);
 	}
 
 	public List<Long> fetchAllIdsWithCaching(SSubExpressionConstraint sSubExpressionConstraint, BranchCriteria branchCriteria, boolean stated) {
@@ -219,6 +297,10 @@ public class ECLContentService {
 		}
 	}
 
+	public Optional<HierarchyIndex> getHierarchyIndex(BranchCriteria branchCriteria, boolean stated) {
+		return hierarchyIndexService.getIndex(branchCriteria, stated);
+	}
+
 	public Set<Long> findAncestorIdsAsUnion(BranchCriteria branchCriteria, boolean stated, Collection<Long> conceptIds) {
 		return queryService.findAncestorIdsAsUnion(branchCriteria, stated, conceptIds);
 	}
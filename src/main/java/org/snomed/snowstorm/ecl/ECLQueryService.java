@@ -3,23 +3,31 @@ package org.snomed.snowstorm.ecl;
 import ch.qos.logback.classic.Level;
 import co.elastic.clients.elasticsearch._types.query_dsl.Query;
 import io.kaicode.elasticvc.api.BranchCriteria;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
 import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.snomed.langauges.ecl.ECLException;
 import org.snomed.langauges.ecl.ECLQueryBuilder;
 import org.snomed.langauges.ecl.domain.expressionconstraint.ExpressionConstraint;
+import org.snomed.langauges.ecl.domain.expressionconstraint.SubExpressionConstraint;
 import org.snomed.langauges.ecl.domain.refinement.Operator;
 import org.snomed.snowstorm.core.data.domain.QueryConcept;
 import org.snomed.snowstorm.core.data.domain.ReferenceSetMember;
 import org.snomed.snowstorm.core.data.services.RuntimeServiceException;
 import org.snomed.snowstorm.core.util.SearchAfterPage;
+import org.snomed.snowstorm.core.util.SingleFlight;
 import org.snomed.snowstorm.core.util.TimerUtil;
+import org.snomed.snowstorm.ecl.domain.expressionconstraint.SCompoundExpressionConstraint;
 import org.snomed.snowstorm.ecl.domain.expressionconstraint.SExpressionConstraint;
 import org.snomed.snowstorm.ecl.domain.expressionconstraint.SSubExpressionConstraint;
+import org.snomed.snowstorm.ecl.planner.ECLQueryPlan;
+import org.snomed.snowstorm.ecl.planner.ECLQueryPlanner;
 import org.snomed.snowstorm.ecl.validation.ECLPreprocessingService;
 import org.snomed.snowstorm.rest.ControllerHelper;
+import org.snomed.snowstorm.rest.pojo.SearchAfterPageRequest;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Page;
@@ -27,12 +35,14 @@ import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Slice;
 import org.springframework.stereotype.Service;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.function.LongPredicate;
-import java.util.stream.Collectors;
 
 import static java.lang.Long.parseLong;
 
@@ -51,6 +61,9 @@ public class ECLQueryService {
 	@Autowired
 	private ECLContentService eclContentService;
 
+	@Autowired
+	private ECLQueryPlanner eclQueryPlanner;
+
 	@Value("${timer.ecl.duration-threshold}")
 	private int eclDurationLoggingThreshold;
 
@@ -59,10 +72,13 @@ public class ECLQueryService {
 
 	private final ECLResultsCache resultsCache;
 
+	private final SingleFlight<SelectKey, SelectedPage> selectFlights = new SingleFlight<>();
+
 	private final Logger logger = LoggerFactory.getLogger(getClass());
 
-	public ECLQueryService() {
-		resultsCache = new ECLResultsCache();
+	public ECLQueryService(@Value("${cache.ecl.max-weight}") long cacheMaxWeight, @Value("${cache.ecl.max-branch-weight}") long cacheMaxBranchWeight,
+			@Value("${cache.ecl.incremental-invalidation.enabled}") boolean cacheIncrementalInvalidation) {
+		resultsCache = new ECLResultsCache(cacheMaxWeight, cacheMaxBranchWeight, cacheIncrementalInvalidation);
 	}
 
 	public Page<Long> selectConceptIds(String ecl, BranchCriteria branchCriteria, boolean stated, PageRequest pageRequest) throws ECLException {
@@ -131,9 +147,6 @@ public class ECLQueryService {
 	public Page<Long> doSelectConceptIds(SExpressionConstraint expressionConstraint, BranchCriteria branchCriteria, boolean stated, Collection<Long> conceptIdFilter,
 			PageRequest pageRequest) {
 
-		// - Optimisation idea -
-		// Changing something like "(id) AND (<<id OR >>id)"  to  "(id AND <<id) OR (id AND >>id)" will run in a fraction of the time because there will be no large fetches
-
 		TimerUtil eclSlowQueryTimer = getEclSlowQueryTimer();
 		String ecl = expressionConstraint.toEclString();
 		String path = branchCriteria.getBranchPath();
@@ -154,37 +167,48 @@ public class ECLQueryService {
 				filter = fastSet::contains;
 			}
 
-			Page<Long> cachedPage = branchVersionCache.get(ecl, stated, queryPageRequest);
+			CompactConceptIdPage cachedPage = branchVersionCache.get(ecl, stated, queryPageRequest);
 			if (cachedPage != null) {
 				final int pageNumber = pageRequest != null ? pageRequest.getPageNumber() : 0;
 				final int pageSize = pageRequest != null ? pageRequest.getPageSize() : -1;
 				logger.info("ECL cache hit {}@{} \"{}\" {}:{}", path, branchCriteria.getTimepoint().getTime(), ecl, pageNumber, pageSize);
 				branchVersionCache.recordHit();
 
-				pageOptional = Optional.of(cachedPage);
+				// Filter and page straight from the compact form, without expanding the full set of ids
+				pageOptional = Optional.of(filter != null ? cachedPage.toPage(filter, pageRequest) : cachedPage.toPage());
 			} else {
 				// Select 1
 				// When is pageRequest null?
-				pageOptional = expressionConstraint.select(branchCriteria, stated, null, queryPageRequest, eclContentService, true);
-				if (pageOptional.isPresent()) {
+				// Identical requests arriving while this one runs wait for the result rather than running the same query again
+				final PageRequest selectPageRequest = queryPageRequest;
+				SelectedPage selected = selectFlights.execute(new SelectKey(path, branchCriteria, ecl, stated, queryPageRequest), () -> {
+					Optional<Page<Long>> selectedPage = planAndSelect(expressionConstraint, branchCriteria, stated, null, selectPageRequest);
+					if (selectedPage.isEmpty()) {
+						return new SelectedPage(null, null);
+					}
 					// Cache results
-					final Page<Long> page = pageOptional.get();
-					branchVersionCache.put(ecl, stated, queryPageRequest, page);
+					final CompactConceptIdPage compactPage = CompactConceptIdPage.of(selectedPage.get());
+					branchVersionCache.put(ecl, stated, selectPageRequest, compactPage, getHierarchyConceptIds(expressionConstraint));
 					eclSlowQueryTimer.checkpoint(String.format("ecl:'%s', with %s results in this page, now cached for this branch/commit/page.", ecl,
-							pageOptional.get().getNumberOfElements()));
-				}
-			}
-
-			if (pageOptional.isPresent()) {
-				// Filter results
-				if (filter != null) {
-					final List<Long> filteredList = pageOptional.get().get().filter(filter::test).collect(Collectors.toList());
-					pageOptional = Optional.of(ConceptSelectorHelper.getPage(pageRequest, filteredList));
+							selectedPage.get().getNumberOfElements()));
+					return new SelectedPage(selectedPage.get(), compactPage);
+				});
+				pageOptional = selected.asOptional();
+				if (pageOptional.isPresent() && filter != null) {
+					CompactConceptIdPage compactPage = selected.compactPage() != null ? selected.compactPage() : CompactConceptIdPage.of(selected.page());
+					pageOptional = Optional.of(compactPage.toPage(filter, pageRequest));
 				}
 			}
 		} else {
 			// Select 2
-			pageOptional = expressionConstraint.select(branchCriteria, stated, conceptIdFilter, pageRequest, eclContentService, true);
+			if (conceptIdFilter == null) {
+				pageOptional = selectFlights.execute(new SelectKey(path, branchCriteria, ecl, stated, pageRequest),
+						() -> new SelectedPage(planAndSelect(expressionConstraint, branchCriteria, stated, null, pageRequest).orElse(null), null))
+						.asOptional();
+			} else {
+				// Filtered queries are not coalesced, comparing the filters would cost more than is saved
+				pageOptional = planAndSelect(expressionConstraint, branchCriteria, stated, conceptIdFilter, pageRequest);
+			}
             pageOptional.ifPresent(longs -> eclSlowQueryTimer.checkpoint(String.format("ecl:'%s', with %s results in this page, cache not enabled.", ecl, longs.getNumberOfElements())));
 		}
 
@@ -196,6 +220,56 @@ public class ECLQueryService {
 		return pageOptional.get();
 	}
 
+	private Optional<Page<Long>> planAndSelect(SExpressionConstraint expressionConstraint, BranchCriteria branchCriteria, boolean stated,
+			Collection<Long> conceptIdFilter, PageRequest pageRequest) {
+
+		// The plan is made after the cache lookup so that the original expression is used as the cache key
+		ECLQueryPlan plan = eclQueryPlanner.plan(expressionConstraint, branchCriteria, stated);
+		if (plan.isEmpty()) {
+			return Optional.of(ConceptSelectorHelper.getPage(pageRequest, new LongArrayList()));
+		}
+		return plan.getExpressionConstraint().select(branchCriteria, stated, conceptIdFilter, pageRequest, eclContentService, true);
+	}
+
+	/**
+	 * Plans and runs an ECL query without using the cache, timing the selection of each top level operand and then the whole expression.
+	 */
+	public ECLQueryPlan explain(String ecl, BranchCriteria branchCriteria, boolean stated) throws ECLException {
+		SExpressionConstraint expressionConstraint = (SExpressionConstraint) eclQueryBuilder.createQuery(ecl);
+		expressionConstraint = eclPreprocessingService.replaceIncorrectConcreteAttributeValue(expressionConstraint, branchCriteria.getBranchPath());
+		ECLQueryPlan plan = eclQueryPlanner.plan(expressionConstraint, branchCriteria, stated);
+		if (plan.isEmpty()) {
+			return plan;
+		}
+
+		SExpressionConstraint planned = plan.getExpressionConstraint();
+		if (planned instanceof SCompoundExpressionConstraint compound) {
+			List<SubExpressionConstraint> operands = compound.getConjunctionExpressionConstraints() != null ? compound.getConjunctionExpressionConstraints()
+					: compound.getDisjunctionExpressionConstraints() != null ? compound.getDisjunctionExpressionConstraints()
+					: List.of(compound.getExclusionExpressionConstraints().getFirst(), compound.getExclusionExpressionConstraints().getSecond());
+			for (SubExpressionConstraint operand : operands) {
+				explainStep((SExpressionConstraint) operand, branchCriteria, stated, plan);
+			}
+		}
+		explainStep(planned, branchCriteria, stated, plan);
+		return plan;
+	}
+
+	private void explainStep(SExpressionConstraint expressionConstraint, BranchCriteria branchCriteria, boolean stated, ECLQueryPlan plan) {
+		long estimate = eclQueryPlanner.estimate(expressionConstraint, branchCriteria, stated);
+		long start = System.currentTimeMillis();
+		// A page of one gives the count without fetching all ids
+		Optional<Page<Long>> page = expressionConstraint.select(branchCriteria, stated, null, PageRequest.of(0, 1), eclContentService, false);
+		plan.addStep(expressionConstraint.toEclString(), estimate, page.map(Page::getTotalElements).orElse(null), System.currentTimeMillis() - start);
+	}
+
+	private static long[] getHierarchyConceptIds(SExpressionConstraint expressionConstraint) {
+		if (!expressionConstraint.isHierarchyOnly()) {
+			return null;
+		}
+		return expressionConstraint.getConceptIds().stream().mapToLong(Long::parseLong).toArray();
+	}
+
 	private Page<Long> getWildcardPage(BranchCriteria branchCriteria, boolean stated, Collection<Long> conceptIdFilter, PageRequest pageRequest) {
 		// Wildcard expression. Grab a page of concepts with no criteria.
 		Query query = ConceptSelectorHelper.getBranchAndStatedQuery(branchCriteria.getEntityBranchCriteria(QueryConcept.class), stated);
@@ -218,6 +292,15 @@ public class ECLQueryService {
 		return eclQueryBuilder.createQuery(ecl);
 	}
 
+	/**
+	 * Records the concepts changed in the semantic index by a commit, so that unaffected ECL results can be kept in the cache.
+	 */
+	public void recordSemanticChanges(String path, Date previousHead, Date head, LongSet changedConceptIds) {
+		if (eclCacheEnabled) {
+			resultsCache.recordSemanticChanges(path, previousHead, head, changedConceptIds);
+		}
+	}
+
 	public ECLResultsCache getResultsCache() {
 		return resultsCache;
 	}
@@ -229,4 +312,31 @@ public class ECLQueryService {
 	public void setEclCacheEnabled(boolean eclCacheEnabled) {
 		this.eclCacheEnabled = eclCacheEnabled;
 	}
+
+	/**
+	 * @return counts of ECL selections run and of identical concurrent requests which waited for one of those instead.
+	 */
+	public Map<String, Long> getCoalescingStats() {
+		return selectFlights.getStats();
+	}
+
+	private record SelectKey(String path, long timepoint, String ecl, boolean stated, PageRequest pageRequest, List<Object> searchAfter) {
+
+		SelectKey(String path, BranchCriteria branchCriteria, String ecl, boolean stated, PageRequest pageRequest) {
+			this(path, branchCriteria.getTimepoint().getTime(), BranchVersionECLCache.normaliseEclString(ecl), stated, pageRequest,
+					pageRequest instanceof SearchAfterPageRequest searchAfterPageRequest && searchAfterPageRequest.getSearchAfter() != null ?
+							Arrays.asList(searchAfterPageRequest.getSearchAfter()) : null);
+		}
+	}
+
+	/**
+	 * @param page null for a wildcard selection
+	 * @param compactPage set when the page was added to the cache
+	 */
+	private record SelectedPage(Page<Long> page, CompactConceptIdPage compactPage) {
+
+		Optional<Page<Long>> asOptional() {
+			return Optional.ofNullable(page);
+		}
+	}
 }
@@ -1,45 +1,318 @@
 package org.snomed.snowstorm.ecl;
 
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Date;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Size bounded store of ECL results across all branches.
+ * Entries are weighted by the number of concept ids they hold. When the total weight, or the weight of a single branch, goes over the configured
+ * limit the least recently used entries are evicted.
+ * <p>
+ * In incremental invalidation mode the semantic changes made by each commit are recorded. When a branch head moves, hierarchy only results
+ * that do not refer to any of the changed concepts are kept for the new head rather than being thrown away.
+ */
 public class ECLResultsCache {
 
+	private static final int MAX_CHANGE_SETS_PER_BRANCH = 20;
+
 	private final Map<String, BranchVersionECLCache> cacheMap;
 
+	// Access ordered so that iteration starts with the least recently used entry. All access must be synchronized on this map.
+	private final LinkedHashMap<CacheKey, CachedResult> entries;
+
+	private final Map<String, Long> branchWeights;
+
+	// Semantic changes of recent commits, per branch, most recent last
+	private final Map<String, Deque<SemanticChangeSet>> branchChangeSets;
+
+	private final long maxWeight;
+
+	private final long maxBranchWeight;
+
+	private final boolean incrementalInvalidation;
+
+	private long totalWeight;
+
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+	private final AtomicLong evictionCount = new AtomicLong();
+	private final AtomicLong carriedForwardCount = new AtomicLong();
+
 	private final Logger logger = LoggerFactory.getLogger(getClass());
 
-	public ECLResultsCache() {
+	/**
+	 * @param maxWeight the maximum number of concept ids held across all branches
+	 * @param maxBranchWeight the maximum number of concept ids held for any one branch
+	 * @param incrementalInvalidation keep results that are not affected by the semantic changes of a commit
+	 */
+	public ECLResultsCache(long maxWeight, long maxBranchWeight, boolean incrementalInvalidation) {
+		this.maxWeight = maxWeight;
+		this.maxBranchWeight = Math.min(maxBranchWeight, maxWeight);
+		this.incrementalInvalidation = incrementalInvalidation;
 		cacheMap = new ConcurrentHashMap<>();
+		entries = new LinkedHashMap<>(1_000, 0.75f, true);
+		branchWeights = new HashMap<>();
+		branchChangeSets = new ConcurrentHashMap<>();
 	}
 
 	public BranchVersionECLCache getOrCreateBranchVersionCache(String path, Date timepoint) {
 		BranchVersionECLCache branchVersionCache = cacheMap.get(path);
 		if (branchVersionCache == null || branchVersionCache.isExpired(timepoint)) {
+			branchVersionCache = cacheMap.compute(path, (key, existing) -> {
+				if (existing != null && !existing.isExpired(timepoint)) {
+					// Created by another thread
+					return existing;
+				}
+				if (existing != null) {
+					LongSet changedConceptIds = getChangedConceptIds(path, existing.getHead(), timepoint);
+					if (changedConceptIds != null) {
+						int kept = carryForward(path, existing.getHead(), timepoint, changedConceptIds);
+						logger.info("ECL cache moved to {}@{}, {} results kept after semantic changes to {} concepts.", path, timepoint.getTime(), kept,
+								changedConceptIds.size());
+					} else {
+						logger.info("ECL cache expired {}@{}", path, timepoint.getTime());
+					}
+				}
+				return new BranchVersionECLCache(this, path, timepoint);
+			});
 
-			if (branchVersionCache != null) {
-				logger.info("ECL cache expired {}@{}", path, timepoint.getTime());
+			// Release the weight held by any previous version of this branch
+			removeStaleBranchEntries(path, branchVersionCache.getHead());
+		}
+		return branchVersionCache;
+	}
+
+	/**
+	 * Records the concepts changed in the semantic index by a commit.
+	 * @param changedConceptIds ids of the concepts whose semantic index entries changed, plus their ancestors before and after the change
+	 */
+	public void recordSemanticChanges(String path, Date previousHead, Date head, LongSet changedConceptIds) {
+		if (!incrementalInvalidation) {
+			return;
+		}
+		Deque<SemanticChangeSet> changeSets = branchChangeSets.computeIfAbsent(path, key -> new ArrayDeque<>());
+		synchronized (changeSets) {
+			changeSets.addLast(new SemanticChangeSet(previousHead, head, changedConceptIds));
+			if (changeSets.size() > MAX_CHANGE_SETS_PER_BRANCH) {
+				changeSets.removeFirst();
 			}
+		}
+	}
 
-			branchVersionCache = new BranchVersionECLCache(timepoint);
+	/**
+	 * @return union of the changes made by the commits between the two heads, or null if the changes of any commit in between are not known
+	 */
+	private LongSet getChangedConceptIds(String path, Date fromHead, Date toHead) {
+		if (!incrementalInvalidation) {
+			return null;
+		}
+		Deque<SemanticChangeSet> changeSets = branchChangeSets.get(path);
+		if (changeSets == null) {
+			return null;
+		}
+		LongSet changedConceptIds = new LongOpenHashSet();
+		synchronized (changeSets) {
+			Date head = toHead;
+			Iterator<SemanticChangeSet> iterator = changeSets.descendingIterator();
+			while (iterator.hasNext() && !head.equals(fromHead)) {
+				SemanticChangeSet changeSet = iterator.next();
+				if (changeSet.head.equals(head)) {
+					changedConceptIds.addAll(changeSet.changedConceptIds);
+					head = changeSet.previousHead;
+				}
+			}
+			return head.equals(fromHead) ? changedConceptIds : null;
+		}
+	}
 
-			// Replacing the existing item will allow the old cache entry to be garbage collected
-			cacheMap.put(path, branchVersionCache);
+	/**
+	 * Moves results of the previous head that can not have been affected by the changes to the new head.
+	 * @return number of results kept
+	 */
+	private int carryForward(String path, Date previousHead, Date head, LongSet changedConceptIds) {
+		synchronized (entries) {
+			Map<CacheKey, CachedResult> unaffected = new HashMap<>();
+			Iterator<Map.Entry<CacheKey, CachedResult>> iterator = entries.entrySet().iterator();
+			while (iterator.hasNext()) {
+				Map.Entry<CacheKey, CachedResult> entry = iterator.next();
+				CacheKey key = entry.getKey();
+				if (key.path.equals(path) && key.head.equals(previousHead)) {
+					CachedResult result = entry.getValue();
+					if (result.isUnaffectedBy(changedConceptIds)) {
+						unaffected.put(new CacheKey(path, head, key.branchKey), result);
+					}
+					iterator.remove();
+					adjustWeight(path, -result.getWeight());
+				}
+			}
+			for (Map.Entry<CacheKey, CachedResult> entry : unaffected.entrySet()) {
+				entries.put(entry.getKey(), entry.getValue());
+				adjustWeight(path, entry.getValue().getWeight());
+			}
+			carriedForwardCount.addAndGet(unaffected.size());
+			return unaffected.size();
+		}
+	}
+
+	CompactConceptIdPage get(BranchVersionECLCache branchVersionCache, Object branchKey) {
+		CachedResult result;
+		synchronized (entries) {
+			result = entries.get(new CacheKey(branchVersionCache.getPath(), branchVersionCache.getHead(), branchKey));
+		}
+		if (result != null) {
+			hitCount.incrementAndGet();
+			return result.page;
+		} else {
+			missCount.incrementAndGet();
+			return null;
+		}
+	}
+
+	/**
+	 * @param hierarchyConceptIds concept ids referred to by a hierarchy only expression, or null if the expression uses other content
+	 */
+	void put(BranchVersionECLCache branchVersionCache, Object branchKey, CompactConceptIdPage page, long[] hierarchyConceptIds) {
+		String path = branchVersionCache.getPath();
+		CachedResult result = new CachedResult(page, hierarchyConceptIds);
+		long weight = result.getWeight();
+		if (weight > maxBranchWeight) {
+			// Too large to cache without pushing out everything else on the branch
+			logger.debug("ECL result of {} concepts too large to cache on {}", weight, path);
+			return;
+		}
+		CacheKey key = new CacheKey(path, branchVersionCache.getHead(), branchKey);
+		synchronized (entries) {
+			// Checked under the lock so that stale entries removed after a branch version change can not be added back
+			if (cacheMap.get(path) != branchVersionCache) {
+				// Branch has moved on since this result was computed
+				return;
+			}
+			CachedResult previous = entries.put(key, result);
+			if (previous != null) {
+				adjustWeight(path, -previous.getWeight());
+			}
+			adjustWeight(path, weight);
+
+			if (branchWeights.getOrDefault(path, 0L) > maxBranchWeight) {
+				evict(path, maxBranchWeight);
+			}
+			if (totalWeight > maxWeight) {
+				evict(null, maxWeight);
+			}
+		}
+	}
+
+	// Must hold lock on entries
+	private void evict(String path, long targetWeight) {
+		Iterator<Map.Entry<CacheKey, CachedResult>> iterator = entries.entrySet().iterator();
+		while (iterator.hasNext() && (path != null ? branchWeights.getOrDefault(path, 0L) : totalWeight) > targetWeight) {
+			Map.Entry<CacheKey, CachedResult> entry = iterator.next();
+			String entryPath = entry.getKey().path;
+			if (path == null || path.equals(entryPath)) {
+				iterator.remove();
+				adjustWeight(entryPath, -entry.getValue().getWeight());
+				evictionCount.incrementAndGet();
+			}
+		}
+	}
+
+	private void removeStaleBranchEntries(String path, Date head) {
+		synchronized (entries) {
+			Iterator<Map.Entry<CacheKey, CachedResult>> iterator = entries.entrySet().iterator();
+			while (iterator.hasNext()) {
+				Map.Entry<CacheKey, CachedResult> entry = iterator.next();
+				CacheKey key = entry.getKey();
+				if (key.path.equals(path) && !key.head.equals(head)) {
+					iterator.remove();
+					adjustWeight(path, -entry.getValue().getWeight());
+				}
+			}
+		}
+	}
+
+	// Must hold lock on entries
+	private void adjustWeight(String path, long delta) {
+		totalWeight += delta;
+		long branchWeight = branchWeights.getOrDefault(path, 0L) + delta;
+		if (branchWeight > 0) {
+			branchWeights.put(path, branchWeight);
+		} else {
+			branchWeights.remove(path);
+		}
+	}
+
+	long getBranchWeight(String path) {
+		synchronized (entries) {
+			return branchWeights.getOrDefault(path, 0L);
+		}
+	}
+
+	long getBranchSize(String path) {
+		synchronized (entries) {
+			return entries.keySet().stream().filter(key -> key.path.equals(path)).count();
 		}
-		return branchVersionCache;
 	}
 
 	public Map<String, BranchVersionECLCache> getCacheMap() {
 		return new HashMap<>(cacheMap);
 	}
 
+	public Map<String, Long> getStats() {
+		Map<String, Long> stats = new LinkedHashMap<>();
+		synchronized (entries) {
+			stats.put("size", (long) entries.size());
+			stats.put("weight", totalWeight);
+		}
+		stats.put("max-weight", maxWeight);
+		stats.put("max-branch-weight", maxBranchWeight);
+		stats.put("branches", (long) cacheMap.size());
+		stats.put("hits", hitCount.get());
+		stats.put("misses", missCount.get());
+		stats.put("evictions", evictionCount.get());
+		stats.put("carried-forward", carriedForwardCount.get());
+		return stats;
+	}
+
 	public void clearCache() {
+		synchronized (entries) {
+			entries.clear();
+			branchWeights.clear();
+			totalWeight = 0;
+		}
 		cacheMap.clear();
+		branchChangeSets.clear();
 		logger.info("ECL cache cleared.");
 	}
+
+	private record CacheKey(String path, Date head, Object branchKey) {
+	}
+
+	private record CachedResult(CompactConceptIdPage page, long[] hierarchyConceptIds) {
+
+		private boolean isUnaffectedBy(LongSet changedConceptIds) {
+			if (hierarchyConceptIds == null) {
+				return false;
+			}
+			for (long conceptId : hierarchyConceptIds) {
+				if (changedConceptIds.contains(conceptId)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private long getWeight() {
+			// Count empty pages as one so that the number of entries is also bounded
+			return Math.max(page.size(), 1);
+		}
+	}
+
+	private record SemanticChangeSet(Date previousHead, Date head, LongSet changedConceptIds) {
+	}
 }
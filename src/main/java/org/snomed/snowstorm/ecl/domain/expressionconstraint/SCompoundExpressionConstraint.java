@@ -1,10 +1,13 @@
 package org.snomed.snowstorm.ecl.domain.expressionconstraint;
 
 import co.elastic.clients.elasticsearch._types.query_dsl.BoolQuery;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import io.kaicode.elasticvc.api.BranchCriteria;
 import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongComparators;
 import it.unimi.dsi.fastutil.longs.LongLinkedOpenHashSet;
 import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
 
 import org.snomed.langauges.ecl.domain.expressionconstraint.CompoundExpressionConstraint;
 import org.snomed.langauges.ecl.domain.expressionconstraint.SubExpressionConstraint;
@@ -23,6 +26,7 @@ import java.util.Set;
 import java.util.function.Consumer;
 
 import static co.elastic.clients.elasticsearch._types.query_dsl.QueryBuilders.bool;
+import static io.kaicode.elasticvc.api.ComponentService.CLAUSE_LIMIT;
 import static com.google.common.collect.Sets.*;
 import static java.util.stream.Collectors.toSet;
 
@@ -54,6 +58,22 @@ public class SCompoundExpressionConstraint extends CompoundExpressionConstraint
 		return conceptIds;
 	}
 
+	@Override
+	@JsonIgnore
+	public boolean isHierarchyOnly() {
+		if (conjunctionExpressionConstraints != null) {
+			return allHierarchyOnly(conjunctionExpressionConstraints);
+		} else if (disjunctionExpressionConstraints != null) {
+			return allHierarchyOnly(disjunctionExpressionConstraints);
+		} else {
+			return allHierarchyOnly(List.of(exclusionExpressionConstraints.getFirst(), exclusionExpressionConstraints.getSecond()));
+		}
+	}
+
+	private boolean allHierarchyOnly(List<SubExpressionConstraint> subExpressionConstraints) {
+		return subExpressionConstraints.stream().allMatch(constraint -> ((SSubExpressionConstraint) constraint).isHierarchyOnly());
+	}
+
 	private Set<String> getConceptIds(List<SubExpressionConstraint> subExpressionConstraints) {
 		return subExpressionConstraints.stream()
 				.map(SSubExpressionConstraint.class::cast)
@@ -69,15 +89,22 @@ public class SCompoundExpressionConstraint extends CompoundExpressionConstraint
 		if (conjunctionExpressionConstraints != null) {
 			if (anyWithFiltersOrSupplements(conjunctionExpressionConstraints) || anyMemberOfQuery(conjunctionExpressionConstraints)) {
 				// Prefetch all
+				// Operands are ordered by the query planner, most selective first. Each result is used to filter the next operand.
 				Set<Long> result = null;
 				for (SubExpressionConstraint conjunctionExpressionConstraint : conjunctionExpressionConstraints) {
-					List<Long> ids = ConceptSelectorHelper.select((SSubExpressionConstraint) conjunctionExpressionConstraint, refinementBuilder).getContent();
+					Collection<Long> conceptIdFilter = result != null && result.size() <= CLAUSE_LIMIT ? result : null;
+					List<Long> ids = ConceptSelectorHelper.select((SSubExpressionConstraint) conjunctionExpressionConstraint, refinementBuilder.getBranchCriteria(),
+							refinementBuilder.isStated(), conceptIdFilter, null, refinementBuilder.getEclContentService(), false).getContent();
 					Set<Long> resultSet = new LongLinkedOpenHashSet(ids);
 					if (result == null) {
 						result = resultSet;
 					} else {
 						result = intersection(result, resultSet);
 					}
+					if (result.isEmpty()) {
+						// No need to run the remaining operands
+						break;
+					}
 				}
 				filteredOrSupplementedContentCallback.accept(result != null ? sortedList(result) : null);
 
@@ -88,17 +115,14 @@ public class SCompoundExpressionConstraint extends CompoundExpressionConstraint
 			}
 		} else if (disjunctionExpressionConstraints != null) {
 			if (anyWithFiltersOrSupplements(disjunctionExpressionConstraints) || anyMemberOfQuery(disjunctionExpressionConstraints)) {
-				// Prefetch all
-				Set<Long> result = null;
-				for (SubExpressionConstraint disjunctionExpressionConstraint : disjunctionExpressionConstraints) {
-					List<Long> ids = ConceptSelectorHelper.select((SSubExpressionConstraint) disjunctionExpressionConstraint, refinementBuilder).getContent();
-					if (result == null) {
-						result = new LongOpenHashSet(ids);
-					} else {
-						result.addAll(ids);
-					}
+				// Prefetch all, operands are independent so run them concurrently
+				List<LongSet> operandResults = refinementBuilder.getEclContentService().selectAllIdsConcurrently(
+						disjunctionExpressionConstraints.stream().map(SSubExpressionConstraint.class::cast).toList(), refinementBuilder);
+				LongSet result = new LongOpenHashSet();
+				for (LongSet operandResult : operandResults) {
+					result.addAll(operandResult);
 				}
-				filteredOrSupplementedContentCallback.accept(result != null ? sortedList(result) : null);
+				filteredOrSupplementedContentCallback.accept(sortedList(result));
 
 			} else {
 				BoolQuery.Builder queryBuilder = bool();
@@ -115,8 +139,12 @@ public class SCompoundExpressionConstraint extends CompoundExpressionConstraint
 			SSubExpressionConstraint second = (SSubExpressionConstraint) exclusionExpressionConstraints.getSecond();
 
 			if (first.isAnyFiltersOrSupplements() || second.isAnyFiltersOrSupplements() || anyMemberOfQuery(List.of(first,second))) {
-				List<Long> ids = new LongArrayList(ConceptSelectorHelper.select(first, refinementBuilder).getContent());
-				ids.removeAll(ConceptSelectorHelper.select(second, refinementBuilder).getContent());
+				List<LongSet> operandResults = refinementBuilder.getEclContentService().selectAllIdsConcurrently(List.of(first, second), refinementBuilder);
+				LongSet result = operandResults.get(0);
+				result.removeAll(operandResults.get(1));
+				// Keep the default descending order of the first operand
+				LongArrayList ids = new LongArrayList(result);
+				ids.sort(LongComparators.OPPOSITE_COMPARATOR);
 				filteredOrSupplementedContentCallback.accept(ids);
 
 			} else {
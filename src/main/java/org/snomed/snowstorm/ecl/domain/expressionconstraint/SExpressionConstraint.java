@@ -1,5 +1,6 @@
 package org.snomed.snowstorm.ecl.domain.expressionconstraint;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import io.kaicode.elasticvc.api.BranchCriteria;
 import org.snomed.snowstorm.ecl.ECLContentService;
 import org.snomed.snowstorm.ecl.domain.RefinementBuilder;
@@ -18,4 +19,14 @@ public interface SExpressionConstraint extends SRefinement {
 	Optional<Page<Long>> select(RefinementBuilder refinementBuilder);
 
 	String toEclString();
+
+	/**
+	 * @return true if the results of this constraint depend only on the hierarchy held in the semantic index, without refinements, filters,
+	 * supplements or reference set membership. The results of such a constraint can only change if the ancestors of one of the concepts
+	 * it refers to, or of a matching concept, change.
+	 */
+	@JsonIgnore
+	default boolean isHierarchyOnly() {
+		return false;
+	}
 }
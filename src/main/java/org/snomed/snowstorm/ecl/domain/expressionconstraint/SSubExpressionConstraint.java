@@ -4,7 +4,10 @@ import co.elastic.clients.elasticsearch._types.query_dsl.BoolQuery;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import io.kaicode.elasticvc.api.BranchCriteria;
 import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongComparators;
 import it.unimi.dsi.fastutil.longs.LongLinkedOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
 
 import org.snomed.langauges.ecl.domain.ConceptReference;
 import org.snomed.langauges.ecl.domain.expressionconstraint.ExpressionConstraint;
@@ -13,14 +16,17 @@ import org.snomed.langauges.ecl.domain.filter.*;
 import org.snomed.langauges.ecl.domain.refinement.Operator;
 import org.snomed.snowstorm.core.data.domain.Concepts;
 import org.snomed.snowstorm.core.data.domain.QueryConcept;
+import org.snomed.snowstorm.core.data.services.transitiveclosure.HierarchyIndex;
 import org.snomed.snowstorm.ecl.ConceptSelectorHelper;
 import org.snomed.snowstorm.ecl.ECLContentService;
 import org.snomed.snowstorm.ecl.deserializer.ECLModelDeserializer;
 import org.snomed.snowstorm.ecl.domain.RefinementBuilder;
 import org.snomed.snowstorm.ecl.domain.SubRefinementBuilder;
 import org.snomed.snowstorm.ecl.domain.filter.*;
+import org.snomed.snowstorm.rest.pojo.SearchAfterPageRequest;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
 
 import java.util.*;
 import java.util.function.Consumer;
@@ -34,6 +40,12 @@ import static org.snomed.snowstorm.core.util.CollectionUtils.orEmpty;
 
 public class SSubExpressionConstraint extends SubExpressionConstraint implements SExpressionConstraint {
 
+	private static final Set<Operator> HIERARCHY_INDEX_OPERATORS = EnumSet.of(Operator.childof, Operator.childorselfof, Operator.descendantof,
+			Operator.descendantorselfof, Operator.parentof, Operator.parentorselfof, Operator.ancestorof, Operator.ancestororselfof);
+
+	private static final Set<Operator> SELF_OPERATORS = EnumSet.of(Operator.childorselfof, Operator.descendantorselfof, Operator.parentorselfof,
+			Operator.ancestororselfof);
+
 	@SuppressWarnings("unused")
 	// For JSON
 	private SSubExpressionConstraint() {
@@ -51,9 +63,58 @@ public class SSubExpressionConstraint extends SubExpressionConstraint implements
 		if (isUnconstrained()) {
 			return Optional.empty();
 		}
+		if (isSimpleHierarchyQuery(pageRequest)) {
+			Optional<HierarchyIndex> hierarchyIndex = eclContentService.getHierarchyIndex(branchCriteria, stated);
+			if (hierarchyIndex.isPresent()) {
+				return Optional.of(selectFromHierarchyIndex(hierarchyIndex.get(), conceptIdFilter, pageRequest));
+			}
+		}
 		return Optional.of(ConceptSelectorHelper.select(this, branchCriteria, stated, conceptIdFilter, pageRequest, eclContentService, triedCache));
 	}
 
+	// A single concept with a hierarchy operator, in the default descending concept id order
+	private boolean isSimpleHierarchyQuery(PageRequest pageRequest) {
+		if (conceptId == null || !isHierarchyOnly() || (operator != null && !HIERARCHY_INDEX_OPERATORS.contains(operator))) {
+			return false;
+		}
+		if (pageRequest == null) {
+			return true;
+		}
+		Sort.Order conceptIdOrder = pageRequest.getSort().getOrderFor(QueryConcept.Fields.CONCEPT_ID);
+		if (conceptIdOrder == null) {
+			// Without a sort order search after can not be used, leave the error to the normal selection
+			return !(pageRequest instanceof SearchAfterPageRequest) && pageRequest.getSort().isUnsorted();
+		}
+		return conceptIdOrder.isDescending() && pageRequest.getSort().stream().count() == 1;
+	}
+
+	private Page<Long> selectFromHierarchyIndex(HierarchyIndex hierarchyIndex, Collection<Long> conceptIdFilter, PageRequest pageRequest) {
+		long id = parseLong(conceptId);
+		Set<Long> focus = Collections.singleton(id);
+		LongSet ids = new LongOpenHashSet();
+		if (operator == null || SELF_OPERATORS.contains(operator)) {
+			if (hierarchyIndex.contains(id)) {
+				ids.add(id);
+			}
+		}
+		if (operator != null) {
+			switch (operator) {
+				case childof, childorselfof -> ids.addAll(hierarchyIndex.getChildren(focus));
+				case descendantof, descendantorselfof -> ids.addAll(hierarchyIndex.getDescendants(focus));
+				case parentof, parentorselfof -> ids.addAll(hierarchyIndex.getParents(focus));
+				case ancestorof, ancestororselfof -> ids.addAll(hierarchyIndex.getAncestors(focus));
+				default -> {
+				}
+			}
+		}
+		if (conceptIdFilter != null) {
+			ids.retainAll(conceptIdFilter instanceof LongSet ? conceptIdFilter : new LongOpenHashSet(conceptIdFilter));
+		}
+		LongArrayList sortedIds = new LongArrayList(ids);
+		sortedIds.sort(LongComparators.OPPOSITE_COMPARATOR);
+		return ConceptSelectorHelper.getPage(pageRequest, sortedIds);
+	}
+
 	@JsonIgnore
 	public boolean isUnconstrained() {
 		return wildcard
@@ -84,6 +145,15 @@ public class SSubExpressionConstraint extends SubExpressionConstraint implements
 		return conceptFilterConstraints != null || descriptionFilterConstraints != null || getHistorySupplement() != null;
 	}
 
+	@Override
+	@JsonIgnore
+	public boolean isHierarchyOnly() {
+		if (wildcard || operator == Operator.memberOf || isAnyFiltersOrSupplements()) {
+			return false;
+		}
+		return conceptId != null || (nestedExpressionConstraint != null && ((SExpressionConstraint) nestedExpressionConstraint).isHierarchyOnly());
+	}
+
 	@Override
 	public Optional<Page<Long>> select(RefinementBuilder refinementBuilder) {
 		if (isUnconstrained()) {
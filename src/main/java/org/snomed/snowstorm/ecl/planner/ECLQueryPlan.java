@@ -0,0 +1,75 @@
+package org.snomed.snowstorm.ecl.planner;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import org.snomed.snowstorm.ecl.domain.expressionconstraint.SExpressionConstraint;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The result of planning an ECL query. Holds the rewritten expression constraint and a description of each rewrite, for explain output.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ECLQueryPlan {
+
+	private final String ecl;
+	private final SExpressionConstraint expressionConstraint;
+	private final long estimatedCardinality;
+	private final boolean empty;
+	private final List<String> rewrites;
+	private List<Step> steps;
+
+	ECLQueryPlan(String ecl, SExpressionConstraint expressionConstraint, long estimatedCardinality, boolean empty, List<String> rewrites) {
+		this.ecl = ecl;
+		this.expressionConstraint = expressionConstraint;
+		this.estimatedCardinality = estimatedCardinality;
+		this.empty = empty;
+		this.rewrites = rewrites;
+	}
+
+	public void addStep(String ecl, long estimatedCardinality, Long actualCardinality, long millis) {
+		if (steps == null) {
+			steps = new ArrayList<>();
+		}
+		steps.add(new Step(ecl, estimatedCardinality, actualCardinality, millis));
+	}
+
+	public String getEcl() {
+		return ecl;
+	}
+
+	public String getPlannedEcl() {
+		return empty ? null : expressionConstraint.toEclString();
+	}
+
+	@JsonIgnore
+	public SExpressionConstraint getExpressionConstraint() {
+		return expressionConstraint;
+	}
+
+	public long getEstimatedCardinality() {
+		return estimatedCardinality;
+	}
+
+	/**
+	 * @return true if the planner found that the expression can not match any concepts, so it does not need to be run.
+	 */
+	public boolean isEmpty() {
+		return empty;
+	}
+
+	public List<String> getRewrites() {
+		return rewrites;
+	}
+
+	public List<Step> getSteps() {
+		return steps;
+	}
+
+	/**
+	 * @param actualCardinality number of concepts matched, null if the step matches all concepts
+	 */
+	public record Step(String ecl, long estimatedCardinality, Long actualCardinality, long millis) {
+	}
+}
@@ -0,0 +1,380 @@
+package org.snomed.snowstorm.ecl.planner;
+
+import io.kaicode.elasticvc.api.BranchCriteria;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.snomed.langauges.ecl.ECLQueryBuilder;
+import org.snomed.langauges.ecl.domain.expressionconstraint.SubExpressionConstraint;
+import org.snomed.langauges.ecl.domain.refinement.Operator;
+import org.snomed.snowstorm.core.data.services.transitiveclosure.HierarchyIndex;
+import org.snomed.snowstorm.ecl.ECLContentService;
+import org.snomed.snowstorm.ecl.domain.expressionconstraint.SCompoundExpressionConstraint;
+import org.snomed.snowstorm.ecl.domain.expressionconstraint.SExpressionConstraint;
+import org.snomed.snowstorm.ecl.domain.expressionconstraint.SSubExpressionConstraint;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static java.lang.Long.parseLong;
+
+/**
+ * Rewrites ECL expressions into an equivalent form that is cheaper to run, before selection.
+ * <ul>
+ *     <li>Brackets around a single concept are removed and nested descendant or ancestor operators are collapsed, e.g. "<< (< 123)" becomes "< 123".</li>
+ *     <li>Compound operands made redundant by another operand on the same concept are dropped, e.g. "<< 123 OR < 123" becomes "<< 123".</li>
+ *     <li>Conjunction operands are ordered by estimated cardinality so that the most selective runs first when operands are prefetched.</li>
+ *     <li>A selective conjunction is distributed over a disjunction, e.g. "123 AND (<< 456 OR >> 456)" becomes "(123 AND << 456) OR (123 AND >> 456)".</li>
+ *     <li>Operands known to be empty are dropped, and a conjunction with an empty operand is not run at all.</li>
+ * </ul>
+ * Cardinality estimates are exact when a hierarchy index is available for the branch, otherwise rough figures by operator are used.
+ */
+@Service
+public class ECLQueryPlanner {
+
+	// Rough cardinality estimates by operator, for when there is no hierarchy index
+	private static final long SELF_ESTIMATE = 1;
+	private static final long PARENTS_ESTIMATE = 2;
+	private static final long ANCESTORS_ESTIMATE = 15;
+	private static final long CHILDREN_ESTIMATE = 20;
+	private static final long DESCENDANTS_ESTIMATE = 5_000;
+	private static final long MEMBERS_ESTIMATE = 5_000;
+	private static final long UNKNOWN_ESTIMATE = 50_000;
+	private static final long ALL_CONCEPTS_ESTIMATE = 500_000;
+
+	// Only distribute a conjunction over a disjunction when the rest of the conjunction is this selective
+	private static final long MAX_DISTRIBUTED_ESTIMATE = 1_000;
+	private static final int MAX_DISTRIBUTED_DISJUNCTS = 10;
+
+	private static final Set<Operator> DESCENDANT_OPERATORS = EnumSet.of(Operator.descendantof, Operator.descendantorselfof);
+	private static final Set<Operator> ANCESTOR_OPERATORS = EnumSet.of(Operator.ancestorof, Operator.ancestororselfof);
+	private static final Set<Operator> SELF_OPERATORS = EnumSet.of(Operator.childorselfof, Operator.descendantorselfof, Operator.parentorselfof,
+			Operator.ancestororselfof);
+	private static final Set<Operator> HIERARCHY_OPERATORS = EnumSet.of(Operator.childof, Operator.childorselfof, Operator.descendantof,
+			Operator.descendantorselfof, Operator.parentof, Operator.parentorselfof, Operator.ancestorof, Operator.ancestororselfof);
+
+	@Autowired
+	private ECLQueryBuilder eclQueryBuilder;
+
+	@Autowired
+	private ECLContentService eclContentService;
+
+	@Value("${ecl.planner.enabled}")
+	private boolean enabled;
+
+	private final Logger logger = LoggerFactory.getLogger(getClass());
+
+	public ECLQueryPlan plan(SExpressionConstraint expressionConstraint, BranchCriteria branchCriteria, boolean stated) {
+		String ecl = expressionConstraint.toEclString();
+		if (!enabled) {
+			return new ECLQueryPlan(ecl, expressionConstraint, UNKNOWN_ESTIMATE, false, Collections.emptyList());
+		}
+
+		PlanContext context = new PlanContext(eclContentService.getHierarchyIndex(branchCriteria, stated).orElse(null));
+		PlanNode node = rewrite(expressionConstraint, context);
+		if (node.isEmpty()) {
+			context.rewrites.add("Expression can not match any concepts, not run.");
+			return new ECLQueryPlan(ecl, expressionConstraint, 0, true, context.rewrites);
+		}
+		SExpressionConstraint planned = expressionConstraint;
+		if (!context.rewrites.isEmpty()) {
+			planned = (SExpressionConstraint) eclQueryBuilder.createQuery(node.ecl);
+			logger.debug("ECL \"{}\" planned as \"{}\"", ecl, node.ecl);
+		}
+		return new ECLQueryPlan(ecl, planned, node.estimate, false, context.rewrites);
+	}
+
+	/**
+	 * @return estimated number of concepts matched by the expression.
+	 */
+	public long estimate(SExpressionConstraint expressionConstraint, BranchCriteria branchCriteria, boolean stated) {
+		return rewrite(expressionConstraint, new PlanContext(eclContentService.getHierarchyIndex(branchCriteria, stated).orElse(null))).estimate;
+	}
+
+	private PlanNode rewrite(SExpressionConstraint expressionConstraint, PlanContext context) {
+		if (expressionConstraint instanceof SSubExpressionConstraint subExpressionConstraint) {
+			return rewriteSub(subExpressionConstraint, context);
+		} else if (expressionConstraint instanceof SCompoundExpressionConstraint compoundExpressionConstraint) {
+			return rewriteCompound(compoundExpressionConstraint, context);
+		}
+		// Refined and dotted expressions are run as they are, bracketed when they become an operand of a rewritten compound expression
+		return PlanNode.of(expressionConstraint.toEclString(), UNKNOWN_ESTIMATE, true);
+	}
+
+	private PlanNode rewriteSub(SSubExpressionConstraint constraint, PlanContext context) {
+		Operator operator = constraint.getOperator();
+		if (constraint.isAnyFiltersOrSupplements() || operator == Operator.memberOf) {
+			return PlanNode.of(constraint.toEclString(), operator == Operator.memberOf ? MEMBERS_ESTIMATE : UNKNOWN_ESTIMATE, false);
+		}
+		if (constraint.isWildcard()) {
+			return PlanNode.of(constraint.toEclString(), ALL_CONCEPTS_ESTIMATE, false);
+		}
+		if (constraint.getConceptId() != null) {
+			return concept(operator, constraint.getConceptId(), context);
+		}
+		if (constraint.getNestedExpressionConstraint() == null) {
+			return PlanNode.of(constraint.toEclString(), UNKNOWN_ESTIMATE, false);
+		}
+
+		PlanNode nested = rewrite((SExpressionConstraint) constraint.getNestedExpressionConstraint(), context);
+		if (nested.isEmpty()) {
+			// The hierarchy of nothing is nothing
+			return nested;
+		}
+		if (nested.conceptId != null) {
+			if (operator == null) {
+				context.rewrites.add(String.format("Removed brackets around \"%s\".", nested.ecl));
+				return nested;
+			}
+			Operator combined = combineOperators(operator, nested.operator);
+			if (combined != null) {
+				PlanNode collapsed = concept(combined, nested.conceptId, context);
+				context.rewrites.add(String.format("Collapsed \"%s ( %s )\" to \"%s\".", operator.getText(), nested.ecl, collapsed.ecl));
+				return collapsed;
+			}
+		}
+		String ecl = (operator != null ? operator.getText() + " " : "") + "( " + nested.ecl + " )";
+		if (operator == null) {
+			return new PlanNode(ecl, nested.estimate, nested.exact, false, null, null, nested.disjuncts);
+		}
+		return PlanNode.of(ecl, UNKNOWN_ESTIMATE, false);
+	}
+
+	private PlanNode rewriteCompound(SCompoundExpressionConstraint constraint, PlanContext context) {
+		if (constraint.getConjunctionExpressionConstraints() != null) {
+			return rewriteConjunction(rewriteAll(constraint.getConjunctionExpressionConstraints(), context), context);
+		} else if (constraint.getDisjunctionExpressionConstraints() != null) {
+			return rewriteDisjunction(rewriteAll(constraint.getDisjunctionExpressionConstraints(), context), context);
+		} else {
+			PlanNode first = rewrite((SExpressionConstraint) constraint.getExclusionExpressionConstraints().getFirst(), context);
+			PlanNode second = rewrite((SExpressionConstraint) constraint.getExclusionExpressionConstraints().getSecond(), context);
+			if (first.isEmpty()) {
+				return first;
+			}
+			if (second.isEmpty()) {
+				context.rewrites.add(String.format("Dropped exclusion of \"%s\" which matches nothing.", second.ecl));
+				return first;
+			}
+			return PlanNode.of(bracket(first) + " MINUS " + bracket(second), first.estimate, true);
+		}
+	}
+
+	private List<PlanNode> rewriteAll(List<SubExpressionConstraint> constraints, PlanContext context) {
+		return constraints.stream().map(constraint -> rewrite((SExpressionConstraint) constraint, context)).collect(Collectors.toList());
+	}
+
+	private PlanNode rewriteConjunction(List<PlanNode> operands, PlanContext context) {
+		for (PlanNode operand : operands) {
+			if (operand.isEmpty()) {
+				context.rewrites.add(String.format("Conjunction operand \"%s\" matches nothing.", operand.ecl));
+				return operand;
+			}
+		}
+
+		// The narrower of two operands on the same concept is enough
+		List<PlanNode> remaining = new ArrayList<>();
+		for (int i = 0; i < operands.size(); i++) {
+			PlanNode operand = operands.get(i);
+			PlanNode narrower = null;
+			for (int j = 0; j < operands.size() && narrower == null; j++) {
+				PlanNode other = operands.get(j);
+				if (j != i && contains(operand, other) && (!contains(other, operand) || j < i)) {
+					narrower = other;
+				}
+			}
+			if (narrower != null) {
+				context.rewrites.add(String.format("Dropped \"%s\" from conjunction, implied by \"%s\".", operand.ecl, narrower.ecl));
+			} else {
+				remaining.add(operand);
+			}
+		}
+
+		// Most selective first, stable for equal estimates
+		List<PlanNode> ordered = new ArrayList<>(remaining);
+		ordered.sort(Comparator.comparingLong(PlanNode::estimate));
+		if (!ordered.equals(remaining)) {
+			context.rewrites.add(String.format("Ordered conjunction operands by estimated cardinality %s.",
+					ordered.stream().map(operand -> "\"" + operand.ecl + "\" ~" + operand.estimate).collect(Collectors.joining(", "))));
+		}
+		if (ordered.size() == 1) {
+			return ordered.get(0);
+		}
+
+		PlanNode disjunction = ordered.stream().filter(operand -> operand.disjuncts != null).findFirst().orElse(null);
+		if (disjunction != null && disjunction.disjuncts.size() <= MAX_DISTRIBUTED_DISJUNCTS) {
+			List<PlanNode> others = new ArrayList<>(ordered);
+			others.remove(disjunction);
+			long othersEstimate = others.get(0).estimate;
+			if (othersEstimate <= MAX_DISTRIBUTED_ESTIMATE) {
+				String othersEcl = others.stream().map(ECLQueryPlanner::bracket).collect(Collectors.joining(" AND "));
+				String ecl = disjunction.disjuncts.stream()
+						.map(disjunct -> "( " + othersEcl + " AND " + bracket(disjunct) + " )")
+						.collect(Collectors.joining(" OR "));
+				context.rewrites.add(String.format("Distributed \"%s\" over disjunction \"%s\".", othersEcl, disjunction.ecl));
+				return PlanNode.of(ecl, Math.min(othersEstimate, disjunction.estimate), true);
+			}
+		}
+		return PlanNode.of(ordered.stream().map(ECLQueryPlanner::bracket).collect(Collectors.joining(" AND ")), ordered.get(0).estimate, true);
+	}
+
+	private PlanNode rewriteDisjunction(List<PlanNode> operands, PlanContext context) {
+		List<PlanNode> nonEmpty = new ArrayList<>();
+		for (PlanNode operand : operands) {
+			if (operand.isEmpty()) {
+				context.rewrites.add(String.format("Dropped \"%s\" from disjunction, matches nothing.", operand.ecl));
+			} else {
+				nonEmpty.add(operand);
+			}
+		}
+		if (nonEmpty.isEmpty()) {
+			return operands.get(0);
+		}
+
+		// The wider of two operands on the same concept is enough
+		List<PlanNode> remaining = new ArrayList<>();
+		for (int i = 0; i < nonEmpty.size(); i++) {
+			PlanNode operand = nonEmpty.get(i);
+			PlanNode wider = null;
+			for (int j = 0; j < nonEmpty.size() && wider == null; j++) {
+				PlanNode other = nonEmpty.get(j);
+				if (j != i && contains(other, operand) && (!contains(operand, other) || j < i)) {
+					wider = other;
+				}
+			}
+			if (wider != null) {
+				context.rewrites.add(String.format("Dropped \"%s\" from disjunction, included in \"%s\".", operand.ecl, wider.ecl));
+			} else {
+				remaining.add(operand);
+			}
+		}
+		if (remaining.size() == 1) {
+			return remaining.get(0);
+		}
+		long estimate = remaining.stream().mapToLong(PlanNode::estimate).reduce(0, (a, b) -> Math.min(a + b, ALL_CONCEPTS_ESTIMATE));
+		String ecl = remaining.stream().map(ECLQueryPlanner::bracket).collect(Collectors.joining(" OR "));
+		return new PlanNode(ecl, estimate, false, true, null, null, remaining);
+	}
+
+	private PlanNode concept(Operator operator, String conceptId, PlanContext context) {
+		String ecl = (operator != null ? operator.getText() + " " : "") + conceptId;
+		if (operator != null && !HIERARCHY_OPERATORS.contains(operator)) {
+			return PlanNode.of(ecl, UNKNOWN_ESTIMATE, false);
+		}
+		HierarchyIndex index = context.hierarchyIndex;
+		if (index == null) {
+			return new PlanNode(ecl, roughEstimate(operator), false, false, operator, conceptId, null);
+		}
+		long id = parseLong(conceptId);
+		if (!index.contains(id)) {
+			return new PlanNode(ecl, 0, true, false, operator, conceptId, null);
+		}
+		Set<Long> focus = Collections.singleton(id);
+		long estimate = operator == null ? 0 : switch (operator) {
+			case childof, childorselfof -> index.getChildren(focus).size();
+			case descendantof, descendantorselfof -> index.getDescendants(focus).size();
+			case parentof, parentorselfof -> index.getParents(focus).size();
+			default -> index.getAncestors(focus).size();
+		};
+		if (operator == null || SELF_OPERATORS.contains(operator)) {
+			estimate++;
+		}
+		return new PlanNode(ecl, estimate, true, false, operator, conceptId, null);
+	}
+
+	private static long roughEstimate(Operator operator) {
+		if (operator == null) {
+			return SELF_ESTIMATE;
+		}
+		return switch (operator) {
+			case parentof -> PARENTS_ESTIMATE;
+			case parentorselfof -> PARENTS_ESTIMATE + 1;
+			case ancestorof -> ANCESTORS_ESTIMATE;
+			case ancestororselfof -> ANCESTORS_ESTIMATE + 1;
+			case childof -> CHILDREN_ESTIMATE;
+			case childorselfof -> CHILDREN_ESTIMATE + 1;
+			case descendantof -> DESCENDANTS_ESTIMATE;
+			case descendantorselfof -> DESCENDANTS_ESTIMATE + 1;
+			default -> UNKNOWN_ESTIMATE;
+		};
+	}
+
+	/**
+	 * @return the single operator equivalent to applying outer to the result of inner, or null if there is none.
+	 */
+	private static Operator combineOperators(Operator outer, Operator inner) {
+		if (inner == null) {
+			return outer;
+		}
+		if ((DESCENDANT_OPERATORS.contains(outer) && DESCENDANT_OPERATORS.contains(inner))
+				|| (ANCESTOR_OPERATORS.contains(outer) && ANCESTOR_OPERATORS.contains(inner))) {
+			// "<< (< x)" and "< (<< x)" are both "< x", but "< (< x)" skips the direct children so can not be collapsed
+			if (SELF_OPERATORS.contains(outer)) {
+				return inner;
+			} else if (SELF_OPERATORS.contains(inner)) {
+				return outer;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return true if every concept matched by b is also matched by a, both being a hierarchy operator on the same single concept.
+	 */
+	private static boolean contains(PlanNode a, PlanNode b) {
+		if (a.conceptId == null || !a.conceptId.equals(b.conceptId)) {
+			return false;
+		}
+		if (a.operator == b.operator) {
+			return true;
+		}
+		if (a.operator == null) {
+			return false;
+		}
+		Operator bOperator = b.operator;
+		return switch (a.operator) {
+			case descendantorselfof -> bOperator == null || bOperator == Operator.descendantof || bOperator == Operator.childof || bOperator == Operator.childorselfof;
+			case descendantof -> bOperator == Operator.childof;
+			case childorselfof -> bOperator == null || bOperator == Operator.childof;
+			case ancestororselfof -> bOperator == null || bOperator == Operator.ancestorof || bOperator == Operator.parentof || bOperator == Operator.parentorselfof;
+			case ancestorof -> bOperator == Operator.parentof;
+			case parentorselfof -> bOperator == null || bOperator == Operator.parentof;
+			default -> false;
+		};
+	}
+
+	private static String bracket(PlanNode node) {
+		// Compound expressions must be bracketed when used as an operand
+		return node.compound ? "( " + node.ecl + " )" : node.ecl;
+	}
+
+	private static final class PlanContext {
+
+		private final HierarchyIndex hierarchyIndex;
+		private final List<String> rewrites = new ArrayList<>();
+
+		private PlanContext(HierarchyIndex hierarchyIndex) {
+			this.hierarchyIndex = hierarchyIndex;
+		}
+	}
+
+	/**
+	 * An expression after rewriting.
+	 * @param exact whether the estimate is an exact count
+	 * @param compound whether the expression must be bracketed to be used as an operand
+	 * @param operator operator applied to a single concept, set along with conceptId
+	 * @param conceptId the single concept of a simple hierarchy expression, null for other expressions
+	 * @param disjuncts operands of a disjunction, null for other expressions
+	 */
+	private record PlanNode(String ecl, long estimate, boolean exact, boolean compound, Operator operator, String conceptId, List<PlanNode> disjuncts) {
+
+		private static PlanNode of(String ecl, long estimate, boolean compound) {
+			return new PlanNode(ecl, estimate, false, compound, null, null, null);
+		}
+
+		private boolean isEmpty() {
+			return exact && estimate == 0;
+		}
+	}
+}
@@ -1,9 +1,12 @@
 package org.snomed.snowstorm.fhir.services;
 
 import co.elastic.clients.elasticsearch._types.query_dsl.BoolQuery;
+import io.kaicode.elasticvc.api.BranchCriteria;
 import io.kaicode.elasticvc.api.VersionControlHelper;
 
 import org.snomed.snowstorm.core.data.domain.QueryConcept;
+import org.snomed.snowstorm.core.data.services.HierarchyIndexService;
+import org.snomed.snowstorm.core.data.services.transitiveclosure.HierarchyIndex;
 import org.snomed.snowstorm.fhir.domain.FHIRCodeSystemVersion;
 import org.snomed.snowstorm.fhir.domain.FHIRConcept;
 import org.snomed.snowstorm.fhir.domain.FHIRGraphNode;
@@ -15,6 +18,7 @@ import org.springframework.data.elasticsearch.client.elc.NativeQueryBuilder;
 import org.springframework.stereotype.Service;
 
 import java.util.List;
+import java.util.Optional;
 import java.util.stream.Collectors;
 
 import static co.elastic.clients.elasticsearch._types.query_dsl.QueryBuilders.bool;
@@ -35,10 +39,20 @@ public class FHIRGraphService {
 	@Autowired
 	private ElasticsearchOperations elasticsearchOperations;
 
+	@Autowired
+	private HierarchyIndexService hierarchyIndexService;
+
 	/**
 	 * Returns true if codeA is an ancestor of codeB
 	 */
 	public boolean subsumes(String codeA, String codeB, FHIRCodeSystemVersion codeSystemVersion) {
+		if (codeSystemVersion.isSnomed() && codeA.matches("\\d{1,18}") && codeB.matches("\\d{1,18}")) {
+			BranchCriteria branchCriteria = snomedVersionControlHelper.getBranchCriteria(codeSystemVersion.getSnomedBranch());
+			Optional<HierarchyIndex> hierarchyIndex = hierarchyIndexService.getIndex(branchCriteria, false);
+			if (hierarchyIndex.isPresent()) {
+				return hierarchyIndex.get().isAncestor(Long.parseLong(codeA), Long.parseLong(codeB));
+			}
+		}
 		GraphCriteria graphCriteria = getGraphCriteria(codeSystemVersion, PageRequest.of(0, 1));
 		graphCriteria.criteria()
 				.must(termQuery(graphCriteria.getCodeField(), codeB))
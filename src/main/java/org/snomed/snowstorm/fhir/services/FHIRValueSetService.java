@@ -268,7 +268,7 @@ public class FHIRValueSetService {
 
 			List<FHIRConcept> conceptsOnRequestedPage = new ArrayList<>();
 			if (!conceptsToLoad.isEmpty()) {
-				Map<String, ConceptMini> conceptMinis = snomedConceptService.findConceptMinis(codeSystemVersion.getSnomedBranch(), conceptsToLoad, languageDialects).getResultsMap();
+				Map<String, ConceptMini> conceptMinis = snomedConceptService.findCachedConceptMinis(codeSystemVersion.getSnomedBranch(), conceptsToLoad, languageDialects).getResultsMap();
 				for (Long conceptToLoad : conceptsToLoad) {
 					ConceptMini snomedConceptMini = conceptMinis.get(conceptToLoad.toString());
 					if (snomedConceptMini != null) {
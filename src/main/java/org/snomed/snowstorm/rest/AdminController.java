@@ -3,6 +3,7 @@ package org.snomed.snowstorm.rest;
 import io.kaicode.rest.util.branchpathrewrite.BranchPathUriUtil;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import org.snomed.snowstorm.core.data.domain.SemanticIndexRebuildJob;
 import org.snomed.snowstorm.core.data.services.*;
 import org.snomed.snowstorm.core.data.services.traceability.TraceabilityLogBackfiller;
 import org.snomed.snowstorm.ecl.BranchVersionECLCache;
@@ -15,6 +16,7 @@ import org.snomed.snowstorm.mrcm.MRCMUpdateService;
 import org.snomed.snowstorm.rest.pojo.ResponseMessage;
 import org.snomed.snowstorm.rest.pojo.UpdatedDocumentCount;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.access.prepost.PostAuthorize;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
@@ -58,6 +60,18 @@ public class AdminController {
 	@Autowired
 	private ECLQueryService eclQueryService;
 
+	@Autowired
+	private QueryService queryService;
+
+	@Autowired
+	private SemanticIndexRebuildJobService semanticIndexRebuildJobService;
+
+	@Autowired
+	private DescriptionService descriptionService;
+
+	@Autowired
+	private ConceptService conceptService;
+
 	@Operation(summary = "Rebuild the description index.",
 			description = "Use this if the search configuration for international character handling of a language has been " +
 					"set or updated after importing content of that language. " +
@@ -94,6 +108,26 @@ public class AdminController {
 		return new UpdatedDocumentCount(updateCount);
 	}
 
+	@Operation(summary = "Rebuild the semantic index of the branch as a resumable job.",
+			description = """
+                    Performs a complete rebuild of the semantic index, saving the changes in a series of commits with progress recorded after each one.\s
+                    If the last rebuild job on the branch did not complete it is resumed from the last commit rather than started again.\s
+                    Only branches which have a complete semantic index of their own, such as 'MAIN', can be rebuilt this way.\s
+                    The status of the job can be checked using the semantic-index-rebuild-jobs endpoint.""")
+	@PostMapping(value = "/{branch}/actions/rebuild-semantic-index-job")
+	@PreAuthorize("hasPermission('ADMIN', #branch)")
+	public SemanticIndexRebuildJob startSemanticIndexRebuildJob(@PathVariable String branch) {
+		return semanticIndexRebuildJobService.startOrResume(BranchPathUriUtil.decodePath(branch));
+	}
+
+	@Operation(summary = "Retrieve the status of a semantic index rebuild job.",
+			description = "Includes the number of concepts processed per second and the estimated number of seconds remaining while the job is running.")
+	@GetMapping(value = "/semantic-index-rebuild-jobs/{id}")
+	@PostAuthorize("hasPermission('ADMIN', returnObject.branchPath)")
+	public SemanticIndexRebuildJob getSemanticIndexRebuildJob(@PathVariable String id) {
+		return semanticIndexRebuildJobService.getJobOrThrow(id);
+	}
+
 	@Operation(summary = "Force update of definition statuses of all concepts based on axioms.",
 			description = "You are unlikely to need this action. " +
 					"If something has wrong with processing content updates on the branch the definition statuses " +
@@ -284,6 +318,46 @@ public class AdminController {
 		return stats;
 	}
 
+	@GetMapping(value = "/cache/ecl/stats/summary")
+	@PreAuthorize("hasPermission('ADMIN', 'global')")
+	public Map<String, Long> getECLCacheSummaryStats() {
+		return eclQueryService.getResultsCache().getStats();
+	}
+
+	@GetMapping(value = "/cache/description-aggregation/stats")
+	@PreAuthorize("hasPermission('ADMIN', 'global')")
+	public Map<String, Long> getDescriptionAggregationCacheStats() {
+		return descriptionService.getAggregationCacheStats();
+	}
+
+	@PostMapping(value = "/cache/description-aggregation/clear")
+	@PreAuthorize("hasPermission('ADMIN', 'global')")
+	public void clearDescriptionAggregationCache() {
+		descriptionService.clearAggregationCache();
+	}
+
+	@GetMapping(value = "/cache/concept-mini/stats")
+	@PreAuthorize("hasPermission('ADMIN', 'global')")
+	public Map<String, Long> getConceptMiniCacheStats() {
+		return conceptService.getConceptMiniCacheStats();
+	}
+
+	@PostMapping(value = "/cache/concept-mini/clear")
+	@PreAuthorize("hasPermission('ADMIN', 'global')")
+	public void clearConceptMiniCache() {
+		conceptService.clearConceptMiniCache();
+	}
+
+	@Operation(summary = "Counts of concurrent identical requests which waited for an in-flight request rather than running the same query.")
+	@GetMapping(value = "/cache/coalescing/stats")
+	@PreAuthorize("hasPermission('ADMIN', 'global')")
+	public Map<String, Map<String, Long>> getCoalescingStats() {
+		Map<String, Map<String, Long>> stats = new LinkedHashMap<>();
+		stats.put("ecl", eclQueryService.getCoalescingStats());
+		stats.put("concept-search", queryService.getCoalescingStats());
+		return stats;
+	}
+
 	@PostMapping(value = "/cache/ecl/clear")
 	@PreAuthorize("hasPermission('ADMIN', 'global')")
 	public void clearEclCache() {
@@ -23,6 +23,7 @@ import org.snomed.snowstorm.core.util.SearchAfterPage;
 import org.snomed.snowstorm.core.util.SearchAfterPageImpl;
 import org.snomed.snowstorm.core.util.TimerUtil;
 import org.snomed.snowstorm.ecl.ECLQueryService;
+import org.snomed.snowstorm.ecl.planner.ECLQueryPlan;
 import org.snomed.snowstorm.ecl.validation.ECLValidator;
 import org.snomed.snowstorm.rest.converter.SearchAfterHelper;
 import org.snomed.snowstorm.rest.pojo.*;
@@ -145,6 +146,10 @@ public class ConceptController {
 			@RequestParam(required = false) Set<String> conceptIds,
 			@RequestParam(required = false) boolean returnIdOnly,
 
+			@Parameter(description = "Include the plan used to run the ECL, with estimated and actual result counts and timings of each step. " +
+					"The ECL is run a second time, without the cache, to collect timings.")
+			@RequestParam(required = false) boolean explain,
+
 			@RequestParam(required = false, defaultValue = "0") int offset,
 			@RequestParam(required = false, defaultValue = "50") int limit,
 			@RequestParam(required = false) String searchAfter,
@@ -199,7 +204,7 @@ public class ConceptController {
 			SearchAfterPage<Long> longsPage = queryService.searchForIds(queryBuilder, branch, pageRequest);
 			SearchAfterPageImpl<String> stringPage = new SearchAfterPageImpl<>(longsPage.stream().map(Object::toString).collect(Collectors.toList()),
 					longsPage.getPageable(), longsPage.getTotalElements(), longsPage.getSearchAfter());
-			ItemsPage<String> resultsPage = new ItemsPage<>(stringPage);
+			ItemsPage<String> resultsPage = explain && ecl != null ? new ECLExplainItemsPage<>(stringPage, explainEcl(ecl, branch, stated)) : new ItemsPage<>(stringPage);
 			return new HttpEntity<>(resultsPage, SearchAfterHelper.getSearchAfterHeader(longsPage.getSearchAfter()));
 		} else {
 			Page<ConceptMini> conceptMinis = queryService.search(queryBuilder, branch, pageRequest);
@@ -211,10 +216,15 @@ public class ConceptController {
 			if (Boolean.TRUE.equals(includeLeafFlag)) {
 				queryService.joinIsLeafFlag(conceptMinis.getContent(), form, branchCriteria, branch);
 			}			
-			return new HttpEntity<>(new ItemsPage<>(conceptMinis), headers);
+			ItemsPage<ConceptMini> resultsPage = explain && ecl != null ? new ECLExplainItemsPage<>(conceptMinis, explainEcl(ecl, branch, stated)) : new ItemsPage<>(conceptMinis);
+			return new HttpEntity<>(resultsPage, headers);
 		}
 	}
 
+	private ECLQueryPlan explainEcl(String ecl, String branch, boolean stated) {
+		return eclQueryService.explain(ecl, versionControlHelper.getBranchCriteria(branch), stated);
+	}
+
 	@GetMapping(value = "/{branch}/concepts/{conceptId}", produces = {"application/json", "text/csv"})
 	public ConceptMini findConcept(
 			@PathVariable String branch,
@@ -287,6 +297,7 @@ public class ConceptController {
 				searchRequest.getForm(),				
 				searchRequest.getConceptIds(),
 				searchRequest.isReturnIdOnly(),
+				searchRequest.isExplain(),
 				searchRequest.getOffset(),
 				searchRequest.getLimit(),
 				searchRequest.getSearchAfter(),
@@ -643,13 +654,29 @@ public class ConceptController {
 
 		branch = BranchPathUriUtil.decodePath(branch);	
 
-		Map<String, ConceptMini> conceptMiniMap = conceptService.findConceptMinis(branch, conceptIds, ControllerHelper.parseAcceptLanguageHeaderWithDefaultFallback(acceptLanguageHeader)).getResultsMap();
+		List<LanguageDialect> languageDialects = ControllerHelper.parseAcceptLanguageHeaderWithDefaultFallback(acceptLanguageHeader);
+		BranchCriteria branchCriteria = versionControlHelper.getBranchCriteria(branch);
+		// Descriptions are returned in full
+		Map<String, ConceptMini> conceptMiniMap = conceptService.findConceptMinisWithFullDescriptions(branchCriteria, conceptIds, languageDialects).getResultsMap();
 
 		// For each concept, lookup a single ancestor-path from it to the top-level concept, and add the path to the result output.
+		// The paths are found together, then the concepts on all paths are loaded at once.
+		Map<Long, List<Long>> ancestorIdPaths = queryService.findAncestorPaths(branchCriteria, form == Relationship.CharacteristicType.stated,
+				conceptMiniMap.keySet().stream().map(Long::parseLong).toList());
+		Set<Long> pathConceptIds = ancestorIdPaths.values().stream().flatMap(List::stream).collect(Collectors.toSet());
+		Map<String, ConceptMini> pathConceptMiniMap = conceptService.findConceptMinisWithFullDescriptions(branchCriteria, pathConceptIds, languageDialects).getResultsMap();
+		pathConceptMiniMap.values().forEach(conceptMini -> conceptMini.addExtraField("descriptions", conceptMini.getActiveDescriptions()));
+
 		Collection<ConceptMini> conceptsWithAncestorPaths = new ArrayList<>();
 
 		for(final String conceptId : conceptMiniMap.keySet()) {
-			ArrayList<ConceptMini> ancestorPath = ancestorPathHelper(branch, form, conceptId, new ArrayList(), acceptLanguageHeader);
+			ArrayList<ConceptMini> ancestorPath = new ArrayList<>();
+			for (Long ancestorId : ancestorIdPaths.getOrDefault(Long.parseLong(conceptId), Collections.emptyList())) {
+				ConceptMini ancestor = pathConceptMiniMap.get(ancestorId.toString());
+				if (ancestor != null) {
+					ancestorPath.add(ancestor);
+				}
+			}
 			conceptMiniMap.get(conceptId).addExtraField("descriptions", conceptMiniMap.get(conceptId).getActiveDescriptions());
 			conceptMiniMap.get(conceptId).addExtraField("ancestorPath", ancestorPath);
 			conceptsWithAncestorPaths.add(conceptMiniMap.get(conceptId));
@@ -658,20 +685,6 @@ public class ConceptController {
 		return conceptsWithAncestorPaths;
 	}	
 
-	private ArrayList<ConceptMini> ancestorPathHelper(String branch, Relationship.CharacteristicType form, String conceptId, ArrayList<ConceptMini> pathSoFar, String acceptLanguageHeader) throws ServiceException {
-		Collection<ConceptMini> conceptParents = findConceptParents(branch, conceptId, form, false, acceptLanguageHeader);
-
-		if(conceptParents.isEmpty()) {
-			return pathSoFar;
-		}
-		else {
-			ConceptMini conceptParent = conceptParents.iterator().next();
-			conceptParent.addExtraField("descriptions", conceptParent.getActiveDescriptions());
-			pathSoFar.add(conceptParent);
-			return ancestorPathHelper(branch, form, conceptParent.getConceptId(), pathSoFar, acceptLanguageHeader);
-		}
-	}
-
 	@GetMapping(value = "/{branch}/concepts/{conceptId}/authoring-form")
 	public Expression getConceptAuthoringForm(
 			@PathVariable String branch,
@@ -123,6 +123,7 @@ public class DescriptionController {
 		page.getContent().forEach(d -> results.add(new BrowserDescriptionSearchResult(d.getTerm(), d.isActive(), d.getLanguageCode(), d.getModuleId(), conceptMinis.get(d.getConceptId()))));
 
 		PageWithBucketAggregations<BrowserDescriptionSearchResult> pageWithBucketAggregations = new PageWithBucketAggregations<>(results, page.getPageable(), page.getTotalElements(), page.getBuckets());
+		pageWithBucketAggregations.setIncompleteBuckets(page.getIncompleteBuckets());
 		addBucketConcepts(branch, languageDialects, pageWithBucketAggregations);
 		addLanguageNames(pageWithBucketAggregations);
 		return pageWithBucketAggregations;
@@ -2,6 +2,7 @@ package org.snomed.snowstorm.rest;
 
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.servlet.http.HttpServletRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.snomed.snowstorm.core.data.services.NotFoundException;
@@ -150,6 +151,18 @@ public class ImportController {
 		}
 	}
 
+	@Operation(summary = "Stream SNOMED CT release archive.",
+			description = "Sends a SNOMED CT RF2 release archive as the raw request body for an import job, rather than as a multipart file upload. " +
+					"The archive is imported as it is received without being written to a temp file first. " +
+					"The import job must already exist and have a status of WAITING_FOR_FILE. " +
+					"The call returns once the whole archive has been received, the import continues in the background. " +
+					"Retrieve the import to check the bytes read, rows loaded and the status until it is COMPLETED or FAILED.")
+	@PostMapping(value = "/{importId}/archive-stream", consumes = {"application/zip", "application/octet-stream"})
+	public void streamImportRf2Archive(@PathVariable String importId, HttpServletRequest request) throws IOException {
+		ImportJob importJob = importService.getImportJobOrThrow(importId);
+		importService.importArchiveStream(importId, importJob.getBranchPath(), request.getInputStream());
+	}
+
 	private Path createTempFile(String importId) throws IOException {
 		return Files.createTempFile(importId, "-import.zip");
 	}
@@ -0,0 +1,24 @@
+package org.snomed.snowstorm.rest.pojo;
+
+import com.fasterxml.jackson.annotation.JsonView;
+import org.snomed.snowstorm.ecl.planner.ECLQueryPlan;
+import org.snomed.snowstorm.rest.View;
+import org.springframework.data.domain.Page;
+
+/**
+ * Page of results with the plan used to run the ECL query.
+ */
+public class ECLExplainItemsPage<T> extends ItemsPage<T> {
+
+	private final ECLQueryPlan eclPlan;
+
+	public ECLExplainItemsPage(Page<T> page, ECLQueryPlan eclPlan) {
+		super(page);
+		this.eclPlan = eclPlan;
+	}
+
+	@JsonView(View.Component.class)
+	public ECLQueryPlan getEclPlan() {
+		return eclPlan;
+	}
+}
@@ -0,0 +1,73 @@
+package org.snomed.snowstorm.core.data.domain;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SemanticIndexRebuildJobTest {
+
+	@Test
+	void checkpoints() {
+		SemanticIndexRebuildJob job = new SemanticIndexRebuildJob("MAIN");
+		assertEquals(JobStatus.SCHEDULED, job.getStatus());
+		assertFalse(job.isFormComplete(Form.STATED));
+		assertNull(job.getCheckpointConceptId(Form.STATED));
+
+		job.startRun();
+		job.setConceptsTotal(400);
+		job.checkpoint(Form.STATED, 1000L, 100, 90);
+		assertEquals(1000L, job.getCheckpointConceptId(Form.STATED));
+		assertNull(job.getCheckpointConceptId(Form.INFERRED));
+		assertFalse(job.isFormComplete(Form.STATED));
+
+		job.checkpoint(Form.STATED, Long.MAX_VALUE, 100, 100);
+		assertTrue(job.isFormComplete(Form.STATED));
+		assertFalse(job.isFormComplete(Form.INFERRED));
+
+		// Stated form is done first
+		job.checkpoint(Form.INFERRED, 2000L, 100, 0);
+		assertTrue(job.isFormComplete(Form.STATED));
+		assertFalse(job.isFormComplete(Form.INFERRED));
+		assertEquals(300, job.getConceptsProcessed());
+		assertEquals(190, job.getConceptsSaved());
+	}
+
+	@Test
+	void restart() {
+		SemanticIndexRebuildJob job = new SemanticIndexRebuildJob("MAIN");
+		job.startRun();
+		job.setConceptsTotal(400);
+		job.checkpoint(Form.STATED, Long.MAX_VALUE, 200, 200);
+		job.checkpoint(Form.INFERRED, 1000L, 100, 100);
+
+		job.restart();
+		assertFalse(job.isFormComplete(Form.STATED));
+		assertNull(job.getCheckpointConceptId(Form.INFERRED));
+		assertEquals(0, job.getConceptsProcessed());
+		assertEquals(0, job.getConceptsTotal());
+	}
+
+	@Test
+	void throughputOfCurrentRun() throws InterruptedException {
+		SemanticIndexRebuildJob job = new SemanticIndexRebuildJob("MAIN");
+		job.startRun();
+		job.checkpoint(Form.STATED, 1000L, 100, 100);
+		job.setStatus(JobStatus.FAILED);
+		assertNull(job.getConceptsPerSecond());
+		assertNull(job.getEstimatedSecondsRemaining());
+
+		// Resumed, progress of the previous run is kept but not counted in the rate
+		job.startRun();
+		assertEquals(JobStatus.IN_PROGRESS, job.getStatus());
+		assertEquals(100, job.getConceptsProcessed());
+		assertEquals(0, job.getRunConceptsProcessed());
+		job.setConceptsTotal(300);
+		Thread.sleep(20);
+		job.checkpoint(Form.STATED, 2000L, 100, 100);
+
+		Double conceptsPerSecond = job.getConceptsPerSecond();
+		assertNotNull(conceptsPerSecond);
+		assertTrue(conceptsPerSecond > 0 && conceptsPerSecond <= 5000, conceptsPerSecond.toString());
+		assertEquals(Math.round(100 / conceptsPerSecond), job.getEstimatedSecondsRemaining());
+	}
+}
@@ -0,0 +1,59 @@
+package org.snomed.snowstorm.core.data.services;
+
+import org.junit.jupiter.api.Test;
+import org.snomed.snowstorm.core.data.domain.ConceptMini;
+import org.snomed.snowstorm.core.pojo.LanguageDialect;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConceptMiniCacheTest {
+
+	private static final List<LanguageDialect> EN = List.of(new LanguageDialect("en"));
+	private static final List<LanguageDialect> DA = List.of(new LanguageDialect("da"), new LanguageDialect("en"));
+
+	@Test
+	void testBulkGetAndPut() {
+		ConceptMiniCache cache = new ConceptMiniCache(3);
+		cache.putAll("MAIN", 1000, List.of(new ConceptMini("100", EN), new ConceptMini("200", EN)), EN);
+		cache.putAll("MAIN", 1000, List.of(new ConceptMini("100", DA)), DA);
+
+		Map<String, ConceptMini> found = cache.getAll("MAIN", 1000, Set.of("100", "200", "300"), List.of(new LanguageDialect("en")));
+		assertEquals(Set.of("100", "200"), found.keySet());
+		assertEquals(Set.of("100"), cache.getAll("MAIN", 1000, Set.of("100", "200"), DA).keySet());
+		assertTrue(cache.getAll("MAIN", 2000, Set.of("100"), EN).isEmpty());
+
+		// Changes made by callers are not seen by others
+		found.get("100").setDescendantCount(5L);
+		assertNull(cache.getAll("MAIN", 1000, Set.of("100"), EN).get("100").getDescendantCount());
+
+		// Over the limit, least recently used entry evicted
+		cache.putAll("MAIN", 1000, List.of(new ConceptMini("300", EN)), EN);
+		assertTrue(cache.getAll("MAIN", 1000, Set.of("200"), EN).isEmpty());
+		assertEquals(1, cache.getStats().get("evictions"));
+	}
+
+	@Test
+	void testBranchHeadMoved() {
+		ConceptMiniCache cache = new ConceptMiniCache(100);
+		cache.putAll("MAIN", 1000, List.of(new ConceptMini("100", EN)), EN);
+		cache.putAll("MAIN/A", 1000, List.of(new ConceptMini("100", EN)), EN);
+
+		// Commit on MAIN
+		cache.branchHeadMoved("MAIN", 2000);
+		assertEquals(1, cache.getStats().get("size"));
+		assertEquals(Set.of("100"), cache.getAll("MAIN/A", 1000, Set.of("100"), EN).keySet());
+
+		// Minis loaded from the old head are not stored
+		cache.putAll("MAIN", 1000, List.of(new ConceptMini("100", EN)), EN);
+		assertTrue(cache.getAll("MAIN", 1000, Set.of("100"), EN).isEmpty());
+
+		// Minis of a newer head replace those of the old head
+		cache.putAll("MAIN/A", 3000, List.of(new ConceptMini("200", EN)), EN);
+		assertTrue(cache.getAll("MAIN/A", 1000, Set.of("100"), EN).isEmpty());
+		assertEquals(1, cache.getStats().get("size"));
+	}
+}
@@ -6,8 +6,10 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import io.kaicode.elasticvc.api.BranchCriteria;
 import io.kaicode.elasticvc.api.BranchService;
 import io.kaicode.elasticvc.api.ComponentService;
+import io.kaicode.elasticvc.api.VersionControlHelper;
 import io.kaicode.elasticvc.domain.Branch;
 import io.kaicode.elasticvc.domain.Commit;
 import org.junit.jupiter.api.BeforeEach;
@@ -79,6 +81,9 @@ class ConceptServiceTest extends AbstractTest {
 	@Autowired
 	private ECLQueryService eclQueryService;
 
+	@Autowired
+	private VersionControlHelper versionControlHelper;
+
 	private ServiceTestUtil testUtil;
 
 	private final Logger logger = LoggerFactory.getLogger(getClass());
@@ -170,6 +175,33 @@ class ConceptServiceTest extends AbstractTest {
 		assertEquals(0, acceptabilityMembersAfterDescriptionDeletion.size());
 	}
 
+	@Test
+	void testConceptMiniTermsIgnoreInactiveLangMembers() throws ServiceException {
+		Description heart = new Description("Heart").addLanguageRefsetMember(US_EN_LANG_REFSET, PREFERRED);
+		Description cardiac = new Description("Cardiac").addLanguageRefsetMember(GB_EN_LANG_REFSET, PREFERRED);
+		conceptService.create(new Concept("100001")
+				.addDescription(fsn("Heart structure (body structure)").addLanguageRefsetMember(GB_EN_LANG_REFSET, PREFERRED))
+				.addDescription(heart)
+				.addDescription(cardiac), "MAIN");
+
+		// Cardiac was once preferred in the US
+		ReferenceSetMember inactiveMember = new ReferenceSetMember(CORE_MODULE, US_EN_LANG_REFSET, cardiac.getDescriptionId());
+		inactiveMember.setActive(false);
+		inactiveMember.setConceptId("100001");
+		inactiveMember.setAdditionalField(ReferenceSetMember.LanguageFields.ACCEPTABILITY_ID, PREFERRED);
+		referenceSetMemberService.createMember("MAIN", inactiveMember);
+
+		BranchCriteria branchCriteria = versionControlHelper.getBranchCriteria("MAIN");
+		ConceptMini mini = conceptService.findConceptMinis(branchCriteria, List.of("100001"), DEFAULT_LANGUAGE_DIALECTS).getResultsMap().get("100001");
+		ConceptMini miniWithFullDescriptions = conceptService.findConceptMinisWithFullDescriptions(branchCriteria, List.of("100001"), DEFAULT_LANGUAGE_DIALECTS)
+				.getResultsMap().get("100001");
+
+		assertEquals("Heart", mini.getPt().getTerm());
+		assertEquals("Heart structure (body structure)", mini.getFsn().getTerm());
+		assertEquals(miniWithFullDescriptions.getPt().getTerm(), mini.getPt().getTerm());
+		assertEquals(miniWithFullDescriptions.getFsn().getTerm(), mini.getFsn().getTerm());
+	}
+
 	@Test
 	void testDescriptionInactivation() throws ServiceException {
 		Concept concept = new Concept("10000123");
@@ -0,0 +1,64 @@
+package org.snomed.snowstorm.core.data.services;
+
+import org.junit.jupiter.api.Test;
+import org.snomed.snowstorm.core.data.services.pojo.DescriptionCriteria;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DescriptionAggregationCacheTest {
+
+	@Test
+	void testEvictionAndBranchHeads() {
+		DescriptionAggregationCache cache = new DescriptionAggregationCache(5, 10);
+		DescriptionCriteria pizza = new DescriptionCriteria().term("pizza");
+		DescriptionCriteria cheese = new DescriptionCriteria().term("cheese");
+
+		cache.put("MAIN", 1000, pizza, Map.of("module", Map.of("900000000000207008", 3L), "language", Map.of("en", 3L)));
+		cache.put("MAIN/A", 1000, pizza, Map.of("module", Map.of("900000000000207008", 1L)));
+		assertEquals(Map.of("en", 3L), cache.get("MAIN", 1000, new DescriptionCriteria().term("pizza")).get("language"));
+		assertNull(cache.get("MAIN", 1000, cheese));
+
+		// Over the limit, least recently used entry evicted
+		cache.put("MAIN/A", 1000, cheese, Map.of("module", Map.of("900000000000207008", 1L, "900000000000012004", 1L), "language", Map.of("en", 1L)));
+		assertNull(cache.get("MAIN/A", 1000, pizza));
+		assertNotNull(cache.get("MAIN", 1000, pizza));
+
+		// Results of the previous head are dropped when the branch moves on
+		cache.put("MAIN/A", 2000, pizza, Map.of());
+		assertNull(cache.get("MAIN/A", 1000, cheese));
+		assertNotNull(cache.get("MAIN/A", 2000, pizza));
+
+		// Results of an old head are not stored
+		cache.put("MAIN/A", 1000, cheese, Map.of());
+		assertNull(cache.get("MAIN/A", 1000, cheese));
+
+		Map<String, Long> stats = cache.getStats();
+		assertEquals(2, stats.get("size"));
+		assertEquals(3, stats.get("weight"));
+		assertEquals(1, stats.get("evictions"));
+		assertEquals(3, stats.get("hits"));
+		assertEquals(4, stats.get("misses"));
+	}
+
+	@Test
+	void testMostFrequentSearches() {
+		DescriptionAggregationCache cache = new DescriptionAggregationCache(100, 2);
+		for (int i = 0; i < 3; i++) {
+			cache.recordSearch(new DescriptionCriteria().term("pizza"));
+		}
+		cache.recordSearch(new DescriptionCriteria().term("cheese"));
+		cache.recordSearch(new DescriptionCriteria().term("cheese"));
+		cache.recordSearch(new DescriptionCriteria().term("tomato"));
+		cache.recordSearch(new DescriptionCriteria().term("basil"));
+
+		assertEquals(List.of("pizza", "cheese"), cache.getMostFrequentSearches(2).stream().map(DescriptionCriteria::getTerm).toList());
+
+		// Least frequent searches are forgotten to make room
+		cache.recordSearch(new DescriptionCriteria().term("olive"));
+		assertEquals(3, cache.getStats().get("tracked-searches"));
+		assertEquals("pizza", cache.getMostFrequentSearches(1).get(0).getTerm());
+	}
+}
@@ -1,7 +1,9 @@
 package org.snomed.snowstorm.core.data.services;
 
 import com.google.common.collect.Sets;
+import io.kaicode.elasticvc.api.BranchCriteria;
 import io.kaicode.elasticvc.api.BranchService;
+import io.kaicode.elasticvc.api.VersionControlHelper;
 import io.kaicode.elasticvc.domain.Commit;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -16,6 +18,8 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.util.AopTestUtils;
+import org.springframework.test.util.ReflectionTestUtils;
 
 import java.util.*;
 import java.util.stream.Collectors;
@@ -49,6 +53,15 @@ class DescriptionServiceTest extends AbstractTest {
 	@Autowired
 	private SearchLanguagesConfiguration searchLanguagesConfiguration;
 
+	@Autowired
+	private CodeSystemService codeSystemService;
+
+	@Autowired
+	private DescriptionTermIndexService descriptionTermIndexService;
+
+	@Autowired
+	private VersionControlHelper versionControlHelper;
+
 	private ServiceTestUtil testUtil;
 
 	@BeforeEach
@@ -264,6 +277,103 @@ class DescriptionServiceTest extends AbstractTest {
 		assertEquals("{723592007=1}", getAggregationString("membership", soPizzaAggs));
 	}
 
+	@Test
+	void testDescriptionSearchAggregationsWithTimeout() throws ServiceException {
+		String path = "MAIN";
+		Concept root = new Concept(SNOMEDCT_ROOT);
+		Concept pizza_2 = new Concept("100002").addRelationship(new Relationship(ISA, SNOMEDCT_ROOT)).addFSN("Food (food)");
+		Concept cheesePizza_3 = new Concept("100003").addRelationship(new Relationship(ISA, pizza_2.getId())).addFSN("Cheese Pizza (pizza)");
+		Concept reallyCheesyPizza_4 = new Concept("100004").addRelationship(new Relationship(ISA, cheesePizza_3.getId())).addFSN("Really Cheesy Pizza (pizza)");
+		List<Concept> concepts = newArrayList(root, pizza_2, cheesePizza_3, reallyCheesyPizza_4);
+		setModulesAndLanguage(concepts);
+		conceptService.batchCreate(concepts, path);
+		referenceSetMemberService.createMembers(path, Sets.newHashSet(
+				new ReferenceSetMember(Concepts.CORE_MODULE, Concepts.REFSET_MRCM_DOMAIN, "100003")
+		));
+
+		// Tests wait for all aggregations by default, use a timeout as the default config does
+		DescriptionService service = AopTestUtils.getTargetObject(descriptionService);
+		Object testTimeout = ReflectionTestUtils.getField(service, "aggregationTimeout");
+		try {
+			ReflectionTestUtils.setField(service, "aggregationTimeout", 10_000L);
+			descriptionService.clearAggregationCache();
+			PageWithBucketAggregations<Description> page = descriptionService.findDescriptionsWithAggregations(path, "pizza", PageRequest.of(0, 10));
+			assertEquals(2, page.getTotalElements());
+			assertNull(page.getIncompleteBuckets());
+			assertEquals("{pizza=2}", getAggregationString("semanticTags", page.getBuckets()));
+			assertEquals("{723589008=1}", getAggregationString("membership", page.getBuckets()));
+			assertEquals("{900000000000207008=2}", getAggregationString("module", page.getBuckets()));
+
+			// With a very short timeout any aggregation left out is named in the page
+			ReflectionTestUtils.setField(service, "aggregationTimeout", 1L);
+			descriptionService.clearAggregationCache();
+			page = descriptionService.findDescriptionsWithAggregations(path, "pizza", PageRequest.of(0, 10));
+			assertEquals(2, page.getTotalElements());
+			assertEquals("{900000000000207008=2}", getAggregationString("module", page.getBuckets()));
+			List<String> incompleteBuckets = page.getIncompleteBuckets() != null ? page.getIncompleteBuckets() : Collections.emptyList();
+			for (String name : List.of("semanticTags", "membership")) {
+				assertNotEquals(page.getBuckets().containsKey(name), incompleteBuckets.contains(name), name);
+			}
+		} finally {
+			ReflectionTestUtils.setField(service, "aggregationTimeout", testTimeout);
+			descriptionService.clearAggregationCache();
+		}
+	}
+
+	@Test
+	void testDescriptionSearchSameOrderFromTermIndex() throws ServiceException, InterruptedException {
+		testUtil.createConceptWithPathIdAndTerms("MAIN", "100001", "Foot pain", "Foot sore");
+		testUtil.createConceptWithPathIdAndTerms("MAIN", "100002", "Foot bone", "Foot");
+		testUtil.createConceptWithPathIdAndTerms("MAIN", "100003", "Foot ache", "Footwear");
+		testUtil.createConceptWithPathIdAndTerms("MAIN", "100004", "Foot", "Foot skin");
+		testUtil.createConceptWithPathIdAndTerm("MAIN", "100005", "Heart");
+		CodeSystem codeSystem = new CodeSystem("SNOMEDCT", "MAIN");
+		codeSystemService.createCodeSystem(codeSystem);
+		codeSystemService.createVersion(codeSystem, 20200131, "");
+		String versionPath = "MAIN/2020-01-31";
+
+		List<DescriptionCriteria> searches = List.of(
+				new DescriptionCriteria().term("foo"),
+				new DescriptionCriteria().term("foot").active(true).groupByConcept(true));
+		List<PageRequest> pageRequests = List.of(ServiceTestUtil.PAGE_REQUEST, PageRequest.of(1, 3));
+
+		// Elasticsearch
+		List<List<String>> elasticsearchPages = new ArrayList<>();
+		for (DescriptionCriteria search : searches) {
+			for (PageRequest pageRequest : pageRequests) {
+				elasticsearchPages.add(findDescriptionIds(versionPath, search, pageRequest));
+			}
+		}
+		assertEquals(8, elasticsearchPages.get(0).size());
+
+		DescriptionTermIndexService termIndexService = AopTestUtils.getTargetObject(descriptionTermIndexService);
+		try {
+			ReflectionTestUtils.setField(termIndexService, "enabled", true);
+			BranchCriteria branchCriteria = versionControlHelper.getBranchCriteria(versionPath);
+			for (int i = 0; i < 100 && descriptionTermIndexService.getIndex(branchCriteria).isEmpty(); i++) {
+				Thread.sleep(100);
+			}
+			assertTrue(descriptionTermIndexService.getIndex(branchCriteria).isPresent(), "Term index should be built");
+
+			// Term index
+			List<List<String>> termIndexPages = new ArrayList<>();
+			for (DescriptionCriteria search : searches) {
+				for (PageRequest pageRequest : pageRequests) {
+					termIndexPages.add(findDescriptionIds(versionPath, search, pageRequest));
+				}
+			}
+			assertEquals(elasticsearchPages, termIndexPages);
+		} finally {
+			ReflectionTestUtils.setField(termIndexService, "enabled", false);
+			descriptionTermIndexService.clearCache();
+		}
+	}
+
+	private List<String> findDescriptionIds(String path, DescriptionCriteria criteria, PageRequest pageRequest) {
+		return descriptionService.findDescriptionsWithAggregations(path, criteria, pageRequest).getContent().stream()
+				.map(Description::getDescriptionId).collect(Collectors.toList());
+	}
+
 	@Test
 	void testDescriptionSearchGroupByConcept() throws ServiceException {
 		String path = "MAIN";
@@ -1,6 +1,7 @@
 package org.snomed.snowstorm.core.data.services;
 
 import com.google.common.collect.Lists;
+import io.kaicode.elasticvc.api.VersionControlHelper;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -19,6 +20,7 @@ import org.springframework.test.context.junit.jupiter.SpringExtension;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -33,6 +35,9 @@ class QueryServiceTest extends AbstractTest {
 	@Autowired
 	private QueryService service;
 
+	@Autowired
+	private VersionControlHelper versionControlHelper;
+
 	@Autowired
 	private ConceptService conceptService;
 	
@@ -111,6 +116,45 @@ class QueryServiceTest extends AbstractTest {
 		assertEquals("Really Cheesy Pizza", matches.get(1).getFsnTerm());
 	}
 
+	@Test
+	void testLexicalSearchWithSmallerEclResult() {
+		// Fewer ECL matches than descriptions matching the term, lexical matches are read in term order until the page is filled
+		QueryService.ConceptQueryBuilder queryBuilder = service.createQueryBuilder(false).ecl("<" + cheesePizza_3.getConceptId()).descriptionTerm("Pizza");
+
+		Page<ConceptMini> page = service.search(queryBuilder, PATH, PageRequest.of(0, 1));
+		assertEquals(1, page.getContent().size());
+		assertEquals("So Cheesy Pizza", page.getContent().get(0).getFsnTerm());
+		assertEquals(2, page.getTotalElements());
+
+		page = service.search(queryBuilder, PATH, PageRequest.of(1, 1));
+		assertEquals(1, page.getContent().size());
+		assertEquals("Really Cheesy Pizza", page.getContent().get(0).getFsnTerm());
+		assertEquals(2, page.getTotalElements());
+
+		ItemsPage<ConceptMini> firstPage = new ItemsPage<>(service.search(queryBuilder, PATH, PageRequest.of(0, 1)));
+		page = service.search(queryBuilder, PATH, SearchAfterPageRequest.of(firstPage.getSearchAfterArray(), 1, null));
+		assertEquals(1, page.getContent().size());
+		assertEquals("Really Cheesy Pizza", page.getContent().get(0).getFsnTerm());
+
+		assertEquals(0, service.search(queryBuilder, PATH, PageRequest.of(2, 1)).getContent().size());
+	}
+
+	@Test
+	void testFindAncestorPaths() throws ServiceException {
+		// Two parents, the path follows the one with the highest id
+		Concept twoParents = new Concept("100009")
+				.addRelationship(new Relationship(ISA, pizza_2.getId()))
+				.addRelationship(new Relationship(ISA, reallyCheesyPizza_4.getId()));
+		conceptService.create(twoParents, PATH);
+
+		Map<Long, List<Long>> ancestorPaths = service.findAncestorPaths(versionControlHelper.getBranchCriteria(PATH), false,
+				List.of(twoParents.getConceptIdAsLong(), reallyCheesyPizza_5.getConceptIdAsLong(), pizza_2.getConceptIdAsLong(), root.getConceptIdAsLong()));
+		assertEquals(List.of(100008L, 100005L, 100002L, parseLong(SNOMEDCT_ROOT)), ancestorPaths.get(twoParents.getConceptIdAsLong()));
+		assertEquals(List.of(100008L, 100005L, 100002L, parseLong(SNOMEDCT_ROOT)), ancestorPaths.get(reallyCheesyPizza_5.getConceptIdAsLong()));
+		assertEquals(List.of(parseLong(SNOMEDCT_ROOT)), ancestorPaths.get(pizza_2.getConceptIdAsLong()));
+		assertEquals(List.of(), ancestorPaths.get(root.getConceptIdAsLong()));
+	}
+
 	@Test
 	void testFindInactiveConcept() {
 		Set<String> inactiveConceptId = Collections.singleton(inactivePizza_6.getId());
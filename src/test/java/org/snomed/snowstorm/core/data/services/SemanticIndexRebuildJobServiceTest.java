@@ -0,0 +1,103 @@
+package org.snomed.snowstorm.core.data.services;
+
+import io.kaicode.elasticvc.api.BranchService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.snomed.snowstorm.AbstractTest;
+import org.snomed.snowstorm.TestConfig;
+import org.snomed.snowstorm.core.data.domain.*;
+import org.snomed.snowstorm.core.data.repositories.SemanticIndexRebuildJobRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.snomed.snowstorm.core.data.domain.Concepts.ISA;
+import static org.snomed.snowstorm.core.data.domain.Concepts.SNOMEDCT_ROOT;
+
+@ExtendWith(SpringExtension.class)
+@ContextConfiguration(classes = TestConfig.class)
+class SemanticIndexRebuildJobServiceTest extends AbstractTest {
+
+	@Autowired
+	private SemanticIndexRebuildJobService rebuildJobService;
+
+	@Autowired
+	private SemanticIndexRebuildJobRepository rebuildJobRepository;
+
+	@Autowired
+	private BranchService branchService;
+
+	@Autowired
+	private ConceptService conceptService;
+
+	@Test
+	void testResumeRestartsWhenBranchChangedBetweenChunks() throws ServiceException, InterruptedException {
+		createConcepts();
+
+		// A job which failed after saving the first chunk of the stated form
+		SemanticIndexRebuildJob interrupted = new SemanticIndexRebuildJob(MAIN);
+		interrupted.startRun();
+		interrupted.checkpoint(Form.STATED, 100002L, 2, 2);
+		interrupted.setBranchHeadTimestamp(branchService.findLatest(MAIN).getHeadTimestamp());
+		interrupted.setStatus(JobStatus.FAILED);
+		rebuildJobRepository.save(interrupted);
+
+		// Another commit before the next chunk
+		conceptService.create(new Concept("100004")
+				.addAxiom(new Relationship(ISA, "100003"))
+				.addRelationship(new Relationship(ISA, "100003")), MAIN);
+
+		SemanticIndexRebuildJob resumed = rebuildJobService.startOrResume(MAIN);
+		assertEquals(interrupted.getId(), resumed.getId());
+		resumed = waitForJob(resumed.getId());
+		assertEquals(JobStatus.COMPLETED, resumed.getStatus());
+
+		// Every concept of both forms was processed again, as in a new job on the same content
+		SemanticIndexRebuildJob newJob = waitForJob(rebuildJobService.startOrResume(MAIN).getId());
+		assertNotEquals(resumed.getId(), newJob.getId());
+		assertEquals(JobStatus.COMPLETED, newJob.getStatus());
+		assertEquals(newJob.getConceptsProcessed(), resumed.getConceptsProcessed());
+	}
+
+	@Test
+	void testResumeContinuesFromCheckpointWhenBranchUnchanged() throws ServiceException, InterruptedException {
+		createConcepts();
+
+		SemanticIndexRebuildJob interrupted = new SemanticIndexRebuildJob(MAIN);
+		interrupted.startRun();
+		interrupted.checkpoint(Form.STATED, Long.MAX_VALUE, 0, 0);
+		interrupted.setBranchHeadTimestamp(branchService.findLatest(MAIN).getHeadTimestamp());
+		interrupted.setStatus(JobStatus.FAILED);
+		rebuildJobRepository.save(interrupted);
+
+		SemanticIndexRebuildJob resumed = waitForJob(rebuildJobService.startOrResume(MAIN).getId());
+		assertEquals(JobStatus.COMPLETED, resumed.getStatus());
+
+		SemanticIndexRebuildJob newJob = waitForJob(rebuildJobService.startOrResume(MAIN).getId());
+		// The stated form was not processed again
+		assertTrue(resumed.getConceptsProcessed() < newJob.getConceptsProcessed());
+	}
+
+	private void createConcepts() throws ServiceException {
+		conceptService.batchCreate(List.of(
+				new Concept(SNOMEDCT_ROOT),
+				new Concept("100002")
+						.addAxiom(new Relationship(ISA, SNOMEDCT_ROOT))
+						.addRelationship(new Relationship(ISA, SNOMEDCT_ROOT)),
+				new Concept("100003")
+						.addAxiom(new Relationship(ISA, "100002"))
+						.addRelationship(new Relationship(ISA, "100002"))), MAIN);
+	}
+
+	private SemanticIndexRebuildJob waitForJob(String id) throws InterruptedException {
+		SemanticIndexRebuildJob job = rebuildJobService.getJobOrThrow(id);
+		for (int i = 0; i < 300 && (job.getStatus() == JobStatus.SCHEDULED || job.getStatus() == JobStatus.IN_PROGRESS); i++) {
+			Thread.sleep(100);
+			job = rebuildJobService.getJobOrThrow(id);
+		}
+		return job;
+	}
+}
@@ -2,6 +2,7 @@ package org.snomed.snowstorm.core.data.services;
 
 import co.elastic.clients.json.JsonData;
 import com.google.common.collect.Lists;
+import io.kaicode.elasticvc.api.BranchCriteria;
 import io.kaicode.elasticvc.api.BranchService;
 import io.kaicode.elasticvc.api.CommitListener;
 import io.kaicode.elasticvc.api.VersionControlHelper;
@@ -74,6 +75,9 @@ class SemanticIndexUpdateServiceTest extends AbstractTest {
 	@Autowired
 	private CodeSystemService codeSystemService;
 
+	@Autowired
+	private VersionControlHelper versionControlHelper;
+
 	private static final PageRequest PAGE_REQUEST = PageRequest.of(0, 50);
 
 	@Test
@@ -358,6 +362,120 @@ class SemanticIndexUpdateServiceTest extends AbstractTest {
 		assertTC(accc, a, aa, aaa, ac, acc, ab, root);
 	}
 
+	@Test
+	void testChildAndDescendantCounts() throws ServiceException {
+		Concept root = new Concept(SNOMEDCT_ROOT);
+		Concept a = new Concept("100001001").addRelationship(new Relationship(ISA, SNOMEDCT_ROOT));
+		Concept b = new Concept("100002001").addRelationship(new Relationship(ISA, SNOMEDCT_ROOT));
+		Concept aa = new Concept("100001002").addRelationship(new Relationship(ISA, a.getId()));
+
+		String branch = "MAIN";
+		conceptService.batchCreate(Lists.newArrayList(root, a, b, aa), branch);
+		assertCounts(root, 2, 3);
+		assertCounts(a, 1, 1);
+		assertCounts(b, 0, 0);
+
+		// New concept with two parents
+		Concept ab = new Concept("100003001")
+				.addRelationship(new Relationship(ISA, a.getId()))
+				.addRelationship(new Relationship(ISA, b.getId()));
+		conceptService.create(ab, branch);
+		assertCounts(root, 2, 4);
+		assertCounts(a, 2, 2);
+		assertCounts(b, 1, 1);
+
+		// Move 'aa' from 'a' to 'b'
+		aa.getRelationships().clear();
+		aa.addRelationship(new Relationship(ISA, b.getId()));
+		conceptService.update(aa, branch);
+		assertCounts(root, 2, 4);
+		assertCounts(a, 1, 1);
+		assertCounts(b, 2, 2);
+		assertCounts(aa, 0, 0);
+
+		// Counts kept incrementally match a complete rebuild
+		Map<String, Integer> updateCounts = updateService.rebuildStatedAndInferredSemanticIndex(branch, false);
+		assertEquals(0, updateCounts.get(Form.INFERRED.getName()));
+	}
+
+	@Test
+	void testChildAndDescendantCountsOnChildBranch() throws ServiceException {
+		Concept root = new Concept(SNOMEDCT_ROOT);
+		Concept a = new Concept("100001001").addRelationship(new Relationship(ISA, SNOMEDCT_ROOT));
+		Concept b = new Concept("100002001").addRelationship(new Relationship(ISA, SNOMEDCT_ROOT));
+		Concept aa = new Concept("100001002").addRelationship(new Relationship(ISA, a.getId()));
+		conceptService.batchCreate(Lists.newArrayList(root, a, b, aa), "MAIN");
+		branchService.create("MAIN/A");
+
+		// Incremental updates on the child branch
+		Concept ab = new Concept("100003001")
+				.addRelationship(new Relationship(ISA, a.getId()))
+				.addRelationship(new Relationship(ISA, b.getId()));
+		conceptService.create(ab, "MAIN/A");
+		aa.getRelationships().clear();
+		aa.addRelationship(new Relationship(ISA, b.getId()));
+		conceptService.update(aa, "MAIN/A");
+		assertCounts("MAIN/A", root, 2, 4);
+		assertCounts("MAIN/A", a, 1, 1);
+		assertCounts("MAIN/A", b, 2, 2);
+		assertCounts("MAIN/A", aa, 0, 0);
+		assertCounts("MAIN", root, 2, 3);
+		assertCounts("MAIN", a, 1, 1);
+		assertCounts("MAIN", b, 0, 0);
+
+		// New concept on the parent branch, then rebase
+		Concept ba = new Concept("100002002").addRelationship(new Relationship(ISA, b.getId()));
+		conceptService.create(ba, "MAIN");
+		assertCounts("MAIN", root, 2, 4);
+		assertCounts("MAIN", b, 1, 1);
+		branchMergeService.mergeBranchSync("MAIN", "MAIN/A", Collections.emptySet());
+		assertCounts("MAIN/A", root, 2, 5);
+		assertCounts("MAIN/A", a, 1, 1);
+		assertCounts("MAIN/A", b, 3, 3);
+		assertCounts("MAIN/A", aa, 0, 0);
+		assertCounts("MAIN/A", ba, 0, 0);
+
+		// Another change on the child branch after the rebase
+		conceptService.deleteConceptAndComponents(ab.getConceptId(), "MAIN/A", false);
+		assertCounts("MAIN/A", root, 2, 4);
+		assertCounts("MAIN/A", a, 0, 0);
+		assertCounts("MAIN/A", b, 2, 2);
+	}
+
+	@Test
+	void testChildAndDescendantCountsAfterReactivation() throws ServiceException {
+		Concept root = new Concept(SNOMEDCT_ROOT);
+		Concept a = new Concept("100001001").addRelationship(new Relationship(ISA, SNOMEDCT_ROOT));
+		Concept aa = new Concept("100001002").addRelationship(new Relationship(ISA, a.getId()));
+		Concept ab = new Concept("100001003").addRelationship(new Relationship(ISA, a.getId()));
+		Concept aaa = new Concept("100001004").addRelationship(new Relationship(ISA, aa.getId()));
+		String branch = "MAIN";
+		conceptService.batchCreate(Lists.newArrayList(root, a, aa, ab, aaa), branch);
+		assertCounts(branch, root, 1, 4);
+		assertCounts(branch, a, 2, 3);
+
+		// Inactivating 'a' removes it from the semantic index but its children still refer to it
+		a = conceptService.find(a.getId(), branch);
+		a.setActive(false);
+		a.getRelationships().forEach(relationship -> relationship.setActive(false));
+		conceptService.update(a, branch);
+		assertCounts(branch, root, 0, 0);
+
+		// Reverting the inactivation creates a new entry for 'a' which must count the existing children
+		a = conceptService.find(a.getId(), branch);
+		a.setActive(true);
+		a.getRelationships().forEach(relationship -> relationship.setActive(true));
+		conceptService.update(a, branch);
+		assertCounts(branch, root, 1, 4);
+		assertCounts(branch, a, 2, 3);
+		assertCounts(branch, aa, 1, 1);
+		assertCounts(branch, ab, 0, 0);
+
+		// Counts kept incrementally match a complete rebuild
+		Map<String, Integer> updateCounts = updateService.rebuildStatedAndInferredSemanticIndex(branch, false);
+		assertEquals(0, updateCounts.get(Form.INFERRED.getName()));
+	}
+
 	@Test
 	void testSecondIsARemoval() throws ServiceException {
 		Concept root = new Concept(SNOMEDCT_ROOT);
@@ -1445,6 +1563,36 @@ class SemanticIndexUpdateServiceTest extends AbstractTest {
 		}
 	}
 
+	private void assertCounts(Concept concept, int childCount, int descendantCount) {
+		final SearchHit<QueryConcept> hit = elasticsearchOperations.searchOne(new NativeQueryBuilder()
+				.withQuery(bool(b -> b
+						.must(termQuery(QueryConcept.Fields.CONCEPT_ID_FORM, concept.getId() + "_i"))
+						.mustNot(existsQuery("end")))
+				).build(), QueryConcept.class);
+		assertNotNull(hit);
+		assertEquals(childCount, hit.getContent().getChildCount().intValue());
+		assertEquals(descendantCount, hit.getContent().getDescendantCount().intValue());
+	}
+
+	private void assertCounts(String branch, Concept concept, int childCount, int descendantCount) throws ServiceException {
+		BranchCriteria branchCriteria = versionControlHelper.getBranchCriteria(branch);
+		final SearchHit<QueryConcept> hit = elasticsearchOperations.searchOne(new NativeQueryBuilder()
+				.withQuery(bool(b -> b
+						.must(branchCriteria.getEntityBranchCriteria(QueryConcept.class))
+						.must(termQuery(QueryConcept.Fields.CONCEPT_ID_FORM, concept.getId() + "_i")))
+				).build(), QueryConcept.class);
+		assertNotNull(hit);
+		assertEquals(childCount, hit.getContent().getChildCount().intValue(), concept.getId() + " child count on " + branch);
+		assertEquals(descendantCount, hit.getContent().getDescendantCount().intValue(), concept.getId() + " descendant count on " + branch);
+
+		// The joins read the same counts
+		long conceptId = parseLong(concept.getId());
+		assertEquals(descendantCount, queryService.findDescendantCounts(branchCriteria, false, List.of(conceptId)).getOrDefault(conceptId, 0L).longValue());
+		ConceptMini mini = new ConceptMini(concept.getId(), null);
+		queryService.joinIsLeafFlag(List.of(mini), Relationship.CharacteristicType.inferred, branchCriteria, branch);
+		assertEquals(childCount == 0, mini.getIsLeafInferred());
+	}
+
 	private void assertTC(Concept concept, Concept... ancestors) {
 		assertTC(concept, "MAIN", ancestors);
 	}
@@ -0,0 +1,57 @@
+package org.snomed.snowstorm.core.data.services;
+
+import io.kaicode.elasticvc.api.BranchCriteria;
+import io.kaicode.elasticvc.api.VersionControlHelper;
+import org.junit.jupiter.api.Test;
+import org.snomed.snowstorm.AbstractTest;
+import org.snomed.snowstorm.core.data.domain.Concept;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.elasticsearch.client.elc.NativeQuery;
+import org.springframework.data.elasticsearch.client.elc.NativeQueryBuilder;
+import org.springframework.data.elasticsearch.core.query.FetchSourceFilter;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SlicedSearchServiceTest extends AbstractTest {
+
+	@Autowired
+	private SlicedSearchService slicedSearchService;
+
+	@Autowired
+	private ConceptService conceptService;
+
+	@Autowired
+	private VersionControlHelper versionControlHelper;
+
+	@Test
+	void testSlicedResultsMatchSingleScroll() throws ServiceException {
+		List<Concept> concepts = new ArrayList<>();
+		for (int i = 1; i <= 50; i++) {
+			concepts.add(new Concept(String.valueOf(200000 + i)));
+		}
+		conceptService.batchCreate(concepts, "MAIN");
+
+		BranchCriteria branchCriteria = versionControlHelper.getBranchCriteria("MAIN");
+		NativeQuery query = new NativeQueryBuilder()
+				.withQuery(branchCriteria.getEntityBranchCriteria(Concept.class))
+				.withSourceFilter(new FetchSourceFilter(new String[]{Concept.Fields.CONCEPT_ID}, null))
+				.build();
+
+		Set<String> singleScrollIds = new HashSet<>();
+		slicedSearchService.searchForStream(query, Concept.class, 1, concept -> singleScrollIds.add(concept.getConceptId()));
+		assertEquals(50, singleScrollIds.size());
+
+		List<String> slicedIds = new ArrayList<>();
+		slicedSearchService.searchForStream(query, Concept.class, 3, concept -> {
+			assertNotNull(concept.getInternalId());
+			slicedIds.add(concept.getConceptId());
+		});
+		assertEquals(50, slicedIds.size());
+		assertEquals(singleScrollIds, new HashSet<>(slicedIds));
+	}
+}
@@ -0,0 +1,64 @@
+package org.snomed.snowstorm.core.data.services.termindex;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DescriptionTermIndexTest {
+
+	private static final long FSN = 900000000000003001L;
+	private static final long SYNONYM = 900000000000013009L;
+	private static final long CORE_MODULE = 900000000000207008L;
+	private static final long OTHER_MODULE = 1000000L;
+
+	@Test
+	void testWordPrefixMatches() {
+		DescriptionTermIndex index = DescriptionTermIndex.builder()
+				.add(11L, 100L, true, "en", FSN, CORE_MODULE, 26, List.of("clinical", "finding", "finding"))
+				.add(12L, 100L, true, "en", SYNONYM, CORE_MODULE, 16, List.of("clinical", "finding"))
+				.add(21L, 200L, false, "en", SYNONYM, CORE_MODULE, 8, List.of("clinical"))
+				.add(31L, 300L, true, "de", SYNONYM, OTHER_MODULE, 14, List.of("klinischer", "befund"))
+				.add(32L, 300L, true, "en", SYNONYM, OTHER_MODULE, 7, List.of("finding"))
+				.build();
+
+		assertEquals(5, index.size());
+		assertEquals(4, index.getWordCount());
+
+		// Ordered by term length then description id
+		assertEquals(List.of(21L, 12L, 11L), List.copyOf(findMatches(index, List.of(List.of("clin"))).keySet()));
+		assertEquals(Map.of(12L, 100L, 11L, 100L), findMatches(index, List.of(List.of("clin", "fin"))));
+		assertEquals(List.of(32L, 31L, 12L, 11L), List.copyOf(findMatches(index, List.of(List.of("fin"), List.of("befu"))).keySet()));
+		assertTrue(findMatches(index, List.of(List.of("clin", "befund"))).isEmpty());
+		assertTrue(findMatches(index, List.of(List.of("findings"))).isEmpty());
+
+		assertEquals(List.of(12L, 11L), List.copyOf(index.findMatches(List.of(List.of("clin")), true, null, null, null, null).keySet()));
+		assertEquals(List.of(21L), List.copyOf(index.findMatches(List.of(List.of("clin")), false, null, null, null, null).keySet()));
+		assertEquals(List.of(31L), List.copyOf(index.findMatches(List.of(List.of("b"), List.of("f")), null, List.of("de"), null, null, null).keySet()));
+		assertEquals(List.of(11L), List.copyOf(index.findMatches(List.of(List.of("fin")), null, null, List.of(FSN), null, null).keySet()));
+		assertEquals(List.of(32L), List.copyOf(index.findMatches(List.of(List.of("fin")), null, null, null, List.of(OTHER_MODULE), null).keySet()));
+		assertEquals(List.of(12L, 11L), List.copyOf(index.findMatches(List.of(List.of("fin")), null, null, null, null, List.of(100L)).keySet()));
+		assertTrue(index.findMatches(List.of(List.of("fin")), null, List.of("fr"), null, null, null).isEmpty());
+	}
+
+	@Test
+	void testIdsOrderedAsText() {
+		DescriptionTermIndex index = DescriptionTermIndex.builder()
+				.add(99L, 100L, true, "en", SYNONYM, CORE_MODULE, 4, List.of("foot"))
+				.add(1000L, 200L, true, "en", SYNONYM, CORE_MODULE, 4, List.of("foot"))
+				.add(101L, 300L, true, "en", SYNONYM, CORE_MODULE, 4, List.of("foot"))
+				.add(10L, 400L, true, "en", SYNONYM, CORE_MODULE, 4, List.of("foot"))
+				.build();
+
+		// Same order as the Elasticsearch sort on the keyword id field
+		assertEquals(List.of(10L, 1000L, 101L, 99L), List.copyOf(findMatches(index, List.of(List.of("foot"))).keySet()));
+		assertTrue(DescriptionTermIndex.compareIdsAsText(900000000000207008L, 91L) < 0);
+		assertEquals(0, DescriptionTermIndex.compareIdsAsText(12L, 12L));
+	}
+
+	private static Map<Long, Long> findMatches(DescriptionTermIndex index, List<List<String>> prefixAlternatives) {
+		return index.findMatches(prefixAlternatives, null, null, null, null, null);
+	}
+}
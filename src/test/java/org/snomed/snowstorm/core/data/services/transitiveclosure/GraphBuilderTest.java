@@ -0,0 +1,90 @@
+package org.snomed.snowstorm.core.data.services.transitiveclosure;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GraphBuilderTest {
+
+	@Test
+	void testTransitiveClosure() throws GraphBuilderException {
+		// 138875005
+		// ├── 100
+		// │   ├── 300
+		// │   └── 310
+		// └── 200
+		//     └── 300 (two parents)
+		//         └── 400
+		GraphBuilder graphBuilder = new GraphBuilder();
+		graphBuilder.addParent(100L, 138875005L);
+		graphBuilder.addParent(200L, 138875005L);
+		graphBuilder.addParent(300L, 100L);
+		graphBuilder.addParent(300L, 200L);
+		graphBuilder.addParent(300L, 200L);
+		graphBuilder.addParent(310L, 100L);
+		graphBuilder.addParent(400L, 300L);
+		assertEquals(6, graphBuilder.getNodeCount());
+
+		Map<Long, Node> nodes = getNodes(graphBuilder);
+		assertEquals(Set.of(), nodes.get(138875005L).getTransitiveClosure("MAIN", true));
+		assertFalse(nodes.get(138875005L).hasParents());
+		assertEquals(Set.of(138875005L), nodes.get(100L).getTransitiveClosure("MAIN", true));
+		assertEquals(Set.of(100L, 200L), nodes.get(300L).getParentIds());
+		assertEquals(Set.of(100L, 200L, 138875005L), nodes.get(300L).getTransitiveClosure("MAIN", true));
+		assertEquals(Set.of(100L, 138875005L), nodes.get(310L).getTransitiveClosure("MAIN", true));
+		assertEquals(Set.of(300L, 100L, 200L, 138875005L), nodes.get(400L).getTransitiveClosure("MAIN", true));
+		assertEquals(5, nodes.get(138875005L).getDescendantCount());
+		assertEquals(2, nodes.get(138875005L).getChildCount());
+		assertEquals(3, nodes.get(100L).getDescendantCount());
+		assertEquals(2, nodes.get(200L).getDescendantCount());
+		assertEquals(0, nodes.get(400L).getDescendantCount());
+		assertEquals(0, nodes.get(400L).getChildCount());
+
+		// Move 300 under 310
+		graphBuilder.clearParentsAndMarkUpdated(300L);
+		graphBuilder.addParent(300L, 310L);
+		assertEquals(Set.of(310L, 100L, 138875005L), nodes.get(300L).getTransitiveClosure("MAIN", true));
+		assertEquals(Set.of(300L, 310L, 100L, 138875005L), nodes.get(400L).getTransitiveClosure("MAIN", true));
+		assertEquals(0, nodes.get(200L).getDescendantCount());
+		assertEquals(2, nodes.get(310L).getDescendantCount());
+		assertEquals(1, nodes.get(310L).getChildCount());
+
+		assertTrue(nodes.get(300L).isAncestorOrSelfUpdated());
+		assertTrue(nodes.get(400L).isAncestorOrSelfUpdated());
+		assertFalse(nodes.get(310L).isAncestorOrSelfUpdated());
+		assertFalse(nodes.get(200L).isAncestorOrSelfUpdated());
+	}
+
+	@Test
+	void testLoop() throws GraphBuilderException {
+		// 100 -> 300 -> 200 -> 100, with 400 below the loop
+		GraphBuilder graphBuilder = new GraphBuilder();
+		graphBuilder.addParent(100L, 138875005L);
+		graphBuilder.addParent(200L, 100L);
+		graphBuilder.addParent(300L, 200L);
+		graphBuilder.addParent(100L, 300L);
+		graphBuilder.addParent(400L, 100L);
+		graphBuilder.clearParentsAndMarkUpdated(500L);
+		graphBuilder.addParent(500L, 138875005L);
+
+		Map<Long, Node> nodes = getNodes(graphBuilder);
+		// Concepts below the loop do not include themselves
+		assertEquals(Set.of(100L, 200L, 300L, 138875005L), nodes.get(400L).getTransitiveClosure("MAIN", true));
+		assertFalse(nodes.get(400L).isAncestorOrSelfUpdated());
+		assertTrue(nodes.get(500L).isAncestorOrSelfUpdated());
+
+		// Loop logged and removed
+		assertEquals(Set.of(200L, 300L, 138875005L), nodes.get(100L).getTransitiveClosure("MAIN", false));
+
+		GraphBuilderException exception = assertThrows(GraphBuilderException.class, () -> nodes.get(100L).getTransitiveClosure("MAIN", true));
+		assertTrue(exception.getMessage().startsWith("Loop found in transitive closure for concept 100 on branch MAIN."));
+	}
+
+	private static Map<Long, Node> getNodes(GraphBuilder graphBuilder) {
+		return graphBuilder.getNodes().stream().collect(Collectors.toMap(Node::getId, node -> node));
+	}
+}
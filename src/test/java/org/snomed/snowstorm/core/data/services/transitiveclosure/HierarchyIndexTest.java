@@ -0,0 +1,52 @@
+package org.snomed.snowstorm.core.data.services.transitiveclosure;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HierarchyIndexTest {
+
+	@Test
+	void testHierarchyLookups() {
+		// 138875005
+		// ├── 100
+		// │   └── 300
+		// └── 200
+		//     └── 300 (two parents)
+		//         └── 400
+		HierarchyIndex index = HierarchyIndex.builder()
+				.add(138875005L, Collections.emptySet(), Collections.emptySet())
+				.add(100L, Set.of(138875005L), Set.of(138875005L))
+				.add(200L, Set.of(138875005L), Set.of(138875005L))
+				.add(300L, Set.of(100L, 200L), Set.of(100L, 200L, 138875005L))
+				.add(400L, Set.of(300L), Set.of(300L, 100L, 200L, 138875005L))
+				.build();
+
+		assertEquals(5, index.size());
+		assertTrue(index.contains(300L));
+		assertFalse(index.contains(500L));
+
+		assertTrue(index.isAncestor(138875005L, 400L));
+		assertTrue(index.isAncestor(200L, 300L));
+		assertFalse(index.isAncestor(300L, 300L));
+		assertFalse(index.isAncestor(100L, 200L));
+		assertFalse(index.isAncestor(100L, 500L));
+
+		assertEquals(Set.of(100L, 200L), index.getParents(List.of(300L)));
+		assertEquals(Set.of(300L), index.getChildren(List.of(100L, 200L)));
+		assertEquals(Set.of(300L, 100L, 200L, 138875005L), index.getAncestors(List.of(400L)));
+		assertEquals(Set.of(100L, 200L, 300L, 400L), index.getDescendants(List.of(138875005L)));
+		assertEquals(Set.of(400L), index.getDescendants(List.of(300L, 500L)));
+		assertTrue(index.getDescendants(List.of(400L)).isEmpty());
+
+		assertEquals(4, index.getDescendantCount(138875005L));
+		assertEquals(2, index.getDescendantCount(200L));
+		assertEquals(0, index.getDescendantCount(400L));
+		assertEquals(0, index.getDescendantCount(500L));
+	}
+
+}
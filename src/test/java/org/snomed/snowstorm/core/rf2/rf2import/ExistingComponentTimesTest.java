@@ -0,0 +1,38 @@
+package org.snomed.snowstorm.core.rf2.rf2import;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExistingComponentTimesTest {
+
+	@Test
+	void testSctids() {
+		ExistingComponentTimes times = new ExistingComponentTimes(true);
+		times.add("100001", 20200131, true);
+		times.add("200002", null, false);
+
+		assertTrue(times.isExact());
+		assertEquals(20200131, times.getEffectiveTime("100001"));
+		assertTrue(times.isReleased("100001"));
+		assertEquals(0, times.getEffectiveTime("200002"));
+		assertFalse(times.isReleased("200002"));
+		assertEquals(ExistingComponentTimes.NOT_FOUND, times.getEffectiveTime("300003"));
+		assertFalse(times.isReleased("300003"));
+	}
+
+	@Test
+	void testHashedIdsKeepLatestTimeAndReleasedFlag() {
+		ExistingComponentTimes times = new ExistingComponentTimes(false);
+		String memberId = "f2a8b7c4-4a5e-4b4c-9a6e-1f2d3c4b5a69";
+		times.add(memberId, 20210731, true);
+		// Same key again, as would happen with a hash collision
+		times.add(memberId, 20190131, false);
+
+		assertFalse(times.isExact());
+		assertEquals(1, times.size());
+		assertEquals(20210731, times.getEffectiveTime(memberId));
+		assertTrue(times.isReleased(memberId));
+		assertEquals(ExistingComponentTimes.NOT_FOUND, times.getEffectiveTime("0d3f3c1e-7a2b-4c5d-8e9f-0a1b2c3d4e5f"));
+	}
+}
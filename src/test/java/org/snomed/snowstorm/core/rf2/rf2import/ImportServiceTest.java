@@ -24,11 +24,16 @@ import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.util.AopTestUtils;
+import org.springframework.test.util.ReflectionTestUtils;
 
 import java.io.*;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.snomed.snowstorm.core.data.services.BranchMetadataHelper.IMPORTING_CODE_SYSTEM_VERSION;
@@ -622,6 +627,126 @@ class ImportServiceTest extends AbstractTest {
 				"Commit after import must be equal to commit before import because the import commut must roll back");
 	}
 
+	@Test
+	void testImportSnapshotLoadingFilesInParallel() throws IOException, ReleaseImportException {
+		ImportService targetImportService = AopTestUtils.getTargetObject(importService);
+		Object fileWorkers = ReflectionTestUtils.getField(targetImportService, "fileWorkers");
+		ReflectionTestUtils.setField(targetImportService, "fileWorkers", 3);
+		try {
+			String importId = importService.createJob(RF2Type.SNAPSHOT, "MAIN", false, false);
+			importService.importArchive(importId, new FileInputStream(rf2Archive));
+
+			ImportJob importJob = importService.getImportJobOrThrow(importId);
+			assertEquals(ImportJob.ImportStatus.COMPLETED, importJob.getStatus());
+			assertNotNull(conceptService.find(Concepts.SNOMEDCT_ROOT, "MAIN"));
+
+			// Rows loaded from each file match the archive
+			Map<String, ImportFileStatus> files = importJob.getFiles();
+			Map<String, Long> archiveRows = countRows(rf2Archive, "Snapshot");
+			assertEquals(archiveRows.keySet(), files.keySet());
+			archiveRows.forEach((fileName, rows) -> {
+				assertTrue(files.get(fileName).isComplete(), fileName);
+				assertEquals(rows.longValue(), files.get(fileName).getRows(), fileName);
+			});
+
+			// All core component files finish before any reference set file starts
+			long lastCoreComponentFileEnd = files.entrySet().stream()
+					.filter(file -> ParallelReleaseFileLoader.isCoreComponentFile(file.getKey()))
+					.mapToLong(file -> file.getValue().getEndMillis())
+					.max().orElseThrow();
+			long firstMemberFileStart = files.entrySet().stream()
+					.filter(file -> !ParallelReleaseFileLoader.isCoreComponentFile(file.getKey()))
+					.mapToLong(file -> file.getValue().getStartMillis())
+					.min().orElseThrow();
+			assertTrue(lastCoreComponentFileEnd <= firstMemberFileStart);
+		} finally {
+			ReflectionTestUtils.setField(targetImportService, "fileWorkers", fileWorkers);
+		}
+	}
+
+	@Test
+	void testImportBadFileRollbackLoadingFilesInParallel() throws IOException {
+		ImportService targetImportService = AopTestUtils.getTargetObject(importService);
+		Object fileWorkers = ReflectionTestUtils.getField(targetImportService, "fileWorkers");
+		ReflectionTestUtils.setField(targetImportService, "fileWorkers", 3);
+		try {
+			final long commitBeforeImport = branchService.findLatest("MAIN").getHeadTimestamp();
+			File zipFile = ZipUtil.zipDirectoryRemovingCommentsAndBlankLines("src/test/resources/dummy-snomed-content/SnomedCT_MiniRF2_bad_delta");
+			String importId = importService.createJob(RF2Type.DELTA, "MAIN", false, false);
+
+			assertThrows(ReleaseImportException.class, () -> importService.importArchive(importId, new FileInputStream(zipFile)));
+
+			assertEquals(ImportJob.ImportStatus.FAILED, importService.getImportJobOrThrow(importId).getStatus());
+			final Branch mainBranch = branchService.findLatest("MAIN");
+			assertFalse(mainBranch.isLocked());
+			assertEquals(commitBeforeImport, mainBranch.getHeadTimestamp(), "The import commit must roll back");
+			assertNull(conceptService.find("18736003", "MAIN"));
+		} finally {
+			ReflectionTestUtils.setField(targetImportService, "fileWorkers", fileWorkers);
+		}
+	}
+
+	private Map<String, Long> countRows(File archive, String releaseFileType) throws IOException {
+		Map<String, Long> rows = new HashMap<>();
+		try (ZipInputStream zipInputStream = new ZipInputStream(new FileInputStream(archive))) {
+			ZipEntry entry;
+			while ((entry = zipInputStream.getNextEntry()) != null) {
+				String fileName = entry.getName().substring(entry.getName().lastIndexOf('/') + 1);
+				if (!entry.isDirectory() && fileName.endsWith(".txt") && fileName.contains(releaseFileType)) {
+					BufferedReader reader = new BufferedReader(new InputStreamReader(zipInputStream));
+					// Header row is not counted
+					rows.put(fileName, reader.lines().filter(line -> !line.isBlank()).count() - 1);
+				}
+			}
+		}
+		return rows;
+	}
+
+	@Test
+	void testStreamedImportFailsWhenUploadIsCutOffBetweenEntries() throws IOException, InterruptedException {
+		final long commitBeforeImport = branchService.findLatest("MAIN").getHeadTimestamp();
+
+		// Rezip the archive, noting where the concept file ends
+		ByteArrayOutputStream archiveBytes = new ByteArrayOutputStream();
+		int conceptFileEnd = -1;
+		int entriesAfterConceptFile = 0;
+		try (ZipInputStream zipInputStream = new ZipInputStream(new FileInputStream(rf2Archive));
+				ZipOutputStream zipOutputStream = new ZipOutputStream(archiveBytes)) {
+			ZipEntry entry;
+			while ((entry = zipInputStream.getNextEntry()) != null) {
+				zipOutputStream.putNextEntry(new ZipEntry(entry.getName()));
+				zipInputStream.transferTo(zipOutputStream);
+				zipOutputStream.closeEntry();
+				if (conceptFileEnd != -1) {
+					entriesAfterConceptFile++;
+				} else if (entry.getName().contains("sct2_Concept_Snapshot")) {
+					conceptFileEnd = archiveBytes.size();
+				}
+			}
+		}
+		assertNotEquals(-1, conceptFileEnd);
+		assertTrue(entriesAfterConceptFile > 0);
+
+		// The client disconnects straight after the concept file, a point where a zip reader would otherwise see the end of the archive
+		InputStream disconnectingBody = new SequenceInputStream(new ByteArrayInputStream(archiveBytes.toByteArray(), 0, conceptFileEnd), new InputStream() {
+			@Override
+			public int read() throws IOException {
+				throw new IOException("Connection reset by client");
+			}
+		});
+
+		String importId = importService.createJob(RF2Type.SNAPSHOT, "MAIN", false, false);
+		assertThrows(IOException.class, () -> importService.importArchiveStream(importId, "MAIN", disconnectingBody));
+
+		ImportJob importJob = importService.getImportJobOrThrow(importId);
+		for (int i = 0; i < 300 && importJob.getStatus() != ImportJob.ImportStatus.FAILED && importJob.getStatus() != ImportJob.ImportStatus.COMPLETED; i++) {
+			Thread.sleep(100);
+		}
+		assertEquals(ImportJob.ImportStatus.FAILED, importJob.getStatus());
+		assertEquals(commitBeforeImport, branchService.findLatest("MAIN").getHeadTimestamp(), "Partial import commit must be rolled back.");
+		assertNull(conceptService.find(Concepts.SNOMEDCT_ROOT, "MAIN"));
+	}
+
 	private void collectContentCounts(List<Concept> concepts, Map<String, AtomicInteger> conceptDefinitionStatuses, Map<String, AtomicInteger> descriptionCaseSignificance, Map<String, AtomicInteger> descriptionAcceptability, Map<Integer, AtomicInteger> relationshipGroups) {
 		conceptDefinitionStatuses.clear();
 		descriptionCaseSignificance.clear();
@@ -0,0 +1,89 @@
+package org.snomed.snowstorm.core.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SingleFlightTest {
+
+	@Test
+	void concurrentIdenticalRequestsShareOneExecution() throws Exception {
+		SingleFlight<String, Integer> singleFlight = new SingleFlight<>();
+		AtomicInteger executions = new AtomicInteger();
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+
+		ExecutorService executorService = Executors.newFixedThreadPool(2);
+		try {
+			Future<Integer> leader = executorService.submit(() -> singleFlight.execute("a", () -> {
+				started.countDown();
+				await(release);
+				return executions.incrementAndGet();
+			}));
+			started.await();
+			Future<Integer> follower = executorService.submit(() -> singleFlight.execute("a", executions::incrementAndGet));
+
+			// Wait for the follower to join the in-flight request before letting the leader finish
+			while (singleFlight.getStats().get("coalesced") == 0) {
+				Thread.sleep(5);
+			}
+			release.countDown();
+
+			assertEquals(1, leader.get(5, TimeUnit.SECONDS));
+			assertEquals(1, follower.get(5, TimeUnit.SECONDS));
+			assertEquals(1, executions.get());
+		} finally {
+			executorService.shutdownNow();
+		}
+		assertEquals(1, singleFlight.getStats().get("executed"));
+		assertEquals(0, singleFlight.getStats().get("in-flight"));
+
+		// Nothing is kept once complete
+		assertEquals(2, singleFlight.execute("a", executions::incrementAndGet));
+		assertEquals(3, singleFlight.execute("b", executions::incrementAndGet));
+		assertEquals(3, singleFlight.getStats().get("executed"));
+	}
+
+	@Test
+	void failureReachesWaitingRequests() throws Exception {
+		SingleFlight<String, Integer> singleFlight = new SingleFlight<>();
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+
+		ExecutorService executorService = Executors.newFixedThreadPool(2);
+		try {
+			Future<Integer> leader = executorService.submit(() -> singleFlight.execute("a", () -> {
+				started.countDown();
+				await(release);
+				throw new IllegalStateException("Query failed");
+			}));
+			started.await();
+			Future<Integer> follower = executorService.submit(() -> singleFlight.execute("a", () -> 1));
+			while (singleFlight.getStats().get("coalesced") == 0) {
+				Thread.sleep(5);
+			}
+			release.countDown();
+
+			ExecutionException leaderException = assertThrows(ExecutionException.class, () -> leader.get(5, TimeUnit.SECONDS));
+			assertInstanceOf(IllegalStateException.class, leaderException.getCause());
+			ExecutionException followerException = assertThrows(ExecutionException.class, () -> follower.get(5, TimeUnit.SECONDS));
+			assertInstanceOf(IllegalStateException.class, followerException.getCause());
+		} finally {
+			executorService.shutdownNow();
+		}
+
+		// A failure is not remembered
+		assertEquals(1, singleFlight.execute("a", () -> 1));
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
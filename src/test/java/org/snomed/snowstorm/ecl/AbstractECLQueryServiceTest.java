@@ -5,15 +5,21 @@ import io.kaicode.elasticvc.api.BranchCriteria;
 import io.kaicode.elasticvc.api.VersionControlHelper;
 import org.junit.jupiter.api.Test;
 import org.snomed.snowstorm.core.data.services.ConceptService;
+import org.snomed.snowstorm.ecl.planner.ECLQueryPlan;
+import org.snomed.snowstorm.ecl.planner.ECLQueryPlanner;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.test.util.AopTestUtils;
+import org.springframework.test.util.ReflectionTestUtils;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.snomed.snowstorm.TestConcepts.NON_EXISTENT_CONCEPT;
 import static org.snomed.snowstorm.TestConcepts.*;
 import static org.snomed.snowstorm.core.data.domain.Concepts.*;
@@ -29,6 +35,9 @@ abstract class AbstractECLQueryServiceTest {
 	@Autowired
 	protected ConceptService conceptService;
 
+	@Autowired
+	private ECLQueryPlanner eclQueryPlanner;
+
 	@Autowired
 	protected VersionControlHelper versionControlHelper;
 
@@ -295,6 +304,73 @@ abstract class AbstractECLQueryServiceTest {
 				strings(selectConceptIds("<" + SNOMEDCT_ROOT + " AND (<<" + BLEEDING + " OR " + SNOMEDCT_ROOT +")")));
 	}
 
+	@Test
+	void queryPlannerRewrites() {
+		// Rewritten expressions give the same results
+		assertEquals(
+				strings(selectConceptIds("<<" + CLINICAL_FINDING)),
+				strings(selectConceptIds("<<" + CLINICAL_FINDING + " OR <" + CLINICAL_FINDING + " OR " + CLINICAL_FINDING)));
+		assertEquals(
+				strings(selectConceptIds("<" + CLINICAL_FINDING)),
+				strings(selectConceptIds("<< (<" + CLINICAL_FINDING + ")")));
+		assertEquals(
+				Sets.newHashSet(DISORDER),
+				strings(selectConceptIds(DISORDER + " AND (<<" + CLINICAL_FINDING + " OR >>" + CLINICAL_FINDING + ")")));
+
+		ECLQueryPlan plan = eclQueryService.explain(DISORDER + " AND (<<" + CLINICAL_FINDING + " OR >>" + CLINICAL_FINDING + ")", branchCriteria, INFERRED);
+		assertFalse(plan.isEmpty());
+		assertFalse(plan.getRewrites().isEmpty());
+		assertEquals(String.format("( %s, << %s ) or ( %s, >> %s )", DISORDER, CLINICAL_FINDING, DISORDER, CLINICAL_FINDING), plan.getPlannedEcl());
+
+		// One step per operand of the planned disjunction then the whole expression
+		assertEquals(3, plan.getSteps().size());
+		assertEquals(1L, plan.getSteps().get(2).actualCardinality());
+	}
+
+	@Test
+	void queryPlannerConjunctionsAndDisjunctions() {
+		assertPlannerRewrites("<<" + CLINICAL_FINDING + " AND <" + CLINICAL_FINDING);
+		assertPlannerRewrites("<" + BLEEDING + " OR <<" + BLEEDING + " OR " + DISORDER);
+		assertPlannerKeepsResults("<<" + SNOMEDCT_ROOT + " AND <" + BLEEDING);
+		assertPlannerKeepsResults("<<" + SNOMEDCT_ROOT + " AND <<" + CLINICAL_FINDING + " AND <!" + CLINICAL_FINDING);
+		assertPlannerKeepsResults("<" + SNOMEDCT_ROOT + " AND (<<" + BLEEDING + " OR " + SNOMEDCT_ROOT + ")");
+		assertPlannerKeepsResults("(<<" + BLEEDING + " OR " + DISORDER + ") AND (<<" + CLINICAL_FINDING + " OR " + BODY_STRUCTURE + ")");
+		assertPlannerKeepsResults("<<" + BLEEDING + " OR <<" + NON_EXISTENT_CONCEPT);
+		assertPlannerKeepsResults("<<" + CLINICAL_FINDING + " AND " + NON_EXISTENT_CONCEPT);
+	}
+
+	@Test
+	void queryPlannerExclusions() {
+		assertPlannerKeepsResults("<<" + CLINICAL_FINDING + " MINUS <<" + DISORDER);
+		assertPlannerKeepsResults("<<" + DISORDER + " MINUS <<" + CLINICAL_FINDING);
+		assertPlannerRewrites("(<<" + CLINICAL_FINDING + " AND <" + CLINICAL_FINDING + ") MINUS (<<" + DISORDER + " OR " + DISORDER + ")");
+		assertPlannerRewrites("(<<" + DISORDER + " OR " + DISORDER + ") MINUS (<<" + CLINICAL_FINDING + " AND <" + CLINICAL_FINDING + ")");
+		assertPlannerKeepsResults("<<" + CLINICAL_FINDING + " MINUS <<" + NON_EXISTENT_CONCEPT);
+		assertPlannerKeepsResults("<<" + NON_EXISTENT_CONCEPT + " MINUS <<" + CLINICAL_FINDING);
+		assertPlannerKeepsResults("<<" + SNOMEDCT_ROOT + " MINUS (<<" + CLINICAL_FINDING + " MINUS <<" + DISORDER + ")");
+	}
+
+	@Test
+	void queryPlannerRefinementsAndDottedExpressions() {
+		assertPlannerKeepsResults("<" + SNOMEDCT_ROOT + " AND (<<" + CLINICAL_FINDING + ":" + FINDING_SITE + "=*)");
+		assertPlannerKeepsResults("(<<" + CLINICAL_FINDING + ":" + FINDING_SITE + "=*) AND <<" + DISORDER + " AND <<" + SNOMEDCT_ROOT);
+		assertPlannerKeepsResults("(<" + DISORDER + "." + FINDING_SITE + ") AND <<" + BODY_STRUCTURE + " AND <" + SNOMEDCT_ROOT);
+		assertPlannerKeepsResults("(<" + DISORDER + "." + FINDING_SITE + ") OR <<" + BODY_STRUCTURE + " OR <" + BODY_STRUCTURE);
+		assertPlannerKeepsResults("<<" + CLINICAL_FINDING + " MINUS (<<" + CLINICAL_FINDING + ":" + FINDING_SITE + "=*)");
+		assertPlannerKeepsResults("<< (<" + CLINICAL_FINDING + "):" + FINDING_SITE + "=*");
+		assertPlannerKeepsResults("(<< (<<" + DISORDER + ")).(<< " + FINDING_SITE + ")");
+	}
+
+	@Test
+	void queryPlannerLeavesQueriesUnchanged() {
+		assertPlannerLeavesUnchanged("<<" + CLINICAL_FINDING);
+		assertPlannerLeavesUnchanged("< (<" + CLINICAL_FINDING + ")");
+		assertPlannerLeavesUnchanged("<<" + CLINICAL_FINDING + " MINUS <<" + DISORDER);
+		assertPlannerLeavesUnchanged("<" + DISORDER + "." + FINDING_SITE);
+		assertPlannerLeavesUnchanged("<<" + CLINICAL_FINDING + ":" + FINDING_SITE + "=*");
+		assertPlannerLeavesUnchanged("* MINUS >*");
+	}
+
 	@Test
 	void attributeGroups() {
 		String eclWithoutGrouping =
@@ -511,6 +587,32 @@ abstract class AbstractECLQueryServiceTest {
 				strings(selectConceptIds("* MINUS >*")).toString());
 	}
 
+	private void assertPlannerRewrites(String ecl) {
+		assertFalse(eclQueryService.explain(ecl, branchCriteria, INFERRED).getRewrites().isEmpty(), "Rewrites for " + ecl);
+		assertPlannerKeepsResults(ecl);
+	}
+
+	private void assertPlannerLeavesUnchanged(String ecl) {
+		ECLQueryPlan plan = eclQueryService.explain(ecl, branchCriteria, INFERRED);
+		assertEquals(Collections.emptyList(), plan.getRewrites(), "Rewrites for " + ecl);
+		assertEquals(plan.getEcl(), plan.getPlannedEcl());
+		assertPlannerKeepsResults(ecl);
+	}
+
+	private void assertPlannerKeepsResults(String ecl) {
+		ECLQueryPlanner planner = AopTestUtils.getTargetObject(eclQueryPlanner);
+		// Cached results are keyed on the original expression so would hide any difference
+		eclQueryService.setEclCacheEnabled(false);
+		try {
+			Set<String> planned = strings(selectConceptIds(ecl));
+			ReflectionTestUtils.setField(planner, "enabled", false);
+			assertEquals(strings(selectConceptIds(ecl)), planned, "Planned results of " + ecl);
+		} finally {
+			ReflectionTestUtils.setField(planner, "enabled", true);
+			eclQueryService.setEclCacheEnabled(true);
+		}
+	}
+
 	protected Set<String> strings(Collection<Long> ids) {
 		return ids.stream().map(Object::toString).collect(Collectors.toSet());
 	}
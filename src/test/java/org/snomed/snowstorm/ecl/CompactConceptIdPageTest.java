@@ -0,0 +1,46 @@
+package org.snomed.snowstorm.ecl;
+
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import org.junit.jupiter.api.Test;
+import org.snomed.snowstorm.core.util.SearchAfterPage;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompactConceptIdPageTest {
+
+	private static final List<Long> IDS = List.of(900000000000207008L, 404684003L, 138875005L, 71388002L, 22298006L, 3L);
+
+	@Test
+	void testRoundTrip() {
+		CompactConceptIdPage compactPage = CompactConceptIdPage.of(new PageImpl<>(new LongArrayList(IDS), PageRequest.of(0, 6), 20));
+		assertEquals(6, compactPage.size());
+		assertTrue(compactPage.getEncodedLength() < IDS.size() * Long.BYTES);
+
+		Page<Long> page = compactPage.toPage();
+		assertEquals(IDS, page.getContent());
+		assertEquals(20, page.getTotalElements());
+		assertEquals(PageRequest.of(0, 6), page.getPageable());
+	}
+
+	@Test
+	void testFilterAndPage() {
+		CompactConceptIdPage compactPage = CompactConceptIdPage.of(new PageImpl<>(IDS));
+		Set<Long> filter = Set.of(404684003L, 71388002L, 22298006L, 3L, 123L);
+
+		Page<Long> page = compactPage.toPage(filter::contains, PageRequest.of(1, 2));
+		assertEquals(List.of(22298006L, 3L), page.getContent());
+		assertEquals(4, page.getTotalElements());
+		assertEquals(page, ConceptSelectorHelper.getPage(PageRequest.of(1, 2), List.of(404684003L, 71388002L, 22298006L, 3L)));
+		assertNotNull(((SearchAfterPage<Long>) page).getSearchAfter());
+
+		Page<Long> all = compactPage.toPage(filter::contains, null);
+		assertEquals(List.of(404684003L, 71388002L, 22298006L, 3L), all.getContent());
+	}
+
+}
@@ -0,0 +1,103 @@
+package org.snomed.snowstorm.ecl;
+
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.PageImpl;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ECLResultsCacheTest {
+
+	@Test
+	void testGlobalEviction() {
+		ECLResultsCache cache = new ECLResultsCache(5, 5, false);
+		BranchVersionECLCache main = cache.getOrCreateBranchVersionCache("MAIN", new Date(1000));
+		BranchVersionECLCache task = cache.getOrCreateBranchVersionCache("MAIN/A", new Date(1000));
+
+		main.put("<< 100", false, null, page(1L, 2L, 3L));
+		task.put("<< 200", false, null, page(4L, 5L));
+		assertNotNull(main.get("<< 100", false, null));
+
+		// Over the limit, least recently used entry evicted
+		task.put("<< 300", false, null, page(6L));
+		assertNull(task.get("<< 200", false, null));
+		assertNotNull(main.get("<< 100", false, null));
+		assertNotNull(task.get("<< 300", false, null));
+
+		Map<String, Long> stats = cache.getStats();
+		assertEquals(2, stats.get("size"));
+		assertEquals(4, stats.get("weight"));
+		assertEquals(1, stats.get("evictions"));
+		assertEquals(3, stats.get("hits"));
+		assertEquals(1, stats.get("misses"));
+	}
+
+	@Test
+	void testBranchQuota() {
+		ECLResultsCache cache = new ECLResultsCache(100, 3, false);
+		BranchVersionECLCache main = cache.getOrCreateBranchVersionCache("MAIN", new Date(1000));
+		BranchVersionECLCache task = cache.getOrCreateBranchVersionCache("MAIN/A", new Date(1000));
+
+		main.put("<< 100", false, null, page(1L, 2L));
+		task.put("<< 200", false, null, page(3L, 4L));
+		task.put("<< 300", false, null, page(5L, 6L));
+
+		// Only the task branch loses entries
+		assertNotNull(main.get("<< 100", false, null));
+		assertNull(task.get("<< 200", false, null));
+		assertNotNull(task.get("<< 300", false, null));
+
+		// Results larger than the branch quota are not cached
+		task.put("<< 400", false, null, page(7L, 8L, 9L, 10L));
+		assertNull(task.get("<< 400", false, null));
+		assertEquals(2, cache.getBranchWeight("MAIN/A"));
+	}
+
+	@Test
+	void testBranchHeadChange() {
+		ECLResultsCache cache = new ECLResultsCache(100, 100, false);
+		BranchVersionECLCache oldVersion = cache.getOrCreateBranchVersionCache("MAIN", new Date(1000));
+		oldVersion.put("<< 100", false, null, page(1L, 2L));
+		assertEquals(2, cache.getStats().get("weight"));
+
+		BranchVersionECLCache newVersion = cache.getOrCreateBranchVersionCache("MAIN", new Date(2000));
+		assertNull(newVersion.get("<< 100", false, null));
+		assertEquals(0, cache.getStats().get("weight"));
+
+		// Late results from the old version are not cached
+		oldVersion.put("<< 200", false, null, page(3L));
+		assertEquals(0, cache.getStats().get("size"));
+	}
+
+	@Test
+	void testIncrementalInvalidation() {
+		ECLResultsCache cache = new ECLResultsCache(100, 100, true);
+		BranchVersionECLCache version1 = cache.getOrCreateBranchVersionCache("MAIN", new Date(1000));
+		version1.put("<< 100", false, null, page(1L, 2L), new long[]{100L});
+		version1.put("<< 200", false, null, page(3L), new long[]{200L});
+		version1.put("<< 300 {{ term = \"a\" }}", false, null, page(4L), null);
+
+		// Commit changes a descendant of 200
+		cache.recordSemanticChanges("MAIN", new Date(1000), new Date(2000), new LongOpenHashSet(new long[]{5L, 200L, 138875005L}));
+		BranchVersionECLCache version2 = cache.getOrCreateBranchVersionCache("MAIN", new Date(2000));
+		assertNotNull(version2.get("<< 100", false, null));
+		assertNull(version2.get("<< 200", false, null));
+		assertNull(version2.get("<< 300 {{ term = \"a\" }}", false, null));
+		assertEquals(2, cache.getStats().get("weight"));
+
+		// Changes of one commit unknown
+		cache.recordSemanticChanges("MAIN", new Date(3000), new Date(4000), new LongOpenHashSet());
+		BranchVersionECLCache version4 = cache.getOrCreateBranchVersionCache("MAIN", new Date(4000));
+		assertNull(version4.get("<< 100", false, null));
+		assertEquals(0, cache.getStats().get("weight"));
+	}
+
+	private static CompactConceptIdPage page(Long... ids) {
+		return CompactConceptIdPage.of(new PageImpl<>(List.of(ids)));
+	}
+
+}